@@ -0,0 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+#include "common.h"
+#include "words.h"
+
+extern "C"
+int main(int argc, char *argv[]) {
+    std::vector<std::string> words;
+    words.push_back("nar");
+    words.push_back("pch");
+    words.push_back("nar");
+
+    if (countWords(words, "nar") != 2) return 1;
+    if (countWords(words, "pch") != 1) return 2;
+    if (countWords(words, "gch") != 0) return 3;
+
+    return 0;
+}
@@ -0,0 +1,8 @@
+#include <stdio.h>
+#include "HelloWorldLib.h"
+
+#ifdef MODULE_A
+char* HelloWorldLib_sayHelloA() {
+	return "Hello NAR LIB World from module a!";
+}
+#endif
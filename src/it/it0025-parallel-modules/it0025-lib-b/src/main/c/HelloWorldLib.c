@@ -0,0 +1,8 @@
+#include <stdio.h>
+#include "HelloWorldLib.h"
+
+#ifdef MODULE_B
+char* HelloWorldLib_sayHelloB() {
+	return "Hello NAR LIB World from module b!";
+}
+#endif
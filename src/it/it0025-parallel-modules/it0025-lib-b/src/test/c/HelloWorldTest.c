@@ -0,0 +1,7 @@
+#include <stdio.h>
+#include "HelloWorldLib.h"
+
+int main(int argc, char *argv[]) {
+	printf("%s\n", HelloWorldLib_sayHelloB());
+	return 0;
+}
@@ -0,0 +1,8 @@
+#include <stdio.h>
+#include "HelloWorldLib.h"
+
+#ifdef MODULE_C
+char* HelloWorldLib_sayHelloC() {
+	return "Hello NAR LIB World from module c!";
+}
+#endif
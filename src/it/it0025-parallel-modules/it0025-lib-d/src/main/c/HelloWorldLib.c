@@ -0,0 +1,8 @@
+#include <stdio.h>
+#include "HelloWorldLib.h"
+
+#ifdef MODULE_D
+char* HelloWorldLib_sayHelloD() {
+	return "Hello NAR LIB World from module d!";
+}
+#endif
@@ -20,17 +20,19 @@ package org.apache.maven.plugin.nar;
  */
 
 /**
+ * Architecture, OS and linker. Immutable.
+ *
  * @author Mark Donszelmann
  * @version $Id$
  */
-public class AOL
+public final class AOL
 {
 
-    private String architecture;
+    private final String architecture;
 
-    private String os;
+    private final String os;
 
-    private String linkerName;
+    private final String linkerName;
 
     // FIXME, need more complicated parsing for numbers as part of os.
     public AOL( String aol )
@@ -40,19 +42,13 @@ public class AOL
         final int architectureIndex = 0; 
         
         String[] aolString = aol.split( "-", linkerIndex+1 );
-        switch ( aolString.length )
+        if ( ( aolString.length < architectureIndex + 1 ) || ( aolString.length > linkerIndex + 1 ) )
         {
-            case linkerIndex+1:
-                linkerName = aolString[linkerIndex];
-            case osIndex+1:
-                os = aolString[osIndex];
-            case architectureIndex+1:
-                architecture = aolString[architectureIndex];
-            break;
-
-        default:
-                throw new IllegalArgumentException( "AOL '" + aol + "' cannot be parsed." );
+            throw new IllegalArgumentException( "AOL '" + aol + "' cannot be parsed." );
         }
+        architecture = aolString[architectureIndex];
+        os = aolString.length > osIndex ? aolString[osIndex] : null;
+        linkerName = aolString.length > linkerIndex ? aolString[linkerIndex] : null;
     }
 
     public AOL( String architecture, String os, String linkerName )
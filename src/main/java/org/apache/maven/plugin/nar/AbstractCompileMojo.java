@@ -27,11 +27,17 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
 
+import net.sf.antcontrib.cpptasks.CCTask;
 import net.sf.antcontrib.cpptasks.LinkerDef;
 import net.sf.antcontrib.cpptasks.types.LinkerArgument;
 
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.tools.ant.Project;
@@ -67,12 +73,56 @@ public abstract class AbstractCompileMojo
     private Fortran fortran;
 
     /**
-     * Maximum number of Cores/CPU's to use. 0 means unlimited.
+     * Maximum number of Cores/CPU's to use, shared by the libraries or tests which are created concurrently. 0 means
+     * unlimited.
      *
      * @parameter expression=""
      */
     private int maxCores = 0;
 
+    /**
+     * Maximum number of native jobs, such as compiler processes, make runs and tests, running at the same time. The
+     * jobs are counted over all modules of the build, also when these are built in parallel. 0 means one per available
+     * processor.
+     *
+     * @parameter expression="${nar.jobs}" default-value="0"
+     */
+    private int narJobs;
+
+    /**
+     * Memory in MB one native job needs. If set, the number of jobs is also limited to the free physical memory at the
+     * start of the build divided by this. 0 means memory does not limit the number of jobs.
+     *
+     * @parameter expression="${nar.jobMemory}" default-value="0"
+     */
+    private int narJobMemory;
+
+    /**
+     * Skip nar-compile, nar-testCompile and nar-resources when their inputs, configuration, dependencies and AOL did
+     * not change since they last ran successfully and their outputs were not touched since. The fingerprint of the last
+     * run is kept in the target directory.
+     *
+     * @parameter expression="${nar.fingerprint}" default-value="true"
+     */
+    private boolean narFingerprint;
+
+    /**
+     * Keep the outputs of nar-compile, nar-testCompile and nar-resources, such as libraries, executables, include
+     * files and the nar.properties, in a cache shared by all builds using the same local repository, addressed by the
+     * build fingerprint. Builds with the same fingerprint, for instance of the same commit in another workspace,
+     * restore them instead of compiling.
+     *
+     * @parameter expression="${nar.outputCache}" default-value="false"
+     */
+    private boolean narOutputCache;
+
+    /**
+     * Maximum size in MB of the output cache, least recently used outputs are removed beyond it.
+     *
+     * @parameter expression="${nar.outputCacheMaxSize}" default-value="10240"
+     */
+    private int narOutputCacheMaxSize;
+
     /**
      * Name of the output
      *
@@ -214,6 +264,222 @@ public abstract class AbstractCompileMojo
         return getNarInfo().getProperty( aol, "maxCores", maxCores );
     }
 
+    /**
+     * Whether this goal ran jobs of the job server.
+     */
+    private volatile boolean ranJobs;
+
+    /**
+     * @return the job server limiting the native jobs of this build
+     */
+    protected final NarJobServer getJobServer()
+    {
+        return NarJobServer.getInstance( getSession(), narJobs, narJobMemory, getLog() );
+    }
+
+    /**
+     * Reports the usage of the job server by the whole build so far, once a goal which ran jobs is done. Modules built
+     * in parallel finish in any order, so the last report of the build holds its totals.
+     */
+    protected final void reportJobServer()
+    {
+        if ( ranJobs )
+        {
+            getLog().info( getJobServer().toString() );
+        }
+        else
+        {
+            getLog().debug( getJobServer().toString() );
+        }
+    }
+
+    /**
+     * @return whether the goal has a build fingerprint, to skip it or to restore its outputs from the output cache
+     */
+    protected final boolean useFingerprint()
+    {
+        return narFingerprint || narOutputCache;
+    }
+
+    /**
+     * Creates the fingerprint of a goal with what all goals depend on: the project, the AOL and the configuration of
+     * the plugin. The goal adds its own parameters, inputs and outputs.
+     *
+     * @param file the fingerprint file
+     */
+    protected final NarBuildFingerprint createFingerprint( File file )
+        throws MojoExecutionException, MojoFailureException
+    {
+        NarBuildFingerprint fingerprint = new NarBuildFingerprint( file, getMavenProject().getBasedir() );
+        fingerprint.addRoot( "localRepository", new File( getLocalRepository().getBasedir() ) );
+
+        fingerprint.addParameter( "project", getMavenProject().getId() );
+        fingerprint.addParameter( "aol", getAOL().toString() );
+        Map aolProperties = NarProperties.getInstance( getMavenProject() ).getProperties( getAOL().getKey() + "." );
+        fingerprint.addParameter( "aol.properties", aolProperties.toString() );
+        fingerprint.addParameter( "project.properties", new TreeMap( getMavenProject().getProperties() ).toString() );
+        Map narProperties = new TreeMap();
+        Properties executionProperties = getSession().getExecutionProperties();
+        for ( Iterator i = executionProperties.keySet().iterator(); i.hasNext(); )
+        {
+            String key = (String) i.next();
+            if ( key.startsWith( "nar." ) )
+            {
+                narProperties.put( key, executionProperties.getProperty( key ) );
+            }
+        }
+        fingerprint.addParameter( "execution.properties", narProperties.toString() );
+        for ( Iterator i = getMavenProject().getBuildPlugins().iterator(); i.hasNext(); )
+        {
+            Plugin plugin = (Plugin) i.next();
+            if ( plugin.getArtifactId().equals( "maven-nar-plugin" ) )
+            {
+                fingerprint.addParameter( "plugin.version", plugin.getVersion() );
+                fingerprint.addParameter( "plugin.configuration", String.valueOf( plugin.getConfiguration() ) );
+                for ( Iterator j = plugin.getExecutions().iterator(); j.hasNext(); )
+                {
+                    PluginExecution execution = (PluginExecution) j.next();
+                    fingerprint.addParameter( "plugin.execution." + execution.getId(),
+                                              String.valueOf( execution.getConfiguration() ) );
+                }
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Adds the NAR dependencies of the given scope and the content of the NARs unpacked into the given directories.
+     */
+    protected final void addDependencies( NarBuildFingerprint fingerprint, String scope, File[] unpackDirectories )
+        throws MojoExecutionException, MojoFailureException
+    {
+        for ( Iterator i = getNarManager().getNarDependencies( scope ).iterator(); i.hasNext(); )
+        {
+            NarArtifact dependency = (NarArtifact) i.next();
+            fingerprint.addParameter( "dependency." + dependency.getGroupId() + ":" + dependency.getArtifactId(),
+                                      dependency.getBaseVersion() );
+            if ( dependency.getFile() != null )
+            {
+                fingerprint.addInput( dependency.getFile() );
+            }
+        }
+        for ( int d = 0; d < unpackDirectories.length; d++ )
+        {
+            File[] markers = unpackDirectories[d].listFiles();
+            for ( int i = 0; ( markers != null ) && ( i < markers.length ); i++ )
+            {
+                // the content of the unpacked NAR, not when it was downloaded or unpacked
+                if ( markers[i].getName().endsWith( ".unpacked" ) )
+                {
+                    fingerprint.addParameter( "unpacked." + d + "." + markers[i].getName(),
+                                              NarUnpackMarker.getChecksum( markers[i] ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the fingerprint of the goal, then looks for its outputs in the output cache. Otherwise the fingerprint is
+     * deleted, as the goal is about to change its outputs.
+     *
+     * @param goal the goal, output cache entries are named after it
+     * @return true if the goal does not need to run, as nothing changed or its outputs were restored
+     */
+    protected final boolean isUpToDate( NarBuildFingerprint fingerprint, String goal )
+        throws MojoExecutionException
+    {
+        if ( narFingerprint )
+        {
+            String reason = fingerprint.check();
+            if ( reason == null )
+            {
+                getLog().info( "NAR: Skipping " + goal + ", inputs and configuration unchanged since the last build" );
+                return true;
+            }
+            getLog().info( "NAR: Running " + goal + ", " + reason );
+            fingerprint.delete();
+        }
+        if ( narOutputCache )
+        {
+            NarOutputCache outputCache = getOutputCache();
+            String key = goal + "-" + fingerprint.getHash();
+            if ( outputCache.restore( key, getMavenProject().getBasedir() ) )
+            {
+                File entry = new File( outputCache.getDirectory(), key );
+                getLog().info( "NAR: Restored outputs of " + goal + " from " + entry );
+                if ( narFingerprint )
+                {
+                    fingerprint.write();
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stores the outputs of the fingerprint in the output cache and writes the fingerprint, once the goal ran
+     * successfully.
+     */
+    protected final void recordOutputs( NarBuildFingerprint fingerprint, String goal )
+        throws MojoExecutionException
+    {
+        if ( narOutputCache )
+        {
+            getOutputCache().store( goal + "-" + fingerprint.getHash(), getMavenProject().getBasedir(),
+                                    fingerprint.getOutputs() );
+        }
+        if ( narFingerprint )
+        {
+            fingerprint.write();
+        }
+    }
+
+    private NarOutputCache getOutputCache()
+    {
+        File directory = new File( getLocalRepository().getBasedir(), ".nar/outputs" );
+        return new NarOutputCache( directory, narOutputCacheMaxSize * 1024L * 1024L, getLog() );
+    }
+
+    /**
+     * Runs the cpptasks task on at most the given number of cores, as far as the job server has these free.
+     */
+    protected final void executeTask( CCTask task, int cores )
+        throws MojoExecutionException
+    {
+        NarJobServer.Job job = getJobServer().acquire( cores );
+        ranJobs = true;
+        try
+        {
+            task.setMaxCores( job.getTokens() );
+            task.execute();
+        }
+        finally
+        {
+            job.release();
+        }
+    }
+
+    /**
+     * Runs the command as a job of the job server.
+     *
+     * @see NarUtil#runCommand(String, String[], File, String[], org.apache.maven.plugin.logging.Log)
+     */
+    protected final int runCommand( String cmd, String[] args, File workingDirectory, String[] env )
+        throws MojoExecutionException, MojoFailureException
+    {
+        NarJobServer.Job job = getJobServer().acquire( 1 );
+        ranJobs = true;
+        try
+        {
+            return NarUtil.runCommand( cmd, args, workingDirectory, env, getLog() );
+        }
+        finally
+        {
+            job.release();
+        }
+    }
+
     protected final boolean useLibtool( AOL aol )
         throws MojoExecutionException, MojoFailureException
     {
@@ -422,6 +688,14 @@ public abstract class AbstractCompileMojo
         }
     }
 
+    /**
+     * @return the nar.properties written by {@link #saveNarInfoToFile(NarInfo)}
+     */
+    protected final File getTargetPropertiesFile()
+    {
+        return getPropertiesFile( getTargetPropertiesDir() );
+    }
+
     private File getTargetPropertiesDir()
     {
         File propertiesDir =
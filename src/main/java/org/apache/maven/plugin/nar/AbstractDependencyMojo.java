@@ -19,7 +19,10 @@ package org.apache.maven.plugin.nar;
  * under the License.
  */
 
+import java.io.File;
+
 import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 
@@ -37,15 +40,53 @@ public abstract class AbstractDependencyMojo
      */
     private ArtifactRepository localRepository;
 
+    /**
+     * The current build session instance.
+     *
+     * @parameter expression="${session}"
+     * @readonly
+     */
+    private MavenSession session;
+
+    /**
+     * Keep an index of which artifacts in the local repository are NARs, and their nar.properties, so later builds
+     * do not need to open every dependency again. The index is stored in .nar/info.index in the local repository.
+     *
+     * @parameter expression="${nar.infoIndex}" default-value="true"
+     */
+    private boolean narInfoIndex;
+
+    private NarManager narManager;
+
     protected final ArtifactRepository getLocalRepository()
     {
         return localRepository;
     }
 
+    protected final MavenSession getSession()
+    {
+        return session;
+    }
+
     protected final NarManager getNarManager()
         throws MojoFailureException, MojoExecutionException
     {
-        return new NarManager( getLog(), getLocalRepository(), getMavenProject(), getArchitecture(), getOS(),
-                               getLinker() );
+        if ( narManager == null )
+        {
+            narManager =
+                NarManager.getInstance( getSession(), getLog(), getLocalRepository(), getMavenProject(),
+                                        getArchitecture(), getOS(), getLinker(), getNarInfoCache() );
+        }
+        return narManager;
+    }
+
+    private NarInfoCache getNarInfoCache()
+    {
+        File indexFile = null;
+        if ( narInfoIndex )
+        {
+            indexFile = new File( getLocalRepository().getBasedir(), ".nar/info.index" );
+        }
+        return NarInfoCache.getInstance( getSession(), indexFile );
     }
 }
@@ -54,4 +54,11 @@ public abstract class AbstractDownloadMojo
      * @parameter expression=""
      */
     protected List classifiers;
+
+    /**
+     * Number of threads used to resolve the attached NAR files. Use 0 for one thread per available processor.
+     * 
+     * @parameter expression="${nar.downloadThreads}" default-value="1"
+     */
+    protected int narDownloadThreads;
 }
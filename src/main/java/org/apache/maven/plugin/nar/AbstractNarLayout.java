@@ -23,6 +23,11 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -44,6 +49,18 @@ public abstract class AbstractNarLayout
 {
     private Log log;
 
+    private NarUnpackStore unpackStore;
+
+    private List/* <Compression> */compressions = Collections.EMPTY_LIST;
+
+    private int packageThreads = 1;
+
+    private boolean incrementalPackage;
+
+    private String pluginVersion;
+
+    private long reproducibleTime = -1;
+
     protected AbstractNarLayout( AbstractNarMojo abstractNarMojo )
     {
         this.log = abstractNarMojo.getLog();
@@ -54,13 +71,97 @@ public abstract class AbstractNarLayout
         return log;
     }
 
+    /**
+     * Sets the shared store to unpack nar files into, null to unpack every nar file into its own directory.
+     */
+    public final void setUnpackStore( NarUnpackStore unpackStore )
+    {
+        this.unpackStore = unpackStore;
+    }
+
+    protected final NarUnpackStore getUnpackStore()
+    {
+        return unpackStore;
+    }
+
+    /**
+     * Sets the compression of the entries of attached nar files, see {@link Compression}.
+     */
+    public final void setCompressions( List/* <Compression> */compressions )
+    {
+        this.compressions = compressions != null ? compressions : Collections.EMPTY_LIST;
+    }
+
+    /**
+     * Sets the number of nar files attachNars may create at the same time, less than 1 means one per available
+     * processor.
+     */
+    public final void setPackageThreads( int packageThreads )
+    {
+        this.packageThreads = packageThreads;
+    }
+
+    protected final int getPackageThreads()
+    {
+        return packageThreads;
+    }
+
+    /**
+     * Makes created nar files reproducible, see {@link NarArchiver#setReproducible(long)}.
+     * 
+     * @param time modification time of all entries, negative to keep the times of the files
+     */
+    public final void setReproducibleTime( long time )
+    {
+        this.reproducibleTime = time;
+    }
+
+    /**
+     * When set, a nar file is only created again when its inputs or parameters changed since it was created, see
+     * {@link NarPackageManifest}.
+     */
+    public final void setIncrementalPackage( boolean incrementalPackage )
+    {
+        this.incrementalPackage = incrementalPackage;
+    }
+
+    /**
+     * Sets the version of the plugin creating the nar files, which is recorded in their {@link NarPackageManifest}.
+     */
+    public final void setPluginVersion( String pluginVersion )
+    {
+        this.pluginVersion = pluginVersion;
+    }
+
     protected final void attachNar( ArchiverManager archiverManager, MavenProjectHelper projectHelper,
                                     MavenProject project, String classifier, File dir, String include )
-        throws MojoExecutionException
+        throws MojoExecutionException, MojoFailureException
+    {
+        File narFile = createNar( archiverManager, project, classifier, dir, include, 0 );
+        projectHelper.attachArtifact( project, NarConstants.NAR_TYPE, classifier, narFile );
+    }
+
+    /**
+     * Creates the nar file for a classifier without attaching it. May be called concurrently for different classifiers.
+     * 
+     * @param archiveThreads number of threads compressing entries, less than 1 means one per available processor
+     */
+    protected final File createNar( ArchiverManager archiverManager, MavenProject project, String classifier,
+                                    File dir, String include, int archiveThreads )
+        throws MojoExecutionException, MojoFailureException
     {
         File narFile =
             new File( project.getBuild().getDirectory(), project.getBuild().getFinalName() + "-" + classifier + "."
                 + NarConstants.NAR_EXTENSION );
+        NarPackageManifest manifest =
+            new NarPackageManifest( new File( narFile.getPath() + ".manifest" ), dir, new String[] { include },
+                                    getPackageParameters( include ) );
+        if ( incrementalPackage && manifest.isCurrent( narFile ) )
+        {
+            getLog().info( "NAR: " + narFile.getName() + " is up to date" );
+            return narFile;
+        }
+        manifest.delete();
         if ( narFile.exists() )
         {
             narFile.delete();
@@ -68,9 +169,24 @@ public abstract class AbstractNarLayout
         try
         {
             Archiver archiver = archiverManager.getArchiver( NarConstants.NAR_ROLE_HINT );
+            if ( archiver instanceof NarArchiver )
+            {
+                ( (NarArchiver) archiver ).setThreads( archiveThreads );
+                ( (NarArchiver) archiver ).setReproducible( reproducibleTime );
+                for ( Iterator i = compressions.iterator(); i.hasNext(); )
+                {
+                    Compression compression = (Compression) i.next();
+                    ( (NarArchiver) archiver ).addCompression( compression.getName(), compression.getIncludes(),
+                                                               compression.getLevel() );
+                }
+            }
             archiver.addDirectory( dir, new String[] { include }, null );
             archiver.setDestFile( narFile );
             archiver.createArchive();
+            if ( archiver instanceof NarArchiver )
+            {
+                logStatistics( narFile, ( (NarArchiver) archiver ).getStatistics() );
+            }
         }
         catch ( NoSuchArchiverException e )
         {
@@ -84,7 +200,46 @@ public abstract class AbstractNarLayout
         {
             throw new MojoExecutionException( "NAR: cannot create NAR archive '" + narFile + "'", e );
         }
-        projectHelper.attachArtifact( project, NarConstants.NAR_TYPE, classifier, narFile );
+        if ( incrementalPackage )
+        {
+            manifest.write( narFile );
+        }
+        return narFile;
+    }
+
+    /**
+     * @return parameters which influence the content of a nar file besides its inputs
+     */
+    private Properties getPackageParameters( String include )
+        throws MojoFailureException
+    {
+        Properties parameters = new Properties();
+        parameters.setProperty( "plugin.version", String.valueOf( pluginVersion ) );
+        parameters.setProperty( "archiver", NarConstants.NAR_ROLE_HINT );
+        parameters.setProperty( "layout", getClass().getName() );
+        parameters.setProperty( "include", include );
+        parameters.setProperty( "reproducible", String.valueOf( reproducibleTime ) );
+        for ( int i = 0; i < compressions.size(); i++ )
+        {
+            Compression compression = (Compression) compressions.get( i );
+            parameters.setProperty( "compression." + i, compression.getName() + ":"
+                + Arrays.asList( compression.getIncludes() ) + ":" + compression.getLevel() );
+        }
+        return parameters;
+    }
+
+    private void logStatistics( File narFile, List/* <NarArchiver.Statistics> */statistics )
+    {
+        for ( Iterator i = statistics.iterator(); i.hasNext(); )
+        {
+            NarArchiver.Statistics category = (NarArchiver.Statistics) i.next();
+            if ( category.getEntries() > 0 )
+            {
+                getLog().info( "NAR: " + narFile.getName() + " " + category.getName() + ": " + category.getEntries()
+                                   + " entries, " + category.getSize() + " to " + category.getCompressedSize()
+                                   + " bytes (" + category.getRatio() + "%) in " + category.getMillis() + " ms" );
+            }
+        }
     }
 
     protected void unpackNarAndProcess( ArchiverManager archiverManager, File file, File narLocation, String os,
@@ -97,6 +252,9 @@ public abstract class AbstractNarLayout
 
         narLocation.mkdirs();
 
+        boolean windows = NarUtil.getOS( os ).equals( OS.WINDOWS );
+        boolean unixMetadataApplied = false;
+
         // unpack
         try
         {
@@ -104,7 +262,15 @@ public abstract class AbstractNarLayout
             unArchiver = archiverManager.getUnArchiver( NarConstants.NAR_ROLE_HINT );
             unArchiver.setSourceFile( file );
             unArchiver.setDestDirectory( narLocation );
+            if ( !windows && ( unArchiver instanceof NarUnArchiver ) )
+            {
+                ( (NarUnArchiver) unArchiver ).setUnixMetadata( true );
+            }
             unArchiver.extract();
+            if ( unArchiver instanceof NarUnArchiver )
+            {
+                unixMetadataApplied = ( (NarUnArchiver) unArchiver ).isUnixMetadataComplete();
+            }
         }
         catch ( NoSuchArchiverException e )
         {
@@ -115,8 +281,8 @@ public abstract class AbstractNarLayout
             throw new MojoExecutionException( "Error unpacking file: " + file + " to: " + narLocation, e );
         }
 
-        // process
-        if ( !NarUtil.getOS( os ).equals( OS.WINDOWS ) )
+        // process, permissions and links are already set if the nar recorded them
+        if ( !windows && !unixMetadataApplied )
         {
             NarUtil.makeExecutable( new File( narLocation, "bin/" + defaultAOL ), log );
             // FIXME clumsy
@@ -130,14 +296,15 @@ public abstract class AbstractNarLayout
         }
         if ( linkerName.equals( gcc ) || linkerName.equals( gpp ) )
         {
-            NarUtil.runRanlib( new File( narLocation, "lib/" + defaultAOL ), log );
+            File[] libDirs = new File[] { new File( narLocation, "lib/" + defaultAOL ) };
             // FIXME clumsy
             if ( defaultAOL.hasLinker( gpp ) )
             {
-                NarUtil.runRanlib(
-                                   new File( narLocation, "lib/" + NarUtil.replace( gpp, gcc, defaultAOL.toString() ) ),
-                                   log );
+                libDirs = new File[] { libDirs[0],
+                    new File( narLocation, "lib/" + NarUtil.replace( gpp, gcc, defaultAOL.toString() ) ) };
             }
+            // one pass over both directories, so ranlib is batched over all libraries
+            NarUtil.runRanlib( libDirs, log );
         }
         if ( NarUtil.getOS( os ).equals( OS.MACOSX ) )
         {
@@ -22,7 +22,6 @@ package org.apache.maven.plugin.nar;
 import java.io.File;
 import java.util.Properties;
 
-import org.apache.maven.model.Model;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -164,14 +163,14 @@ public abstract class AbstractNarMojo
         os = NarUtil.getOS( os );
         aolId = NarUtil.getAOL(mavenProject, architecture, os, linker, aol );
         
-        Model model = mavenProject.getModel();
-        Properties properties = model.getProperties();
-        properties.setProperty("nar.arch", getArchitecture());
-        properties.setProperty("nar.os", getOS());
-        properties.setProperty("nar.linker", getLinker().getName());
-        properties.setProperty("nar.aol", aolId.toString());
-        properties.setProperty("nar.aol.key", aolId.getKey());
-        model.setProperties(properties);
+        // published for the configuration of later plugins, but only written when changed: with a parallel build other
+        // modules may be reading the properties of this project
+        Properties properties = mavenProject.getModel().getProperties();
+        setProperty( properties, "nar.arch", getArchitecture() );
+        setProperty( properties, "nar.os", getOS() );
+        setProperty( properties, "nar.linker", getLinker().getName() );
+        setProperty( properties, "nar.aol", aolId.toString() );
+        setProperty( properties, "nar.aol.key", aolId.getKey() );
 
         if ( targetDirectory == null )
         {
@@ -192,6 +191,14 @@ public abstract class AbstractNarMojo
         }
     }
 
+    private static void setProperty( Properties properties, String key, String value )
+    {
+        if ( ( value != null ) && !value.equals( properties.getProperty( key ) ) )
+        {
+            properties.setProperty( key, value );
+        }
+    }
+
     protected final String getArchitecture()
     {
         return architecture;
@@ -21,6 +21,7 @@ package org.apache.maven.plugin.nar;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -72,6 +73,19 @@ public abstract class AbstractResourcesMojo
      */
     private ArchiverManager archiverManager;
 
+    /**
+     * Files copied by this goal.
+     */
+    private List/* <File> */copiedFiles = new ArrayList();
+
+    /**
+     * @return the files copied by this goal so far
+     */
+    protected final List/* <File> */getCopiedFiles()
+    {
+        return copiedFiles;
+    }
+
     protected final int copyIncludes( File srcDir )
         throws IOException, MojoExecutionException, MojoFailureException
     {
@@ -85,7 +99,8 @@ public abstract class AbstractResourcesMojo
                 getLayout().getIncludeDirectory( getTargetDirectory(), getMavenProject().getArtifactId(),
                                                  getMavenProject().getVersion() );
             getLog().debug( "Copying includes from " + includeDir + " to " + includeDstDir );
-            copied += NarUtil.copyDirectoryStructure( includeDir, includeDstDir, null, NarUtil.DEFAULT_EXCLUDES );
+            copied += NarUtil.copyDirectoryStructure( includeDir, includeDstDir, null, NarUtil.DEFAULT_EXCLUDES,
+                                                      copiedFiles );
         }
 
         return copied;
@@ -104,7 +119,7 @@ public abstract class AbstractResourcesMojo
                 getLayout().getBinDirectory( getTargetDirectory(), getMavenProject().getArtifactId(),
                                              getMavenProject().getVersion(), aol );
             getLog().debug( "Copying binaries from " + binDir + " to " + binDstDir );
-            copied += NarUtil.copyDirectoryStructure( binDir, binDstDir, null, NarUtil.DEFAULT_EXCLUDES );
+            copied += NarUtil.copyDirectoryStructure( binDir, binDstDir, null, NarUtil.DEFAULT_EXCLUDES, copiedFiles );
         }
 
         return copied;
@@ -147,7 +162,8 @@ public abstract class AbstractResourcesMojo
                     if( type.equals( Library.SHARED ))
                         includes += ",**/*.lib";
                 }
-                copied += NarUtil.copyDirectoryStructure( libDir, libDstDir, includes, NarUtil.DEFAULT_EXCLUDES );
+                copied += NarUtil.copyDirectoryStructure( libDir, libDstDir, includes, NarUtil.DEFAULT_EXCLUDES,
+                                                          copiedFiles );
             }
         }
 
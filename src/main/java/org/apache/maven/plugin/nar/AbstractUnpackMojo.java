@@ -19,8 +19,11 @@ package org.apache.maven.plugin.nar;
  * under the License.
  */
 
+import java.io.File;
+import java.util.Date;
 import java.util.List;
 
+import org.apache.maven.plugin.MojoExecutionException;
 import org.codehaus.plexus.archiver.manager.ArchiverManager;
 
 /**
@@ -45,4 +48,43 @@ public abstract class AbstractUnpackMojo
      * @required
      */
     protected ArchiverManager archiverManager;
+
+    /**
+     * Number of threads used to unpack NAR files. Use 0 for one thread per available processor.
+     * 
+     * @parameter expression="${nar.unpackThreads}" default-value="0"
+     */
+    protected int narUnpackThreads;
+
+    /**
+     * Unpack NAR files once into a store shared by all builds using the same local repository, and link to them from
+     * the unpack directory of the project. Uses symbolic links, or hard links where these are not available.
+     * 
+     * @parameter expression="${nar.sharedUnpack}" default-value="false"
+     */
+    protected boolean narSharedUnpack;
+
+    /**
+     * Maximum size in MB of the shared unpack store, least recently used NARs are removed beyond it.
+     * 
+     * @parameter expression="${nar.sharedUnpackMaxSize}" default-value="10240"
+     */
+    protected int narSharedUnpackMaxSize;
+
+    /**
+     * @return the layout to unpack with, using the shared unpack store if configured.
+     */
+    protected final NarLayout getUnpackLayout()
+        throws MojoExecutionException
+    {
+        NarLayout layout = getLayout();
+        if ( narSharedUnpack && ( layout instanceof AbstractNarLayout ) )
+        {
+            File store = new File( getLocalRepository().getBasedir(), ".nar/unpack" );
+            Date buildStart = getSession() != null ? getSession().getStartTime() : null;
+            ( (AbstractNarLayout) layout ).setUnpackStore( new NarUnpackStore( store, narSharedUnpackMaxSize * 1024L
+                * 1024L, buildStart, getLog() ) );
+        }
+        return layout;
+    }
 }
@@ -23,8 +23,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -40,6 +42,8 @@ import net.sf.antcontrib.cpptasks.types.DefineSet;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.StringUtils;
 
 /**
@@ -217,8 +221,46 @@ public abstract class Compiler
      */
     private String compileOrder;
 
+    /**
+     * Header to precompile, for instance "stdafx.h", looked up in the include paths and then the source directories.
+     * It is compiled before the main sources and included ahead of each of them. The options to create and to use it
+     * default to those of gcc and msvc, and are set per AOL with the "precompiledHeader.create" and
+     * "precompiledHeader.use" properties of the compiler, in which "{header}" stands for the header and "{pch}" for the
+     * precompiled header.
+     *
+     * @parameter expression=""
+     */
+    private String precompiledHeader;
+
+    /**
+     * Compiles the main C and C++ sources in unity batches: generated sources in the object directory, called
+     * unity_&lt;n&gt;, each include a batch of sources and are compiled instead of them. This saves starting the compiler
+     * and parsing common headers for every source, but the sources of a batch must not clash, for instance on static
+     * symbols or macros. Set per library with the unity setting of the library and per AOL with the "unity" property of
+     * the compiler.
+     *
+     * @parameter expression="" default-value="false"
+     */
+    private boolean unity;
+
+    /**
+     * Maximum number of sources in a unity batch.
+     *
+     * @parameter expression="" default-value="50"
+     */
+    private int unityBatchSize = 50;
+
+    /**
+     * Patterns of sources which are compiled on their own in unity builds, because they clash with other sources.
+     *
+     * @parameter expression=""
+     */
+    private Set unityExcludes = new HashSet();
+
     private AbstractCompileMojo mojo;
 
+    private String version;
+
     public static final String MAIN = "main";
     public static final String TEST = "test";
 
@@ -395,7 +437,10 @@ public abstract class Compiler
     protected final List getSystemIncludePaths()
     {
         List result = new ArrayList();
-        result.addAll(systemIncludePaths);
+        if ( systemIncludePaths != null )
+        {
+            result.addAll( systemIncludePaths );
+        }
         return result;
     }
 
@@ -407,6 +452,147 @@ public abstract class Compiler
 
     public final CompilerDef getCompiler( String type, String output )
         throws MojoFailureException, MojoExecutionException
+    {
+        return getCompiler( type, output, Collections.EMPTY_LIST );
+    }
+
+    /**
+     * @param excludedSources source files not to compile, for instance because their objects come from the object
+     *            cache
+     */
+    public final CompilerDef getCompiler( String type, String output, List/* <File> */excludedSources )
+        throws MojoFailureException, MojoExecutionException
+    {
+        return getCompiler( type, output, excludedSources, null, null, new ArrayList() );
+    }
+
+    /**
+     * @param objectDirectory object directory of the group of libraries the sources are compiled for, which holds the
+     *            precompiled header they use, or null for the directory of sources compiled for no group
+     * @param unityDirectory directory to generate unity sources in, or null to compile the sources on their own
+     * @param unitySources receives the sources which are compiled through unity sources
+     */
+    public final CompilerDef getCompiler( String type, String output, List/* <File> */excludedSources,
+                                          File objectDirectory, File unityDirectory, List/* <File> */unitySources )
+        throws MojoFailureException, MojoExecutionException
+    {
+        CompilerDef compiler = createCompiler( type );
+        if ( compiler == null )
+        {
+            return null;
+        }
+
+        // use the precompiled header
+        if ( getPrecompiledHeader( type ) != null )
+        {
+            addArguments( compiler, getPrecompiledHeaderArguments( type, "use", objectDirectory ) );
+        }
+
+        // compile batches of sources through unity sources, and the others on their own
+        if ( ( unityDirectory != null ) && !getLanguage().equals( "fortran" ) )
+        {
+            List batched = new ArrayList( getSourceFiles( type, output ) );
+            batched.removeAll( excludedSources );
+            batched.removeAll( getUnityExcludedFiles( type ) );
+            if ( !batched.isEmpty() )
+            {
+                String extension = getLanguage().equals( "c" ) ? ".c" : ".cpp";
+                String name = getLanguage().equals( "c" ) ? "unity_c" : "unity";
+                List sources =
+                    new NarUnityBuild( unityDirectory, name, extension, unityBatchSize ).createSources( batched );
+                StringBuffer includes = new StringBuffer();
+                for ( Iterator i = sources.iterator(); i.hasNext(); )
+                {
+                    includes.append( includes.length() > 0 ? "," : "" ).append( ( (File) i.next() ).getName() );
+                }
+                ConditionalFileSet fileSet = new ConditionalFileSet();
+                fileSet.setProject( mojo.getAntProject() );
+                fileSet.setIncludes( includes.toString() );
+                fileSet.setDir( unityDirectory );
+                compiler.addFileset( fileSet );
+
+                unitySources.addAll( batched );
+                excludedSources = new ArrayList( excludedSources );
+                excludedSources.addAll( batched );
+            }
+        }
+
+        // Add default fileset (if exists)
+        List srcDirs = getSourceDirectories( type );
+        Set includeSet = getIncludes();
+        Set excludeSet = getExcludes( output );
+
+        for ( Iterator i = srcDirs.iterator(); i.hasNext(); )
+        {
+            File srcDir = (File) i.next();
+            mojo.getLog().debug( "Checking for existence of " + getLanguage() + " source directory: " + srcDir );
+            if ( srcDir.exists() )
+            {
+                if ( compileOrder != null )
+                {
+                    compiler.setOrder( Arrays.asList( StringUtils.split( compileOrder, ", " ) ) );
+                }
+
+                Set srcExcludeSet = new HashSet( excludeSet );
+                for ( Iterator j = excludedSources.iterator(); j.hasNext(); )
+                {
+                    String path = getRelativePath( srcDir, (File) j.next() );
+                    if ( path != null )
+                    {
+                        srcExcludeSet.add( path );
+                    }
+                }
+
+                ConditionalFileSet fileSet = new ConditionalFileSet();
+                fileSet.setProject( mojo.getAntProject() );
+                fileSet.setIncludes( StringUtils.join( includeSet.iterator(), "," ) );
+                fileSet.setExcludes( StringUtils.join( srcExcludeSet.iterator(), "," ) );
+                fileSet.setDir( srcDir );
+                compiler.addFileset( fileSet );
+            }
+        }
+
+        return compiler;
+    }
+
+    /**
+     * @param objectDirectory object directory of the group of libraries the precompiled header is created for, see
+     *            {@link #getCompiler(String, String, List, File, File, List)}
+     * @return the compiler which creates the precompiled header in
+     *         {@link #getPrecompiledHeaderObjectDirectory(String, File)} from a generated source including the header,
+     *         or null if there is no precompiled header
+     */
+    public final CompilerDef getPrecompiledHeaderCompiler( String type, File objectDirectory )
+        throws MojoFailureException, MojoExecutionException
+    {
+        File header = getPrecompiledHeader( type );
+        CompilerDef compiler = header != null ? createCompiler( type ) : null;
+        if ( compiler == null )
+        {
+            return null;
+        }
+        addArguments( compiler, getPrecompiledHeaderArguments( type, "create", objectDirectory ) );
+
+        // sources are only written when changed, so that cpptasks keeps the precompiled header
+        File wrapper = getPrecompiledHeaderWrapper( objectDirectory );
+        String extension = getLanguage().equals( "c" ) ? ".c" : ".cpp";
+        File source = new File( wrapper.getParentFile(), "precompiled" + extension );
+        writeIfChanged( wrapper, "#include \"" + header.getAbsolutePath().replace( '\\', '/' ) + "\"\n" );
+        writeIfChanged( source, "#include \"" + wrapper.getAbsolutePath().replace( '\\', '/' ) + "\"\n" );
+
+        ConditionalFileSet fileSet = new ConditionalFileSet();
+        fileSet.setProject( mojo.getAntProject() );
+        fileSet.setIncludes( source.getName() );
+        fileSet.setDir( source.getParentFile() );
+        compiler.addFileset( fileSet );
+        return compiler;
+    }
+
+    /**
+     * @return the compiler with all its settings but the sources, or null if there is no compiler for this language
+     */
+    private CompilerDef createCompiler( String type )
+        throws MojoFailureException, MojoExecutionException
     {
         String name = getName();
         if (name == null) return null;
@@ -421,7 +607,7 @@ public abstract class Compiler
         compiler.setDebug( mojo.getDebug() );
         compiler.setExceptions( exceptions );
         compiler.setRtti( rtti );
-        compiler.setMultithreaded( mojo.getOS().equals( "Windows" ) ? true : multiThreaded );
+        compiler.setMultithreaded( isMultiThreaded() );
 
         // optimize
         OptimizationEnum optimization = new OptimizationEnum();
@@ -429,45 +615,7 @@ public abstract class Compiler
         compiler.setOptimize( optimization );
 
         // add options
-        if ( options != null )
-        {
-            for ( Iterator i = options.iterator(); i.hasNext(); )
-            {
-                CompilerArgument arg = new CompilerArgument();
-                arg.setValue( (String) i.next() );
-                compiler.addConfiguredCompilerArg( arg );
-            }
-        }
-
-        if ( optionSet != null )
-        {
-
-            String[] opts = optionSet.split( "\\s" );
-
-            for ( int i = 0; i < opts.length; i++ )
-            {
-
-                CompilerArgument arg = new CompilerArgument();
-
-                arg.setValue( opts[i] );
-                compiler.addConfiguredCompilerArg( arg );
-            }
-        }
-
-        if ( !clearDefaultOptions )
-        {
-            String optionsProperty = NarProperties.getInstance(mojo.getMavenProject()).getProperty( getPrefix() + "options" );
-            if ( optionsProperty != null )
-            {
-                String[] option = optionsProperty.split( " " );
-                for ( int i = 0; i < option.length; i++ )
-                {
-                    CompilerArgument arg = new CompilerArgument();
-                    arg.setValue( option[i] );
-                    compiler.addConfiguredCompilerArg( arg );
-                }
-            }
-        }
+        addArguments( compiler, getOptionList() );
 
         // add defines
         if ( defines != null )
@@ -584,42 +732,461 @@ public abstract class Compiler
             }
         }
 
-        // Add default fileset (if exists)
-        List srcDirs = getSourceDirectories( type );
-        Set includeSet = getIncludes();
-        Set excludeSet = getExcludes();
+        return compiler;
+    }
 
-        // now add all but the current test to the excludes
-        for ( Iterator i = mojo.getTests().iterator(); i.hasNext(); )
+    private static void addArguments( CompilerDef compiler, List/* <String> */arguments )
+    {
+        for ( Iterator i = arguments.iterator(); i.hasNext(); )
         {
-            Test test = (Test) i.next();
-            if ( !test.getName().equals( output ) )
+            CompilerArgument arg = new CompilerArgument();
+            arg.setValue( (String) i.next() );
+            compiler.addConfiguredCompilerArg( arg );
+        }
+    }
+
+    /**
+     * @param library the library to compile, of which the unity setting overrides the one of the AOL and of the
+     *            compiler
+     * @return whether to compile the main sources in unity batches
+     */
+    public final boolean isUnity( Library library )
+        throws MojoFailureException, MojoExecutionException
+    {
+        if ( ( library != null ) && ( library.getUnity() != null ) )
+        {
+            return library.getUnity().booleanValue();
+        }
+        String property = NarProperties.getInstance(mojo.getMavenProject()).getProperty( getPrefix() + "unity" );
+        return property != null ? Boolean.valueOf( property.trim() ).booleanValue() : unity;
+    }
+
+    /**
+     * @return the sources matching the unity excludes
+     */
+    private List/* <File> */getUnityExcludedFiles( String type )
+    {
+        List files = new ArrayList();
+        if ( unityExcludes.isEmpty() )
+        {
+            return files;
+        }
+        for ( Iterator i = getSourceDirectories( type ).iterator(); i.hasNext(); )
+        {
+            File srcDir = (File) i.next();
+            DirectoryScanner scanner = new DirectoryScanner();
+            scanner.setBasedir( srcDir );
+            scanner.setIncludes( (String[]) unityExcludes.toArray( new String[0] ) );
+            scanner.scan();
+            String[] names = scanner.getIncludedFiles();
+            for ( int j = 0; j < names.length; j++ )
             {
-                excludeSet.add( "**/" + test.getName() + ".*" );
+                files.add( new File( srcDir, names[j] ) );
             }
         }
+        return files;
+    }
 
-        for ( Iterator i = srcDirs.iterator(); i.hasNext(); )
+    /**
+     * @return the header to precompile for the main sources, or null if there is none
+     */
+    public final File getPrecompiledHeader( String type )
+        throws MojoFailureException, MojoExecutionException
+    {
+        if ( ( precompiledHeader == null ) || type.equals( TEST ) || ( getName() == null ) )
+        {
+            return null;
+        }
+        if ( getLanguage().equals( "fortran" ) )
+        {
+            throw new MojoFailureException( "NAR: Precompiled headers are not supported for fortran" );
+        }
+
+        File header = new File( precompiledHeader );
+        if ( header.isAbsolute() && header.isFile() )
+        {
+            return header;
+        }
+        List directories = new ArrayList();
+        for ( Iterator i = getIncludePaths( type ).iterator(); i.hasNext(); )
+        {
+            directories.add( new File( (String) i.next() ) );
+        }
+        directories.addAll( getSourceDirectories( type ) );
+        for ( Iterator i = directories.iterator(); i.hasNext(); )
+        {
+            header = new File( (File) i.next(), precompiledHeader );
+            if ( header.isFile() )
+            {
+                return header;
+            }
+        }
+        throw new MojoFailureException( "NAR: Precompiled header not found: " + precompiledHeader );
+    }
+
+    /**
+     * @return the generated header, including the header to precompile, which the sources include and of which the
+     *         precompiled header is created. Every group of libraries has its own, as gcc only uses a precompiled
+     *         header created with the same options, such as -fPIC, as the source.
+     */
+    private File getPrecompiledHeaderWrapper( File objectDirectory )
+        throws MojoFailureException, MojoExecutionException
+    {
+        File directory =
+            objectDirectory != null ? new File( objectDirectory, "pch/" + getLanguage() )
+                            : new File( mojo.getTargetDirectory(), "pch/" + mojo.getAOL() + "/" + getLanguage() );
+        return new File( directory, new File( precompiledHeader ).getName() );
+    }
+
+    /**
+     * @return the object directory of the compiler created by {@link #getPrecompiledHeaderCompiler(String, File)}. For
+     *         gcc this is the "&lt;header&gt;.gch" directory, in which gcc looks for a precompiled header which fits.
+     */
+    public final File getPrecompiledHeaderObjectDirectory( String type, File objectDirectory )
+        throws MojoFailureException, MojoExecutionException
+    {
+        File wrapper = getPrecompiledHeaderWrapper( objectDirectory );
+        return isMsvc() ? new File( wrapper.getParentFile(), "obj" ) : new File( wrapper.getPath() + ".gch" );
+    }
+
+    /**
+     * @return the precompiled header
+     */
+    public final File getPrecompiledHeaderFile( String type, File objectDirectory )
+        throws MojoFailureException, MojoExecutionException
+    {
+        File wrapper = getPrecompiledHeaderWrapper( objectDirectory );
+        File directory = getPrecompiledHeaderObjectDirectory( type, objectDirectory );
+        return isMsvc() ? new File( wrapper.getParentFile(), "precompiled.pch" )
+                        : new File( directory, "precompiled" + getObjectExtension() );
+    }
+
+    /**
+     * @return the object created along with the precompiled header which has to be linked, or null if there is none
+     */
+    public final File getPrecompiledHeaderObject( String type, File objectDirectory )
+        throws MojoFailureException, MojoExecutionException
+    {
+        if ( ( getPrecompiledHeader( type ) == null ) || !isMsvc() )
+        {
+            return null;
+        }
+        return new File( getPrecompiledHeaderObjectDirectory( type, objectDirectory ),
+                         "precompiled" + getObjectExtension() );
+    }
+
+    /**
+     * @param use "create" or "use"
+     * @return the options to create or to use the precompiled header, from the AOL properties or the defaults for gcc
+     *         and msvc
+     */
+    private List/* <String> */getPrecompiledHeaderArguments( String type, String use, File objectDirectory )
+        throws MojoFailureException, MojoExecutionException
+    {
+        String key = getPrefix() + "precompiledHeader." + use;
+        String options = NarProperties.getInstance(mojo.getMavenProject()).getProperty( key );
+        if ( options == null )
+        {
+            String name = getName();
+            if ( isMsvc() )
+            {
+                options = use.equals( "create" ) ? "/Yc{header} /Fp{pch}" : "/Yu{header} /FI{header} /Fp{pch}";
+            }
+            else if ( name.equals( "gcc" ) || name.equals( "g++" ) || name.equals( "c++" ) || name.equals( "clang" )
+                || name.equals( "clang++" ) )
+            {
+                String language = getLanguage().equals( "c" ) ? "c-header" : "c++-header";
+                options = use.equals( "create" ) ? "-x " + language : "-include {header}";
+            }
+            else
+            {
+                throw new MojoFailureException( "NAR: No precompiled header options known for " + name + ", set "
+                    + key );
+            }
+        }
+
+        String header = getPrecompiledHeaderWrapper( objectDirectory ).getPath();
+        String pch = getPrecompiledHeaderFile( type, objectDirectory ).getPath();
+        List args = new ArrayList();
+        String[] values = options.trim().split( "\\s+" );
+        for ( int i = 0; i < values.length; i++ )
+        {
+            if ( values[i].length() > 0 )
+            {
+                args.add( StringUtils.replace( StringUtils.replace( values[i], "{header}", header ), "{pch}", pch ) );
+            }
+        }
+        return args;
+    }
+
+    private static void writeIfChanged( File file, String content )
+        throws MojoExecutionException
+    {
+        try
+        {
+            if ( !file.exists() || !FileUtils.fileRead( file ).equals( content ) )
+            {
+                file.getParentFile().mkdirs();
+                FileUtils.fileWrite( file.getPath(), content );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "NAR: cannot write " + file, e );
+        }
+    }
+
+    /**
+     * @return the source files compiled by {@link #getCompiler(String, String)}
+     */
+    public final List/* <File> */getSourceFiles( String type, String output )
+        throws MojoFailureException, MojoExecutionException
+    {
+        String[] includeList = (String[]) getIncludes().toArray( new String[0] );
+        String[] excludeList = (String[]) getExcludes( output ).toArray( new String[0] );
+
+        // source directories may be listed more than once
+        Set files = new LinkedHashSet();
+        for ( Iterator i = getSourceDirectories( type ).iterator(); i.hasNext(); )
         {
             File srcDir = (File) i.next();
-            mojo.getLog().debug( "Checking for existence of " + getLanguage() + " source directory: " + srcDir );
             if ( srcDir.exists() )
             {
-                if ( compileOrder != null )
+                DirectoryScanner scanner = new DirectoryScanner();
+                scanner.setBasedir( srcDir );
+                scanner.setIncludes( includeList );
+                scanner.setExcludes( excludeList );
+                scanner.addDefaultExcludes();
+                scanner.scan();
+                String[] names = scanner.getIncludedFiles();
+                Arrays.sort( names );
+                for ( int j = 0; j < names.length; j++ )
                 {
-                    compiler.setOrder( Arrays.asList( StringUtils.split( compileOrder, ", " ) ) );
+                    files.add( new File( srcDir, names[j] ) );
                 }
+            }
+        }
+        return new ArrayList( files );
+    }
 
-                ConditionalFileSet fileSet = new ConditionalFileSet();
-                fileSet.setProject( mojo.getAntProject() );
-                fileSet.setIncludes( StringUtils.join( includeSet.iterator(), "," ) );
-                fileSet.setExcludes( StringUtils.join( excludeSet.iterator(), "," ) );
-                fileSet.setDir( srcDir );
-                compiler.addFileset( fileSet );
+    /**
+     * @return the executable to preprocess sources with for the object cache, or null if the object cache does not
+     *         support this compiler
+     */
+    public final String getPreprocessor()
+        throws MojoFailureException, MojoExecutionException
+    {
+        String name = getName();
+        if ( name == null )
+        {
+            return null;
+        }
+        if ( name.equals( "msvc" ) )
+        {
+            return "cl";
+        }
+        if ( name.equals( "icl" ) || name.equals( "gcc" ) || name.equals( "g++" ) || name.equals( "c++" )
+            || name.equals( "cc" ) || name.equals( "CC" ) || name.equals( "icc" ) || name.equals( "icpc" )
+            || name.equals( "clang" ) || name.equals( "clang++" ) )
+        {
+            return name;
+        }
+        return null;
+    }
+
+    /**
+     * @return the arguments which make the preprocessor write the preprocessed source to standard output: the
+     *         options, defines, undefines and include paths of the compiler, followed by the given include paths.
+     * @param objectDirectory object directory of the group of libraries the sources are compiled for, see
+     *            {@link #getCompiler(String, String, List, File, File, List)}
+     */
+    public final List/* <String> */getPreprocessorArguments( String type, File objectDirectory,
+                                                             List/* <String> */extraIncludePaths )
+        throws MojoFailureException, MojoExecutionException
+    {
+        String prefix = isMsvc() ? "/" : "-";
+        List args = new ArrayList();
+        if ( isMsvc() )
+        {
+            args.add( "/nologo" );
+        }
+        args.add( prefix + "E" );
+        for ( Iterator i = getOptionList().iterator(); i.hasNext(); )
+        {
+            String option = (String) i.next();
+            if ( option.length() > 0 )
+            {
+                args.add( option );
             }
         }
+        addDefines( args, prefix + "D", defines, defineSet, clearDefaultDefines ? null : "defines" );
+        addDefines( args, prefix + "U", undefines, undefineSet, clearDefaultUndefines ? null : "undefines" );
 
-        return compiler;
+        if ( getPrecompiledHeader( type ) != null )
+        {
+            args.addAll( getPrecompiledHeaderArguments( type, "use", objectDirectory ) );
+        }
+
+        List paths = new ArrayList( getIncludePaths( type ) );
+        paths.addAll( extraIncludePaths );
+        if ( systemIncludePaths != null )
+        {
+            paths.addAll( systemIncludePaths );
+        }
+        for ( Iterator i = paths.iterator(); i.hasNext(); )
+        {
+            args.add( prefix + "I" + i.next() );
+        }
+        return args;
+    }
+
+    /**
+     * @return the name and version of the compiler and the settings which do not show up as arguments, such as debug
+     *         and optimization level
+     */
+    public final String getIdentity()
+        throws MojoFailureException, MojoExecutionException
+    {
+        return getName() + " " + getVersion() + " " + getSettings();
+    }
+
+    /**
+     * @return the settings which do not show up as arguments, such as debug and optimization level
+     */
+    public final String getSettings()
+    {
+        return "debug=" + mojo.getDebug() + " exceptions=" + exceptions + " rtti=" + rtti + " multithreaded="
+            + isMultiThreaded() + " optimize=" + optimize;
+    }
+
+    /**
+     * @return the version banner of the compiler, or an empty string if it cannot be determined
+     */
+    public final String getVersion()
+        throws MojoFailureException, MojoExecutionException
+    {
+        if ( version == null )
+        {
+            String preprocessor = getPreprocessor();
+            if ( preprocessor == null )
+            {
+                version = "";
+            }
+            else
+            {
+                TextStream out = new StringTextStream();
+                TextStream err = new StringTextStream();
+                TextStream dbg = new StringTextStream();
+
+                // cl prints its banner when invoked without arguments
+                String[] args = isMsvc() ? new String[0] : new String[] { "--version" };
+                NarUtil.runCommand( preprocessor, args, null, null, out, err, dbg );
+                version = ( out.toString() + err.toString() ).trim();
+            }
+        }
+        return version;
+    }
+
+    public final String getObjectExtension()
+        throws MojoFailureException, MojoExecutionException
+    {
+        return isMsvc() ? ".obj" : ".o";
+    }
+
+    private boolean isMsvc()
+        throws MojoFailureException, MojoExecutionException
+    {
+        String name = getName();
+        return "msvc".equals( name ) || "icl".equals( name );
+    }
+
+    private boolean isMultiThreaded()
+    {
+        return mojo.getOS().equals( "Windows" ) ? true : multiThreaded;
+    }
+
+    private List/* <String> */getOptionList()
+        throws MojoFailureException, MojoExecutionException
+    {
+        List result = new ArrayList();
+        if ( options != null )
+        {
+            result.addAll( options );
+        }
+
+        if ( optionSet != null )
+        {
+            result.addAll( Arrays.asList( optionSet.split( "\\s" ) ) );
+        }
+
+        if ( !clearDefaultOptions )
+        {
+            String optionsProperty = NarProperties.getInstance(mojo.getMavenProject()).getProperty( getPrefix() + "options" );
+            if ( optionsProperty != null )
+            {
+                result.addAll( Arrays.asList( optionsProperty.split( " " ) ) );
+            }
+        }
+        return result;
+    }
+
+    private void addDefines( List args, String prefix, List list, String set, String defaultKey )
+        throws MojoFailureException, MojoExecutionException
+    {
+        if ( list != null )
+        {
+            for ( Iterator i = list.iterator(); i.hasNext(); )
+            {
+                args.add( prefix + i.next() );
+            }
+        }
+
+        if ( set != null )
+        {
+            String[] pairs = set.split( "," );
+            for ( int i = 0; i < pairs.length; i++ )
+            {
+                args.add( prefix + pairs[i].trim() );
+            }
+        }
+
+        if ( defaultKey != null )
+        {
+            String defaults = NarProperties.getInstance(mojo.getMavenProject()).getProperty( getPrefix() + defaultKey );
+            if ( defaults != null )
+            {
+                String[] values = new CUtil.StringArrayBuilder( defaults ).getValue();
+                for ( int i = 0; i < values.length; i++ )
+                {
+                    args.add( prefix + values[i] );
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the excludes, with all tests but the current output excluded too
+     */
+    private Set getExcludes( String output )
+        throws MojoFailureException, MojoExecutionException
+    {
+        Set excludeSet = getExcludes();
+        for ( Iterator i = mojo.getTests().iterator(); i.hasNext(); )
+        {
+            Test test = (Test) i.next();
+            if ( !test.getName().equals( output ) )
+            {
+                excludeSet.add( "**/" + test.getName() + ".*" );
+            }
+        }
+        return excludeSet;
+    }
+
+    private static String getRelativePath( File directory, File file )
+    {
+        String dir = directory.getAbsolutePath() + File.separator;
+        String path = file.getAbsolutePath();
+        return path.startsWith( dir ) ? path.substring( dir.length() ).replace( File.separatorChar, '/' ) : null;
     }
 
     protected abstract String getLanguage();
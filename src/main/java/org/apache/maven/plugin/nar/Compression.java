@@ -0,0 +1,114 @@
+package org.apache.maven.plugin.nar;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Sets the compression of NAR entries matching some patterns, for instance to store libraries which hardly compress.
+ * The first compression matching an entry is used, entries matching none are deflated with the default level.
+ */
+public class Compression
+{
+    /**
+     * Name under which the compression ratio and time are reported. Defaults to the include patterns.
+     * 
+     * @parameter expression=""
+     */
+    private String name = null;
+
+    /**
+     * Patterns of entries to compress this way, relative to the root of the NAR, for instance "**&#47;*.a".
+     * 
+     * @required
+     * @parameter expression=""
+     */
+    private List/* <String> */includes = new ArrayList();
+
+    /**
+     * "store" to store the entries without compressing them, "default" or a deflate level from 1 (fastest) to 9
+     * (smallest). Defaults to "default".
+     * 
+     * @parameter expression=""
+     */
+    private String level = "default";
+
+    public final String getName()
+    {
+        if ( name != null )
+        {
+            return name;
+        }
+        StringBuffer buffer = new StringBuffer();
+        for ( Iterator i = includes.iterator(); i.hasNext(); )
+        {
+            buffer.append( i.next() );
+            if ( i.hasNext() )
+            {
+                buffer.append( "," );
+            }
+        }
+        return buffer.toString();
+    }
+
+    public final String[] getIncludes()
+        throws MojoFailureException
+    {
+        if ( includes.isEmpty() )
+        {
+            throw new MojoFailureException( "NAR: Please specify <Includes> as part of <Compression>" );
+        }
+        return (String[]) includes.toArray( new String[includes.size()] );
+    }
+
+    /**
+     * @return deflate level, {@link NarZipWriter#NO_COMPRESSION} to store entries
+     */
+    public final int getLevel()
+        throws MojoFailureException
+    {
+        if ( level.equals( "store" ) )
+        {
+            return NarZipWriter.NO_COMPRESSION;
+        }
+        if ( level.equals( "default" ) )
+        {
+            return NarZipWriter.DEFAULT_COMPRESSION;
+        }
+        try
+        {
+            int value = Integer.parseInt( level );
+            if ( ( value >= 1 ) && ( value <= 9 ) )
+            {
+                return value;
+            }
+        }
+        catch ( NumberFormatException e )
+        {
+            // reported below
+        }
+        throw new MojoFailureException( "NAR: <Level> of <Compression> " + getName()
+            + " should be \"store\", \"default\" or 1 to 9, not \"" + level + "\"" );
+    }
+}
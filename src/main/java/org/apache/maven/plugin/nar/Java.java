@@ -20,6 +20,7 @@ package org.apache.maven.plugin.nar;
  */
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -93,6 +94,16 @@ public class Java
     public final void addIncludePaths( CCTask task, String outType )
         throws MojoFailureException, MojoExecutionException
     {
+        for ( Iterator i = getIncludePaths( outType ).iterator(); i.hasNext(); )
+        {
+            task.createIncludePath().setPath( (String) i.next() );
+        }
+    }
+
+    public final List/* <String> */getIncludePaths( String outType )
+        throws MojoFailureException, MojoExecutionException
+    {
+        List result = new ArrayList();
         if ( include || mojo.getJavah().getJniDirectory().exists() )
         {
             if ( includePaths != null )
@@ -100,7 +111,7 @@ public class Java
                 for ( Iterator i = includePaths.iterator(); i.hasNext(); )
                 {
                     String path = (String) i.next();
-                    task.createIncludePath().setPath( new File( mojo.getJavaHome( mojo.getAOL() ), path ).getPath() );
+                    result.add( new File( mojo.getJavaHome( mojo.getAOL() ), path ).getPath() );
                 }
             }
             else
@@ -112,12 +123,12 @@ public class Java
                     String[] path = includes.split( ";" );
                     for ( int i = 0; i < path.length; i++ )
                     {
-                        task.createIncludePath().setPath(
-                                                          new File( mojo.getJavaHome( mojo.getAOL() ), path[i] ).getPath() );
+                        result.add( new File( mojo.getJavaHome( mojo.getAOL() ), path[i] ).getPath() );
                     }
                 }
             }
         }
+        return result;
     }
 
     public final void addRuntime( CCTask task, File javaHome, String os, String prefix )
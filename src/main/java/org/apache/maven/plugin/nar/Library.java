@@ -117,6 +117,14 @@ public class Library
      */
     private List/* <String> */args = new ArrayList();
 
+    /**
+     * Compiles the C and C++ sources of this library in unity batches, see the unity setting of the compilers. Defaults
+     * to the setting of the AOL and of the compilers.
+     *
+     * @parameter expression=""
+     */
+    private Boolean unity;
+
     public final String getType()
     {
         return type;
@@ -162,6 +170,14 @@ public class Library
         return narSystemDirectory;
     }
 
+    /**
+     * @return whether to compile in unity batches, or null for the default
+     */
+    public final Boolean getUnity()
+    {
+        return unity;
+    }
+
     // FIXME incomplete
     public final String toString()
     {
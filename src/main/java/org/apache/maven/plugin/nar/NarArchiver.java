@@ -19,12 +19,516 @@ package org.apache.maven.plugin.nar;
  * under the License.
  */
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.codehaus.plexus.archiver.ArchiveEntry;
+import org.codehaus.plexus.archiver.ArchiverException;
+import org.codehaus.plexus.archiver.ResourceIterator;
 import org.codehaus.plexus.archiver.zip.AbstractZipArchiver;
+import org.codehaus.plexus.components.io.resources.PlexusIoResource;
+import org.codehaus.plexus.util.SelectorUtils;
 
 /**
+ * Zip archiver which deflates the entries in parallel and writes them to the archive in the order they were added, see
+ * {@link NarZipWriter}. The deflate level can be chosen per entry pattern, see
+ * {@link #addCompression(String, String[], int)}. Update mode is left to the plexus implementation.
+ * 
  * @author Mark Donszelmann
  */
 public class NarArchiver
     extends AbstractZipArchiver
 {
+    /**
+     * Amount of data compressed for one category of entries and the time it took.
+     */
+    public static final class Statistics
+    {
+        private final String name;
+
+        private int entries;
+
+        private long size;
+
+        private long compressedSize;
+
+        private long nanos;
+
+        private Statistics( String name )
+        {
+            this.name = name;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public synchronized int getEntries()
+        {
+            return entries;
+        }
+
+        public synchronized long getSize()
+        {
+            return size;
+        }
+
+        public synchronized long getCompressedSize()
+        {
+            return compressedSize;
+        }
+
+        /**
+         * @return time spent compressing, summed over all threads
+         */
+        public synchronized long getMillis()
+        {
+            return nanos / 1000000;
+        }
+
+        /**
+         * @return compressed size as a percentage of the original size
+         */
+        public synchronized int getRatio()
+        {
+            return size > 0 ? (int) ( compressedSize * 100 / size ) : 100;
+        }
+
+        private synchronized void reset()
+        {
+            entries = 0;
+            size = 0;
+            compressedSize = 0;
+            nanos = 0;
+        }
+
+        private synchronized void add( NarZipWriter.Content content, long time )
+        {
+            entries++;
+            size += content.getSize();
+            compressedSize += content.getCompressedSize();
+            nanos += time;
+        }
+    }
+
+    private static final class Rule
+    {
+        private String[] includes;
+
+        private int level;
+
+        private Statistics statistics;
+    }
+
+    private static final class Item
+    {
+        private String name;
+
+        private ArchiveEntry entry;
+
+        private boolean directory;
+
+        private int mode;
+
+        private long time;
+
+        private Future/* <NarZipWriter.Content> */content;
+    }
+
+    private static final String DEFAULT_CATEGORY = "default";
+
+    private int threads;
+
+    private long reproducibleTime = -1;
+
+    private final List/* <Rule> */rules = new ArrayList();
+
+    private final Statistics defaults = new Statistics( DEFAULT_CATEGORY );
+
+    /**
+     * @param threads number of threads deflating entries, less than 1 means one per available processor
+     */
+    public final void setThreads( int threads )
+    {
+        this.threads = threads;
+    }
+
+    /**
+     * Makes the archive only depend on the names and contents of the entries: they are sorted by name, get the given
+     * modification time and their modes are normalized to 0755 or 0644.
+     * 
+     * @param time modification time of all entries in milliseconds since the epoch, negative to keep the order, times
+     *            and modes of the files
+     */
+    public final void setReproducible( long time )
+    {
+        this.reproducibleTime = time;
+    }
+
+    /**
+     * Compresses entries matching any of the patterns with the given level, unless an earlier compression matched.
+     * 
+     * @param category name the statistics are collected under, compressions can share a category
+     * @param includes patterns relative to the root of the archive, like "**&#47;*.so"
+     * @param level deflate level, {@link NarZipWriter#NO_COMPRESSION} to store the entries
+     */
+    public final void addCompression( String category, String[] includes, int level )
+    {
+        Rule rule = new Rule();
+        rule.includes = new String[includes.length];
+        for ( int i = 0; i < includes.length; i++ )
+        {
+            rule.includes[i] = includes[i].replace( '/', File.separatorChar ).replace( '\\', File.separatorChar );
+        }
+        rule.level = level;
+        rule.statistics = getStatistics( category );
+        if ( rule.statistics == null )
+        {
+            rule.statistics = new Statistics( category );
+        }
+        rules.add( rule );
+    }
+
+    /**
+     * @return statistics per category of the archive created last, in the order the categories were added followed by
+     *         the default category
+     */
+    public final List/* <Statistics> */getStatistics()
+    {
+        List statistics = new ArrayList();
+        for ( Iterator i = rules.iterator(); i.hasNext(); )
+        {
+            Statistics category = ( (Rule) i.next() ).statistics;
+            if ( !statistics.contains( category ) )
+            {
+                statistics.add( category );
+            }
+        }
+        if ( !statistics.contains( defaults ) )
+        {
+            statistics.add( defaults );
+        }
+        return statistics;
+    }
+
+    private Statistics getStatistics( String category )
+    {
+        for ( Iterator i = getStatistics().iterator(); i.hasNext(); )
+        {
+            Statistics statistics = (Statistics) i.next();
+            if ( statistics.getName().equals( category ) )
+            {
+                return statistics;
+            }
+        }
+        return null;
+    }
+
+    protected void execute()
+        throws ArchiverException, IOException
+    {
+        if ( !checkForced() )
+        {
+            return;
+        }
+        if ( isInUpdateMode() )
+        {
+            super.execute();
+            return;
+        }
+
+        File zipFile = getDestFile();
+        if ( zipFile == null )
+        {
+            throw new ArchiverException( "You must set the destination zip file." );
+        }
+        if ( zipFile.exists() && !zipFile.isFile() )
+        {
+            throw new ArchiverException( zipFile + " isn't a file." );
+        }
+
+        List items = getItems();
+        if ( items.isEmpty() )
+        {
+            throw new ArchiverException( "You must set at least one file." );
+        }
+
+        for ( Iterator i = getStatistics().iterator(); i.hasNext(); )
+        {
+            ( (Statistics) i.next() ).reset();
+        }
+
+        getLogger().info( "Building zip: " + zipFile.getAbsolutePath() );
+        int count = threads < 1 ? Runtime.getRuntime().availableProcessors() : threads;
+        ExecutorService executor = count > 1 ? NarTaskExecutor.newThreadPool( "archive", count ) : null;
+        NarZipWriter writer = new NarZipWriter( zipFile );
+        boolean success = false;
+        int index = 0;
+        try
+        {
+            // compress a bounded number of entries ahead of the writer to limit memory and temporary files
+            int window = count * 2;
+            int next = 0;
+            for ( ; index < items.size(); index++ )
+            {
+                for ( ; ( next < items.size() ) && ( next <= index + window ); next++ )
+                {
+                    Item item = (Item) items.get( next );
+                    if ( !item.directory && ( executor != null ) )
+                    {
+                        item.content = executor.submit( compress( item, zipFile.getParentFile() ) );
+                    }
+                }
+
+                Item item = (Item) items.get( index );
+                if ( item.directory )
+                {
+                    writer.addDirectory( item.name, item.time, item.mode );
+                }
+                else if ( item.content != null )
+                {
+                    writer.addFile( item.name, item.time, item.mode, getContent( item ) );
+                }
+                else
+                {
+                    writer.addFile( item.name, item.time, item.mode,
+                                    (NarZipWriter.Content) compress( item, zipFile.getParentFile() ).call() );
+                }
+            }
+            writer.close( getComment() );
+            success = true;
+        }
+        catch ( IOException e )
+        {
+            throw e;
+        }
+        catch ( ArchiverException e )
+        {
+            throw e;
+        }
+        catch ( Exception e )
+        {
+            throw new ArchiverException( "Problem creating zip: " + e.getMessage(), e );
+        }
+        finally
+        {
+            if ( executor != null )
+            {
+                executor.shutdown();
+            }
+            if ( !success )
+            {
+                writer.abort();
+                discard( items, index );
+            }
+        }
+    }
+
+    /**
+     * Lists the entries in the order they were added, together with the parent directories plexus would add.
+     */
+    private List/* <Item> */getItems()
+        throws ArchiverException
+    {
+        List items = new ArrayList();
+        Set names = new HashSet();
+        for ( ResourceIterator i = getResources(); i.hasNext(); )
+        {
+            ArchiveEntry entry = i.next();
+            String name = entry.getName().replace( '\\', '/' );
+            boolean directory = entry.getType() == ArchiveEntry.DIRECTORY;
+            if ( directory && !name.endsWith( "/" ) )
+            {
+                name += "/";
+            }
+            if ( name.equals( "/" ) || !names.add( name ) )
+            {
+                continue;
+            }
+
+            PlexusIoResource resource = entry.getResource();
+            long time = resource.getLastModified();
+            if ( ( time == PlexusIoResource.UNKNOWN_MODIFICATION_DATE ) || ( time == 0 ) )
+            {
+                time = System.currentTimeMillis();
+            }
+            if ( isRoundUp() )
+            {
+                // zip times have a two second resolution, round up so the entry is not older than the file
+                time += 1999;
+            }
+
+            if ( getIncludeEmptyDirs() )
+            {
+                for ( int slash = name.indexOf( '/' ); ( slash >= 0 ) && ( slash < name.length() - 1 ); slash =
+                    name.indexOf( '/', slash + 1 ) )
+                {
+                    String parent = name.substring( 0, slash + 1 );
+                    if ( names.add( parent ) )
+                    {
+                        Item item = new Item();
+                        item.name = parent;
+                        item.directory = true;
+                        item.mode = getDefaultDirectoryMode();
+                        item.time = time;
+                        items.add( item );
+                    }
+                }
+            }
+            else if ( directory )
+            {
+                continue;
+            }
+
+            Item item = new Item();
+            item.name = name;
+            item.entry = entry;
+            item.directory = directory;
+            item.mode = entry.getMode();
+            item.time = time;
+            items.add( item );
+        }
+
+        if ( reproducibleTime >= 0 )
+        {
+            normalize( items );
+        }
+        return items;
+    }
+
+    /**
+     * Sorts the entries by name and gives them the reproducible time and a mode which only depends on whether they are
+     * executable.
+     */
+    private void normalize( List/* <Item> */items )
+    {
+        Collections.sort( items, new Comparator()
+        {
+            public int compare( Object o1, Object o2 )
+            {
+                return ( (Item) o1 ).name.compareTo( ( (Item) o2 ).name );
+            }
+        } );
+
+        // zip times are local times, shift the time so that every time zone writes the same fields
+        long time = reproducibleTime - TimeZone.getDefault().getOffset( reproducibleTime );
+        for ( Iterator i = items.iterator(); i.hasNext(); )
+        {
+            Item item = (Item) i.next();
+            item.time = time;
+            item.mode = item.directory || ( ( item.mode & 0111 ) != 0 ) ? 0755 : 0644;
+        }
+    }
+
+    private Rule getRule( String name )
+    {
+        String path = name.replace( '/', File.separatorChar );
+        for ( Iterator i = rules.iterator(); i.hasNext(); )
+        {
+            Rule rule = (Rule) i.next();
+            for ( int j = 0; j < rule.includes.length; j++ )
+            {
+                if ( SelectorUtils.matchPath( rule.includes[j], path ) )
+                {
+                    return rule;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Callable/* <NarZipWriter.Content> */compress( final Item item, final File temporaryDirectory )
+    {
+        Rule rule = getRule( item.name );
+        final int level;
+        final Statistics statistics;
+        if ( !isCompress() )
+        {
+            level = NarZipWriter.NO_COMPRESSION;
+            statistics = rule != null ? rule.statistics : defaults;
+        }
+        else if ( rule != null )
+        {
+            level = rule.level;
+            statistics = rule.statistics;
+        }
+        else
+        {
+            level = NarZipWriter.DEFAULT_COMPRESSION;
+            statistics = defaults;
+        }
+        return new Callable()
+        {
+            public Object call()
+                throws IOException
+            {
+                long start = System.nanoTime();
+                PlexusIoResource resource = item.entry.getResource();
+                NarZipWriter.Content content =
+                    NarZipWriter.compress( item.entry.getInputStream(), item.entry.getFile(), resource.getSize(), level,
+                                           temporaryDirectory );
+                statistics.add( content, System.nanoTime() - start );
+                return content;
+            }
+        };
+    }
+
+    private static NarZipWriter.Content getContent( Item item )
+        throws IOException, ArchiverException
+    {
+        try
+        {
+            return (NarZipWriter.Content) item.content.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new ArchiverException( "Interrupted while compressing " + item.name, e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new ArchiverException( "Problem compressing " + item.name + ": " + e.getCause(), e.getCause() );
+        }
+    }
+
+    /**
+     * Waits for entries which were compressed ahead of a failure and releases their temporary files.
+     */
+    private static void discard( List/* <Item> */items, int from )
+    {
+        List pending = new LinkedList( items.subList( Math.min( from + 1, items.size() ), items.size() ) );
+        for ( Iterator i = pending.iterator(); i.hasNext(); )
+        {
+            Item item = (Item) i.next();
+            if ( ( item.content != null ) && !item.content.cancel( false ) )
+            {
+                try
+                {
+                    ( (NarZipWriter.Content) item.content.get() ).dispose();
+                }
+                catch ( Exception e )
+                {
+                    // ignore, already failing
+                }
+            }
+        }
+    }
 }
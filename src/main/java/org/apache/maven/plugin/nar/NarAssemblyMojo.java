@@ -33,6 +33,7 @@ import org.codehaus.plexus.util.FileUtils;
  * Assemble libraries of NAR files.
  * 
  * @goal nar-assembly
+ * @threadSafe
  * @phase process-resources
  * @requiresProject
  * @requiresDependencyResolution
@@ -0,0 +1,505 @@
+package org.apache.maven.plugin.nar;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Fingerprint of a build step, recorded after it ran successfully. It holds the parameters of the step, the size,
+ * modification time and checksum of every input file and the size and modification time of every output file. When
+ * the parameters and inputs did not change and the outputs were not touched since, the step does not need to run.
+ * <p>
+ * As for {@link NarPackageManifest}, checksums of the inputs are only computed when their modification time changed.
+ * Inputs below the base directory are recorded relative to it. Paths below the base directory and below the other
+ * roots, such as the local repository, are replaced by the name of their root, in parameters as well as in the names
+ * of inputs. The hash is then the same for the same sources in another workspace or on another machine.
+ */
+public class NarBuildFingerprint
+{
+    private static final String PARAMETER = "parameter.";
+
+    private static final String INPUT = "input.";
+
+    private static final String OUTPUT = "output.";
+
+    /**
+     * Orders paths so that a root inside another root is replaced first.
+     */
+    private static final Comparator LONGEST_FIRST = new Comparator()
+    {
+        public int compare( Object o1, Object o2 )
+        {
+            String path1 = (String) o1;
+            String path2 = (String) o2;
+            return path1.length() != path2.length() ? path2.length() - path1.length() : path1.compareTo( path2 );
+        }
+    };
+
+    private final File file;
+
+    private final File baseDirectory;
+
+    private final Map/* <String, String> */parameters = new TreeMap();
+
+    private final Map/* <String, File> */inputs = new TreeMap();
+
+    private final List/* <File> */outputs = new ArrayList();
+
+    /**
+     * Name by absolute path of the root, longest path first.
+     */
+    private final Map/* <String, String> */roots = new TreeMap( LONGEST_FIRST );
+
+    /**
+     * Description of the inputs, once known.
+     */
+    private Map/* <String, String> */described;
+
+    /**
+     * @param file the fingerprint file
+     * @param baseDirectory inputs below this directory are recorded by relative path
+     */
+    public NarBuildFingerprint( File file, File baseDirectory )
+    {
+        this.file = file;
+        this.baseDirectory = baseDirectory;
+    }
+
+    public final File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Adds a directory of which paths are recorded relative to the given name, to be called before parameters and
+     * inputs are added.
+     */
+    public final void addRoot( String name, File directory )
+    {
+        roots.put( directory.getAbsolutePath(), "${" + name + "}" );
+    }
+
+    /**
+     * Adds a parameter. Paths below the base directory or a root are replaced by the name of their root.
+     */
+    public final void addParameter( String name, String value )
+    {
+        parameters.put( name, value != null ? relativize( value ) : "" );
+    }
+
+    /**
+     * Adds an input file, or all files below an input directory. Files which do not exist are ignored.
+     */
+    public final void addInput( File input )
+    {
+        if ( input.isDirectory() )
+        {
+            DirectoryScanner scanner = new DirectoryScanner();
+            scanner.setBasedir( input );
+            scanner.addDefaultExcludes();
+            scanner.scan();
+            String[] files = scanner.getIncludedFiles();
+            for ( int i = 0; i < files.length; i++ )
+            {
+                addInput( new File( input, files[i] ) );
+            }
+        }
+        else if ( input.isFile() )
+        {
+            inputs.put( getName( input ), input );
+        }
+    }
+
+    /**
+     * Adds an output file, or an output directory of which all files below are outputs.
+     */
+    public final void addOutput( File output )
+    {
+        outputs.add( output );
+    }
+
+    /**
+     * Adds the output files recorded by the last run, for steps which only know their outputs once they ran. Outputs
+     * outside the base directory are left out, so they are reported as removed.
+     */
+    public final void addRecordedOutputs()
+    {
+        Properties recorded = load();
+        if ( recorded == null )
+        {
+            return;
+        }
+        for ( Iterator i = recorded.keySet().iterator(); i.hasNext(); )
+        {
+            String key = (String) i.next();
+            String name = key.substring( OUTPUT.length() );
+            if ( key.startsWith( OUTPUT ) && !name.startsWith( "${" ) && !new File( name ).isAbsolute() )
+            {
+                outputs.add( new File( baseDirectory, name.replace( '/', File.separatorChar ) ) );
+            }
+        }
+    }
+
+    /**
+     * @return the output files and directories
+     */
+    public final List/* <File> */getOutputs()
+    {
+        return Collections.unmodifiableList( outputs );
+    }
+
+    /**
+     * @return null if the step does not need to run, otherwise the reason why it does
+     */
+    public final String check()
+        throws MojoExecutionException
+    {
+        Properties recorded = load();
+        described = describeInputs( recorded );
+        if ( recorded == null )
+        {
+            return "no fingerprint of a previous build";
+        }
+
+        for ( Iterator i = parameters.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            String value = recorded.getProperty( PARAMETER + entry.getKey() );
+            if ( value == null )
+            {
+                return "parameter " + entry.getKey() + " added";
+            }
+            if ( !value.equals( entry.getValue() ) )
+            {
+                return "parameter " + entry.getKey() + " changed";
+            }
+        }
+
+        boolean touched = false;
+        for ( Iterator i = described.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            String value = recorded.getProperty( INPUT + entry.getKey() );
+            if ( value == null )
+            {
+                return entry.getKey() + " added";
+            }
+            if ( !getChecksum( value ).equals( getChecksum( (String) entry.getValue() ) ) )
+            {
+                return entry.getKey() + " changed";
+            }
+            touched |= !value.equals( entry.getValue() );
+        }
+
+        Map current = describeOutputs();
+        for ( Iterator i = current.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            String value = recorded.getProperty( OUTPUT + entry.getKey() );
+            if ( value == null )
+            {
+                return "output " + entry.getKey() + " added";
+            }
+            if ( !value.equals( entry.getValue() ) )
+            {
+                return "output " + entry.getKey() + " changed";
+            }
+        }
+
+        for ( Iterator i = recorded.keySet().iterator(); i.hasNext(); )
+        {
+            String key = (String) i.next();
+            if ( key.startsWith( PARAMETER ) && !parameters.containsKey( key.substring( PARAMETER.length() ) ) )
+            {
+                return "parameter " + key.substring( PARAMETER.length() ) + " removed";
+            }
+            if ( key.startsWith( INPUT ) && !described.containsKey( key.substring( INPUT.length() ) ) )
+            {
+                return key.substring( INPUT.length() ) + " removed";
+            }
+            if ( key.startsWith( OUTPUT ) && !current.containsKey( key.substring( OUTPUT.length() ) ) )
+            {
+                return "output " + key.substring( OUTPUT.length() ) + " removed";
+            }
+        }
+
+        if ( touched )
+        {
+            write();
+        }
+        return null;
+    }
+
+    /**
+     * @return a hash of the parameters and the content of the inputs
+     */
+    public final String getHash()
+        throws MojoExecutionException
+    {
+        if ( described == null )
+        {
+            described = describeInputs( load() );
+        }
+
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance( "SHA-1" );
+            for ( Iterator i = parameters.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry entry = (Map.Entry) i.next();
+                digest.update( ( PARAMETER + entry.getKey() + "=" + entry.getValue() + "\n" ).getBytes( "UTF-8" ) );
+            }
+            for ( Iterator i = described.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry entry = (Map.Entry) i.next();
+                String checksum = getChecksum( (String) entry.getValue() );
+                digest.update( ( INPUT + entry.getKey() + "=" + checksum + "\n" ).getBytes( "UTF-8" ) );
+            }
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new MojoExecutionException( "NAR: SHA-1 not available", e );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new MojoExecutionException( "NAR: UTF-8 not available", e );
+        }
+        return NarUtil.toHex( digest.digest() );
+    }
+
+    /**
+     * Deletes the fingerprint, to be called before the step runs.
+     */
+    public final void delete()
+        throws MojoExecutionException
+    {
+        if ( file.exists() && !file.delete() )
+        {
+            throw new MojoExecutionException( "Cannot delete build fingerprint: " + file );
+        }
+    }
+
+    /**
+     * Writes the fingerprint, to be called after the step ran successfully. The inputs are recorded as they were when
+     * checked.
+     */
+    public final void write()
+        throws MojoExecutionException
+    {
+        if ( described == null )
+        {
+            described = describeInputs( null );
+        }
+
+        Properties properties = new Properties();
+        for ( Iterator i = parameters.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            properties.setProperty( PARAMETER + entry.getKey(), (String) entry.getValue() );
+        }
+        for ( Iterator i = described.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            properties.setProperty( INPUT + entry.getKey(), (String) entry.getValue() );
+        }
+        for ( Iterator i = describeOutputs().entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            properties.setProperty( OUTPUT + entry.getKey(), (String) entry.getValue() );
+        }
+
+        file.getParentFile().mkdirs();
+        File tmp = new File( file.getParentFile(), file.getName() + ".tmp" );
+        try
+        {
+            OutputStream out = new FileOutputStream( tmp );
+            try
+            {
+                properties.store( out, "NAR build fingerprint" );
+            }
+            finally
+            {
+                out.close();
+            }
+            file.delete();
+            if ( !tmp.renameTo( file ) )
+            {
+                throw new IOException( "Cannot rename " + tmp + " to " + file );
+            }
+        }
+        catch ( IOException e )
+        {
+            tmp.delete();
+            throw new MojoExecutionException( "Cannot write build fingerprint: " + file, e );
+        }
+    }
+
+    /**
+     * @return the recorded fingerprint, or null if there is none
+     */
+    private Properties load()
+    {
+        if ( !file.exists() )
+        {
+            return null;
+        }
+        Properties recorded = new Properties();
+        try
+        {
+            InputStream in = new FileInputStream( file );
+            try
+            {
+                recorded.load( in );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+        return recorded;
+    }
+
+    /**
+     * @return "size lastModified checksum" by input, reusing the recorded checksum when size and modification time
+     *         did not change
+     */
+    private Map/* <String, String> */describeInputs( Properties recorded )
+        throws MojoExecutionException
+    {
+        Map result = new TreeMap();
+        for ( Iterator i = inputs.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            File input = (File) entry.getValue();
+            String prefix = input.length() + " " + input.lastModified() + " ";
+            String value = recorded != null ? recorded.getProperty( INPUT + entry.getKey() ) : null;
+            if ( ( value == null ) || !value.startsWith( prefix ) )
+            {
+                try
+                {
+                    value = prefix + NarUtil.getChecksum( input );
+                }
+                catch ( IOException e )
+                {
+                    throw new MojoExecutionException( "Cannot compute checksum of " + input, e );
+                }
+            }
+            result.put( entry.getKey(), value );
+        }
+        return result;
+    }
+
+    /**
+     * @return "size lastModified" by output file
+     */
+    private Map/* <String, String> */describeOutputs()
+    {
+        Map result = new TreeMap();
+        for ( Iterator i = outputs.iterator(); i.hasNext(); )
+        {
+            File directory = (File) i.next();
+            if ( directory.isFile() )
+            {
+                result.put( getName( directory ), directory.length() + " " + directory.lastModified() );
+                continue;
+            }
+            if ( !directory.isDirectory() )
+            {
+                continue;
+            }
+            DirectoryScanner scanner = new DirectoryScanner();
+            scanner.setBasedir( directory );
+            scanner.scan();
+            String[] files = scanner.getIncludedFiles();
+            for ( int j = 0; j < files.length; j++ )
+            {
+                File output = new File( directory, files[j] );
+                result.put( getName( output ), output.length() + " " + output.lastModified() );
+            }
+        }
+        return result;
+    }
+
+    private String getName( File input )
+    {
+        String base = baseDirectory.getAbsolutePath() + File.separator;
+        String path = input.getAbsolutePath();
+        if ( path.startsWith( base ) )
+        {
+            path = path.substring( base.length() );
+        }
+        else
+        {
+            path = relativize( path );
+        }
+        return path.replace( File.separatorChar, '/' );
+    }
+
+    /**
+     * @return the value with the paths of the base directory and the roots replaced by their names
+     */
+    private String relativize( String value )
+    {
+        Map names = new TreeMap( LONGEST_FIRST );
+        names.putAll( roots );
+        names.put( baseDirectory.getAbsolutePath(), "${basedir}" );
+        for ( Iterator i = names.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            String path = (String) entry.getKey();
+            value = StringUtils.replace( value, path, (String) entry.getValue() );
+            if ( File.separatorChar != '/' )
+            {
+                value = StringUtils.replace( value, path.replace( File.separatorChar, '/' ), (String) entry.getValue() );
+            }
+        }
+        return value;
+    }
+
+    private static String getChecksum( String value )
+    {
+        return value.substring( value.lastIndexOf( ' ' ) + 1 );
+    }
+}
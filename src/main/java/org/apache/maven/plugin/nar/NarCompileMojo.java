@@ -22,9 +22,14 @@ package org.apache.maven.plugin.nar;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import net.sf.antcontrib.cpptasks.CCTask;
 import net.sf.antcontrib.cpptasks.CUtil;
@@ -38,7 +43,6 @@ import net.sf.antcontrib.cpptasks.types.LinkerArgument;
 import net.sf.antcontrib.cpptasks.types.SystemLibrarySet;
 
 import org.apache.maven.artifact.Artifact;
-import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.tools.ant.BuildException;
@@ -48,6 +52,7 @@ import org.apache.tools.ant.Project;
  * Compiles native source files.
  *
  * @goal nar-compile
+ * @threadSafe
  * @phase compile
  * @requiresSession
  * @requiresProject
@@ -58,21 +63,84 @@ public class NarCompileMojo
     extends AbstractCompileMojo
 {
     /**
-     * The current build session instance.
+     * Cache object files in a directory shared by all builds. Objects are addressed by the preprocessed source, the
+     * compiler and its arguments, with the paths of the base directory and the local repository left out, so that
+     * other checkouts share the objects. Sources found in the cache are not compiled, their cached objects are linked
+     * instead.
      *
-     * @parameter expression="${session}"
-     * @required
-     * @readonly
+     * @parameter expression="${nar.objectCache}" default-value="false"
      */
-    protected MavenSession session;
+    private boolean narObjectCache;
+
+    /**
+     * Directory of the object cache, defaults to ".nar/objects" in the local repository.
+     *
+     * @parameter expression="${nar.objectCacheDirectory}"
+     */
+    private File narObjectCacheDirectory;
+
+    /**
+     * Maximum size in MB of the object cache, least recently used objects are removed beyond it.
+     *
+     * @parameter expression="${nar.objectCacheMaxSize}" default-value="5120"
+     */
+    private int narObjectCacheMaxSize;
+
+    /**
+     * Directory of an object cache shared with other machines, for instance on a mounted file system, used in addition
+     * to the local object cache. Objects found there are copied into the local cache, new objects are stored in both.
+     * Builds do not trim it, use the nar-trim-object-cache goal for that.
+     *
+     * @parameter expression="${nar.sharedObjectCacheDirectory}"
+     */
+    private File narSharedObjectCacheDirectory;
+
+    /**
+     * Sources restored from the object cache, by object directory.
+     */
+    private Map/* <File, List<File>> */cachedSources = new HashMap();
+
+    /**
+     * Objects restored from the object cache, by object directory.
+     */
+    private Map/* <File, List<File>> */cachedObjects = new HashMap();
+
+    /**
+     * Sources compiled through unity sources, of which the objects are not stored in the object cache, by object
+     * directory.
+     */
+    private Map/* <File, List<File>> */unitySources = new HashMap();
 
     public final void narExecute()
         throws MojoExecutionException, MojoFailureException
     {
+        try
+        {
+            compile();
+        }
+        finally
+        {
+            reportJobServer();
+        }
+    }
+
+    private void compile()
+        throws MojoExecutionException, MojoFailureException
+    {
 
         // make sure destination is there
         getDestinationDirectory().mkdirs();
 
+        NarBuildFingerprint fingerprint = null;
+        if ( useFingerprint() && compilesSources() )
+        {
+            fingerprint = createFingerprint();
+            if ( isUpToDate( fingerprint, "nar-compile" ) )
+            {
+                return;
+            }
+        }
+
         // check for source files
         int noOfSources = 0;
         noOfSources += getSourcesFor(getCpp()).size();
@@ -81,9 +149,34 @@ public class NarCompileMojo
         if ( noOfSources > 0 )
         {
             getLog().info(getSourcesMessage(noOfSources));
-            for ( Iterator i = getLibraries().iterator(); i.hasNext(); )
+            createPrecompiledHeaders();
+            NarObjectCache objectCache = getObjectCache();
+
+            // every group of libraries compiles its own objects, so it restores and stores its own
+            Map misses = new LinkedHashMap();
+            if ( objectCache != null )
             {
-                createLibrary(getAntProject(), (Library) i.next());
+                for ( Iterator i = getLibraryGroups().entrySet().iterator(); i.hasNext(); )
+                {
+                    Map.Entry group = (Map.Entry) i.next();
+                    File objDir = (File) group.getKey();
+                    misses.put( objDir, restoreObjects( objectCache, objDir, (List) group.getValue() ) );
+                }
+            }
+
+            // object files may have a resolution of seconds
+            long start = System.currentTimeMillis() / 1000 * 1000;
+            createLibraries();
+
+            if ( objectCache != null )
+            {
+                for ( Iterator i = misses.entrySet().iterator(); i.hasNext(); )
+                {
+                    Map.Entry group = (Map.Entry) i.next();
+                    storeObjects( objectCache, (File) group.getKey(), (Map) group.getValue(), start );
+                }
+                objectCache.evict();
+                getLog().info( "NAR: Object cache: " + objectCache.getStatistics() );
             }
         }
         else
@@ -104,14 +197,185 @@ public class NarCompileMojo
         {
             throw new MojoExecutionException( "NAR: could not copy include files", e );
         }
+
+        if ( fingerprint != null )
+        {
+            recordOutputs( fingerprint, "nar-compile" );
+        }
+    }
+
+    /**
+     * Creates the precompiled headers of the C++ and C compilers before the sources using them are compiled. Every
+     * group of libraries gets its own, created with the output type of its libraries, as gcc only uses a precompiled
+     * header created with the same -fPIC setting as the source. Changes to the headers they include are tracked by
+     * cpptasks. When a precompiled header is created again, the objects of the sources using it are removed, so that
+     * these are compiled again as well.
+     */
+    private void createPrecompiledHeaders()
+        throws MojoExecutionException, MojoFailureException
+    {
+        Compiler[] compilers = new Compiler[] { getCpp(), getC() };
+        for ( Iterator g = getLibraryGroups().entrySet().iterator(); g.hasNext(); )
+        {
+            Map.Entry group = (Map.Entry) g.next();
+            File groupDir = (File) group.getKey();
+            Library library = (Library) ( (List) group.getValue() ).get( 0 );
+            for ( int i = 0; i < compilers.length; i++ )
+            {
+                Compiler compiler = compilers[i];
+                CompilerDef compilerDefinition = compiler.getPrecompiledHeaderCompiler( Compiler.MAIN, groupDir );
+                if ( compilerDefinition == null )
+                {
+                    continue;
+                }
+
+                CCTask task = new CCTask();
+                task.setProject( getAntProject() );
+                File objDir = compiler.getPrecompiledHeaderObjectDirectory( Compiler.MAIN, groupDir );
+                objDir.mkdirs();
+                task.setObjdir( objDir );
+                task.setFailonerror( failOnError( getAOL() ) );
+                OutputTypeEnum outType = new OutputTypeEnum();
+                outType.setValue( library.getType() );
+                task.setOuttype( outType );
+                SubsystemEnum subSystem = new SubsystemEnum();
+                subSystem.setValue( library.getSubSystem() );
+                task.setSubsystem( subSystem );
+                RuntimeType runtimeType = new RuntimeType();
+                runtimeType.setValue( getRuntime( getAOL() ) );
+                task.setRuntime( runtimeType );
+                task.addConfiguredCompiler( compilerDefinition );
+                for ( Iterator j = getTaskIncludePaths().iterator(); j.hasNext(); )
+                {
+                    task.createIncludePath().setPath( (String) j.next() );
+                }
+
+                File pch = compiler.getPrecompiledHeaderFile( Compiler.MAIN, groupDir );
+                long lastModified = pch.lastModified();
+                try
+                {
+                    executeTask( task, 1 );
+                }
+                catch ( BuildException e )
+                {
+                    throw new MojoExecutionException( "NAR: Precompiled header failed", e );
+                }
+                if ( ( lastModified == 0 ) || ( pch.lastModified() == lastModified ) )
+                {
+                    continue;
+                }
+
+                getLog().info( "NAR: Precompiled header " + compiler.getPrecompiledHeader( Compiler.MAIN )
+                    + " changed, compiling its sources again" );
+                deleteObjects( compiler, compiler.getSourceFiles( Compiler.MAIN, getOutput( getAOL() ) ), groupDir );
+            }
+        }
+    }
+
+    /**
+     * Creates the libraries. Libraries which compile their sources the same way form a group, which compiles them once
+     * into its own object directory and then links each of its libraries in turn. The groups are created concurrently
+     * and share the cores between them. The tasks are configured up front, so only running cpptasks is concurrent.
+     */
+    private void createLibraries()
+        throws MojoExecutionException, MojoFailureException
+    {
+        Map groups = getLibraryGroups();
+        if ( groups.isEmpty() )
+        {
+            return;
+        }
+        int cores = getMaxCores( getAOL() );
+        if ( cores < 1 )
+        {
+            cores = Runtime.getRuntime().availableProcessors();
+        }
+        int groupCores = Math.max( 1, cores / groups.size() );
+
+        List tasks = new ArrayList();
+        for ( Iterator i = groups.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            File objDir = (File) entry.getKey();
+            final List libraryTasks = new ArrayList();
+            for ( Iterator j = ( (List) entry.getValue() ).iterator(); j.hasNext(); )
+            {
+                libraryTasks.add( createLibrary( getAntProject(), (Library) j.next(), objDir, groupCores ) );
+            }
+            tasks.add( new NarTaskExecutor.Task()
+            {
+                public void execute()
+                    throws MojoExecutionException, MojoFailureException
+                {
+                    for ( Iterator j = libraryTasks.iterator(); j.hasNext(); )
+                    {
+                        ( (NarTaskExecutor.Task) j.next() ).execute();
+                    }
+                }
+            } );
+        }
+        getLog().debug( "NAR: Creating " + getLibraries().size() + " libraries in " + groups.size() + " groups" );
+        new NarTaskExecutor( "compile", groups.size() ).execute( tasks );
     }
 
-    private void createLibrary(Project antProject, Library library)
+    /**
+     * Groups the libraries which compile their sources the same way: shared, JNI and plugin libraries share position
+     * independent objects, static libraries and executables share the others.
+     * 
+     * @return the libraries by object directory, the group of the first library uses the default object directory
+     */
+    private Map/* <File, List<Library>> */getLibraryGroups()
+        throws MojoExecutionException, MojoFailureException
+    {
+        Map groups = new LinkedHashMap();
+        for ( Iterator i = getLibraries().iterator(); i.hasNext(); )
+        {
+            Library library = (Library) i.next();
+            String key = ( isPositionIndependent( library ) ? "shared" : "static" ) + "-" + library.getSubSystem();
+            if ( getCpp().isUnity( library ) || getC().isUnity( library ) )
+            {
+                key += "-unity";
+            }
+            List group = (List) groups.get( key );
+            if ( group == null )
+            {
+                group = new ArrayList();
+                groups.put( key, group );
+            }
+            group.add( library );
+        }
+
+        Map result = new LinkedHashMap();
+        for ( Iterator i = groups.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            File objDir = getObjectDirectory();
+            result.put( result.isEmpty() ? objDir : new File( objDir, (String) entry.getKey() ), entry.getValue() );
+        }
+        return result;
+    }
+
+    /**
+     * @return true if cpptasks compiles position independent code for the library
+     */
+    private static boolean isPositionIndependent( Library library )
+    {
+        String type = library.getType();
+        return type.equals( Library.SHARED ) || type.equals( Library.JNI ) || type.equals( Library.PLUGIN );
+    }
+
+    /**
+     * Configures the cpptasks task which creates the library.
+     * 
+     * @return the task running it
+     */
+    private NarTaskExecutor.Task createLibrary( Project antProject, final Library library, File objDir,
+                                                final int cores )
         throws MojoExecutionException, MojoFailureException
     {
         getLog().debug( "Creating Library " + library );
         // configure task
-        CCTask task = new CCTask();
+        final CCTask task = new CCTask();
         task.setProject(antProject);
 
         // subsystem
@@ -120,7 +384,7 @@ public class NarCompileMojo
         task.setSubsystem( subSystem );
 
         // set max cores
-        task.setMaxCores(getMaxCores(getAOL()));
+        task.setMaxCores( cores );
 
         // outtype
         String type = library.getType();
@@ -132,24 +396,12 @@ public class NarCompileMojo
         setLanguageLinkers(task, library);
 
         // outDir
-        File outDir;
-        if ( type.equals( Library.EXECUTABLE ) )
-        {
-            outDir =
-                getLayout().getBinDirectory( getDestinationDirectory(), getMavenProject().getArtifactId(),
-                                             getMavenProject().getVersion(), getAOL().toString() );
-        }
-        else
-        {
-            outDir =
-                getLayout().getLibDirectory( getDestinationDirectory(), getMavenProject().getArtifactId(),
-                                             getMavenProject().getVersion(), getAOL().toString(), type );
-        }
+        File outDir = getOutDirectory( library );
         outDir.mkdirs();
 
         // outFile
         // FIXME NAR-90 we could get the final name from layout
-        File outFile;
+        final File outFile;
         if ( type.equals( Library.EXECUTABLE ) )
         {
             // executable has no version number
@@ -167,8 +419,6 @@ public class NarCompileMojo
         task.setOutfile(outFile);
 
         // object directory
-        File objDir = new File(getDestinationDirectory(), getObjectDirectoryName());
-        objDir = new File(objDir, getAOL().toString());
         objDir.mkdirs();
         task.setObjdir(objDir);
 
@@ -181,37 +431,12 @@ public class NarCompileMojo
         runtimeType.setValue(getRuntime(getAOL()));
         task.setRuntime(runtimeType);
 
-        setCompilerOptions(task, type);
+        setCompilerOptions(task, library, objDir);
 
         // add dependency include paths
-        for ( Iterator i = getNarManager().getNarDependencies(getScope()).iterator(); i.hasNext(); )
+        for ( Iterator i = getDependencyIncludePaths().iterator(); i.hasNext(); )
         {
-            // FIXME, handle multiple includes from one NAR
-            NarArtifact narDependency = (NarArtifact) i.next();
-
-            if (!excludeDependency(narDependency))
-            {
-                String binding = narDependency.getNarInfo().getBinding(getAOL(), Library.STATIC);
-                getLog().debug( "Looking for " + narDependency + " found binding " + binding);
-                if (!binding.equals(Library.JNI ))
-                {
-                    //File unpackDirectory = getUnpackDirectory();
-                    File include =
-                        getLayout().getIncludeDirectory( getDestinationUnpackDirectory(), narDependency.getArtifactId(),
-                                                         narDependency.getVersion() );
-
-                    getLog().debug( "Looking for include directory: " + include );
-                    if ( include.exists() )
-                    {
-                        task.createIncludePath().setPath(include.getPath());
-                    }
-                    else
-                    {
-                        throw new MojoExecutionException(
-                            "NAR: unable to locate include path: " + include);
-                    }
-                }
-            }
+            task.createIncludePath().setPath( (String) i.next() );
         }
 
         // add linker
@@ -326,13 +551,47 @@ public class NarCompileMojo
 
         addObjectFilesToLinker(linkerDefinition);
 
+        // add objects restored from the object cache
+        List objects = new ArrayList( getFiles( cachedObjects, objDir ) );
+
+        // add objects created along with precompiled headers
+        Compiler[] compilers = new Compiler[] { getCpp(), getC() };
+        for ( int i = 0; i < compilers.length; i++ )
+        {
+            File object = compilers[i].getPrecompiledHeaderObject( Compiler.MAIN, objDir );
+            if ( object != null )
+            {
+                objects.add( object );
+            }
+        }
+
+        for ( Iterator i = objects.iterator(); i.hasNext(); )
+        {
+            LinkerArgument arg = new LinkerArgument();
+            arg.setValue( ( (File) i.next() ).getPath() );
+            linkerDefinition.addConfiguredLinkerArg( arg );
+        }
+
         // Add JVM to linker
         getJava().addRuntime( task, getJavaHome( getAOL() ), getOS(), getAOL().getKey() + ".java." );
 
+        return new NarTaskExecutor.Task()
+        {
+            public void execute()
+                throws MojoExecutionException, MojoFailureException
+            {
+                runLibrary( task, library, outFile, cores );
+            }
+        };
+    }
+
+    private void runLibrary( CCTask task, Library library, File outFile, int cores )
+        throws MojoExecutionException, MojoFailureException
+    {
         // execute
         try
         {
-            task.execute();
+            executeTask( task, cores );
         }
         catch ( BuildException e )
         {
@@ -395,13 +654,335 @@ public class NarCompileMojo
         task.setLinkFortranMain( library.linkFortranMain() );
     }
 
+    private File getOutDirectory( Library library )
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( library.getType().equals( Library.EXECUTABLE ) )
+        {
+            return getLayout().getBinDirectory( getDestinationDirectory(), getMavenProject().getArtifactId(),
+                                                getMavenProject().getVersion(), getAOL().toString() );
+        }
+        return getLayout().getLibDirectory( getDestinationDirectory(), getMavenProject().getArtifactId(),
+                                            getMavenProject().getVersion(), getAOL().toString(), library.getType() );
+    }
+
+    private List/* <String> */getDependencyIncludePaths()
+        throws MojoExecutionException, MojoFailureException
+    {
+        List includePaths = new ArrayList();
+        for ( Iterator i = getNarManager().getNarDependencies(getScope()).iterator(); i.hasNext(); )
+        {
+            // FIXME, handle multiple includes from one NAR
+            NarArtifact narDependency = (NarArtifact) i.next();
+
+            if (!excludeDependency(narDependency))
+            {
+                String binding = narDependency.getNarInfo().getBinding(getAOL(), Library.STATIC);
+                getLog().debug( "Looking for " + narDependency + " found binding " + binding);
+                if (!binding.equals(Library.JNI ))
+                {
+                    //File unpackDirectory = getUnpackDirectory();
+                    File include =
+                        getLayout().getIncludeDirectory( getDestinationUnpackDirectory(), narDependency.getArtifactId(),
+                                                         narDependency.getVersion() );
+
+                    getLog().debug( "Looking for include directory: " + include );
+                    if ( include.exists() )
+                    {
+                        includePaths.add( include.getPath() );
+                    }
+                    else
+                    {
+                        throw new MojoExecutionException(
+                            "NAR: unable to locate include path: " + include);
+                    }
+                }
+            }
+        }
+        return includePaths;
+    }
+
+    /**
+     * @return the include paths set on the compile task rather than on the compilers, in the same order
+     */
+    private List/* <String> */getTaskIncludePaths()
+        throws MojoExecutionException, MojoFailureException
+    {
+        List includePaths = new ArrayList();
+        File jniDirectory = getJavah().getJniDirectory();
+        if ( jniDirectory.exists() )
+        {
+            includePaths.add( jniDirectory.getPath() );
+        }
+        includePaths.addAll( getJava().getIncludePaths( ( (Library) getLibraries().get( 0 ) ).getType() ) );
+        includePaths.addAll( getDependencyIncludePaths() );
+        return includePaths;
+    }
+
+    /**
+     * Collects everything the outcome of this goal depends on: the AOL, the plugin configuration and defaults, the
+     * compilers with their arguments, source directories and include paths, the linker and the dependencies.
+     */
+    private NarBuildFingerprint createFingerprint()
+        throws MojoExecutionException, MojoFailureException
+    {
+        File file = new File( getObjectDirectory().getParentFile(), getAOL() + ".fingerprint" );
+        NarBuildFingerprint fingerprint = createFingerprint( file );
+        fingerprint.addParameter( "libraries", getLibraries().toString() );
+
+        List includePaths = getTaskIncludePaths();
+        Compiler[] compilers = new Compiler[] { getCpp(), getC(), getFortran() };
+        for ( int c = 0; c < compilers.length; c++ )
+        {
+            Compiler compiler = compilers[c];
+            String name = compiler.getName();
+            if ( name == null )
+            {
+                continue;
+            }
+            String prefix = "compiler." + compiler.getLanguage();
+            fingerprint.addParameter( prefix, name + " " + compiler.getSettings() );
+            fingerprint.addParameter( prefix + ".arguments",
+                                      compiler.getPreprocessorArguments( Compiler.MAIN, getObjectDirectory(),
+                                                                         includePaths ).toString() );
+            String executable = compiler.getPreprocessor();
+            File compilerFile = NarUtil.findExecutable( executable != null ? executable : name );
+            if ( compilerFile != null )
+            {
+                fingerprint.addInput( compilerFile );
+            }
+            List sources = compiler.getSourceFiles( Compiler.MAIN, getOutput( getAOL() ) );
+            for ( Iterator i = sources.iterator(); i.hasNext(); )
+            {
+                fingerprint.addInput( (File) i.next() );
+            }
+            // all files, not only the included sources: headers next to the sources are included without an
+            // include path, which cpptasks' dependency tracking found but the fingerprint must find itself
+            for ( Iterator i = compiler.getSourceDirectories().iterator(); i.hasNext(); )
+            {
+                fingerprint.addInput( (File) i.next() );
+            }
+            for ( Iterator i = compiler.getIncludePaths( Compiler.MAIN ).iterator(); i.hasNext(); )
+            {
+                fingerprint.addInput( new File( (String) i.next() ) );
+            }
+            for ( Iterator i = compiler.getSystemIncludePaths().iterator(); i.hasNext(); )
+            {
+                fingerprint.addInput( new File( (String) i.next() ) );
+            }
+        }
+        fingerprint.addInput( getJavah().getJniDirectory() );
+        fingerprint.addParameter( "linker", getLinker().getName() );
+        addDependencies( fingerprint, getScope(), new File[] { getDestinationUnpackDirectory() } );
+
+        for ( Iterator i = getCompileOutputs().iterator(); i.hasNext(); )
+        {
+            fingerprint.addOutput( (File) i.next() );
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return the library and executable directories and the include directory
+     */
+    private List/* <File> */getCompileOutputs()
+        throws MojoExecutionException, MojoFailureException
+    {
+        List outputs = new ArrayList();
+        for ( Iterator i = getLibraries().iterator(); i.hasNext(); )
+        {
+            outputs.add( getOutDirectory( (Library) i.next() ) );
+        }
+        outputs.add( getLayout().getIncludeDirectory( getDestinationDirectory(), getMavenProject().getArtifactId(),
+                                                      getMavenProject().getVersion() ) );
+        return outputs;
+    }
+
+    private File getObjectDirectory()
+        throws MojoExecutionException, MojoFailureException
+    {
+        File objDir = new File(getDestinationDirectory(), getObjectDirectoryName());
+        return new File(objDir, getAOL().toString());
+    }
+
+    /**
+     * @return the object cache, or null if not used
+     */
+    private NarObjectCache getObjectCache()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( !narObjectCache || !compilesSources() )
+        {
+            return null;
+        }
+        File directory = narObjectCacheDirectory;
+        if ( directory == null )
+        {
+            directory = new File( getLocalRepository().getBasedir(), ".nar/objects" );
+        }
+        NarObjectCache objectCache = new NarObjectCache( directory, narObjectCacheMaxSize * 1024L * 1024L, getLog() );
+        objectCache.addRoot( "basedir", getMavenProject().getBasedir() );
+        objectCache.addRoot( "localRepository", new File( getLocalRepository().getBasedir() ) );
+        objectCache.setSharedDirectory( narSharedObjectCacheDirectory );
+        objectCache.setJobServer( getJobServer() );
+        return objectCache;
+    }
+
+    /**
+     * @return the files in the map for the object directory
+     */
+    private static List/* <File> */getFiles( Map/* <File, List<File>> */files, File objDir )
+    {
+        List result = (List) files.get( objDir );
+        return result != null ? result : Collections.EMPTY_LIST;
+    }
+
+    /**
+     * @return what objects depend on besides the compiler and its arguments: cpptasks adds -fPIC for shared, JNI and
+     *         plugin libraries, and the runtime selects the C runtime library, such as /MD or /MT for msvc
+     */
+    private String getObjectVariant( boolean positionIndependent )
+        throws MojoExecutionException, MojoFailureException
+    {
+        return ( positionIndependent ? "shared" : "static" ) + " runtime " + getRuntime( getAOL() );
+    }
+
+    /**
+     * Looks up all sources in the object cache and restores the objects found into the object directory of a group
+     * of libraries. These sources are not compiled for the group, their objects are linked instead.
+     *
+     * @param libraries the libraries of the group, which compile their sources the same way
+     * @return the keys of the sources not found in the cache, by source
+     */
+    private Map/* <File, String> */restoreObjects( final NarObjectCache objectCache, final File objDir,
+                                                   List/* <Library> */libraries )
+        throws MojoExecutionException, MojoFailureException
+    {
+        String variant = getObjectVariant( isPositionIndependent( (Library) libraries.get( 0 ) ) );
+
+        List includePaths = getTaskIncludePaths();
+
+        final List sources = new ArrayList();
+        final List keys = new ArrayList();
+        final List objects = new ArrayList();
+        List tasks = new ArrayList();
+        Compiler[] compilers = new Compiler[] { getCpp(), getC(), getFortran() };
+        for ( int c = 0; c < compilers.length; c++ )
+        {
+            final Compiler compiler = compilers[c];
+            final String preprocessor = compiler.getPreprocessor();
+            if ( preprocessor == null )
+            {
+                getLog().debug( "NAR: Object cache does not support compiler " + compiler.getName() );
+                continue;
+            }
+            final List arguments = compiler.getPreprocessorArguments( Compiler.MAIN, objDir, includePaths );
+            final String identity = compiler.getIdentity() + " " + variant;
+            final String extension = compiler.getObjectExtension();
+
+            List files = compiler.getSourceFiles( Compiler.MAIN, getOutput( getAOL() ) );
+            for ( Iterator i = files.iterator(); i.hasNext(); )
+            {
+                final File source = (File) i.next();
+                final int index = sources.size();
+                sources.add( source );
+                keys.add( null );
+                objects.add( null );
+                tasks.add( new NarTaskExecutor.Task()
+                {
+                    public void execute()
+                        throws MojoExecutionException, MojoFailureException
+                    {
+                        String key = objectCache.getKey( preprocessor, arguments, identity, source );
+                        if ( key == null )
+                        {
+                            objectCache.miss();
+                            return;
+                        }
+                        String name = source.getName();
+                        int dot = name.lastIndexOf( '.' );
+                        File object = new File( objDir, ( dot > 0 ? name.substring( 0, dot ) : name ) + extension );
+                        boolean hit = objectCache.restore( key, object );
+                        synchronized ( keys )
+                        {
+                            keys.set( index, key );
+                            objects.set( index, hit ? object : null );
+                        }
+                    }
+                } );
+            }
+        }
+        new NarTaskExecutor( "object cache", getMaxCores( getAOL() ) ).execute( tasks );
+
+        Map misses = new LinkedHashMap();
+        List restoredSources = new ArrayList();
+        List restoredObjects = new ArrayList();
+        for ( int i = 0; i < sources.size(); i++ )
+        {
+            if ( objects.get( i ) != null )
+            {
+                getLog().debug( "NAR: Restored " + objects.get( i ) + " from object cache" );
+                restoredSources.add( sources.get( i ) );
+                restoredObjects.add( objects.get( i ) );
+            }
+            else if ( keys.get( i ) != null )
+            {
+                misses.put( sources.get( i ), keys.get( i ) );
+            }
+        }
+        cachedSources.put( objDir, restoredSources );
+        cachedObjects.put( objDir, restoredObjects );
+        return misses;
+    }
+
+    /**
+     * Stores the objects compiled into the object directory of a group for sources not found in the object cache.
+     *
+     * @param start when compilation started, if failures do not fail the build older objects are not stored
+     */
+    private void storeObjects( NarObjectCache objectCache, File objDir, Map/* <File, String> */misses, long start )
+        throws MojoExecutionException, MojoFailureException
+    {
+        boolean failOnError = failOnError( getAOL() );
+        for ( Iterator i = misses.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            if ( getFiles( unitySources, objDir ).contains( entry.getKey() ) )
+            {
+                continue;
+            }
+            String name = ( (File) entry.getKey() ).getName();
+            int dot = name.lastIndexOf( '.' );
+            String base = dot > 0 ? name.substring( 0, dot ) : name;
+            File object = new File( objDir, base + ".o" );
+            if ( !object.exists() )
+            {
+                object = new File( objDir, base + ".obj" );
+            }
+            if ( object.exists() && ( failOnError || ( object.lastModified() >= start ) ) )
+            {
+                objectCache.store( (String) entry.getValue(), object );
+            }
+        }
+    }
+
+    /**
+     * @return false if this goal only links, the object cache and the build fingerprint then do not apply
+     */
+    protected boolean compilesSources()
+    {
+        return true;
+    }
+
     protected String getObjectDirectoryName()
     {
         return "obj";
     }
 
-    protected void setCompilerOptions(CCTask task, String type) throws MojoFailureException, MojoExecutionException
+    protected void setCompilerOptions(CCTask task, Library library, File objDir)
+        throws MojoFailureException, MojoExecutionException
     {
+        String type = library.getType();
         Compiler cppCompiler = getCpp();
         //Add options for compiling against a winmd file
         getLog().info("Looking for WinRT dependencies");
@@ -437,21 +1018,21 @@ public class NarCompileMojo
         // Darren Sargent Feb 11 2010: Use Compiler.MAIN for "type"...appears the wrong "type" variable was being used
         // since getCompiler() expects "main" or "test", whereas the "type" variable here is "executable", "shared" etc.
         // add C++ compiler
-        CompilerDef cpp = getCpp().getCompiler( Compiler.MAIN, getOutput( getAOL() ) );
+        CompilerDef cpp = getCompiler( getCpp(), library, objDir );
         if ( cpp != null )
         {
             task.addConfiguredCompiler( cpp );
         }
 
         // add C compiler
-        CompilerDef c = getC().getCompiler( Compiler.MAIN, getOutput( getAOL() ) );
+        CompilerDef c = getCompiler( getC(), library, objDir );
         if ( c != null )
         {
             task.addConfiguredCompiler( c );
         }
 
         // add Fortran compiler
-        CompilerDef fortran = getFortran().getCompiler( Compiler.MAIN, getOutput( getAOL() ) );
+        CompilerDef fortran = getCompiler( getFortran(), library, objDir );
         if ( fortran != null )
         {
             task.addConfiguredCompiler( fortran );
@@ -470,6 +1051,53 @@ public class NarCompileMojo
 
     }
 
+    /**
+     * @return the compiler for the sources of the library which are not restored from the object cache, or null if
+     *         there is no compiler for this language
+     */
+    private CompilerDef getCompiler( Compiler compiler, Library library, File objDir )
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( !compiler.isUnity( library ) )
+        {
+            return compiler.getCompiler( Compiler.MAIN, getOutput( getAOL() ), getFiles( cachedSources, objDir ),
+                                         objDir, null, new ArrayList() );
+        }
+
+        List sources = new ArrayList();
+        CompilerDef compilerDefinition =
+            compiler.getCompiler( Compiler.MAIN, getOutput( getAOL() ), getFiles( cachedSources, objDir ), objDir,
+                                  new File( objDir, "unity" ), sources );
+        getLog().debug( "NAR: Compiling " + sources.size() + " " + compiler.getLanguage()
+            + " sources in unity batches" );
+
+        // objects of these sources would otherwise be linked twice
+        deleteObjects( compiler, sources, objDir );
+        List groupSources = (List) unitySources.get( objDir );
+        if ( groupSources == null )
+        {
+            groupSources = new ArrayList();
+            unitySources.put( objDir, groupSources );
+        }
+        groupSources.addAll( sources );
+        return compilerDefinition;
+    }
+
+    /**
+     * Deletes the objects compiled from the given sources.
+     */
+    private void deleteObjects( Compiler compiler, List/* <File> */sources, File objDir )
+        throws MojoExecutionException, MojoFailureException
+    {
+        for ( Iterator i = sources.iterator(); i.hasNext(); )
+        {
+            String name = ( (File) i.next() ).getName();
+            int dot = name.lastIndexOf( '.' );
+            name = ( dot > 0 ? name.substring( 0, dot ) : name ) + compiler.getObjectExtension();
+            new File( objDir, name ).delete();
+        }
+    }
+
     protected String getScope()
     {
         return "compile";
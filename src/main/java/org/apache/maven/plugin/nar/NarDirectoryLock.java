@@ -0,0 +1,246 @@
+package org.apache.maven.plugin.nar;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Exclusive lock on a directory, held while the directory is being populated, for instance while a NAR is unpacked
+ * into it. Threads of this build are kept apart in memory, other Maven processes through a FileChannel lock on a
+ * "&lt;directory&gt;.lock" file next to the directory.
+ * <p>
+ * A lock file is empty while it is in use. One which is removed is first marked as deleted, so that processes which
+ * obtain the lock on the removed file afterwards know to retry on the lock file which replaces it.
+ */
+public final class NarDirectoryLock
+{
+    private static final Set/* <String> */HELD = new HashSet();
+
+    private static final int DELETED = 'x';
+
+    private final String key;
+
+    private final File file;
+
+    private final RandomAccessFile lockFile;
+
+    private final FileLock lock;
+
+    private NarDirectoryLock( String key, File file, RandomAccessFile lockFile, FileLock lock )
+    {
+        this.key = key;
+        this.file = file;
+        this.lockFile = lockFile;
+        this.lock = lock;
+    }
+
+    /**
+     * Blocks until the lock on the given directory is obtained.
+     */
+    public static NarDirectoryLock lock( File directory )
+        throws MojoExecutionException
+    {
+        String key = getKey( directory );
+        synchronized ( HELD )
+        {
+            try
+            {
+                while ( HELD.contains( key ) )
+                {
+                    HELD.wait();
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException( "Interrupted while waiting for lock on " + directory, e );
+            }
+            HELD.add( key );
+        }
+
+        File file = getLockFile( directory );
+        RandomAccessFile lockFile = null;
+        try
+        {
+            while ( true )
+            {
+                file.getParentFile().mkdirs();
+                lockFile = new RandomAccessFile( file, "rw" );
+                FileLock lock = lockFile.getChannel().lock();
+                if ( lockFile.length() == 0 )
+                {
+                    return new NarDirectoryLock( key, file, lockFile, lock );
+                }
+                // deleted while we waited
+                lock.release();
+                close( lockFile );
+            }
+        }
+        catch ( IOException e )
+        {
+            close( lockFile );
+            unlock( key );
+            throw new MojoExecutionException( "Could not lock " + file, e );
+        }
+    }
+
+    /**
+     * @return the lock on the given directory, or null if it is currently held by this or another process.
+     */
+    public static NarDirectoryLock tryLock( File directory )
+        throws MojoExecutionException
+    {
+        String key = getKey( directory );
+        synchronized ( HELD )
+        {
+            if ( HELD.contains( key ) )
+            {
+                return null;
+            }
+            HELD.add( key );
+        }
+
+        File file = getLockFile( directory );
+        RandomAccessFile lockFile = null;
+        try
+        {
+            while ( true )
+            {
+                file.getParentFile().mkdirs();
+                lockFile = new RandomAccessFile( file, "rw" );
+                FileLock lock = lockFile.getChannel().tryLock();
+                if ( lock == null )
+                {
+                    break;
+                }
+                if ( lockFile.length() == 0 )
+                {
+                    return new NarDirectoryLock( key, file, lockFile, lock );
+                }
+                // deleted while we opened it
+                lock.release();
+                close( lockFile );
+            }
+        }
+        catch ( IOException e )
+        {
+            close( lockFile );
+            unlock( key );
+            throw new MojoExecutionException( "Could not lock " + file, e );
+        }
+        close( lockFile );
+        unlock( key );
+        return null;
+    }
+
+    /**
+     * Releases the lock, the lock file is left in place for other processes.
+     */
+    public void release()
+    {
+        try
+        {
+            lock.release();
+        }
+        catch ( IOException e )
+        {
+            // released anyway when the file is closed
+        }
+        close( lockFile );
+        unlock( key );
+    }
+
+    /**
+     * Removes the lock file and releases the lock, for instance once the directory itself was removed.
+     */
+    public void releaseAndDelete()
+    {
+        boolean deleted = false;
+        try
+        {
+            lockFile.seek( 0 );
+            lockFile.write( DELETED );
+            deleted = file.delete();
+            if ( !deleted )
+            {
+                // still in place, so keep using it
+                lockFile.setLength( 0 );
+            }
+        }
+        catch ( IOException e )
+        {
+            // left in place
+        }
+        release();
+        if ( !deleted && OS.WINDOWS.equals( NarUtil.getOS( null ) ) )
+        {
+            // open files cannot be deleted on Windows, this one is only deleted if no other process opened it since
+            file.delete();
+        }
+    }
+
+    private static String getKey( File directory )
+    {
+        try
+        {
+            return directory.getCanonicalPath();
+        }
+        catch ( IOException e )
+        {
+            return directory.getAbsolutePath();
+        }
+    }
+
+    private static File getLockFile( File directory )
+    {
+        return new File( directory.getAbsoluteFile().getParentFile(), directory.getName() + ".lock" );
+    }
+
+    private static void unlock( String key )
+    {
+        synchronized ( HELD )
+        {
+            HELD.remove( key );
+            HELD.notifyAll();
+        }
+    }
+
+    private static void close( RandomAccessFile file )
+    {
+        if ( file != null )
+        {
+            try
+            {
+                file.close();
+            }
+            catch ( IOException e )
+            {
+                // ignore
+            }
+        }
+    }
+}
@@ -29,6 +29,7 @@ import org.apache.maven.plugin.MojoFailureException;
  * Downloads any dependent NAR files. This includes the noarch and aol type NAR files.
  * 
  * @goal nar-download
+ * @threadSafe
  * @phase generate-sources
  * @requiresProject
  * @requiresDependencyResolution
@@ -44,14 +45,15 @@ public class NarDownloadMojo
         List narArtifacts = getNarManager().getNarDependencies( "compile" );
         if ( classifiers == null )
         {
-            getNarManager().downloadAttachedNars( narArtifacts, remoteArtifactRepositories, artifactResolver, null );
+            getNarManager().downloadAttachedNars( narArtifacts, remoteArtifactRepositories, artifactResolver, null,
+                                                  narDownloadThreads );
         }
         else
         {
             for ( Iterator j = classifiers.iterator(); j.hasNext(); )
             {
                 getNarManager().downloadAttachedNars( narArtifacts, remoteArtifactRepositories, artifactResolver,
-                                                      (String) j.next() );
+                                                      (String) j.next(), narDownloadThreads );
             }
         }
     }
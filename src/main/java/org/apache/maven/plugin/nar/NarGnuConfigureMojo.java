@@ -31,6 +31,7 @@ import org.codehaus.plexus.util.FileUtils;
  * them.
  * 
  * @goal nar-gnu-configure
+ * @threadSafe
  * @phase process-sources
  * @requiresProject
  * @author Mark Donszelmann
@@ -28,6 +28,7 @@ import org.apache.maven.plugin.MojoFailureException;
  * Runs make on the GNU style generated Makefile
  * 
  * @goal nar-gnu-make
+ * @threadSafe
  * @phase compile
  * @requiresProject
  * @author Mark Donszelmann
@@ -58,6 +59,19 @@ public class NarGnuMakeMojo
 
     public final void narExecute()
         throws MojoExecutionException, MojoFailureException
+    {
+        try
+        {
+            make();
+        }
+        finally
+        {
+            reportJobServer();
+        }
+    }
+
+    private void make()
+        throws MojoExecutionException, MojoFailureException
     {
         if ( !useGnu() )
         {
@@ -80,7 +94,7 @@ public class NarGnuMakeMojo
             }
 
             getLog().info( "Running GNU make" );
-            int result = NarUtil.runCommand( "make", args, srcDir, env, getLog() );
+            int result = runCommand( "make", args, srcDir, env );
             if ( result != 0 )
             {
                 throw new MojoExecutionException( "'make' errorcode: " + result );
@@ -98,7 +112,7 @@ public class NarGnuMakeMojo
                {
                   args= new String[] { "install" };
                }
-               result = NarUtil.runCommand( "make", args, srcDir, null, getLog() );
+               result = runCommand( "make", args, srcDir, null );
                if ( result != 0 )
                {
                    throw new MojoExecutionException( "'make install' errorcode: " + result );
@@ -28,6 +28,7 @@ import org.apache.maven.plugin.MojoFailureException;
  * Move the GNU style output in the correct directories for nar-package
  * 
  * @goal nar-gnu-process
+ * @threadSafe
  * @phase process-classes
  * @requiresProject
  * @author Mark Donszelmann
@@ -28,6 +28,7 @@ import org.apache.maven.plugin.MojoFailureException;
  * Move the GNU style include/lib to some output directory
  * 
  * @goal nar-gnu-resources
+ * @threadSafe
  * @phase process-resources
  * @requiresProject
  * @author Mark Donszelmann
@@ -19,12 +19,17 @@ package org.apache.maven.plugin.nar;
  * under the License.
  */
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 import java.util.jar.JarEntry;
@@ -119,6 +124,24 @@ public class NarInfo
         info.load( jar.getInputStream( getNarPropertiesEntry( jar ) ) );
     }
 
+    /**
+     * Fills this NarInfo from properties previously obtained with {@link #toProperties()}.
+     */
+    public final void read( Properties properties )
+    {
+        info.putAll( properties );
+    }
+
+    /**
+     * Returns a copy of the properties backing this NarInfo.
+     */
+    public final Properties toProperties()
+    {
+        Properties properties = new Properties();
+        properties.putAll( info );
+        return properties;
+    }
+
     private JarEntry getNarPropertiesEntry( JarFile jar )
     {
         return jar.getJarEntry( "META-INF/nar/" + groupId + "/" + artifactId + "/" + NAR_PROPERTIES );
@@ -179,11 +202,42 @@ public class NarInfo
         return getProperty( aol, "syslibs.names" );
     }
 
+    /**
+     * Writes the properties sorted by key, without the date comment Properties.store adds and with unix line
+     * separators, so that the same properties always give the same file, whichever platform writes it.
+     */
     public final void writeToFile( File file )
         throws IOException
     {
-        info.store( new FileOutputStream( ( file ) ), "NAR Properties for " + groupId + "." + artifactId + "-"
-            + version );
+        String lineSeparator = System.getProperty( "line.separator" );
+        StringBuffer buffer = new StringBuffer();
+        buffer.append( "#NAR Properties for " + groupId + "." + artifactId + "-" + version );
+        buffer.append( '\n' );
+        List keys = new ArrayList( info.keySet() );
+        Collections.sort( keys );
+        for ( Iterator i = keys.iterator(); i.hasNext(); )
+        {
+            // let Properties do the escaping, dropping its date comment
+            String key = (String) i.next();
+            Properties entry = new Properties();
+            entry.setProperty( key, info.getProperty( key ) );
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            entry.store( out, null );
+            String line = out.toString( "ISO-8859-1" );
+            int start = line.indexOf( lineSeparator ) + lineSeparator.length();
+            buffer.append( line.substring( start, line.length() - lineSeparator.length() ) );
+            buffer.append( '\n' );
+        }
+
+        OutputStream out = new FileOutputStream( file );
+        try
+        {
+            out.write( buffer.toString().getBytes( "ISO-8859-1" ) );
+        }
+        finally
+        {
+            out.close();
+        }
     }
 
     private void setProperty( AOL aol, String key, String value )
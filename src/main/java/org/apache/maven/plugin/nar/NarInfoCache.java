@@ -0,0 +1,186 @@
+package org.apache.maven.plugin.nar;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+
+import org.apache.maven.execution.MavenSession;
+
+/**
+ * Remembers the nar.properties read from dependency artifacts for the duration of a build session, including the fact
+ * that an artifact has none. Entries are keyed on the artifact coordinates and on the path, size and modification time
+ * of the artifact file, so a re-downloaded or rebuilt artifact is read again.
+ * <p>
+ * Optionally the cache is backed by a {@link NarInfoIndex}, so entries survive the build.
+ */
+public class NarInfoCache
+{
+    private static final Properties NOT_A_NAR = new Properties();
+
+    // keyed by session start time, which cloned sessions (parallel builds) share with the original
+    private static final Map/* <Date, NarInfoCache> */sessionCaches = new WeakHashMap();
+
+    private final Map/* <String, Properties> */entries = new HashMap();
+
+    // entries not yet written to the index, null value for not a NAR
+    private final Map/* <String, Properties> */pending = new HashMap();
+
+    private NarInfoIndex index;
+
+    private int hits;
+
+    private int misses;
+
+    /**
+     * Returns the cache for the given session. Without a session a new, unshared, cache is returned.
+     */
+    public static NarInfoCache getInstance( MavenSession session )
+    {
+        return getInstance( session, null );
+    }
+
+    /**
+     * Returns the cache for the given session, backed by the index file if given.
+     */
+    public static NarInfoCache getInstance( MavenSession session, File indexFile )
+    {
+        NarInfoCache cache;
+        if ( ( session == null ) || ( session.getStartTime() == null ) )
+        {
+            cache = new NarInfoCache();
+        }
+        else
+        {
+            synchronized ( sessionCaches )
+            {
+                cache = (NarInfoCache) sessionCaches.get( session.getStartTime() );
+                if ( cache == null )
+                {
+                    cache = new NarInfoCache();
+                    sessionCaches.put( session.getStartTime(), cache );
+                }
+            }
+        }
+        if ( indexFile != null )
+        {
+            cache.setIndex( indexFile );
+        }
+        return cache;
+    }
+
+    private synchronized void setIndex( File indexFile )
+    {
+        if ( index == null )
+        {
+            index = new NarInfoIndex( indexFile );
+            Map stored = index.read();
+            for ( Iterator i = stored.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry entry = (Map.Entry) i.next();
+                Properties properties = (Properties) entry.getValue();
+                entries.put( entry.getKey(), properties == null ? NOT_A_NAR : properties );
+            }
+        }
+    }
+
+    public static String getKey( String groupId, String artifactId, String version, File file )
+    {
+        return groupId + ":" + artifactId + ":" + version + "|" + file.getAbsolutePath() + "|" + file.length() + "|"
+            + file.lastModified();
+    }
+
+    /**
+     * Counts as a hit or a miss.
+     *
+     * @return true if the file for this key was looked at before, in which case {@link #get(String)} gives the answer.
+     */
+    public final synchronized boolean contains( String key )
+    {
+        if ( entries.containsKey( key ) )
+        {
+            hits++;
+            return true;
+        }
+        misses++;
+        return false;
+    }
+
+    /**
+     * @return a copy of the nar.properties stored for this key, or null if the artifact is not a NAR.
+     */
+    public final synchronized Properties get( String key )
+    {
+        Properties properties = (Properties) entries.get( key );
+        if ( ( properties == null ) || ( properties == NOT_A_NAR ) )
+        {
+            return null;
+        }
+        Properties copy = new Properties();
+        copy.putAll( properties );
+        return copy;
+    }
+
+    /**
+     * Stores the nar.properties for this key, null marks the artifact as not being a NAR.
+     */
+    public final synchronized void put( String key, Properties properties )
+    {
+        entries.put( key, properties == null ? NOT_A_NAR : properties );
+        if ( index != null )
+        {
+            pending.put( key, properties );
+        }
+    }
+
+    /**
+     * Writes entries added since the last flush to the index, if any.
+     */
+    public final synchronized void flush()
+        throws IOException
+    {
+        if ( ( index != null ) && !pending.isEmpty() )
+        {
+            index.write( pending );
+            pending.clear();
+        }
+    }
+
+    public final synchronized int getHits()
+    {
+        return hits;
+    }
+
+    public final synchronized int getMisses()
+    {
+        return misses;
+    }
+
+    public final synchronized String toString()
+    {
+        return "NarInfo cache: " + entries.size() + " entries, " + hits + " hits, " + misses + " misses"
+            + ( index != null ? ", index " + index.getFile() : "" );
+    }
+}
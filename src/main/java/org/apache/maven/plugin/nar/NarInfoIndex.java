@@ -0,0 +1,285 @@
+package org.apache.maven.plugin.nar;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary index of the nar.properties found in artifacts of a local repository, kept across builds. Each entry maps a
+ * {@link NarInfoCache#getKey(String, String, String, File) cache key} to the nar.properties of that artifact, or to
+ * null if the artifact is not a NAR.
+ * <p>
+ * The file is replaced as a whole through a rename, so readers never see a partial file, and writers from several
+ * Maven processes are serialized with a lock file. A file that cannot be read or fails its checksum is treated as empty
+ * and rewritten on the next update. Entries for artifact files that changed or disappeared are dropped when writing.
+ */
+public class NarInfoIndex
+{
+    private static final int MAGIC = 0x4E415249; // NARI
+
+    private static final int VERSION = 1;
+
+    // FileChannel locks are per process, so threads of the same build also need to be kept apart
+    private static final Object LOCK = new Object();
+
+    private final File file;
+
+    public NarInfoIndex( File file )
+    {
+        this.file = file;
+    }
+
+    public final File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return map of key to nar.properties (null for artifacts which are not a NAR), empty if there is no valid index.
+     */
+    public final Map/* <String, Properties> */read()
+    {
+        Map entries = new HashMap();
+        DataInputStream in = null;
+        try
+        {
+            CheckedInputStream checked =
+                new CheckedInputStream( new BufferedInputStream( new FileInputStream( file ) ), new CRC32() );
+            in = new DataInputStream( checked );
+            if ( ( in.readInt() != MAGIC ) || ( in.readInt() != VERSION ) )
+            {
+                return new HashMap();
+            }
+            int count = in.readInt();
+            for ( int i = 0; i < count; i++ )
+            {
+                String key = in.readUTF();
+                Properties properties = null;
+                if ( in.readBoolean() )
+                {
+                    properties = new Properties();
+                    int size = in.readInt();
+                    for ( int j = 0; j < size; j++ )
+                    {
+                        String name = in.readUTF();
+                        properties.setProperty( name, in.readUTF() );
+                    }
+                }
+                entries.put( key, properties );
+            }
+            long crc = checked.getChecksum().getValue();
+            if ( in.readLong() != crc )
+            {
+                return new HashMap();
+            }
+            return entries;
+        }
+        catch ( FileNotFoundException e )
+        {
+            return new HashMap();
+        }
+        catch ( IOException e )
+        {
+            // truncated or otherwise damaged, will be rewritten
+            return new HashMap();
+        }
+        finally
+        {
+            close( in );
+        }
+    }
+
+    /**
+     * Merges the given entries into the index on disk.
+     */
+    public final void write( Map/* <String, Properties> */newEntries )
+        throws IOException
+    {
+        File dir = file.getParentFile();
+        if ( !dir.exists() && !dir.mkdirs() && !dir.exists() )
+        {
+            throw new IOException( "Could not create directory " + dir );
+        }
+
+        synchronized ( LOCK )
+        {
+            RandomAccessFile lockFile = new RandomAccessFile( new File( dir, file.getName() + ".lock" ), "rw" );
+            try
+            {
+                FileLock lock = lockFile.getChannel().lock();
+                try
+                {
+                    Map entries = read();
+                    entries.putAll( newEntries );
+                    writeEntries( dir, entries );
+                }
+                finally
+                {
+                    lock.release();
+                }
+            }
+            finally
+            {
+                lockFile.close();
+            }
+        }
+    }
+
+    private void writeEntries( File dir, Map entries )
+        throws IOException
+    {
+        Map current = new HashMap();
+        for ( Iterator i = entries.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            if ( isCurrent( (String) entry.getKey() ) && fits( (String) entry.getKey(), (Properties) entry.getValue() ) )
+            {
+                current.put( entry.getKey(), entry.getValue() );
+            }
+        }
+
+        File tmp = File.createTempFile( file.getName(), ".tmp", dir );
+        DataOutputStream out = null;
+        try
+        {
+            CheckedOutputStream checked =
+                new CheckedOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ), new CRC32() );
+            out = new DataOutputStream( checked );
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( current.size() );
+            for ( Iterator i = current.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry entry = (Map.Entry) i.next();
+                out.writeUTF( (String) entry.getKey() );
+                Properties properties = (Properties) entry.getValue();
+                out.writeBoolean( properties != null );
+                if ( properties != null )
+                {
+                    out.writeInt( properties.size() );
+                    for ( Iterator j = properties.keySet().iterator(); j.hasNext(); )
+                    {
+                        String name = (String) j.next();
+                        out.writeUTF( name );
+                        out.writeUTF( properties.getProperty( name ) );
+                    }
+                }
+            }
+            out.writeLong( checked.getChecksum().getValue() );
+            out.close();
+            out = null;
+
+            if ( !tmp.renameTo( file ) )
+            {
+                // windows does not rename over an existing file, we hold the lock so nobody else writes it
+                file.delete();
+                if ( !tmp.renameTo( file ) )
+                {
+                    throw new IOException( "Could not rename " + tmp + " to " + file );
+                }
+            }
+        }
+        finally
+        {
+            close( out );
+            tmp.delete();
+        }
+    }
+
+    /**
+     * @return true if the artifact file named in the key still has the size and modification time recorded in the key.
+     */
+    static boolean isCurrent( String key )
+    {
+        int pathStart = key.indexOf( '|' );
+        int modifiedStart = key.lastIndexOf( '|' );
+        int sizeStart = key.lastIndexOf( '|', modifiedStart - 1 );
+        if ( ( pathStart < 0 ) || ( sizeStart <= pathStart ) )
+        {
+            return false;
+        }
+        try
+        {
+            File artifact = new File( key.substring( pathStart + 1, sizeStart ) );
+            long size = Long.parseLong( key.substring( sizeStart + 1, modifiedStart ) );
+            long modified = Long.parseLong( key.substring( modifiedStart + 1 ) );
+            return artifact.exists() && ( artifact.length() == size ) && ( artifact.lastModified() == modified );
+        }
+        catch ( NumberFormatException e )
+        {
+            return false;
+        }
+    }
+
+    // writeUTF is limited to 65535 bytes, a character takes at most 3
+    private static boolean fits( String key, Properties properties )
+    {
+        final int maxChars = 65535 / 3;
+        if ( key.length() > maxChars )
+        {
+            return false;
+        }
+        if ( properties != null )
+        {
+            for ( Iterator i = properties.keySet().iterator(); i.hasNext(); )
+            {
+                String name = (String) i.next();
+                if ( ( name.length() > maxChars ) || ( properties.getProperty( name ).length() > maxChars ) )
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void close( Closeable closeable )
+    {
+        if ( closeable != null )
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch ( IOException e )
+            {
+                // ignore
+            }
+        }
+    }
+}
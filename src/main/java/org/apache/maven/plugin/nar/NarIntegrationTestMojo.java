@@ -84,6 +84,7 @@ import org.codehaus.plexus.util.StringUtils;
  * @version $Id: SurefirePlugin.java 652773 2008-05-02 05:58:54Z dfabulich $ Mods by Duns for NAR
  * @requiresDependencyResolution test
  * @goal nar-integration-test
+ * @threadSafe
  * @phase integration-test
  */
 // DUNS, changed class name, inheritance, goal and phase
@@ -551,9 +552,28 @@ public class NarIntegrationTestMojo
      */
     private MavenSession session;
 
+    private static final Object IN_PROCESS_LOCK = new Object();
+
     // DUNS, changed name
     public void narExecute()
         throws MojoExecutionException, MojoFailureException
+    {
+        // tests running in the JVM of the build change its system properties, so modules built in parallel take turns
+        if ( ForkConfiguration.FORK_NEVER.equals( forkMode ) )
+        {
+            synchronized ( IN_PROCESS_LOCK )
+            {
+                runTests();
+            }
+        }
+        else
+        {
+            runTests();
+        }
+    }
+
+    private void runTests()
+        throws MojoExecutionException, MojoFailureException
     {
         if ( verifyParameters() )
         {
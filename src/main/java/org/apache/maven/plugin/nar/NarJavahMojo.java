@@ -19,7 +19,6 @@ package org.apache.maven.plugin.nar;
  * under the License.
  */
 
-import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.toolchain.ToolchainManager;
@@ -29,6 +28,7 @@ import org.apache.maven.toolchain.ToolchainManager;
  * "native" will be run through javah.
  * 
  * @goal nar-javah
+ * @threadSafe
  * @phase compile
  * @requiresSession
  * @author Mark Donszelmann
@@ -41,22 +41,9 @@ public class NarJavahMojo
      */
     private ToolchainManager toolchainManager;
 
-    /**
-     * The current build session instance.
-     * 
-     * @parameter expression="${session}"
-     * @required
-     * @readonly
-     */
-    private MavenSession session;
-    
     protected final ToolchainManager getToolchainManager() {
         return toolchainManager;
     }
-    
-    protected final MavenSession getSession() {
-        return session;
-    }
 
     public final void narExecute()
         throws MojoExecutionException, MojoFailureException
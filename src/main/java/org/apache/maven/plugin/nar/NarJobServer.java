@@ -0,0 +1,240 @@
+package org.apache.maven.plugin.nar;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Semaphore;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Limits the number of native jobs, such as compiler processes, make runs and tests, running at the same time in a
+ * build. The tokens are shared by all mojo executions of the session, so modules built in parallel (mvn -T) together
+ * use no more cores than the machine has. The number of tokens is fixed by the first execution asking for them.
+ * <p>
+ * A job waits for its first token only, and takes as many more as it asked for and are free at that moment. The time
+ * jobs waited and the tokens they held are kept, see {@link #toString()}.
+ */
+public class NarJobServer
+{
+    // keyed by session start time, which cloned sessions (parallel builds) share with the original
+    private static final Map/* <Date, NarJobServer> */sessionServers = new WeakHashMap();
+
+    private final int tokens;
+
+    private final Semaphore semaphore;
+
+    private int jobs;
+
+    private int held;
+
+    private int maxHeld;
+
+    private long heldMillis;
+
+    private long waitMillis;
+
+    private long maxWaitMillis;
+
+    /**
+     * A running job, which holds its tokens until it is released.
+     */
+    public final class Job
+    {
+        private final int jobTokens;
+
+        private final long start;
+
+        private boolean released;
+
+        private Job( int jobTokens )
+        {
+            this.jobTokens = jobTokens;
+            this.start = System.currentTimeMillis();
+        }
+
+        public int getTokens()
+        {
+            return jobTokens;
+        }
+
+        public void release()
+        {
+            synchronized ( NarJobServer.this )
+            {
+                if ( released )
+                {
+                    return;
+                }
+                released = true;
+                held -= jobTokens;
+                heldMillis += jobTokens * ( System.currentTimeMillis() - start );
+            }
+            semaphore.release( jobTokens );
+        }
+    }
+
+    /**
+     * Returns the job server of the given session. Without a session a new, unshared, job server is returned.
+     *
+     * @param jobs number of tokens, less than 1 means one per available processor
+     * @param jobMemory MB of memory a job needs, if positive the tokens are limited to the free physical memory
+     */
+    public static NarJobServer getInstance( MavenSession session, int jobs, int jobMemory, Log log )
+    {
+        if ( ( session == null ) || ( session.getStartTime() == null ) )
+        {
+            return new NarJobServer( getTokens( jobs, jobMemory, log ) );
+        }
+        synchronized ( sessionServers )
+        {
+            NarJobServer server = (NarJobServer) sessionServers.get( session.getStartTime() );
+            if ( server == null )
+            {
+                server = new NarJobServer( getTokens( jobs, jobMemory, log ) );
+                log.debug( "NAR: job server with " + server.getTokens() + " tokens" );
+                sessionServers.put( session.getStartTime(), server );
+            }
+            return server;
+        }
+    }
+
+    static int getTokens( int jobs, int jobMemory, Log log )
+    {
+        int tokens = jobs < 1 ? Runtime.getRuntime().availableProcessors() : jobs;
+        if ( jobMemory > 0 )
+        {
+            long freeMemory = getFreePhysicalMemory();
+            if ( freeMemory < 0 )
+            {
+                log.debug( "NAR: free physical memory unknown, not limiting jobs by memory" );
+            }
+            else
+            {
+                long memoryTokens = Math.max( 1, freeMemory / ( jobMemory * 1024L * 1024L ) );
+                tokens = (int) Math.min( tokens, memoryTokens );
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @return the free physical memory in bytes, or -1 if the JVM does not tell
+     */
+    private static long getFreePhysicalMemory()
+    {
+        try
+        {
+            Class beanClass = Class.forName( "com.sun.management.OperatingSystemMXBean" );
+            Object bean = ManagementFactory.getOperatingSystemMXBean();
+            if ( beanClass.isInstance( bean ) )
+            {
+                Method method = beanClass.getMethod( "getFreePhysicalMemorySize", new Class[0] );
+                return ( (Long) method.invoke( bean, new Object[0] ) ).longValue();
+            }
+        }
+        catch ( Exception e )
+        {
+            // not a Sun compatible JVM
+        }
+        return -1;
+    }
+
+    NarJobServer( int tokens )
+    {
+        this.tokens = tokens;
+        this.semaphore = new Semaphore( tokens, true );
+    }
+
+    public final int getTokens()
+    {
+        return tokens;
+    }
+
+    /**
+     * Waits for a token, then takes up to the requested number of tokens which are free.
+     *
+     * @param requested number of tokens the job can use, at least one is taken
+     */
+    public final Job acquire( int requested )
+        throws MojoExecutionException
+    {
+        long start = System.currentTimeMillis();
+        try
+        {
+            semaphore.acquire();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException( "NAR: interrupted while waiting for a job token", e );
+        }
+        long wait = System.currentTimeMillis() - start;
+
+        int granted = 1;
+        int more = Math.min( requested, tokens ) - 1;
+        if ( ( more > 0 ) && semaphore.tryAcquire( more ) )
+        {
+            granted += more;
+        }
+        else
+        {
+            while ( ( more-- > 0 ) && semaphore.tryAcquire() )
+            {
+                granted++;
+            }
+        }
+
+        synchronized ( this )
+        {
+            jobs++;
+            held += granted;
+            maxHeld = Math.max( maxHeld, held );
+            waitMillis += wait;
+            maxWaitMillis = Math.max( maxWaitMillis, wait );
+        }
+        return new Job( granted );
+    }
+
+    public final synchronized int getMaxHeld()
+    {
+        return maxHeld;
+    }
+
+    public final synchronized long getWaitMillis()
+    {
+        return waitMillis;
+    }
+
+    /**
+     * @return the usage of the job server so far
+     */
+    public final synchronized String toString()
+    {
+        return "NAR job server: " + tokens + " tokens, " + jobs + " jobs, at most " + maxHeld + " tokens held, "
+            + ( heldMillis / 1000 ) + " token-seconds held, " + ( waitMillis / 1000 ) + " s waited (longest "
+            + ( maxWaitMillis / 1000 ) + " s)";
+    }
+}
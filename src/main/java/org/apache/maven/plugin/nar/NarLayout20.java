@@ -106,7 +106,7 @@ public class NarLayout20
      */
     public final void attachNars( File baseDir, ArchiverManager archiverManager, MavenProjectHelper projectHelper,
                                   MavenProject project, NarInfo narInfo )
-        throws MojoExecutionException
+        throws MojoExecutionException, MojoFailureException
     {
         if ( getIncludeDirectory( baseDir, project.getArtifactId(), project.getVersion() ).exists() )
         {
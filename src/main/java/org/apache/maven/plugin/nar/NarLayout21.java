@@ -2,6 +2,10 @@ package org.apache.maven.plugin.nar;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -108,20 +112,25 @@ public class NarLayout21
      * @see org.apache.maven.plugin.nar.NarLayout#attachNars(java.io.File, org.apache.maven.project.MavenProjectHelper,
      * org.apache.maven.project.MavenProject, org.apache.maven.plugin.nar.NarInfo)
      */
-    public final void attachNars( File baseDir, ArchiverManager archiverManager, MavenProjectHelper projectHelper,
-                                  MavenProject project, NarInfo narInfo )
-        throws MojoExecutionException
+    public final void attachNars( File baseDir, final ArchiverManager archiverManager,
+                                  MavenProjectHelper projectHelper, final MavenProject project, NarInfo narInfo )
+        throws MojoExecutionException, MojoFailureException
     {
+        final List/* <String> */classifiers = new ArrayList();
+        final List/* <File> */dirs = new ArrayList();
         if ( getNoArchDirectory( baseDir, project.getArtifactId(), project.getVersion() ).exists() )
         {
-            attachNar( archiverManager, projectHelper, project, NarConstants.NAR_NO_ARCH,
-                       getNoArchDirectory( baseDir, project.getArtifactId(), project.getVersion() ), "*/**" );
-            narInfo.setNar( null, NarConstants.NAR_NO_ARCH, project.getGroupId() + ":" + project.getArtifactId() + ":"
-                + NarConstants.NAR_TYPE + ":" + NarConstants.NAR_NO_ARCH );
+            classifiers.add( NarConstants.NAR_NO_ARCH );
+            dirs.add( getNoArchDirectory( baseDir, project.getArtifactId(), project.getVersion() ) );
         }
 
-        // list all directories in basedir, scan them for classifiers
+        // list all directories in basedir, scan them for classifiers, sorted so the nar info does not depend on the
+        // order of the file system
         String[] subDirs = baseDir.list();
+        if ( subDirs != null )
+        {
+            Arrays.sort( subDirs );
+        }
         for ( int i = 0; ( subDirs != null ) && ( i < subDirs.length ); i++ )
         {
             String artifactIdVersion = project.getArtifactId() + "-" + project.getVersion();
@@ -136,41 +145,83 @@ public class NarLayout21
             if ( classifier.equals( NarConstants.NAR_NO_ARCH ) )
                 continue;
 
-            File dir = new File( baseDir, subDirs[i] );
-            attachNar( archiverManager, projectHelper, project, classifier, dir, "*/**" );
-
-            int lastDash = classifier.lastIndexOf( '-' );
-            String type = classifier.substring( lastDash + 1 );
-            AOL aol = new AOL( classifier.substring( 0, lastDash ) );
+            classifiers.add( classifier );
+            dirs.add( new File( baseDir, subDirs[i] ) );
+        }
 
-            if ( type.equals( Library.EXECUTABLE ) )
+        // the archives are independent, create them concurrently and share the processors between them
+        NarTaskExecutor executor = new NarTaskExecutor( "package", getPackageThreads() );
+        final int archiveThreads =
+            Math.max( 1, Runtime.getRuntime().availableProcessors()
+                / Math.max( 1, Math.min( executor.getThreads(), classifiers.size() ) ) );
+        final File[] narFiles = new File[classifiers.size()];
+        List tasks = new ArrayList();
+        for ( int i = 0; i < classifiers.size(); i++ )
+        {
+            final int index = i;
+            tasks.add( new NarTaskExecutor.Task()
             {
-                if ( narInfo.getBinding( aol, null ) == null )
+                public void execute()
+                    throws MojoExecutionException, MojoFailureException
                 {
-                    narInfo.setBinding( aol, Library.EXECUTABLE );
-                }
-                if ( narInfo.getBinding( null, null ) == null )
-                {
-                    narInfo.setBinding( null, Library.EXECUTABLE );
+                    narFiles[index] =
+                        createNar( archiverManager, project, (String) classifiers.get( index ),
+                                   (File) dirs.get( index ), "*/**", archiveThreads );
                 }
+            } );
+        }
+        executor.execute( tasks );
+
+        // attach and record in a fixed order
+        for ( int i = 0; i < classifiers.size(); i++ )
+        {
+            String classifier = (String) classifiers.get( i );
+            projectHelper.attachArtifact( project, NarConstants.NAR_TYPE, classifier, narFiles[i] );
+            if ( classifier.equals( NarConstants.NAR_NO_ARCH ) )
+            {
+                narInfo.setNar( null, NarConstants.NAR_NO_ARCH, project.getGroupId() + ":" + project.getArtifactId()
+                    + ":" + NarConstants.NAR_TYPE + ":" + NarConstants.NAR_NO_ARCH );
             }
             else
             {
-                // and not set or override if SHARED
-                if ( ( narInfo.getBinding( aol, null ) == null ) || !type.equals( Library.SHARED ) )
-                {
-                    narInfo.setBinding( aol, type );
-                }
-                // and not set or override if SHARED
-                if ( ( narInfo.getBinding( null, null ) == null ) || !type.equals( Library.SHARED ) )
-                {
-                    narInfo.setBinding( null, type );
-                }
+                setBinding( narInfo, project, classifier );
             }
+        }
+    }
 
-            narInfo.setNar( null, type, project.getGroupId() + ":" + project.getArtifactId() + ":"
-                + NarConstants.NAR_TYPE + ":" + "${aol}" + "-" + type );
+    private void setBinding( NarInfo narInfo, MavenProject project, String classifier )
+    {
+        int lastDash = classifier.lastIndexOf( '-' );
+        String type = classifier.substring( lastDash + 1 );
+        AOL aol = new AOL( classifier.substring( 0, lastDash ) );
+
+        if ( type.equals( Library.EXECUTABLE ) )
+        {
+            if ( narInfo.getBinding( aol, null ) == null )
+            {
+                narInfo.setBinding( aol, Library.EXECUTABLE );
+            }
+            if ( narInfo.getBinding( null, null ) == null )
+            {
+                narInfo.setBinding( null, Library.EXECUTABLE );
+            }
         }
+        else
+        {
+            // and not set or override if SHARED
+            if ( ( narInfo.getBinding( aol, null ) == null ) || !type.equals( Library.SHARED ) )
+            {
+                narInfo.setBinding( aol, type );
+            }
+            // and not set or override if SHARED
+            if ( ( narInfo.getBinding( null, null ) == null ) || !type.equals( Library.SHARED ) )
+            {
+                narInfo.setBinding( null, type );
+            }
+        }
+
+        narInfo.setNar( null, type, project.getGroupId() + ":" + project.getArtifactId() + ":"
+            + NarConstants.NAR_TYPE + ":" + "${aol}" + "-" + type );
     }
 
     public void unpackNar( File unpackDirectory, ArchiverManager archiverManager, File file, String os, String linkerName,
@@ -178,19 +229,22 @@ public class NarLayout21
         throws MojoExecutionException, MojoFailureException
     {
         File dir = getNarUnpackDirectory(unpackDirectory, file);
+        NarUnpackMarker marker = getUnpackMarker( unpackDirectory, file, os, linkerName, defaultAOL );
 
-        boolean process = false;
-
-        if ( !unpackDirectory.exists() )
+        if ( dir.exists() && marker.isCurrent() )
         {
-            unpackDirectory.mkdirs();
-            process = true;
+            getLog().debug( "NAR: " + file.getName() + " already unpacked in " + dir );
+            return;
         }
-        else if ( !dir.exists() )
+
+        // no marker means stale content or an interrupted unpack
+        marker.delete();
+        if ( NarUtil.isSymbolicLink( dir ) || !dir.exists() )
         {
-            process = true;
+            // link into the unpack store, possibly dangling
+            dir.delete();
         }
-        else if ( file.lastModified() > dir.lastModified() )
+        else
         {
             try
             {
@@ -200,14 +254,48 @@ public class NarLayout21
             {
                 throw new MojoExecutionException( "Could not delete directory: " + dir, e );
             }
-
-            process = true;
         }
+        unpackDirectory.mkdirs();
 
-        if ( process )
+        if ( getUnpackStore() != null )
+        {
+            unpackNarIntoStore( archiverManager, file, dir, os, linkerName, defaultAOL, marker.getParameters() );
+        }
+        else
         {
             unpackNarAndProcess( archiverManager, file, dir, os, linkerName, defaultAOL );
         }
+        marker.write();
+    }
+
+    private void unpackNarIntoStore( final ArchiverManager archiverManager, final File file, File dir,
+                                     final String os, final String linkerName, final AOL defaultAOL,
+                                     Properties parameters )
+        throws MojoExecutionException, MojoFailureException
+    {
+        getUnpackStore().unpack( file, parameters, dir, new NarUnpackStore.Populator()
+        {
+            public void populate( File directory )
+                throws MojoExecutionException, MojoFailureException
+            {
+                unpackNarAndProcess( archiverManager, file, directory, os, linkerName, defaultAOL );
+            }
+        } );
+    }
+
+    /**
+     * Returns the marker which records that the nar file was completely unpacked, next to its unpack directory.
+     */
+    protected NarUnpackMarker getUnpackMarker( File unpackDirectory, File file, String os, String linkerName,
+                                               AOL defaultAOL )
+    {
+        Properties parameters = new Properties();
+        parameters.setProperty( "layout", getClass().getName() );
+        parameters.setProperty( "os", String.valueOf( os ) );
+        parameters.setProperty( "linker", String.valueOf( linkerName ) );
+        parameters.setProperty( "aol", defaultAOL.toString() );
+        File dir = getNarUnpackDirectory( unpackDirectory, file );
+        return new NarUnpackMarker( new File( unpackDirectory, dir.getName() + ".unpacked" ), file, parameters );
     }
 
     public File getNarUnpackDirectory(File baseUnpackDirectory, File narFile)
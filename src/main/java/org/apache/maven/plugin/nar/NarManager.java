@@ -24,10 +24,13 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.jar.JarFile;
 
 import org.apache.maven.artifact.Artifact;
@@ -36,6 +39,7 @@ import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
 import org.apache.maven.artifact.resolver.ArtifactResolutionException;
 import org.apache.maven.artifact.resolver.ArtifactResolver;
 import org.apache.maven.artifact.versioning.InvalidVersionSpecificationException;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
@@ -48,7 +52,7 @@ import org.codehaus.plexus.archiver.manager.ArchiverManager;
 public class NarManager
 {
 
-	private Log log;
+	private volatile Log log;
 
 	private MavenProject project;
 
@@ -58,29 +62,102 @@ public class NarManager
 
 	private String linkerName;
 
+    private NarInfoCache narInfoCache;
+
+    // project.getArtifacts() changes with the dependency resolution scope of each mojo
+    private Set indexedArtifacts;
+
+    private int indexedArtifactsSize;
+
+    private List/* <Artifact> */allArtifacts;
+
+    private Map/* <String, List<Artifact>> */artifactsByScope;
+
+    private Map/* <String, List<NarArtifact>> */narDependenciesByScope = new HashMap();
+
+    // keyed by session start time, see NarInfoCache
+    private static final Map/* <Date, Map<String, NarManager>> */sessionManagers = new WeakHashMap();
+
     private String[] narTypes =
         { NarConstants.NAR_NO_ARCH, Library.STATIC, Library.SHARED, Library.JNI, Library.PLUGIN };
 
     public NarManager( Log log, ArtifactRepository repository, MavenProject project, String architecture, String os,
                        Linker linker )
         throws MojoFailureException, MojoExecutionException
+    {
+        this( log, repository, project, architecture, os, linker, new NarInfoCache() );
+    }
+
+    public NarManager( Log log, ArtifactRepository repository, MavenProject project, String architecture, String os,
+                       Linker linker, NarInfoCache narInfoCache )
+        throws MojoFailureException, MojoExecutionException
     {
 		this.log = log;
+		this.narInfoCache = narInfoCache;
 		this.repository = repository;
 		this.project = project;
 		this.defaultAOL = NarUtil.getAOL(project, architecture, os, linker, null);
 		this.linkerName = NarUtil.getLinkerName(project, architecture, os, linker);
 	}
 
+    /**
+     * Returns the NarManager for the project, AOL and linker, shared by all mojo executions of the session. Without a
+     * session a new NarManager is returned. The manager logs to the given log until it is returned again.
+     */
+    public static NarManager getInstance( MavenSession session, Log log, ArtifactRepository repository,
+                                          MavenProject project, String architecture, String os, Linker linker,
+                                          NarInfoCache narInfoCache )
+        throws MojoFailureException, MojoExecutionException
+    {
+        if ( ( session == null ) || ( session.getStartTime() == null ) )
+        {
+            return new NarManager( log, repository, project, architecture, os, linker, narInfoCache );
+        }
+
+        String key =
+            project.getId() + "|" + project.getBasedir() + "|" + repository.getBasedir() + "|"
+                + NarUtil.getAOL( project, architecture, os, linker, null );
+        synchronized ( sessionManagers )
+        {
+            Map managers = (Map) sessionManagers.get( session.getStartTime() );
+            if ( managers == null )
+            {
+                managers = new HashMap();
+                sessionManagers.put( session.getStartTime(), managers );
+            }
+            NarManager manager = (NarManager) managers.get( key );
+            if ( manager == null )
+            {
+                manager = new NarManager( log, repository, project, architecture, os, linker, narInfoCache );
+                managers.put( key, manager );
+            }
+            else
+            {
+                // log through the mojo execution asking for the manager, the log of an earlier one is stale
+                manager.log = log;
+            }
+            return manager;
+        }
+    }
+
     /**
      * Returns dependencies which are dependent on NAR files (i.e. contain NarInfo)
      */
     public final List/* <NarArtifact> */getNarDependencies(String scope)
         throws MojoExecutionException
     {
-        List dependencies = getDependencies( scope );
-        List narDependencies = filterOutNonNarDependencies(dependencies);
-        return narDependencies;
+        synchronized ( narDependenciesByScope )
+        {
+            indexArtifacts();
+            List narDependencies = (List) narDependenciesByScope.get( scope );
+            if ( narDependencies == null )
+            {
+                narDependencies = filterOutNonNarDependencies( getDependencies( scope ) );
+                narDependenciesByScope.put( scope, narDependencies );
+            }
+            // callers are free to modify the list
+            return new LinkedList( narDependencies );
+        }
     }
 
     /**
@@ -109,6 +186,15 @@ public class NarManager
                 narDependencies.add(new NarArtifact(dependency, narInfo));
             }
         }
+        log.debug( narInfoCache.toString() );
+        try
+        {
+            narInfoCache.flush();
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Could not update NAR info index: " + e.getMessage() );
+        }
         return narDependencies;
     }
 
@@ -309,17 +395,32 @@ public class NarManager
 			return null;
 		}
 
+        NarInfo info =
+            new NarInfo( dependency.getGroupId(), dependency.getArtifactId(), dependency.getBaseVersion(), log );
+        String key =
+            NarInfoCache.getKey( dependency.getGroupId(), dependency.getArtifactId(), dependency.getBaseVersion(), file );
+        if ( narInfoCache.contains( key ) )
+        {
+            Properties properties = narInfoCache.get( key );
+            if ( properties == null )
+            {
+                return null;
+            }
+            info.read( properties );
+            return info;
+        }
+
 		JarFile jar = null;
         try
         {
 			jar = new JarFile(file);
-            NarInfo info =
-                new NarInfo( dependency.getGroupId(), dependency.getArtifactId(), dependency.getBaseVersion(), log );
             if ( !info.exists( jar ) )
             {
+                narInfoCache.put( key, null );
 				return null;
 			}
 			info.read(jar);
+            narInfoCache.put( key, info.toProperties() );
 			return info;
         }
         catch ( IOException e )
@@ -354,11 +455,43 @@ public class NarManager
 
     private List getDependencies( String scope )
     {
-        Set artifacts = project.getArtifacts();
-        List dependencies = filterDependenciesByScope(scope, artifacts);
-        return dependencies;
+        if ( scope.equals( Artifact.SCOPE_TEST ) )
+        {
+            return allArtifacts;
+        }
+        List dependencies = (List) artifactsByScope.get( scope );
+        return dependencies != null ? dependencies : new ArrayList();
 	}
 
+    /**
+     * Sorts the project artifacts by scope, once for each set of artifacts the project is given.
+     */
+    private void indexArtifacts()
+    {
+        Set artifacts = project.getArtifacts();
+        if ( ( artifacts == indexedArtifacts ) && ( artifacts.size() == indexedArtifactsSize ) )
+        {
+            return;
+        }
+
+        allArtifacts = new ArrayList( artifacts );
+        artifactsByScope = new HashMap();
+        for ( Iterator i = allArtifacts.iterator(); i.hasNext(); )
+        {
+            Artifact a = (Artifact) i.next();
+            List dependencies = (List) artifactsByScope.get( a.getScope() );
+            if ( dependencies == null )
+            {
+                dependencies = new ArrayList();
+                artifactsByScope.put( a.getScope(), dependencies );
+            }
+            dependencies.add( a );
+        }
+        narDependenciesByScope.clear();
+        indexedArtifacts = artifacts;
+        indexedArtifactsSize = artifacts.size();
+    }
+
     private List getDirectDependencies( String scope )
     {
         Set artifacts = project.getDependencyArtifacts();
@@ -383,6 +516,17 @@ public class NarManager
     public final void downloadAttachedNars( List/* <NarArtifacts> */narArtifacts, List remoteRepositories,
 			ArtifactResolver resolver, String classifier)
         throws MojoExecutionException, MojoFailureException
+    {
+        downloadAttachedNars( narArtifacts, remoteRepositories, resolver, classifier, 1 );
+    }
+
+    /**
+     * Resolves the attached NARs of the given NAR dependencies using the given number of threads. Every attached NAR
+     * is resolved at most once. All resolutions are attempted and their failures are reported together.
+     */
+    public final void downloadAttachedNars( List/* <NarArtifacts> */narArtifacts, final List remoteRepositories,
+                                            final ArtifactResolver resolver, String classifier, int threads )
+        throws MojoExecutionException, MojoFailureException
     {
 		// FIXME this may not be the right way to do this.... -U ignored and
 		// also SNAPSHOT not used
@@ -395,30 +539,62 @@ public class NarManager
 		}
 		log.debug("}");
 
+        Map/* <String, Artifact> */unique = new LinkedHashMap();
         for ( Iterator i = dependencies.iterator(); i.hasNext(); )
         {
-			Artifact dependency = (Artifact) i.next();
-            try
-            {
-				log.debug("Resolving " + dependency);
-				resolver.resolve(dependency, remoteRepositories, repository);
-            }
-            catch ( ArtifactNotFoundException e )
+            Artifact dependency = (Artifact) i.next();
+            if ( !unique.containsKey( dependency.getId() ) )
             {
-				String message = "nar not found " + dependency.getId();
-				throw new MojoExecutionException(message, e);
+                unique.put( dependency.getId(), dependency );
             }
-            catch ( ArtifactResolutionException e )
+        }
+
+        List tasks = new ArrayList();
+        for ( Iterator i = unique.values().iterator(); i.hasNext(); )
+        {
+            final Artifact dependency = (Artifact) i.next();
+            tasks.add( new NarTaskExecutor.Task()
             {
-				String message = "nar cannot resolve " + dependency.getId();
-				throw new MojoExecutionException(message, e);
-			}
-		}
+                public void execute()
+                    throws MojoExecutionException
+                {
+                    try
+                    {
+                        log.debug( "Resolving " + dependency );
+                        resolver.resolve( dependency, remoteRepositories, repository );
+                    }
+                    catch ( ArtifactNotFoundException e )
+                    {
+                        String message = "nar not found " + dependency.getId();
+                        throw new MojoExecutionException( message, e );
+                    }
+                    catch ( ArtifactResolutionException e )
+                    {
+                        String message = "nar cannot resolve " + dependency.getId();
+                        throw new MojoExecutionException( message, e );
+                    }
+                }
+            } );
+        }
+        new NarTaskExecutor( "download", threads ).execute( tasks );
 	}
 
     public final void unpackAttachedNars( List/* <NarArtifacts> */narArtifacts, ArchiverManager archiverManager,
                                           String classifier, String os, NarLayout layout, File unpackDir )
         throws MojoExecutionException, MojoFailureException
+    {
+        unpackAttachedNars( narArtifacts, archiverManager, classifier, os, layout, unpackDir, 1 );
+    }
+
+    /**
+     * Unpacks the attached NARs of the given NAR dependencies using the given number of threads. The unpack directory
+     * of each NAR is locked while it is checked and extracted, so other threads and other builds sharing the unpack
+     * directory wait rather than extract the same NAR at the same time. Failures are reported together.
+     */
+    public final void unpackAttachedNars( List/* <NarArtifacts> */narArtifacts,
+                                          final ArchiverManager archiverManager, String classifier, final String os,
+                                          final NarLayout layout, final File unpackDir, int threads )
+        throws MojoExecutionException, MojoFailureException
     {
         log.debug( "Unpack called for OS: " + os + ", classifier: " + classifier + " for NarArtifacts {" );
         for ( Iterator i = narArtifacts.iterator(); i.hasNext(); )
@@ -428,13 +604,42 @@ public class NarManager
 		log.debug("}");
 		// FIXME, kludge to get to download the -noarch, based on classifier
 		List dependencies = getAttachedNarDependencies(narArtifacts, classifier);
+
+        Map/* <File, Artifact> */unique = new LinkedHashMap();
         for ( Iterator i = dependencies.iterator(); i.hasNext(); )
         {
-			Artifact dependency = (Artifact) i.next();
-            log.debug("Unpack " + dependency + " to " + unpackDir);
-			File file = getNarFile(dependency);
+            Artifact dependency = (Artifact) i.next();
+            File file = getNarFile( dependency );
+            if ( !unique.containsKey( file ) )
+            {
+                unique.put( file, dependency );
+            }
+        }
 
-            layout.unpackNar(unpackDir, archiverManager, file, os, linkerName, defaultAOL);            
-		}
+        List tasks = new ArrayList();
+        for ( Iterator i = unique.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            final File file = (File) entry.getKey();
+            final Artifact dependency = (Artifact) entry.getValue();
+            tasks.add( new NarTaskExecutor.Task()
+            {
+                public void execute()
+                    throws MojoExecutionException, MojoFailureException
+                {
+                    log.debug( "Unpack " + dependency + " to " + unpackDir );
+                    NarDirectoryLock lock = NarDirectoryLock.lock( layout.getNarUnpackDirectory( unpackDir, file ) );
+                    try
+                    {
+                        layout.unpackNar( unpackDir, archiverManager, file, os, linkerName, defaultAOL );
+                    }
+                    finally
+                    {
+                        lock.release();
+                    }
+                }
+            } );
+        }
+        new NarTaskExecutor( "unpack", threads ).execute( tasks );
 	}
 }
@@ -37,6 +37,7 @@ import org.xml.sax.SAXException;
  * Creates a nuget package for a module
  *
  * @goal nar-create-nuget
+ * @threadSafe
  * @phase package
  * @requiresProject
  * @requiresDependencyCollection compile
@@ -0,0 +1,619 @@
+package org.apache.maven.plugin.nar;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Cache of object files, shared by all modules and builds using the same cache directory. Objects are addressed by the
+ * SHA-1 of the preprocessed source, the identity and version of the compiler and the arguments used to preprocess it,
+ * so a header change or a different define gives a different key while a touched but unchanged source still hits.
+ * Paths below the roots, such as the base directory and the local repository, are replaced by the name of their root
+ * in the arguments and in the line markers of the preprocessed source, as for {@link NarBuildFingerprint}, so that
+ * another checkout of the same sources hits as well. Paths in the code itself, such as expansions of __FILE__, are
+ * kept. Debug information of an object restored from another checkout names the paths of that checkout.
+ * <p>
+ * Entries are stored as "&lt;directory&gt;/&lt;2 hex digits&gt;/&lt;rest of key&gt;". An entry starts with a line
+ * holding the SHA-1 of the object, followed by the object itself; entries which do not match their checksum are
+ * removed. Entries are written to a temporary file first and renamed into place, so that a reader never sees a
+ * partial object, not even on a file system shared by several machines. The modification time of an entry is the last
+ * time it was used; when the cache grows beyond its maximum size the least recently used entries are removed.
+ * <p>
+ * An optional shared directory, for instance on a file system mounted by all build agents, is used as second tier.
+ * Objects found there are copied into the local directory, and new objects are stored in both. The shared directory
+ * is not trimmed by builds, see {@link NarTrimObjectCacheMojo}.
+ */
+public class NarObjectCache
+{
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * Temporary files older than this are left over from crashed builds.
+     */
+    private static final long TEMPORARY_AGE = 24L * 60 * 60 * 1000;
+
+    /**
+     * Length of the hex SHA-1 of an object.
+     */
+    private static final int CHECKSUM_LENGTH = 40;
+
+    /**
+     * Orders paths so that a root inside another root is replaced first.
+     */
+    private static final Comparator LONGEST_FIRST = new Comparator()
+    {
+        public int compare( Object o1, Object o2 )
+        {
+            String path1 = (String) o1;
+            String path2 = (String) o2;
+            return path1.length() != path2.length() ? path2.length() - path1.length() : path1.compareTo( path2 );
+        }
+    };
+
+    private final File directory;
+
+    private final long maxSize;
+
+    private final Log log;
+
+    /**
+     * Name by path of the root, longest path first.
+     */
+    private final Map/* <String, String> */roots = new TreeMap( LONGEST_FIRST );
+
+    private File sharedDirectory;
+
+    private NarJobServer jobServer;
+
+    private int hits;
+
+    private int sharedHits;
+
+    private int misses;
+
+    private int stored;
+
+    private int evicted;
+
+    private int corrupt;
+
+    /**
+     * @param directory root of the cache
+     * @param maxSize maximum size of the cache in bytes
+     */
+    public NarObjectCache( File directory, long maxSize, Log log )
+    {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.log = log;
+    }
+
+    public final File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Preprocesses the source and computes its key.
+     * 
+     * @param preprocessor the executable which writes the preprocessed source to standard output
+     * @param arguments arguments of the preprocessor, the source is appended to them
+     * @param identity identity of the compiler, see {@link Compiler#getIdentity()}
+     * @return the key of the source, or null if it could not be preprocessed
+     */
+    public final String getKey( String preprocessor, List/* <String> */arguments, String identity, File source )
+        throws MojoExecutionException, MojoFailureException
+    {
+        final MessageDigest digest = createDigest();
+        update( digest, identity );
+        for ( Iterator i = arguments.iterator(); i.hasNext(); )
+        {
+            update( digest, relativize( (String) i.next() ) );
+        }
+
+        List args = new ArrayList( arguments );
+        args.add( source.getPath() );
+        TextStream out = new TextStream()
+        {
+            public void println( String text )
+            {
+                // line markers, such as # 1 "/path/source.c" or #line 1 "c:\\path\\source.c"
+                String line = text.startsWith( "#" ) ? relativize( text ) : text;
+                synchronized ( digest )
+                {
+                    update( digest, line );
+                }
+            }
+        };
+        TextStream err = new StringTextStream();
+        TextStream dbg = new StringTextStream();
+        NarJobServer.Job job = jobServer != null ? jobServer.acquire( 1 ) : null;
+        int result;
+        try
+        {
+            result =
+                NarUtil.runCommand( preprocessor, (String[]) args.toArray( new String[args.size()] ), null, null, out,
+                                    err, dbg );
+        }
+        finally
+        {
+            if ( job != null )
+            {
+                job.release();
+            }
+        }
+        if ( result != 0 )
+        {
+            log.debug( "NAR: cannot preprocess " + source + " for the object cache: " + err );
+            return null;
+        }
+        synchronized ( digest )
+        {
+            return NarUtil.toHex( digest.digest() );
+        }
+    }
+
+    /**
+     * Adds a directory of which paths are replaced by the given name in the key, to be called before keys are computed.
+     */
+    public final void addRoot( String name, File directory )
+    {
+        String path = directory.getAbsolutePath();
+        String value = "${" + name + "}";
+        roots.put( path, value );
+        if ( File.separatorChar != '/' )
+        {
+            roots.put( path.replace( File.separatorChar, '/' ), value );
+            // escaped in the line markers of some preprocessors
+            roots.put( StringUtils.replace( path, File.separator, File.separator + File.separator ), value );
+        }
+    }
+
+    /**
+     * @return the value with the paths of the roots replaced by their names
+     */
+    private String relativize( String value )
+    {
+        for ( Iterator i = roots.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            value = StringUtils.replace( value, (String) entry.getKey(), (String) entry.getValue() );
+        }
+        return value;
+    }
+
+    /**
+     * @param sharedDirectory root of the shared second tier, or null for none
+     */
+    public final void setSharedDirectory( File sharedDirectory )
+    {
+        this.sharedDirectory = sharedDirectory;
+    }
+
+    public final File getSharedDirectory()
+    {
+        return sharedDirectory;
+    }
+
+    /**
+     * @param jobServer job server the preprocessor runs as a job of, or null to run it right away
+     */
+    public final void setJobServer( NarJobServer jobServer )
+    {
+        this.jobServer = jobServer;
+    }
+
+    /**
+     * Copies the cached object with the given key to the object file, looking in the local directory first and in the
+     * shared directory next.
+     * 
+     * @return true on a cache hit
+     */
+    public final boolean restore( String key, File object )
+    {
+        if ( restore( getEntry( directory, key ), object ) )
+        {
+            synchronized ( this )
+            {
+                hits++;
+            }
+            return true;
+        }
+
+        if ( ( sharedDirectory != null ) && restore( getEntry( sharedDirectory, key ), object ) )
+        {
+            try
+            {
+                write( getEntry( directory, key ), object );
+            }
+            catch ( IOException e )
+            {
+                log.warn( "NAR: cannot copy " + object + " into object cache: " + e.getMessage() );
+            }
+            synchronized ( this )
+            {
+                hits++;
+                sharedHits++;
+            }
+            return true;
+        }
+
+        miss();
+        return false;
+    }
+
+    /**
+     * Stores the object file under the given key, in the shared directory too unless already there.
+     */
+    public final void store( String key, File object )
+        throws MojoExecutionException
+    {
+        try
+        {
+            write( getEntry( directory, key ), object );
+            if ( sharedDirectory != null )
+            {
+                File shared = getEntry( sharedDirectory, key );
+                if ( !shared.isFile() )
+                {
+                    write( shared, object );
+                }
+            }
+            synchronized ( this )
+            {
+                stored++;
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "NAR: cannot store " + object + " in object cache", e );
+        }
+    }
+
+    /**
+     * Removes the least recently used entries of the local directory until it fits the maximum size.
+     */
+    public final void evict()
+    {
+        int count = trim( directory, maxSize, log );
+        synchronized ( this )
+        {
+            evicted += count;
+        }
+    }
+
+    /**
+     * Removes the least recently used entries of a cache directory until it fits the given size, as well as temporary
+     * files left over by crashed builds. Entries being read by other builds may be removed, these builds then either
+     * still read the complete entry or count a miss.
+     * 
+     * @return the number of entries removed
+     */
+    public static int trim( File directory, long maxSize, Log log )
+    {
+        File[] dirs = directory.listFiles();
+        if ( dirs == null )
+        {
+            return 0;
+        }
+
+        List entries = new ArrayList();
+        long size = 0;
+        long now = System.currentTimeMillis();
+        for ( int i = 0; i < dirs.length; i++ )
+        {
+            File[] files = dirs[i].listFiles();
+            if ( files == null )
+            {
+                continue;
+            }
+            for ( int j = 0; j < files.length; j++ )
+            {
+                if ( !files[j].getName().endsWith( TEMPORARY_SUFFIX ) )
+                {
+                    entries.add( files[j] );
+                    size += files[j].length();
+                }
+                else if ( now - files[j].lastModified() > TEMPORARY_AGE )
+                {
+                    files[j].delete();
+                }
+            }
+        }
+        if ( size <= maxSize )
+        {
+            return 0;
+        }
+
+        Collections.sort( entries, new Comparator()
+        {
+            public int compare( Object o1, Object o2 )
+            {
+                long m1 = ( (File) o1 ).lastModified();
+                long m2 = ( (File) o2 ).lastModified();
+                return m1 < m2 ? -1 : ( m1 == m2 ? 0 : 1 );
+            }
+        } );
+
+        int count = 0;
+        for ( Iterator i = entries.iterator(); i.hasNext() && ( size > maxSize ); )
+        {
+            File entry = (File) i.next();
+            long entrySize = entry.length();
+            if ( entry.delete() )
+            {
+                size -= entrySize;
+                count++;
+            }
+        }
+        log.debug( "NAR: object cache " + directory + " trimmed to " + size + " bytes" );
+        return count;
+    }
+
+    public final synchronized int getHits()
+    {
+        return hits;
+    }
+
+    public final synchronized int getMisses()
+    {
+        return misses;
+    }
+
+    public final synchronized int getStored()
+    {
+        return stored;
+    }
+
+    public final synchronized int getEvicted()
+    {
+        return evicted;
+    }
+
+    public final synchronized int getSharedHits()
+    {
+        return sharedHits;
+    }
+
+    public final synchronized int getCorrupt()
+    {
+        return corrupt;
+    }
+
+    /**
+     * Counts a source which cannot be cached as a miss.
+     */
+    public final synchronized void miss()
+    {
+        misses++;
+    }
+
+    public final synchronized String getStatistics()
+    {
+        int lookups = hits + misses;
+        int rate = lookups == 0 ? 0 : (int) ( hits * 100L / lookups );
+        StringBuffer statistics = new StringBuffer();
+        statistics.append( hits ).append( " hits" );
+        if ( sharedDirectory != null )
+        {
+            statistics.append( " (" ).append( sharedHits ).append( " shared)" );
+        }
+        statistics.append( ", " ).append( misses ).append( " misses (" ).append( rate ).append( "% hit rate), " );
+        statistics.append( stored ).append( " stored, " ).append( evicted ).append( " evicted" );
+        if ( corrupt > 0 )
+        {
+            statistics.append( ", " ).append( corrupt ).append( " corrupt" );
+        }
+        return statistics.toString();
+    }
+
+    private static File getEntry( File directory, String key )
+    {
+        return new File( new File( directory, key.substring( 0, 2 ) ), key.substring( 2 ) );
+    }
+
+    /**
+     * Copies the object out of the entry, checking its checksum on the way.
+     * 
+     * @return false if there is no such entry, or it is corrupt or removed while reading it
+     */
+    private boolean restore( File entry, File object )
+    {
+        if ( !entry.isFile() )
+        {
+            return false;
+        }
+
+        File temporary = null;
+        try
+        {
+            String expected;
+            String actual;
+            object.getParentFile().mkdirs();
+            temporary = File.createTempFile( "object", TEMPORARY_SUFFIX, object.getParentFile() );
+            InputStream in = new FileInputStream( entry );
+            try
+            {
+                byte[] header = new byte[CHECKSUM_LENGTH + 1];
+                int length = 0;
+                int n;
+                while ( ( length < header.length )
+                    && ( ( n = in.read( header, length, header.length - length ) ) > 0 ) )
+                {
+                    length += n;
+                }
+                expected = length == header.length ? new String( header, 0, CHECKSUM_LENGTH, "US-ASCII" ) : "";
+
+                MessageDigest digest = createDigest();
+                OutputStream out = new FileOutputStream( temporary );
+                try
+                {
+                    byte[] buffer = new byte[65536];
+                    while ( ( n = in.read( buffer ) ) > 0 )
+                    {
+                        digest.update( buffer, 0, n );
+                        out.write( buffer, 0, n );
+                    }
+                }
+                finally
+                {
+                    out.close();
+                }
+                actual = NarUtil.toHex( digest.digest() );
+            }
+            finally
+            {
+                in.close();
+            }
+
+            if ( !expected.equals( actual ) )
+            {
+                log.warn( "NAR: removing corrupt object cache entry " + entry );
+                entry.delete();
+                synchronized ( this )
+                {
+                    corrupt++;
+                }
+                return false;
+            }
+
+            object.delete();
+            if ( !temporary.renameTo( object ) )
+            {
+                throw new IOException( "cannot rename " + temporary + " to " + object );
+            }
+            temporary = null;
+            long now = System.currentTimeMillis();
+            object.setLastModified( now );
+            entry.setLastModified( now );
+            return true;
+        }
+        catch ( IOException e )
+        {
+            log.debug( "NAR: cannot restore " + object + " from " + entry + ": " + e.getMessage() );
+            return false;
+        }
+        catch ( MojoExecutionException e )
+        {
+            log.debug( "NAR: cannot restore " + object + " from " + entry + ": " + e.getMessage() );
+            return false;
+        }
+        finally
+        {
+            if ( temporary != null )
+            {
+                temporary.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes the object with its checksum to a temporary file and renames it to the entry. An entry written
+     * concurrently under the same key has the same content, so losing the race is fine.
+     */
+    private static void write( File entry, File object )
+        throws IOException
+    {
+        File parent = entry.getParentFile();
+        parent.mkdirs();
+        String checksum = NarUtil.getChecksum( object );
+        File temporary = File.createTempFile( "object", TEMPORARY_SUFFIX, parent );
+        try
+        {
+            OutputStream out = new FileOutputStream( temporary );
+            try
+            {
+                out.write( ( checksum + "\n" ).getBytes( "US-ASCII" ) );
+                InputStream in = new FileInputStream( object );
+                try
+                {
+                    byte[] buffer = new byte[65536];
+                    int n;
+                    while ( ( n = in.read( buffer ) ) > 0 )
+                    {
+                        out.write( buffer, 0, n );
+                    }
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+            if ( !temporary.renameTo( entry ) && !entry.isFile() )
+            {
+                throw new IOException( "cannot rename " + temporary + " to " + entry );
+            }
+        }
+        finally
+        {
+            temporary.delete();
+        }
+    }
+
+    private static MessageDigest createDigest()
+        throws MojoExecutionException
+    {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-1" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new MojoExecutionException( "NAR: SHA-1 not available", e );
+        }
+    }
+
+    private static void update( MessageDigest digest, String text )
+    {
+        try
+        {
+            digest.update( text.getBytes( "UTF-8" ) );
+            digest.update( (byte) '\n' );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( "UTF-8 not supported" );
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.apache.maven.plugin.nar;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Machine wide cache of the outputs of a goal, such as the libraries, executables and include files created by
+ * nar-compile, addressed by the hash of the build fingerprint of the goal. When a module is built again with the same
+ * fingerprint, for instance the same commit on another workspace, its outputs are restored instead of being built.
+ * <p>
+ * An entry holds the output files by their path relative to the project base directory. Outputs are copied in and
+ * copied out, rather than linked, so that entries never share files with a workspace which may still change them: the
+ * plugin, as plexus, rewrites files such as the include files in place. As in {@link NarUnpackStore}, a
+ * "&lt;entry&gt;.used" file marks complete entries, and the least recently used entries are removed beyond the maximum
+ * size.
+ */
+public class NarOutputCache
+{
+    private final File directory;
+
+    private final long maxSize;
+
+    private final Log log;
+
+    /**
+     * @param directory root of the cache
+     * @param maxSize maximum size of the cache in bytes
+     */
+    public NarOutputCache( File directory, long maxSize, Log log )
+    {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.log = log;
+    }
+
+    public final File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Restores the outputs stored under the given key into the base directory, replacing existing files.
+     * 
+     * @return false if there is no such entry
+     */
+    public final boolean restore( String key, File baseDirectory )
+        throws MojoExecutionException
+    {
+        File entry = new File( directory, key );
+        File used = new File( directory, key + ".used" );
+
+        NarDirectoryLock lock = NarDirectoryLock.lock( entry );
+        try
+        {
+            if ( !used.exists() || !entry.isDirectory() )
+            {
+                return false;
+            }
+
+            DirectoryScanner scanner = new DirectoryScanner();
+            scanner.setBasedir( entry );
+            scanner.scan();
+            String[] files = scanner.getIncludedFiles();
+            for ( int i = 0; i < files.length; i++ )
+            {
+                File source = new File( entry, files[i] );
+                File target = new File( baseDirectory, files[i] );
+                target.getParentFile().mkdirs();
+                // the target may be a hard link restored by an earlier version, do not write through it
+                if ( target.exists() && !target.delete() )
+                {
+                    throw new MojoExecutionException( "NAR: cannot replace " + target );
+                }
+                // keeps the executable bit
+                NarUtil.copyDirectoryStructure( source.getParentFile(), target.getParentFile(), source.getName(),
+                                                null );
+                target.setLastModified( source.lastModified() );
+            }
+            used.setLastModified( System.currentTimeMillis() );
+            log.debug( "NAR: restored " + files.length + " files from " + entry );
+            return true;
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "NAR: cannot restore outputs from " + entry, e );
+        }
+        finally
+        {
+            lock.release();
+        }
+    }
+
+    /**
+     * Stores the files below the given output directories under the given key, unless already stored.
+     * 
+     * @param outputs output directories or files below the base directory
+     */
+    public final void store( String key, File baseDirectory, List/* <File> */outputs )
+        throws MojoExecutionException
+    {
+        File entry = new File( directory, key );
+        File used = new File( directory, key + ".used" );
+
+        NarDirectoryLock lock = NarDirectoryLock.lock( entry );
+        try
+        {
+            if ( used.exists() && entry.isDirectory() )
+            {
+                return;
+            }
+            NarUnpackStore.deleteDirectory( entry );
+            String base = baseDirectory.getAbsolutePath() + File.separator;
+            for ( Iterator i = outputs.iterator(); i.hasNext(); )
+            {
+                File output = (File) i.next();
+                String path = output.getAbsolutePath();
+                if ( !path.startsWith( base ) )
+                {
+                    log.warn( "NAR: not caching outputs, " + output + " is not below " + baseDirectory );
+                    NarUnpackStore.deleteDirectory( entry );
+                    return;
+                }
+                File target = new File( entry, path.substring( base.length() ) );
+                if ( output.isDirectory() )
+                {
+                    NarUtil.copyDirectoryStructure( output, target, "**", null );
+                }
+                else if ( output.isFile() )
+                {
+                    NarUtil.copyDirectoryStructure( output.getParentFile(), target.getParentFile(), output.getName(),
+                                                    null );
+                }
+            }
+            FileUtils.fileWrite( used.getPath(), String.valueOf( NarUnpackStore.getSize( entry ) ) );
+            log.debug( "NAR: stored outputs in " + entry );
+        }
+        catch ( IOException e )
+        {
+            used.delete();
+            throw new MojoExecutionException( "NAR: cannot store outputs in " + entry, e );
+        }
+        finally
+        {
+            lock.release();
+        }
+
+        NarUnpackStore.evict( directory, maxSize, key, log );
+    }
+}
@@ -0,0 +1,307 @@
+package org.apache.maven.plugin.nar;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.util.DirectoryScanner;
+
+/**
+ * Manifest written next to a NAR file created by nar-package. It records the relative path, size, modification time,
+ * unix mode and checksum of every input of the NAR file, the parameters used to create it, such as the plugin version
+ * and the archiver settings, and the size and modification time of the NAR file itself. When nothing changed the NAR
+ * file can be attached again instead of being recreated.
+ * <p>
+ * As for {@link NarUnpackMarker}, checksums of the inputs are only computed when their modification time changed.
+ */
+public class NarPackageManifest
+{
+    private static final String ENTRY = "entry.";
+
+    private static final String PARAMETER = "parameter.";
+
+    private static final String SIZE = "nar.size";
+
+    private static final String LAST_MODIFIED = "nar.lastModified";
+
+    private static final String DIRECTORY = "directory";
+
+    private final File manifest;
+
+    private final File directory;
+
+    private final String[] includes;
+
+    private final Properties parameters;
+
+    /**
+     * Entries of which the recorded checksum is known to match the current content.
+     */
+    private final Map/* <String, String> */verified = new HashMap();
+
+    /**
+     * @param manifest the manifest file
+     * @param directory the directory the NAR file is created from
+     * @param includes patterns of the entries of the NAR file
+     * @param parameters parameters which influence the content of the NAR file, such as the plugin version and the
+     *            compression
+     */
+    public NarPackageManifest( File manifest, File directory, String[] includes, Properties parameters )
+    {
+        this.manifest = manifest;
+        this.directory = directory;
+        this.includes = includes;
+        this.parameters = parameters;
+    }
+
+    public final File getFile()
+    {
+        return manifest;
+    }
+
+    /**
+     * @return true if the NAR file was created by the same parameters from inputs with the current content, and was
+     *         not modified since.
+     */
+    public final boolean isCurrent( File narFile )
+        throws MojoExecutionException
+    {
+        if ( !manifest.exists() || !narFile.exists() )
+        {
+            return false;
+        }
+
+        Properties recorded = new Properties();
+        try
+        {
+            InputStream in = new FileInputStream( manifest );
+            try
+            {
+                recorded.load( in );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            return false;
+        }
+
+        if ( !String.valueOf( narFile.length() ).equals( recorded.getProperty( SIZE ) )
+            || !String.valueOf( narFile.lastModified() ).equals( recorded.getProperty( LAST_MODIFIED ) ) )
+        {
+            return false;
+        }
+
+        int recordedParameters = 0;
+        int recordedEntries = 0;
+        for ( Iterator i = recorded.keySet().iterator(); i.hasNext(); )
+        {
+            String key = (String) i.next();
+            if ( key.startsWith( PARAMETER ) )
+            {
+                recordedParameters++;
+            }
+            else if ( key.startsWith( ENTRY ) )
+            {
+                recordedEntries++;
+            }
+        }
+        if ( recordedParameters != parameters.size() )
+        {
+            return false;
+        }
+        for ( Iterator i = parameters.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            if ( !entry.getValue().equals( recorded.getProperty( PARAMETER + entry.getKey() ) ) )
+            {
+                return false;
+            }
+        }
+
+        String[] entries = scan();
+        if ( entries.length != recordedEntries )
+        {
+            return false;
+        }
+        boolean touched = false;
+        for ( int i = 0; i < entries.length; i++ )
+        {
+            String value = recorded.getProperty( ENTRY + entries[i] );
+            if ( value == null )
+            {
+                return false;
+            }
+            String current = describe( entries[i], false );
+            if ( value.equals( current ) || ( !current.startsWith( DIRECTORY ) && value.startsWith( current ) ) )
+            {
+                verified.put( entries[i], value );
+                continue;
+            }
+
+            // same size and mode, but touched
+            String[] fields = value.split( " " );
+            String[] currentFields = current.split( " " );
+            File file = new File( directory, entries[i] );
+            if ( ( fields.length != 4 ) || ( currentFields.length != 3 ) || !fields[0].equals( currentFields[0] )
+                || !fields[2].equals( currentFields[2] ) || !fields[3].equals( getChecksum( file ) ) )
+            {
+                return false;
+            }
+            verified.put( entries[i], describe( entries[i], true ) );
+            touched = true;
+        }
+
+        if ( touched )
+        {
+            write( narFile );
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the manifest, to be called before the NAR file is created.
+     */
+    public final void delete()
+        throws MojoExecutionException
+    {
+        if ( manifest.exists() && !manifest.delete() )
+        {
+            throw new MojoExecutionException( "Cannot delete package manifest: " + manifest );
+        }
+    }
+
+    /**
+     * Writes the manifest, to be called after the NAR file was created.
+     */
+    public final void write( File narFile )
+        throws MojoExecutionException
+    {
+        Properties properties = new Properties();
+        for ( Iterator i = parameters.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            properties.setProperty( PARAMETER + entry.getKey(), (String) entry.getValue() );
+        }
+        String[] entries = scan();
+        for ( int i = 0; i < entries.length; i++ )
+        {
+            String value = (String) verified.get( entries[i] );
+            properties.setProperty( ENTRY + entries[i], value != null ? value : describe( entries[i], true ) );
+        }
+        properties.setProperty( SIZE, String.valueOf( narFile.length() ) );
+        properties.setProperty( LAST_MODIFIED, String.valueOf( narFile.lastModified() ) );
+
+        File tmp = new File( manifest.getParentFile(), manifest.getName() + ".tmp" );
+        try
+        {
+            OutputStream out = new FileOutputStream( tmp );
+            try
+            {
+                properties.store( out, "NAR package manifest for " + narFile.getName() );
+            }
+            finally
+            {
+                out.close();
+            }
+            manifest.delete();
+            if ( !tmp.renameTo( manifest ) )
+            {
+                throw new IOException( "Cannot rename " + tmp + " to " + manifest );
+            }
+        }
+        catch ( IOException e )
+        {
+            tmp.delete();
+            throw new MojoExecutionException( "Cannot write package manifest: " + manifest, e );
+        }
+    }
+
+    /**
+     * @return relative paths of the files and directories matching the includes, directories end with a slash
+     */
+    private String[] scan()
+    {
+        if ( !directory.isDirectory() )
+        {
+            return new String[0];
+        }
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir( directory );
+        scanner.setIncludes( includes );
+        scanner.scan();
+        String[] files = scanner.getIncludedFiles();
+        String[] dirs = scanner.getIncludedDirectories();
+        String[] entries = new String[files.length + dirs.length];
+        for ( int i = 0; i < files.length; i++ )
+        {
+            entries[i] = files[i].replace( File.separatorChar, '/' );
+        }
+        for ( int i = 0; i < dirs.length; i++ )
+        {
+            entries[files.length + i] = dirs[i].replace( File.separatorChar, '/' ) + "/";
+        }
+        Arrays.sort( entries );
+        return entries;
+    }
+
+    /**
+     * @return "size lastModified mode checksum" for files, with an empty checksum unless requested, or "directory mode"
+     */
+    private String describe( String entry, boolean checksum )
+        throws MojoExecutionException
+    {
+        File file = new File( directory, entry );
+        int unixMode = NarUtil.getUnixMode( file );
+        String mode = unixMode >= 0 ? Integer.toOctalString( unixMode ) : "-";
+        if ( entry.endsWith( "/" ) )
+        {
+            return DIRECTORY + " " + mode;
+        }
+        return file.length() + " " + file.lastModified() + " " + mode + " " + ( checksum ? getChecksum( file ) : "" );
+    }
+
+    private static String getChecksum( File file )
+        throws MojoExecutionException
+    {
+        try
+        {
+            return NarUtil.getChecksum( file );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Cannot compute checksum of " + file, e );
+        }
+    }
+}
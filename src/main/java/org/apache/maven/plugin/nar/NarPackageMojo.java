@@ -19,6 +19,11 @@ package org.apache.maven.plugin.nar;
  * under the License.
  */
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProjectHelper;
@@ -28,13 +33,19 @@ import org.codehaus.plexus.archiver.manager.ArchiverManager;
  * Jars up the NAR files.
  * 
  * @goal nar-package
+ * @threadSafe
  * @phase package
  * @requiresProject
  * @author Mark Donszelmann
  */
 public class NarPackageMojo
     extends AbstractCompileMojo
-{    
+{
+    /**
+     * 1980-01-01T00:00:00Z, the earliest time a zip entry can have.
+     */
+    private static final long DEFAULT_REPRODUCIBLE_TIME = 315532800000L;
+
     /**
      * To look up Archiver/UnArchiver implementations
      * 
@@ -50,12 +61,107 @@ public class NarPackageMojo
      */
     private MavenProjectHelper projectHelper;
 
+    /**
+     * Version of this plugin, recorded in the manifest of incrementally packaged NAR files.
+     * 
+     * @parameter expression="${plugin.version}"
+     * @readonly
+     */
+    private String pluginVersion;
+
+    /**
+     * Compression of the entries in the NAR files, by pattern. The first compression matching an entry is used, other
+     * entries are deflated with the default level. Compression ratio and time are logged for each of them.
+     * 
+     * @parameter expression=""
+     */
+    private List/* <Compression> */compressions = new ArrayList();
+
+    /**
+     * Number of NAR files to create at the same time, 0 means one per available processor.
+     * 
+     * @parameter expression="${nar.packageThreads}" default-value="0"
+     */
+    private int narPackageThreads;
+
+    /**
+     * Attach NAR files created by an earlier run again when their inputs did not change, rather than creating them
+     * again. A manifest of the inputs is stored next to each NAR file.
+     * 
+     * @parameter expression="${nar.incrementalPackage}" default-value="true"
+     */
+    private boolean narIncrementalPackage;
+
+    /**
+     * Create reproducible NAR files: entries sorted by name, with normalized modes and the time given by
+     * outputTimestamp, or 1980-01-01T00:00:00Z when that is not set.
+     * 
+     * @parameter expression="${nar.reproducible}" default-value="false"
+     */
+    private boolean narReproducible;
+
+    /**
+     * Time of the entries in reproducible NAR files, as ISO 8601 yyyy-MM-dd'T'HH:mm:ssZ or as seconds since the
+     * epoch. Setting it makes the NAR files reproducible.
+     * 
+     * @parameter expression="${project.build.outputTimestamp}"
+     */
+    private String outputTimestamp;
+
     public final void narExecute()
         throws MojoExecutionException, MojoFailureException
     {
+        NarLayout layout = getLayout();
+        if ( layout instanceof AbstractNarLayout )
+        {
+            ( (AbstractNarLayout) layout ).setCompressions( compressions );
+            ( (AbstractNarLayout) layout ).setPackageThreads( narPackageThreads );
+            ( (AbstractNarLayout) layout ).setIncrementalPackage( narIncrementalPackage );
+            ( (AbstractNarLayout) layout ).setPluginVersion( pluginVersion );
+            ( (AbstractNarLayout) layout ).setReproducibleTime( getReproducibleTime() );
+        }
+
         // let the layout decide which nars to attach
-        getLayout().attachNars( getTargetDirectory(), archiverManager, projectHelper, getMavenProject(), getNarInfo() );
+        layout.attachNars( getTargetDirectory(), archiverManager, projectHelper, getMavenProject(), getNarInfo() );
         
         saveNarInfoToFile(getNarInfo());
     }
+
+    /**
+     * @return time of the entries in reproducible NAR files, -1 when they should not be reproducible
+     */
+    private long getReproducibleTime()
+        throws MojoFailureException
+    {
+        // as for other plugins a single character disables the output timestamp, for instance in a child project
+        if ( ( outputTimestamp == null ) || ( outputTimestamp.length() < 2 ) )
+        {
+            return narReproducible ? DEFAULT_REPRODUCIBLE_TIME : -1;
+        }
+        try
+        {
+            if ( outputTimestamp.matches( "\\d+" ) )
+            {
+                return Long.parseLong( outputTimestamp ) * 1000;
+            }
+
+            // SimpleDateFormat of Java 1.4 only takes offsets like +0100
+            String timestamp = outputTimestamp;
+            if ( timestamp.endsWith( "Z" ) )
+            {
+                timestamp = timestamp.substring( 0, timestamp.length() - 1 ) + "+0000";
+            }
+            else if ( timestamp.matches( ".*[+-]\\d\\d:\\d\\d" ) )
+            {
+                timestamp =
+                    timestamp.substring( 0, timestamp.length() - 3 ) + timestamp.substring( timestamp.length() - 2 );
+            }
+            return new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ssZ" ).parse( timestamp ).getTime();
+        }
+        catch ( ParseException e )
+        {
+            throw new MojoFailureException( "NAR: outputTimestamp should be formatted as yyyy-MM-dd'T'HH:mm:ssZ or as "
+                + "seconds since the epoch, not " + outputTimestamp );
+        }
+    }
 }
@@ -30,6 +30,7 @@ import org.apache.maven.plugin.MojoFailureException;
  * Compiles native source files.
  *
  * @goal nar-processTestResources
+ * @threadSafe
  * @phase process-test-resources
  * @requiresSession
  * @requiresProject
@@ -67,11 +68,18 @@ public class NarProcessTestMojo
         return "source_obj";
     }
 
-    protected void setCompilerOptions(CCTask task, String type) throws MojoFailureException, MojoExecutionException
+    protected void setCompilerOptions(CCTask task, Library library, File objDir)
+        throws MojoFailureException, MojoExecutionException
     {
         // do nothing
     }
 
+    protected boolean compilesSources()
+    {
+        // nothing is compiled
+        return false;
+    }
+
     protected String getScope()
     {
         return "test";
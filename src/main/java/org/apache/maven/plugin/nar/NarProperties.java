@@ -4,43 +4,56 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.util.PropertyUtils;
 
-public class NarProperties {
-	
-	private final static String AOL_PROPERTIES = "aol.properties";
-	private Properties properties;
-	private static NarProperties instance;
-	
-	private NarProperties(MavenProject project) throws MojoFailureException {
-		
-		Properties defaults = PropertyUtils.loadProperties( NarUtil.class.getResourceAsStream( AOL_PROPERTIES ) );
-        if ( defaults == null )
+/**
+ * The aol.properties of a project, backed by the defaults of the plugin. Every project has its own instance, so modules
+ * built in parallel each see their own aol.properties. Instances are immutable.
+ */
+public class NarProperties
+{
+    private static final String AOL_PROPERTIES = "aol.properties";
+
+    // keyed by the path of the aol.properties of the project, "" without project
+    private static final Map/* <String, NarProperties> */instances = new HashMap();
+
+    private static Properties defaults;
+
+    private final Properties properties;
+
+    private final long lastModified;
+
+    private NarProperties( Properties defaults, File file )
+    {
+        properties = new Properties( defaults );
+        lastModified = file != null ? file.lastModified() : 0;
+        if ( file == null )
         {
-            throw new MojoFailureException( "NAR: Could not load default properties file: '"+AOL_PROPERTIES+"'." );
+            return;
         }
-        
-        properties = new Properties(defaults);
+
         FileInputStream fis = null;
-        try 
+        try
         {
-        	if (project != null) {
-        		fis = new FileInputStream(project.getBasedir()+File.separator+AOL_PROPERTIES);
-        		properties.load( fis );
-        	}
-		} 
-        catch (FileNotFoundException e) 
+            fis = new FileInputStream( file );
+            properties.load( fis );
+        }
+        catch ( FileNotFoundException e )
         {
-			// ignore (FIXME)
-		} 
-        catch (IOException e) 
+            // ignore (FIXME)
+        }
+        catch ( IOException e )
         {
-			// ignore (FIXME)
-		}
+            // ignore (FIXME)
+        }
         finally
         {
             try
@@ -55,23 +68,60 @@ public class NarProperties {
                 // ignore
             }
         }
+    }
+
+    /**
+     * Retrieve the NarProperties of the project. The aol.properties of the project is read again when it changed.
+     *
+     * @param project may be null, in which case only the defaults are used
+     * @throws MojoFailureException if the defaults cannot be loaded
+     */
+    public static NarProperties getInstance( MavenProject project )
+        throws MojoFailureException
+    {
+        File file = project != null ? new File( project.getBasedir(), AOL_PROPERTIES ) : null;
+        String key = file != null ? file.getAbsolutePath() : "";
+        synchronized ( instances )
+        {
+            if ( defaults == null )
+            {
+                defaults = PropertyUtils.loadProperties( NarUtil.class.getResourceAsStream( AOL_PROPERTIES ) );
+                if ( defaults == null )
+                {
+                    throw new MojoFailureException( "NAR: Could not load default properties file: '"
+                        + AOL_PROPERTIES + "'." );
+                }
+            }
+
+            NarProperties instance = (NarProperties) instances.get( key );
+            if ( ( instance == null ) || ( ( file != null ) && ( file.lastModified() != instance.lastModified ) ) )
+            {
+                instance = new NarProperties( defaults, file );
+                instances.put( key, instance );
+            }
+            return instance;
+        }
+    }
+
+    public final String getProperty( String key )
+    {
+        return properties.getProperty( key );
+    }
 
-	}
-	
-	/**
-	 * Retrieve the NarProperties
-	 * @param project may be null
-	 * @return
-	 * @throws MojoFailureException
-	 */
-	public static NarProperties getInstance(MavenProject project) throws MojoFailureException {
-		if (instance == null) {
-			instance = new NarProperties(project);
-		}
-		return instance;
-	}
-	
-	public String getProperty(String key) {
-		return properties.getProperty(key);
-	}
+    /**
+     * @return the properties of which the key starts with the given prefix, sorted by key
+     */
+    public final Map getProperties( String prefix )
+    {
+        Map result = new TreeMap();
+        for ( Enumeration e = properties.propertyNames(); e.hasMoreElements(); )
+        {
+            String key = (String) e.nextElement();
+            if ( key.startsWith( prefix ) )
+            {
+                result.put( key, properties.getProperty( key ) );
+            }
+        }
+        return result;
+    }
 }
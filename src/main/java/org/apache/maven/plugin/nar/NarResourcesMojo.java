@@ -32,6 +32,7 @@ import org.codehaus.plexus.util.SelectorUtils;
  * Copies any resources, including AOL specific distributions, to the target area for packaging
  * 
  * @goal nar-resources
+ * @threadSafe
  * @phase process-resources
  * @requiresProject
  * @author Mark Donszelmann
@@ -57,6 +58,67 @@ public class NarResourcesMojo
 
     public final void narExecute()
         throws MojoExecutionException, MojoFailureException
+    {
+        NarBuildFingerprint fingerprint = null;
+        if ( useFingerprint() )
+        {
+            fingerprint = createFingerprint();
+            if ( ( fingerprint != null ) && isUpToDate( fingerprint, "nar-resources" ) )
+            {
+                return;
+            }
+        }
+
+        copyNarResources();
+
+        if ( fingerprint != null )
+        {
+            for ( Iterator i = getCopiedFiles().iterator(); i.hasNext(); )
+            {
+                fingerprint.addOutput( (File) i.next() );
+            }
+            fingerprint.addOutput( getTargetPropertiesFile() );
+            recordOutputs( fingerprint, "nar-resources" );
+        }
+    }
+
+    /**
+     * @return the fingerprint of the resources, or null if they hold jars, which are unpacked among the classes of the
+     *         project, where their files cannot be told apart from those of other goals
+     */
+    private NarBuildFingerprint createFingerprint()
+        throws MojoExecutionException, MojoFailureException
+    {
+        try
+        {
+            if ( resourceDirectory.isDirectory()
+                && !FileUtils.getFiles( resourceDirectory, "**/*.jar", null ).isEmpty() )
+            {
+                getLog().debug( "NAR: No fingerprint for resources with jars" );
+                return null;
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "NAR: Could not scan resources", e );
+        }
+
+        File file = new File( getTargetDirectory(), "obj/" + getAOL() + ".resources.fingerprint" );
+        NarBuildFingerprint fingerprint = createFingerprint( file );
+        fingerprint.addParameter( "resources.copyAOL", String.valueOf( resourcesCopyAOL ) );
+        fingerprint.addParameter( "libraries", getLibraries().toString() );
+        fingerprint.addInput( resourceDirectory );
+        // the nar.properties the libraries are added to, if none was written yet
+        String properties = "src/main/resources/META-INF/nar/" + getMavenProject().getGroupId() + "/"
+            + getMavenProject().getArtifactId() + "/" + NarInfo.NAR_PROPERTIES;
+        fingerprint.addInput( new File( getMavenProject().getBasedir(), properties ) );
+        // the files copied and the nar.properties are only known once the resources are copied
+        fingerprint.addRecordedOutputs();
+        return fingerprint;
+    }
+
+    private void copyNarResources()
+        throws MojoExecutionException, MojoFailureException
     {
         // noarch resources
         String version = getMavenProject().getVersion();
@@ -68,7 +130,8 @@ public class NarResourcesMojo
             {
                 File noarchDstDir = getLayout().getNoArchDirectory( getTargetDirectory(), getMavenProject().getArtifactId(), version );
                 getLog().debug( "Copying noarch from " + noarchDir + " to " + noarchDstDir );
-                copied += NarUtil.copyDirectoryStructure( noarchDir, noarchDstDir, null, NarUtil.DEFAULT_EXCLUDES );
+                copied += NarUtil.copyDirectoryStructure( noarchDir, noarchDstDir, null, NarUtil.DEFAULT_EXCLUDES,
+                                                          getCopiedFiles() );
             }
             getLog().info( "Copied " + copied + " resources" );
         }
@@ -34,6 +34,7 @@ import org.apache.maven.plugin.MojoFailureException;
  * generate-sources) to configure the nar plugin and to let it generate a proper system file. 
  * 
  * @goal nar-system-generate
+ * @threadSafe
  * @phase generate-resources
  * @requiresProject
  * @author Mark Donszelmann
@@ -0,0 +1,210 @@
+package org.apache.maven.plugin.nar;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Executes independent tasks on a bounded number of threads. With one thread the tasks run in order on the calling
+ * thread. All tasks are executed, even if some fail, and the failures are reported together afterwards, in task order.
+ */
+public class NarTaskExecutor
+{
+    public interface Task
+    {
+        void execute()
+            throws MojoExecutionException, MojoFailureException;
+    }
+
+    private final String name;
+
+    private final int threads;
+
+    /**
+     * @param name used for thread names and error messages, for instance "download"
+     * @param threads maximum number of threads, less than 1 means one per available processor
+     */
+    public NarTaskExecutor( String name, int threads )
+    {
+        this.name = name;
+        this.threads = threads < 1 ? Runtime.getRuntime().availableProcessors() : threads;
+    }
+
+    public final int getThreads()
+    {
+        return threads;
+    }
+
+    public final void execute( List/* <Task> */tasks )
+        throws MojoExecutionException, MojoFailureException
+    {
+        final Throwable[] failures = new Throwable[tasks.size()];
+
+        if ( ( threads == 1 ) || ( tasks.size() <= 1 ) )
+        {
+            for ( int i = 0; i < tasks.size(); i++ )
+            {
+                failures[i] = run( (Task) tasks.get( i ) );
+            }
+        }
+        else
+        {
+            ExecutorService executor = newThreadPool( name, Math.min( threads, tasks.size() ) );
+            for ( int i = 0; i < tasks.size(); i++ )
+            {
+                final int index = i;
+                final Task task = (Task) tasks.get( i );
+                executor.execute( new Runnable()
+                {
+                    public void run()
+                    {
+                        Throwable failure = NarTaskExecutor.run( task );
+                        synchronized ( failures )
+                        {
+                            failures[index] = failure;
+                        }
+                    }
+                } );
+            }
+            executor.shutdown();
+            try
+            {
+                while ( !executor.awaitTermination( 1, TimeUnit.SECONDS ) )
+                {
+                    // wait for all tasks
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException( "NAR: interrupted during " + name, e );
+            }
+        }
+
+        List errors = new ArrayList();
+        synchronized ( failures )
+        {
+            for ( int i = 0; i < failures.length; i++ )
+            {
+                if ( failures[i] != null )
+                {
+                    errors.add( failures[i] );
+                }
+            }
+        }
+        report( errors );
+    }
+
+    /**
+     * Creates a fixed pool of daemon threads named "nar-&lt;name&gt;-N", so that a forgotten pool never keeps the build
+     * alive.
+     */
+    static ExecutorService newThreadPool( final String name, int threads )
+    {
+        return Executors.newFixedThreadPool( threads, new ThreadFactory()
+        {
+            private int count;
+
+            public synchronized Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "nar-" + name + "-" + ( ++count ) );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+    }
+
+    private static Throwable run( Task task )
+    {
+        try
+        {
+            task.execute();
+            return null;
+        }
+        catch ( MojoExecutionException e )
+        {
+            return e;
+        }
+        catch ( MojoFailureException e )
+        {
+            return e;
+        }
+        catch ( RuntimeException e )
+        {
+            return e;
+        }
+        catch ( Error e )
+        {
+            return e;
+        }
+    }
+
+    private void report( List/* <Throwable> */errors )
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( errors.isEmpty() )
+        {
+            return;
+        }
+
+        Throwable first = (Throwable) errors.get( 0 );
+        if ( errors.size() == 1 )
+        {
+            if ( first instanceof MojoExecutionException )
+            {
+                throw (MojoExecutionException) first;
+            }
+            if ( first instanceof MojoFailureException )
+            {
+                throw (MojoFailureException) first;
+            }
+            if ( first instanceof RuntimeException )
+            {
+                throw (RuntimeException) first;
+            }
+            throw (Error) first;
+        }
+
+        boolean failure = true;
+        StringBuffer message = new StringBuffer( "NAR: " + errors.size() + " failures during " + name + ":" );
+        for ( Iterator i = errors.iterator(); i.hasNext(); )
+        {
+            Throwable error = (Throwable) i.next();
+            message.append( "\n  - " );
+            message.append( error.getMessage() );
+            failure &= error instanceof MojoFailureException;
+        }
+        if ( failure )
+        {
+            throw new MojoFailureException( message.toString(), first );
+        }
+        throw new MojoExecutionException( message.toString(), first );
+    }
+}
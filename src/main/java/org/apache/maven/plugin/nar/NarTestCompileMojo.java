@@ -20,6 +20,8 @@ package org.apache.maven.plugin.nar;
  */
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -46,6 +48,7 @@ import org.apache.tools.ant.Project;
  * Compiles native test source files.
  *
  * @goal nar-testCompile
+ * @threadSafe
  * @phase test-compile
  * @requiresDependencyResolution test
  * @author Mark Donszelmann
@@ -60,88 +63,220 @@ public class NarTestCompileMojo
      */
     protected boolean skipNar;
 
+    private static final String TEST = "test";
+
     public final void narExecute()
         throws MojoExecutionException, MojoFailureException
+    {
+        try
+        {
+            compileTests();
+        }
+        finally
+        {
+            reportJobServer();
+        }
+    }
+
+    private void compileTests()
+        throws MojoExecutionException, MojoFailureException
     {
         // make sure destination is there
         getTestTargetDirectory().mkdirs();
 
-        for ( Iterator i = getTests().iterator(); i.hasNext(); )
+        List tests = getTests();
+        if ( tests.isEmpty() )
         {
-            createTest( getAntProject(), (Test) i.next() );
+            return;
+        }
+
+        int cores = getMaxCores( getAOL() );
+        if ( cores < 1 )
+        {
+            cores = Runtime.getRuntime().availableProcessors();
+        }
+        int threads = Math.min( cores, tests.size() );
+
+        // shared by all tests
+        File objDir = new File( getTestTargetDirectory(), "obj" );
+        objDir = new File( objDir, getAOL().toString() );
+        objDir.mkdirs();
+        List includePaths = getIncludePaths();
+        List dependencies = getDependencyLinks();
+
+        NarBuildFingerprint fingerprint = null;
+        if ( useFingerprint() )
+        {
+            fingerprint = createFingerprint( tests, objDir, includePaths );
+            if ( isUpToDate( fingerprint, "nar-testCompile" ) )
+            {
+                return;
+            }
+        }
+
+        List supportObjects = compileSupportSources( getAntProject(), objDir, includePaths, cores );
+
+        List tasks = new ArrayList();
+        for ( Iterator i = tests.iterator(); i.hasNext(); )
+        {
+            tasks.add( createTest( getAntProject(), (Test) i.next(), objDir, includePaths, dependencies,
+                                   supportObjects, Math.max( 1, cores / threads ) ) );
+        }
+        new NarTaskExecutor( "test compile", threads ).execute( tasks );
+
+        if ( fingerprint != null )
+        {
+            recordOutputs( fingerprint, "nar-testCompile" );
         }
     }
 
-    private void createTest( Project antProject, Test test )
+    /**
+     * Collects everything the tests depend on, as nar-compile does for the libraries, and the libraries of this
+     * package which the tests link.
+     */
+    private NarBuildFingerprint createFingerprint( List/* <Test> */tests, File objDir, List/* <String> */includePaths )
         throws MojoExecutionException, MojoFailureException
     {
-        String type = "test";
-
-        // configure task
-        CCTask task = new CCTask();
-        task.setProject( antProject );
+        NarBuildFingerprint fingerprint =
+            createFingerprint( new File( objDir.getParentFile(), getAOL() + ".fingerprint" ) );
 
-        // subsystem
-        SubsystemEnum subSystem = new SubsystemEnum();
-        subSystem.setValue( "console" );
-        task.setSubsystem( subSystem );
-
-        // outtype
-        OutputTypeEnum outTypeEnum = new OutputTypeEnum();
-        outTypeEnum.setValue( Library.EXECUTABLE );
-        task.setOuttype( outTypeEnum );
+        StringBuffer names = new StringBuffer();
+        for ( Iterator i = tests.iterator(); i.hasNext(); )
+        {
+            Test test = (Test) i.next();
+            names.append( test.getName() ).append( ' ' ).append( test.getLink() ).append( ';' );
+            fingerprint.addInput( getLayout().getLibDirectory( getTestTargetDirectory(),
+                                                               getMavenProject().getArtifactId(),
+                                                               getMavenProject().getVersion(), getAOL().toString(),
+                                                               test.getLink() ) );
+        }
+        fingerprint.addParameter( "tests", names.toString() );
+        fingerprint.addParameter( "libs", getNarInfo().getLibs( getAOL() ) );
 
-        // outDir
-        File outDir = new File( getTestTargetDirectory(), "bin" );
-        outDir = new File( outDir, getAOL().toString() );
-        outDir.mkdirs();
+        Compiler[] compilers = new Compiler[] { getCpp(), getC(), getFortran() };
+        for ( int c = 0; c < compilers.length; c++ )
+        {
+            Compiler compiler = compilers[c];
+            String name = compiler.getName();
+            if ( name == null )
+            {
+                continue;
+            }
+            String prefix = "compiler." + compiler.getLanguage();
+            fingerprint.addParameter( prefix, name + " " + compiler.getSettings() );
+            fingerprint.addParameter( prefix + ".arguments",
+                                      compiler.getPreprocessorArguments( TEST, null, includePaths ).toString() );
+            String executable = compiler.getPreprocessor();
+            File compilerFile = NarUtil.findExecutable( executable != null ? executable : name );
+            if ( compilerFile != null )
+            {
+                fingerprint.addInput( compilerFile );
+            }
+            // all files, including the headers next to the sources
+            for ( Iterator i = compiler.getTestSourceDirectories().iterator(); i.hasNext(); )
+            {
+                fingerprint.addInput( (File) i.next() );
+            }
+            for ( Iterator i = compiler.getIncludePaths( TEST ).iterator(); i.hasNext(); )
+            {
+                fingerprint.addInput( new File( (String) i.next() ) );
+            }
+            for ( Iterator i = compiler.getSystemIncludePaths().iterator(); i.hasNext(); )
+            {
+                fingerprint.addInput( new File( (String) i.next() ) );
+            }
+        }
+        fingerprint.addInput( getJavah().getJniDirectory() );
+        fingerprint.addInput( getLayout().getIncludeDirectory( getTestTargetDirectory(),
+                                                               getMavenProject().getArtifactId(),
+                                                               getMavenProject().getVersion() ) );
+        fingerprint.addParameter( "linker", getLinker().getName() );
+        addDependencies( fingerprint, TEST, new File[] { getUnpackDirectory(), getTestUnpackDirectory() } );
+
+        fingerprint.addOutput( new File( new File( getTestTargetDirectory(), "bin" ), getAOL().toString() ) );
+        return fingerprint;
+    }
 
-        // outFile
-        File outFile = new File( outDir, test.getName() );
-        getLog().debug( "NAR - output: '" + outFile + "'" );
-        task.setOutfile( outFile );
+    /**
+     * @return the sources which are not the source of a test, and therefore support all tests
+     */
+    private List/* <File> */getSupportSources( Compiler compiler )
+        throws MojoExecutionException, MojoFailureException
+    {
+        // no test has an empty name, so the sources of all tests are excluded
+        return compiler.getName() != null ? compiler.getSourceFiles( TEST, "" ) : Collections.EMPTY_LIST;
+    }
 
-        // object directory
-        File objDir = new File( getTestTargetDirectory(), "obj" );
-        objDir = new File( objDir, getAOL().toString() );
-        objDir.mkdirs();
+    /**
+     * Compiles the sources supporting all tests once, instead of once for every test.
+     *
+     * @return the objects of the support sources, which every test links
+     */
+    private List/* <File> */compileSupportSources( Project antProject, File objDir, List/* <String> */includePaths,
+                                                 int cores )
+        throws MojoExecutionException, MojoFailureException
+    {
+        CCTask task = new CCTask();
+        task.setProject( antProject );
         task.setObjdir( objDir );
-
-        // failOnError, libtool
+        task.setMaxCores( cores );
         task.setFailonerror( failOnError( getAOL() ) );
-        task.setLibtool( useLibtool( getAOL() ) );
-
-        // runtime
         RuntimeType runtimeType = new RuntimeType();
         runtimeType.setValue( getRuntime( getAOL() ) );
         task.setRuntime( runtimeType );
 
-        // add C++ compiler
-        CompilerDef cpp = getCpp().getCompiler( type, test.getName() );
-        if ( cpp != null )
+        List objects = new ArrayList();
+        Compiler[] compilers = new Compiler[] { getCpp(), getC(), getFortran() };
+        for ( int c = 0; c < compilers.length; c++ )
         {
-            task.addConfiguredCompiler( cpp );
+            List sources = getSupportSources( compilers[c] );
+            if ( sources.isEmpty() )
+            {
+                continue;
+            }
+            task.addConfiguredCompiler( compilers[c].getCompiler( TEST, "" ) );
+            for ( Iterator i = sources.iterator(); i.hasNext(); )
+            {
+                String name = ( (File) i.next() ).getName();
+                int dot = name.lastIndexOf( '.' );
+                name = ( dot > 0 ? name.substring( 0, dot ) : name ) + compilers[c].getObjectExtension();
+                objects.add( new File( objDir, name ) );
+            }
         }
-
-        // add C compiler
-        CompilerDef c = getC().getCompiler( type, test.getName() );
-        if ( c != null )
+        if ( objects.isEmpty() )
         {
-            task.addConfiguredCompiler( c );
+            return objects;
         }
 
-        // add Fortran compiler
-        CompilerDef fortran = getFortran().getCompiler( type, test.getName() );
-        if ( fortran != null )
+        getLog().debug( "NAR: Compiling " + objects.size() + " sources supporting all tests" );
+        for ( Iterator i = includePaths.iterator(); i.hasNext(); )
         {
-            task.addConfiguredCompiler( fortran );
+            task.createIncludePath().setPath( (String) i.next() );
         }
+        try
+        {
+            executeTask( task, cores );
+        }
+        catch ( BuildException e )
+        {
+            throw new MojoExecutionException( "NAR: Test-Compile failed", e );
+        }
+        return objects;
+    }
+
+    /**
+     * @return the include paths of the java runtime, of the dependencies, of javah and of this package
+     */
+    private List/* <String> */getIncludePaths()
+        throws MojoExecutionException, MojoFailureException
+    {
+        List includePaths = new ArrayList();
 
         // add java include paths
-        getJava().addIncludePaths( task, type );
+        includePaths.addAll( getJava().getIncludePaths( TEST ) );
 
         // add dependency include paths
-        for ( Iterator i = getNarManager().getNarDependencies( "test" ).iterator(); i.hasNext(); )
+        for ( Iterator i = getNarManager().getNarDependencies( TEST ).iterator(); i.hasNext(); )
         {
             Artifact artifact = (Artifact) i.next();
 
@@ -156,7 +291,7 @@ public class NarTestCompileMojo
                     include = getLayout().getIncludeDirectory(getTestUnpackDirectory(), artifact.getArtifactId(), artifact.getVersion());
                 }
                 if (include.exists()) {
-                    task.createIncludePath().setPath(include.getPath());
+                    includePaths.add( include.getPath() );
                 }
             }
         }
@@ -164,63 +299,47 @@ public class NarTestCompileMojo
         // add javah generated include path
         File jniIncludeDir = getJavah().getJniDirectory();
         if (jniIncludeDir.exists()) {
-            task.createIncludePath().setPath(jniIncludeDir.getPath());
+            includePaths.add( jniIncludeDir.getPath() );
         }
 
-        // add linker
-        LinkerDef linkerDefinition =
-            getLinker().getLinker( this, antProject, getOS(), getAOL().getKey() + ".linker.", type );
-        task.addConfiguredLinker( linkerDefinition );
-
         // FIXME hardcoded values
         File includeDir =
             getLayout().getIncludeDirectory( getTestTargetDirectory(), getMavenProject().getArtifactId(),
                                              getMavenProject().getVersion() );
 
-        File libDir =
-            getLayout().getLibDirectory( getTestTargetDirectory(), getMavenProject().getArtifactId(),
-                                         getMavenProject().getVersion(), getAOL().toString(), test.getLink() );
-
-        // copy shared library
-        // FIXME why do we do this ?
-        /*
-         * Removed in alpha-10 if (test.getLink().equals(Library.SHARED)) { try { // defaults are Unix String libPrefix
-         * = NarUtil.getDefaults().getProperty( getAOLKey() + "shared.prefix", "lib"); String libExt =
-         * NarUtil.getDefaults().getProperty( getAOLKey() + "shared.extension", "so"); File copyDir = new
-         * File(getTargetDirectory(), (getOS().equals( "Windows") ? "bin" : "lib") + "/" + getAOL() + "/" +
-         * test.getLink()); FileUtils.copyFileToDirectory(new File(libDir, libPrefix + libName + "." + libExt),
-         * copyDir); if (!getOS().equals(OS.WINDOWS)) { libDir = copyDir; } } catch (IOException e) { throw new
-         * MojoExecutionException( "NAR: Could not copy shared library", e); } }
-         */
-        // FIXME what about copying the other shared libs?
-
         // add include of this package
         if ( includeDir.exists() )
         {
-            task.createIncludePath().setLocation( includeDir );
+            includePaths.add( includeDir.getPath() );
         }
+        return includePaths;
+    }
 
-        // add library of this package
-        if ( libDir.exists() )
-        {
-            String libs = getNarInfo().getLibs( getAOL() );
-            if ( ( libs != null ) && !libs.equals( "" ) )
-            {
-                LibrarySet libSet = new LibrarySet();
-                libSet.setProject( antProject );
-                getLog().debug( "Using LIBS = " + libs );
-                libSet.setLibs( new CUtil.StringArrayBuilder( libs ) );
-                LibraryTypeEnum libType = new LibraryTypeEnum();
-                libType.setValue( test.getLink() );
-                libSet.setType( libType );
-                libSet.setDir( libDir );
-                task.addLibset( libSet );
-            }
-        }
+    /**
+     * How a test links a NAR dependency.
+     */
+    private static final class DependencyLink
+    {
+        private File dir;
+
+        private String libs;
+
+        private String options;
+
+        private String sysLibs;
+    }
+
+    /**
+     * @return the libraries, linker options and system libraries of the NAR dependencies, in link order
+     */
+    private List/* <DependencyLink> */getDependencyLinks()
+        throws MojoExecutionException, MojoFailureException
+    {
+        List links = new ArrayList();
 
         // add dependency libraries
         List depLibOrder = getDependencyLibOrder();
-        List depLibs = getNarManager().getNarDependencies( "test" );
+        List depLibs = getNarManager().getNarDependencies( TEST );
 
         // reorder the libraries that come from the nar dependencies
         // to comply with the order specified by the user
@@ -268,6 +387,8 @@ public class NarTestCompileMojo
 
             if ( !binding.equals( Library.JNI ) && !binding.equals( Library.NONE ) )
             {
+                DependencyLink link = new DependencyLink();
+
                 // check if it exists in the normal unpack directory
                 File dir =
                     getLayout().getLibDirectory( getUnpackDirectory(), dependency.getArtifactId(),
@@ -284,17 +405,13 @@ public class NarTestCompileMojo
                 }
                 if ( dir.exists() )
                 {
-                    LibrarySet libSet = new LibrarySet();
-                    libSet.setProject( antProject );
-
                     // FIXME, no way to override
                     String libs = dependency.getNarInfo().getLibs( getAOL() );
                     if ( ( libs != null ) && !libs.equals( "" ) )
                     {
                         getLog().debug( "Using LIBS = " + libs );
-                        libSet.setLibs( new CUtil.StringArrayBuilder( libs ) );
-                        libSet.setDir( dir );
-                        task.addLibset( libSet );
+                        link.dir = dir;
+                        link.libs = libs;
                     }
                 }
                 else
@@ -307,36 +424,187 @@ public class NarTestCompileMojo
                 if ( ( options != null ) && !options.equals( "" ) )
                 {
                     getLog().debug( "Using OPTIONS = " + options );
-                    LinkerArgument arg = new LinkerArgument();
-                    arg.setValue( options );
-                    linkerDefinition.addConfiguredLinkerArg( arg );
+                    link.options = options;
                 }
 
                 String sysLibs = dependency.getNarInfo().getSysLibs( getAOL() );
                 if ( ( sysLibs != null ) && !sysLibs.equals( "" ) )
                 {
                     getLog().debug( "Using SYSLIBS = " + sysLibs );
-                    SystemLibrarySet sysLibSet = new SystemLibrarySet();
-                    sysLibSet.setProject( antProject );
-
-                    sysLibSet.setLibs( new CUtil.StringArrayBuilder( sysLibs ) );
-                    task.addSyslibset( sysLibSet );
+                    link.sysLibs = sysLibs;
                 }
+                links.add( link );
             }
         }
+        return links;
+    }
 
-        // Add JVM to linker
-        getJava().addRuntime( task, getJavaHome( getAOL() ), getOS(), getAOL().getKey() + ".java." );
+    /**
+     * Configures the cpptasks task which compiles and links the test.
+     *
+     * @return the task running it
+     */
+    private NarTaskExecutor.Task createTest( Project antProject, Test test, File objDir, List/* <String> */includePaths,
+                                            List/* <DependencyLink> */dependencies, List/* <File> */supportObjects,
+                                            final int cores )
+        throws MojoExecutionException, MojoFailureException
+    {
+        String type = TEST;
 
-        // execute
-        try
+        // configure task
+        final CCTask task = new CCTask();
+        task.setProject( antProject );
+        task.setMaxCores( cores );
+
+        // subsystem
+        SubsystemEnum subSystem = new SubsystemEnum();
+        subSystem.setValue( "console" );
+        task.setSubsystem( subSystem );
+
+        // outtype
+        OutputTypeEnum outTypeEnum = new OutputTypeEnum();
+        outTypeEnum.setValue( Library.EXECUTABLE );
+        task.setOuttype( outTypeEnum );
+
+        // outDir
+        File outDir = new File( getTestTargetDirectory(), "bin" );
+        outDir = new File( outDir, getAOL().toString() );
+        outDir.mkdirs();
+
+        // outFile
+        File outFile = new File( outDir, test.getName() );
+        getLog().debug( "NAR - output: '" + outFile + "'" );
+        task.setOutfile( outFile );
+
+        // object directory, one per test so that tests can be compiled concurrently
+        File testObjDir = new File( objDir, test.getName() );
+        testObjDir.mkdirs();
+        task.setObjdir( testObjDir );
+
+        // failOnError, libtool
+        task.setFailonerror( failOnError( getAOL() ) );
+        task.setLibtool( useLibtool( getAOL() ) );
+
+        // runtime
+        RuntimeType runtimeType = new RuntimeType();
+        runtimeType.setValue( getRuntime( getAOL() ) );
+        task.setRuntime( runtimeType );
+
+        // add compilers for the sources of this test, the support sources are compiled already
+        Compiler[] compilers = new Compiler[] { getCpp(), getC(), getFortran() };
+        for ( int c = 0; c < compilers.length; c++ )
         {
-            task.execute();
+            CompilerDef compiler =
+                compilers[c].getCompiler( type, test.getName(), getSupportSources( compilers[c] ) );
+            if ( compiler != null )
+            {
+                task.addConfiguredCompiler( compiler );
+            }
         }
-        catch ( BuildException e )
+
+        // add java, dependency, javah and package include paths
+        for ( Iterator i = includePaths.iterator(); i.hasNext(); )
         {
-            throw new MojoExecutionException( "NAR: Test-Compile failed", e );
+            task.createIncludePath().setPath( (String) i.next() );
         }
+
+        // add linker
+        LinkerDef linkerDefinition =
+            getLinker().getLinker( this, antProject, getOS(), getAOL().getKey() + ".linker.", type );
+        task.addConfiguredLinker( linkerDefinition );
+
+        // add objects of the support sources
+        for ( Iterator i = supportObjects.iterator(); i.hasNext(); )
+        {
+            File object = (File) i.next();
+            if ( object.exists() )
+            {
+                LinkerArgument arg = new LinkerArgument();
+                arg.setValue( object.getPath() );
+                linkerDefinition.addConfiguredLinkerArg( arg );
+            }
+        }
+
+        File libDir =
+            getLayout().getLibDirectory( getTestTargetDirectory(), getMavenProject().getArtifactId(),
+                                         getMavenProject().getVersion(), getAOL().toString(), test.getLink() );
+
+        // copy shared library
+        // FIXME why do we do this ?
+        /*
+         * Removed in alpha-10 if (test.getLink().equals(Library.SHARED)) { try { // defaults are Unix String libPrefix
+         * = NarUtil.getDefaults().getProperty( getAOLKey() + "shared.prefix", "lib"); String libExt =
+         * NarUtil.getDefaults().getProperty( getAOLKey() + "shared.extension", "so"); File copyDir = new
+         * File(getTargetDirectory(), (getOS().equals( "Windows") ? "bin" : "lib") + "/" + getAOL() + "/" +
+         * test.getLink()); FileUtils.copyFileToDirectory(new File(libDir, libPrefix + libName + "." + libExt),
+         * copyDir); if (!getOS().equals(OS.WINDOWS)) { libDir = copyDir; } } catch (IOException e) { throw new
+         * MojoExecutionException( "NAR: Could not copy shared library", e); } }
+         */
+        // FIXME what about copying the other shared libs?
+
+        // add library of this package
+        if ( libDir.exists() )
+        {
+            String libs = getNarInfo().getLibs( getAOL() );
+            if ( ( libs != null ) && !libs.equals( "" ) )
+            {
+                LibrarySet libSet = new LibrarySet();
+                libSet.setProject( antProject );
+                getLog().debug( "Using LIBS = " + libs );
+                libSet.setLibs( new CUtil.StringArrayBuilder( libs ) );
+                LibraryTypeEnum libType = new LibraryTypeEnum();
+                libType.setValue( test.getLink() );
+                libSet.setType( libType );
+                libSet.setDir( libDir );
+                task.addLibset( libSet );
+            }
+        }
+
+        // add dependency libraries
+        for ( Iterator i = dependencies.iterator(); i.hasNext(); )
+        {
+            DependencyLink link = (DependencyLink) i.next();
+            if ( link.libs != null )
+            {
+                LibrarySet libSet = new LibrarySet();
+                libSet.setProject( antProject );
+                libSet.setLibs( new CUtil.StringArrayBuilder( link.libs ) );
+                libSet.setDir( link.dir );
+                task.addLibset( libSet );
+            }
+            if ( link.options != null )
+            {
+                LinkerArgument arg = new LinkerArgument();
+                arg.setValue( link.options );
+                linkerDefinition.addConfiguredLinkerArg( arg );
+            }
+            if ( link.sysLibs != null )
+            {
+                SystemLibrarySet sysLibSet = new SystemLibrarySet();
+                sysLibSet.setProject( antProject );
+                sysLibSet.setLibs( new CUtil.StringArrayBuilder( link.sysLibs ) );
+                task.addSyslibset( sysLibSet );
+            }
+        }
+
+        // Add JVM to linker
+        getJava().addRuntime( task, getJavaHome( getAOL() ), getOS(), getAOL().getKey() + ".java." );
+
+        return new NarTaskExecutor.Task()
+        {
+            public void execute()
+                throws MojoExecutionException, MojoFailureException
+            {
+                try
+                {
+                    executeTask( task, cores );
+                }
+                catch ( BuildException e )
+                {
+                    throw new MojoExecutionException( "NAR: Test-Compile failed", e );
+                }
+            }
+        };
     }
 
 }
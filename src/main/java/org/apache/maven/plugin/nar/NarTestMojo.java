@@ -36,6 +36,7 @@ import org.codehaus.plexus.util.StringUtils;
  * Tests NAR files. Runs Native Tests and executables if produced.
  *
  * @goal nar-test
+ * @threadSafe
  * @phase test
  * @requiresProject
  * @requiresDependencyResolution test
@@ -55,6 +56,19 @@ public class NarTestMojo
 
     public final void narExecute()
         throws MojoExecutionException, MojoFailureException
+    {
+        try
+        {
+            runTests();
+        }
+        finally
+        {
+            reportJobServer();
+        }
+    }
+
+    private void runTests()
+        throws MojoExecutionException, MojoFailureException
     {
         // run all tests
         for ( Iterator i = getTests().iterator(); i.hasNext(); )
@@ -91,8 +105,8 @@ public class NarTestMojo
 
             List args = test.getArgs();
             int result =
-                NarUtil.runCommand( path.toString(), (String[]) args.toArray( new String[args.size()] ), workingDir,
-                                    generateEnvironment(), getLog() );
+                runCommand( path.toString(), (String[]) args.toArray( new String[args.size()] ), workingDir,
+                            generateEnvironment() );
             if ( result != 0 )
             {
                 throw new MojoFailureException( "Test " + name + " failed with exit code: " + result + " 0x"
@@ -121,8 +135,8 @@ public class NarTestMojo
             getLog().info( "Running executable " + executable );
             List args = library.getArgs();
             int result =
-                NarUtil.runCommand( executable.getPath(), (String[]) args.toArray( new String[args.size()] ), null,
-                                    generateEnvironment(), getLog() );
+                runCommand( executable.getPath(), (String[]) args.toArray( new String[args.size()] ), null,
+                            generateEnvironment() );
             if ( result != 0 )
             {
                 throw new MojoFailureException( "Test " + executable + " failed with exit code: " + result + " 0x"
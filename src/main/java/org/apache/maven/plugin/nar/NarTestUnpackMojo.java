@@ -30,6 +30,7 @@ import org.apache.maven.plugin.MojoFailureException;
  * libraries.
  * 
  * @goal nar-testUnpack
+ * @threadSafe
  * @phase process-test-sources
  * @requiresProject
  * @requiresDependencyResolution test
@@ -55,13 +56,13 @@ public class NarTestUnpackMojo
         }
         if ( classifiers == null )
         {
-            mgr.unpackAttachedNars( narArtifacts, archiverManager, null, getOS(), getLayout(), getTestUnpackDirectory() );
+            mgr.unpackAttachedNars( narArtifacts, archiverManager, null, getOS(), getUnpackLayout(), getTestUnpackDirectory(), narUnpackThreads );
         }
         else
         {
             for ( Iterator j = classifiers.iterator(); j.hasNext(); )
             {
-                mgr.unpackAttachedNars( narArtifacts, archiverManager, (String) j.next(), getOS(), getLayout(), getTestUnpackDirectory() );
+                mgr.unpackAttachedNars( narArtifacts, archiverManager, (String) j.next(), getOS(), getUnpackLayout(), getTestUnpackDirectory(), narUnpackThreads );
             }
         }
     }
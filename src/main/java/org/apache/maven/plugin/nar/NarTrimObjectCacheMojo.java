@@ -0,0 +1,71 @@
+package org.apache.maven.plugin.nar;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Trims an object cache directory, typically the shared object cache of a build farm, to a target size by removing the
+ * least recently used objects. Builds only trim their local object cache, so this goal is meant to run regularly on
+ * one machine with access to the shared directory.
+ *
+ * @goal nar-trim-object-cache
+ * @threadSafe
+ * @requiresProject false
+ */
+public class NarTrimObjectCacheMojo
+    extends AbstractMojo
+{
+    /**
+     * The object cache directory to trim.
+     *
+     * @parameter expression="${nar.sharedObjectCacheDirectory}"
+     */
+    private File directory;
+
+    /**
+     * Target size in MB of the object cache directory.
+     *
+     * @parameter expression="${nar.sharedObjectCacheMaxSize}" default-value="51200"
+     */
+    private int maxSize;
+
+    public final void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( directory == null )
+        {
+            throw new MojoFailureException( "NAR: Please specify the object cache directory as "
+                + "nar.sharedObjectCacheDirectory" );
+        }
+        if ( !directory.isDirectory() )
+        {
+            getLog().info( "NAR: Object cache " + directory + " does not exist" );
+            return;
+        }
+
+        int count = NarObjectCache.trim( directory, maxSize * 1024L * 1024L, getLog() );
+        getLog().info( "NAR: Removed " + count + " objects from " + directory );
+    }
+}
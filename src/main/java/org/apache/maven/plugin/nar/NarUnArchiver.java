@@ -19,12 +19,182 @@ package org.apache.maven.plugin.nar;
  * under the License.
  */
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.codehaus.plexus.archiver.ArchiverException;
+import org.codehaus.plexus.archiver.UnixStat;
 import org.codehaus.plexus.archiver.zip.AbstractZipUnArchiver;
+import org.codehaus.plexus.util.FileUtils;
 
 /**
+ * Unpacks NAR files. The archive is read through a {@link NarZipReader}, unless archive filters or file selectors are
+ * set or the archive is not supported by it, in which case the plexus implementation is used.
+ * <p>
+ * With unix metadata enabled the unix modes recorded in the archive are applied and symbolic links are created while
+ * the entries are extracted, including the links to versioned shared libraries (libfoo.so to libfoo.so.1), so no chmod
+ * or ln processes are needed afterwards.
+ * 
  * @author Mark Donszelmann
  */
 public class NarUnArchiver
     extends AbstractZipUnArchiver
 {
+    private static final int TYPE_MASK = 0170000;
+
+    private boolean unixMetadata;
+
+    private boolean unixMetadataComplete;
+
+    private boolean filtered;
+
+    // the default of the plexus unarchiver
+    private String encoding = "UTF8";
+
+    /**
+     * Applies the unix modes and symbolic links recorded in the archive.
+     */
+    public final void setUnixMetadata( boolean unixMetadata )
+    {
+        this.unixMetadata = unixMetadata;
+    }
+
+    /**
+     * @return true if unix metadata was enabled, every file in the archive carried a unix mode and all modes and links
+     *         could be applied.
+     */
+    public final boolean isUnixMetadataComplete()
+    {
+        return unixMetadataComplete;
+    }
+
+    public void setArchiveFilters( List filters )
+    {
+        super.setArchiveFilters( filters );
+        filtered = ( filters != null ) && !filters.isEmpty();
+    }
+
+    public void setEncoding( String encoding )
+    {
+        super.setEncoding( encoding );
+        this.encoding = encoding;
+    }
+
+    protected void execute()
+        throws ArchiverException
+    {
+        if ( filtered || ( ( getFileSelectors() != null ) && ( getFileSelectors().length > 0 ) ) )
+        {
+            super.execute();
+            return;
+        }
+
+        NarZipReader reader;
+        try
+        {
+            reader = NarZipReader.open( getSourceFile(), encoding );
+        }
+        catch ( IOException e )
+        {
+            throw new ArchiverException( "Error while expanding " + getSourceFile().getAbsolutePath(), e );
+        }
+        if ( reader == null )
+        {
+            getLogger().debug( "Zip64 archive, using plexus unarchiver for " + getSourceFile() );
+            super.execute();
+            return;
+        }
+
+        // validate() moves a destination directory which does not exist yet to the destination file
+        File destDirectory = getDestDirectory() != null ? getDestDirectory() : getDestFile();
+        destDirectory.mkdirs();
+
+        unixMetadataComplete = unixMetadata;
+        List sharedLibraries = new ArrayList();
+        try
+        {
+            for ( Iterator i = reader.getEntries().iterator(); i.hasNext(); )
+            {
+                extractEntry( reader, destDirectory, (NarZipReader.Entry) i.next(), sharedLibraries );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new ArchiverException( "Error while expanding " + getSourceFile().getAbsolutePath(), e );
+        }
+        finally
+        {
+            try
+            {
+                reader.close();
+            }
+            catch ( IOException e )
+            {
+                // ignore
+            }
+        }
+
+        // after all entries, so real files are never replaced by a link
+        for ( Iterator i = sharedLibraries.iterator(); i.hasNext(); )
+        {
+            File library = (File) i.next();
+            String name = library.getName();
+            File link = new File( library.getParentFile(), name.substring( 0, name.indexOf( ".so" ) + 3 ) );
+            if ( !link.exists() && !NarUtil.createSymbolicLink( link, new File( name ) ) )
+            {
+                unixMetadataComplete = false;
+            }
+        }
+    }
+
+    private void extractEntry( NarZipReader reader, File destDirectory, NarZipReader.Entry entry,
+                               List sharedLibraries )
+        throws IOException, ArchiverException
+    {
+        File file = FileUtils.resolveFile( destDirectory, entry.getName() );
+        int mode = entry.getUnixMode();
+
+        if ( entry.isDirectory() )
+        {
+            file.mkdirs();
+            return;
+        }
+
+        if ( !isOverwrite() && file.exists() && ( file.lastModified() >= entry.getTime() ) )
+        {
+            return;
+        }
+        file.getParentFile().mkdirs();
+
+        if ( unixMetadata && ( ( mode & TYPE_MASK ) == UnixStat.LINK_FLAG ) )
+        {
+            // the content of a link entry is the link target
+            String target = new String( reader.read( entry ), "UTF-8" );
+            file.delete();
+            if ( !NarUtil.createSymbolicLink( file, new File( target ) ) )
+            {
+                throw new ArchiverException( "Cannot create symbolic link " + file + " to " + target );
+            }
+            return;
+        }
+
+        reader.extract( entry, file );
+        file.setLastModified( entry.getTime() );
+
+        if ( !unixMetadata )
+        {
+            return;
+        }
+        if ( ( ( mode & UnixStat.PERM_MASK ) == 0 ) || !NarUtil.setUnixMode( file, mode ) )
+        {
+            unixMetadataComplete = false;
+        }
+        if ( NarUtil.isVersionedSharedLibrary( file.getName() ) )
+        {
+            sharedLibraries.add( file );
+        }
+    }
 }
@@ -0,0 +1,252 @@
+package org.apache.maven.plugin.nar;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Generates the unity sources of a unity (or jumbo) build, each of which includes a batch of sources, so that the
+ * compiler starts and parses common headers once per batch instead of once per source.
+ * <p>
+ * Sources stay in the batch they were assigned to in a previous build, which is recorded in a properties file next
+ * to the unity sources, while that batch has room. Adding, changing or removing a source therefore only changes, and
+ * recompiles, the batch it belongs to. Unity sources are only written when their content changes.
+ */
+public class NarUnityBuild
+{
+    private final File directory;
+
+    private final String name;
+
+    private final String extension;
+
+    private final int batchSize;
+
+    /**
+     * @param directory directory of the unity sources
+     * @param name name of the unity sources, which are called "&lt;name&gt;_&lt;batch&gt;&lt;extension&gt;"
+     * @param extension extension of the unity sources, such as ".cpp"
+     * @param batchSize maximum number of sources in a batch
+     */
+    public NarUnityBuild( File directory, String name, String extension, int batchSize )
+    {
+        this.directory = directory;
+        this.name = name;
+        this.extension = extension;
+        this.batchSize = Math.max( 1, batchSize );
+    }
+
+    /**
+     * Assigns the sources to batches and writes the unity sources of the batches.
+     * 
+     * @return the unity sources, in batch order
+     */
+    public final List/* <File> */createSources( List/* <File> */sources )
+        throws MojoExecutionException
+    {
+        File file = new File( directory, name + ".properties" );
+        Properties previous = load( file );
+
+        // keep the sources in their previous batch while it has room
+        Map/* <Integer, List<String>> */batches = new TreeMap();
+        List paths = new ArrayList();
+        for ( Iterator i = sources.iterator(); i.hasNext(); )
+        {
+            paths.add( ( (File) i.next() ).getAbsolutePath() );
+        }
+        Collections.sort( paths );
+        List unassigned = new ArrayList();
+        for ( Iterator i = paths.iterator(); i.hasNext(); )
+        {
+            String path = (String) i.next();
+            Integer batch = parseBatch( previous.getProperty( path ) );
+            List members = batch != null ? getBatch( batches, batch ) : null;
+            if ( ( members != null ) && ( members.size() < batchSize ) )
+            {
+                members.add( path );
+            }
+            else
+            {
+                unassigned.add( path );
+            }
+        }
+
+        // add new sources to the first batches with room
+        int batch = 0;
+        for ( Iterator i = unassigned.iterator(); i.hasNext(); )
+        {
+            String path = (String) i.next();
+            while ( getBatch( batches, new Integer( batch ) ).size() >= batchSize )
+            {
+                batch++;
+            }
+            getBatch( batches, new Integer( batch ) ).add( path );
+        }
+
+        Properties assignments = new Properties();
+        List result = new ArrayList();
+        for ( Iterator i = batches.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            List members = (List) entry.getValue();
+            if ( members.isEmpty() )
+            {
+                continue;
+            }
+
+            File source = new File( directory, name + "_" + entry.getKey() + extension );
+            Collections.sort( members );
+            StringBuffer content = new StringBuffer();
+            for ( Iterator j = members.iterator(); j.hasNext(); )
+            {
+                String path = (String) j.next();
+                assignments.setProperty( path, entry.getKey().toString() );
+                content.append( "#include \"" ).append( path.replace( '\\', '/' ) ).append( "\"\n" );
+            }
+            writeIfChanged( source, content.toString() );
+            result.add( source );
+        }
+
+        // remove the unity sources of batches which became empty
+        for ( Iterator i = previous.values().iterator(); i.hasNext(); )
+        {
+            Integer previousBatch = parseBatch( (String) i.next() );
+            if ( ( previousBatch != null ) && !batches.containsKey( previousBatch ) )
+            {
+                new File( directory, name + "_" + previousBatch + extension ).delete();
+            }
+        }
+
+        if ( !assignments.equals( previous ) )
+        {
+            store( file, assignments );
+        }
+        return result;
+    }
+
+    private static List getBatch( Map batches, Integer batch )
+    {
+        List members = (List) batches.get( batch );
+        if ( members == null )
+        {
+            members = new ArrayList();
+            batches.put( batch, members );
+        }
+        return members;
+    }
+
+    private static Integer parseBatch( String value )
+    {
+        try
+        {
+            return value != null ? Integer.valueOf( value ) : null;
+        }
+        catch ( NumberFormatException e )
+        {
+            return null;
+        }
+    }
+
+    private static void writeIfChanged( File file, String content )
+        throws MojoExecutionException
+    {
+        try
+        {
+            if ( !file.exists() || !FileUtils.fileRead( file ).equals( content ) )
+            {
+                file.getParentFile().mkdirs();
+                FileUtils.fileWrite( file.getPath(), content );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "NAR: cannot write " + file, e );
+        }
+    }
+
+    private static Properties load( File file )
+    {
+        Properties properties = new Properties();
+        if ( file.exists() )
+        {
+            try
+            {
+                InputStream in = new FileInputStream( file );
+                try
+                {
+                    properties.load( in );
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            catch ( IOException e )
+            {
+                // assign all sources again
+                properties.clear();
+            }
+        }
+        return properties;
+    }
+
+    private static void store( File file, Properties properties )
+        throws MojoExecutionException
+    {
+        file.getParentFile().mkdirs();
+        File tmp = new File( file.getParentFile(), file.getName() + ".tmp" );
+        try
+        {
+            OutputStream out = new FileOutputStream( tmp );
+            try
+            {
+                properties.store( out, "NAR unity batches" );
+            }
+            finally
+            {
+                out.close();
+            }
+            file.delete();
+            if ( !tmp.renameTo( file ) )
+            {
+                throw new IOException( "cannot rename " + tmp + " to " + file );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "NAR: cannot write " + file, e );
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package org.apache.maven.plugin.nar;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Marker file written once a NAR file has been completely unpacked and processed. It records the checksum and size of
+ * the NAR file and the parameters used to unpack it. An unpack directory without a matching marker is incomplete or
+ * stale and has to be unpacked again.
+ * <p>
+ * The modification time of the NAR file is recorded as well, so the checksum only has to be computed when the file was
+ * touched or downloaded again.
+ */
+public class NarUnpackMarker
+{
+    private static final String CHECKSUM = "nar.checksum";
+
+    private static final String SIZE = "nar.size";
+
+    private static final String LAST_MODIFIED = "nar.lastModified";
+
+    private final File marker;
+
+    private final File narFile;
+
+    private final Properties parameters;
+
+    private String checksum;
+
+    /**
+     * @param marker the marker file
+     * @param narFile the NAR file which is unpacked
+     * @param parameters parameters which influence the unpacked content, such as layout and AOL
+     */
+    public NarUnpackMarker( File marker, File narFile, Properties parameters )
+    {
+        this.marker = marker;
+        this.narFile = narFile;
+        this.parameters = parameters;
+    }
+
+    public final File getFile()
+    {
+        return marker;
+    }
+
+    public final Properties getParameters()
+    {
+        return parameters;
+    }
+
+    /**
+     * @return true if the marker records a complete unpack of the current content of the NAR file with the same
+     *         parameters.
+     */
+    public final boolean isCurrent()
+        throws MojoExecutionException
+    {
+        if ( !marker.exists() )
+        {
+            return false;
+        }
+
+        Properties recorded = new Properties();
+        try
+        {
+            InputStream in = new FileInputStream( marker );
+            try
+            {
+                recorded.load( in );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            return false;
+        }
+
+        for ( Iterator i = parameters.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            if ( !entry.getValue().equals( recorded.getProperty( (String) entry.getKey() ) ) )
+            {
+                return false;
+            }
+        }
+
+        if ( !String.valueOf( narFile.length() ).equals( recorded.getProperty( SIZE ) ) )
+        {
+            return false;
+        }
+        if ( String.valueOf( narFile.lastModified() ).equals( recorded.getProperty( LAST_MODIFIED ) ) )
+        {
+            return true;
+        }
+
+        // same size, but touched or downloaded again
+        if ( !getChecksum().equals( recorded.getProperty( CHECKSUM ) ) )
+        {
+            return false;
+        }
+        write();
+        return true;
+    }
+
+    /**
+     * @return the checksum of the NAR file recorded in the marker, or null if the marker cannot be read
+     */
+    public static String getChecksum( File marker )
+    {
+        Properties recorded = new Properties();
+        try
+        {
+            InputStream in = new FileInputStream( marker );
+            try
+            {
+                recorded.load( in );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+        return recorded.getProperty( CHECKSUM );
+    }
+
+    /**
+     * Deletes the marker, to be called before unpacking starts.
+     */
+    public final void delete()
+        throws MojoExecutionException
+    {
+        if ( marker.exists() && !marker.delete() )
+        {
+            throw new MojoExecutionException( "Cannot delete unpack marker: " + marker );
+        }
+    }
+
+    /**
+     * Writes the marker, to be called after unpacking completed.
+     */
+    public final void write()
+        throws MojoExecutionException
+    {
+        Properties properties = new Properties();
+        properties.putAll( parameters );
+        properties.setProperty( SIZE, String.valueOf( narFile.length() ) );
+        properties.setProperty( LAST_MODIFIED, String.valueOf( narFile.lastModified() ) );
+        properties.setProperty( CHECKSUM, getChecksum() );
+
+        File tmp = new File( marker.getParentFile(), marker.getName() + ".tmp" );
+        try
+        {
+            OutputStream out = new FileOutputStream( tmp );
+            try
+            {
+                properties.store( out, "NAR unpack marker for " + narFile.getName() );
+            }
+            finally
+            {
+                out.close();
+            }
+            marker.delete();
+            if ( !tmp.renameTo( marker ) )
+            {
+                throw new IOException( "Cannot rename " + tmp + " to " + marker );
+            }
+        }
+        catch ( IOException e )
+        {
+            tmp.delete();
+            throw new MojoExecutionException( "Cannot write unpack marker: " + marker, e );
+        }
+    }
+
+    private String getChecksum()
+        throws MojoExecutionException
+    {
+        if ( checksum == null )
+        {
+            try
+            {
+                checksum = NarUtil.getChecksum( narFile );
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Cannot compute checksum of " + narFile, e );
+            }
+        }
+        return checksum;
+    }
+}
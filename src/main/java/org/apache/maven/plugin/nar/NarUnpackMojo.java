@@ -30,6 +30,7 @@ import org.apache.maven.plugin.MojoFailureException;
  * libraries.
  * 
  * @goal nar-unpack
+ * @threadSafe
  * @phase process-sources
  * @requiresProject
  * @requiresDependencyResolution
@@ -45,13 +46,13 @@ public class NarUnpackMojo
         List narArtifacts = getNarManager().getNarDependencies( "compile" );
         if ( classifiers == null )
         {
-            getNarManager().unpackAttachedNars( narArtifacts, archiverManager, null, getOS(), getLayout(), getUnpackDirectory() );
+            getNarManager().unpackAttachedNars( narArtifacts, archiverManager, null, getOS(), getUnpackLayout(), getUnpackDirectory(), narUnpackThreads );
         }
         else
         {
             for ( Iterator j = classifiers.iterator(); j.hasNext(); )
             {
-                getNarManager().unpackAttachedNars( narArtifacts, archiverManager, (String) j.next(), getOS(), getLayout(), getUnpackDirectory() );
+                getNarManager().unpackAttachedNars( narArtifacts, archiverManager, (String) j.next(), getOS(), getUnpackLayout(), getUnpackDirectory(), narUnpackThreads );
             }
         }
     }
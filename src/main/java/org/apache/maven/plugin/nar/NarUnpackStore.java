@@ -0,0 +1,462 @@
+package org.apache.maven.plugin.nar;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Machine wide store of unpacked and processed NAR files, shared by all modules and builds using the same local
+ * repository. Entries are addressed by the checksum of the NAR file and the parameters used to process it. Modules
+ * refer to an entry through a symbolic link, or hard links to its files where symbolic links are not available.
+ * <p>
+ * Each entry has a "&lt;entry&gt;.used" file next to it, written once the entry is complete. It holds the size of the
+ * entry and its modification time is the last time the entry was used. When the store grows beyond its maximum size
+ * the least recently used entries are removed. Entries are locked while they are populated or removed.
+ * <p>
+ * Modules keep referring to an entry after it was unpacked, while they compile and link against it. A build therefore
+ * holds a shared lock on the "&lt;entry&gt;.inuse" file of every entry it used, and entries in use by a build are not
+ * removed, even if the store then stays beyond its maximum size for a while. The locks are held until the JVM exits,
+ * or until a later build in the same JVM uses the store.
+ */
+public class NarUnpackStore
+{
+    public interface Populator
+    {
+        /**
+         * Unpacks and processes the NAR into the given, not yet existing, directory.
+         */
+        void populate( File directory )
+            throws MojoExecutionException, MojoFailureException;
+    }
+
+    /**
+     * Shared locks on the entries used by the build running in this JVM, by entry path.
+     */
+    private static final Map/* <String, FileLock> */IN_USE = new HashMap();
+
+    private static Date inUseBuild;
+
+    private final File directory;
+
+    private final long maxSize;
+
+    private final Log log;
+
+    /**
+     * @param directory root of the store
+     * @param maxSize maximum size of the store in bytes
+     * @param buildStart start of the build, the entries used by earlier builds in this JVM are no longer in use
+     */
+    public NarUnpackStore( File directory, long maxSize, Date buildStart, Log log )
+    {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.log = log;
+        synchronized ( IN_USE )
+        {
+            if ( inUseBuild == null ? buildStart != null : !inUseBuild.equals( buildStart ) )
+            {
+                for ( Iterator i = IN_USE.values().iterator(); i.hasNext(); )
+                {
+                    release( (FileLock) i.next() );
+                }
+                IN_USE.clear();
+                inUseBuild = buildStart;
+            }
+        }
+    }
+
+    public final File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Makes target refer to the unpacked content of the NAR file, populating the store entry first if needed.
+     * 
+     * @param narFile the NAR file
+     * @param parameters parameters which influence the unpacked content, such as layout and AOL
+     * @param target the unpack directory of the module, which must not exist
+     * @param populator unpacks the NAR into the store
+     */
+    public final void unpack( File narFile, Properties parameters, File target, Populator populator )
+        throws MojoExecutionException, MojoFailureException
+    {
+        String key = getKey( narFile, parameters );
+        File entry = new File( directory, key );
+        File used = new File( directory, key + ".used" );
+
+        NarDirectoryLock lock = NarDirectoryLock.lock( entry );
+        try
+        {
+            if ( used.exists() && entry.isDirectory() )
+            {
+                log.debug( "NAR: reusing " + entry + " for " + narFile.getName() );
+                used.setLastModified( System.currentTimeMillis() );
+            }
+            else
+            {
+                log.debug( "NAR: unpacking " + narFile.getName() + " into " + entry );
+                used.delete();
+                deleteDirectory( entry );
+                populator.populate( entry );
+                try
+                {
+                    FileUtils.fileWrite( used.getPath(), String.valueOf( getSize( entry ) ) );
+                }
+                catch ( IOException e )
+                {
+                    throw new MojoExecutionException( "Cannot write " + used, e );
+                }
+            }
+            use( entry );
+            link( entry, target );
+        }
+        finally
+        {
+            lock.release();
+        }
+
+        evict( directory, maxSize, key, log );
+    }
+
+    /**
+     * Marks the entry as in use by this build, called while holding the lock on the entry.
+     */
+    private void use( File entry )
+        throws MojoExecutionException
+    {
+        synchronized ( IN_USE )
+        {
+            if ( IN_USE.containsKey( entry.getAbsolutePath() ) )
+            {
+                return;
+            }
+            File file = new File( entry.getPath() + ".inuse" );
+            RandomAccessFile inUse = null;
+            try
+            {
+                inUse = new RandomAccessFile( file, "rw" );
+                // only fails if the platform has no shared locks and another build holds it, which then keeps it
+                FileLock lock = inUse.getChannel().tryLock( 0, Long.MAX_VALUE, true );
+                if ( lock == null )
+                {
+                    inUse.close();
+                    return;
+                }
+                IN_USE.put( entry.getAbsolutePath(), lock );
+            }
+            catch ( IOException e )
+            {
+                close( inUse );
+                throw new MojoExecutionException( "Cannot lock " + file, e );
+            }
+        }
+    }
+
+    /**
+     * @return whether a build holds a shared lock on the "&lt;entry&gt;.inuse" file, called while holding the lock on
+     *         the entry. The file is deleted if not.
+     */
+    private static boolean isInUse( File entry )
+    {
+        synchronized ( IN_USE )
+        {
+            if ( IN_USE.containsKey( entry.getAbsolutePath() ) )
+            {
+                return true;
+            }
+        }
+        File file = new File( entry.getPath() + ".inuse" );
+        if ( !file.exists() )
+        {
+            return false;
+        }
+        RandomAccessFile inUse = null;
+        try
+        {
+            inUse = new RandomAccessFile( file, "rw" );
+            FileLock lock = inUse.getChannel().tryLock();
+            if ( lock == null )
+            {
+                return true;
+            }
+            // nobody can start using it while the entry is locked
+            file.delete();
+            lock.release();
+            return false;
+        }
+        catch ( IOException e )
+        {
+            return true;
+        }
+        finally
+        {
+            close( inUse );
+        }
+    }
+
+    private String getKey( File narFile, Properties parameters )
+        throws MojoExecutionException
+    {
+        String checksum;
+        try
+        {
+            checksum = NarUtil.getChecksum( narFile );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Cannot compute checksum of " + narFile, e );
+        }
+        // String.hashCode is specified, so the same parameters give the same key in every JVM
+        String sorted = new TreeMap( parameters ).toString();
+        return checksum + "-" + Integer.toHexString( sorted.hashCode() );
+    }
+
+    private void link( File entry, File target )
+        throws MojoExecutionException
+    {
+        target.getParentFile().mkdirs();
+        if ( NarUtil.createSymbolicLink( target, entry ) )
+        {
+            return;
+        }
+
+        try
+        {
+            if ( !linkFiles( entry, target ) )
+            {
+                log.debug( "NAR: hard links not supported, copying " + entry + " to " + target );
+                deleteDirectory( target );
+                target.mkdirs();
+                NarUtil.copyDirectoryStructure( entry, target, "**", null );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Cannot copy " + entry + " to " + target, e );
+        }
+    }
+
+    private static boolean linkFiles( File source, File target )
+    {
+        target.mkdirs();
+        File[] files = source.listFiles();
+        for ( int i = 0; i < files.length; i++ )
+        {
+            File link = new File( target, files[i].getName() );
+            if ( files[i].isDirectory() ? !linkFiles( files[i], link ) : !NarUtil.createHardLink( link, files[i] ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the least recently used entries of a store with "&lt;entry&gt;.used" markers, except the given one, until
+     * the store fits its maximum size. Entries locked by other threads or processes, or in use by a build, are skipped.
+     * The lock files of removed entries are removed with them.
+     */
+    static void evict( File directory, long maxSize, String keep, Log log )
+        throws MojoExecutionException
+    {
+        File[] markers = directory.listFiles();
+        if ( markers == null )
+        {
+            return;
+        }
+
+        List used = new ArrayList();
+        long size = 0;
+        for ( int i = 0; i < markers.length; i++ )
+        {
+            if ( markers[i].getName().endsWith( ".used" ) )
+            {
+                used.add( markers[i] );
+                size += readSize( markers[i] );
+            }
+        }
+        if ( size <= maxSize )
+        {
+            return;
+        }
+
+        Collections.sort( used, new Comparator()
+        {
+            public int compare( Object o1, Object o2 )
+            {
+                long m1 = ( (File) o1 ).lastModified();
+                long m2 = ( (File) o2 ).lastModified();
+                return m1 < m2 ? -1 : ( m1 == m2 ? 0 : 1 );
+            }
+        } );
+
+        for ( Iterator i = used.iterator(); i.hasNext() && ( size > maxSize ); )
+        {
+            File marker = (File) i.next();
+            String key = marker.getName().substring( 0, marker.getName().length() - ".used".length() );
+            if ( key.equals( keep ) )
+            {
+                continue;
+            }
+            File entry = new File( directory, key );
+            NarDirectoryLock lock = NarDirectoryLock.tryLock( entry );
+            if ( lock == null )
+            {
+                // being populated or removed
+                continue;
+            }
+            boolean removed = false;
+            try
+            {
+                if ( isInUse( entry ) )
+                {
+                    log.debug( "NAR: keeping " + entry + " in " + directory + ", it is in use" );
+                    continue;
+                }
+                long entrySize = readSize( marker );
+                log.debug( "NAR: removing " + entry + " from " + directory );
+                if ( marker.delete() )
+                {
+                    deleteDirectory( entry );
+                    size -= entrySize;
+                    removed = true;
+                }
+            }
+            finally
+            {
+                if ( removed )
+                {
+                    lock.releaseAndDelete();
+                }
+                else
+                {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    private static void release( FileLock lock )
+    {
+        try
+        {
+            lock.release();
+        }
+        catch ( IOException e )
+        {
+            // released anyway when the file is closed
+        }
+        try
+        {
+            lock.channel().close();
+        }
+        catch ( IOException e )
+        {
+            // ignore
+        }
+    }
+
+    private static void close( RandomAccessFile file )
+    {
+        if ( file != null )
+        {
+            try
+            {
+                file.close();
+            }
+            catch ( IOException e )
+            {
+                // ignore
+            }
+        }
+    }
+
+    private static long readSize( File marker )
+    {
+        try
+        {
+            return Long.parseLong( FileUtils.fileRead( marker ).trim() );
+        }
+        catch ( IOException e )
+        {
+            return 0;
+        }
+        catch ( NumberFormatException e )
+        {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the size of the files below the given file, not following symbolic links
+     */
+    static long getSize( File file )
+    {
+        if ( NarUtil.isSymbolicLink( file ) )
+        {
+            return 0;
+        }
+        if ( file.isDirectory() )
+        {
+            long size = 0;
+            List files = Arrays.asList( file.listFiles() );
+            for ( Iterator i = files.iterator(); i.hasNext(); )
+            {
+                size += getSize( (File) i.next() );
+            }
+            return size;
+        }
+        return file.length();
+    }
+
+    static void deleteDirectory( File dir )
+        throws MojoExecutionException
+    {
+        try
+        {
+            FileUtils.deleteDirectory( dir );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Could not delete directory: " + dir, e );
+        }
+    }
+}
@@ -21,11 +21,17 @@ package org.apache.maven.plugin.nar;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -154,7 +160,7 @@ public final class NarUtil
                 makeExecutable( files[i], log );
             }
         }
-        if ( file.isFile() && file.canRead() && file.canWrite() && !file.isHidden() )
+        if ( file.isFile() && file.canRead() && file.canWrite() && !file.isHidden() && !setExecutable( file ) )
         {
             // chmod +x file
             int result = runCommand( "chmod", new String[] { "+x", file.getPath() }, null, null, log );
@@ -166,8 +172,62 @@ public final class NarUtil
         }
     }
 
+    // number of libraries passed to a single ranlib invocation at most
+    private static final int RANLIB_BATCH_SIZE = 64;
+
     public static void runRanlib( File file, final Log log )
         throws MojoExecutionException, MojoFailureException
+    {
+        runRanlib( new File[] { file }, log );
+    }
+
+    /**
+     * Runs ranlib on all static libraries found in the given files and directories which do not carry an up-to-date
+     * symbol index yet. Libraries are passed to ranlib in batches, which run in parallel.
+     */
+    public static void runRanlib( File[] files, final Log log )
+        throws MojoExecutionException, MojoFailureException
+    {
+        List archives = new ArrayList();
+        for ( int i = 0; i < files.length; i++ )
+        {
+            findArchivesWithoutIndex( files[i], archives, log );
+        }
+        if ( archives.isEmpty() )
+        {
+            return;
+        }
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        int batchSize = Math.min( RANLIB_BATCH_SIZE, ( archives.size() + processors - 1 ) / processors );
+        List tasks = new ArrayList();
+        for ( int i = 0; i < archives.size(); i += batchSize )
+        {
+            final List batch = archives.subList( i, Math.min( i + batchSize, archives.size() ) );
+            tasks.add( new NarTaskExecutor.Task()
+            {
+                public void execute()
+                    throws MojoExecutionException, MojoFailureException
+                {
+                    String[] args = new String[batch.size()];
+                    for ( int j = 0; j < args.length; j++ )
+                    {
+                        args[j] = ( (File) batch.get( j ) ).getPath();
+                    }
+                    // ranlib file...
+                    int result = runCommand( "ranlib", args, null, null, log );
+                    if ( result != 0 )
+                    {
+                        throw new MojoExecutionException( "Failed to execute 'ranlib " + batch + "'"
+                            + " return code: \'" + result + "\'." );
+                    }
+                }
+            } );
+        }
+        new NarTaskExecutor( "ranlib", processors ).execute( tasks );
+    }
+
+    private static void findArchivesWithoutIndex( File file, List archives, Log log )
     {
         if ( !file.exists() )
         {
@@ -179,18 +239,96 @@ public final class NarUtil
             File[] files = file.listFiles();
             for ( int i = 0; i < files.length; i++ )
             {
-                runRanlib( files[i], log );
+                findArchivesWithoutIndex( files[i], archives, log );
             }
         }
         if ( file.isFile() && file.canWrite() && !file.isHidden() && file.getName().endsWith( ".a" ) )
         {
-            // ranlib file
-            int result = runCommand( "ranlib", new String[] { file.getPath() }, null, null, log );
-            if ( result != 0 )
+            if ( hasSymbolIndex( file ) )
             {
-                throw new MojoExecutionException( "Failed to execute 'ranlib " + file.getPath() + "'"
-                    + " return code: \'" + result + "\'." );
+                log.debug( "Symbol index up to date: " + file );
             }
+            else
+            {
+                archives.add( file );
+            }
+        }
+    }
+
+    /**
+     * Checks if a static library starts with an up-to-date symbol index, as written by ranlib: a "/" or "/SYM64/"
+     * member (System V, GNU) or a "__.SYMDEF" member (BSD, Mac OS X) which is not older than the library itself.
+     * 
+     * @return false if there is no index, it may be out of date, or the file is not an ar archive.
+     */
+    public static boolean hasSymbolIndex( File file )
+    {
+        final int headerSize = 60;
+        byte[] bytes = new byte[8 + headerSize + 20];
+        int length = 0;
+        try
+        {
+            InputStream in = new FileInputStream( file );
+            try
+            {
+                int n;
+                while ( ( length < bytes.length ) && ( ( n = in.read( bytes, length, bytes.length - length ) ) > 0 ) )
+                {
+                    length += n;
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            return false;
+        }
+        if ( length < 8 + headerSize )
+        {
+            return false;
+        }
+
+        String data;
+        try
+        {
+            data = new String( bytes, 0, length, "ISO-8859-1" );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            return false;
+        }
+        if ( !data.startsWith( "!<arch>\n" ) && !data.startsWith( "!<thin>\n" ) )
+        {
+            return false;
+        }
+
+        String name = data.substring( 8, 8 + 16 ).trim();
+        if ( name.equals( "/" ) || name.equals( "/SYM64/" ) )
+        {
+            return true;
+        }
+        if ( name.startsWith( "#1/" ) )
+        {
+            // BSD long name, stored in front of the member data
+            name = data.substring( 8 + headerSize );
+        }
+        if ( !name.startsWith( "__.SYMDEF" ) )
+        {
+            return false;
+        }
+
+        // the linker on Mac OS X rejects an index older than the archive
+        try
+        {
+            long date = Long.parseLong( data.substring( 8 + 16, 8 + 16 + 12 ).trim() );
+            return date >= file.lastModified() / 1000;
+        }
+        catch ( NumberFormatException e )
+        {
+            return false;
         }
     }
 
@@ -300,11 +438,11 @@ public final class NarUtil
             }
         }
         if ( file.isFile() && file.canRead() && file.canWrite() && !file.isHidden()
-            && file.getName().matches( ".*\\.so(\\.\\d+)+$" ) )
+            && isVersionedSharedLibrary( file.getName() ) )
         {
             File sofile =
                 new File( file.getParent(), file.getName().substring( 0, file.getName().indexOf( ".so" ) + 3 ) );
-            if ( !sofile.exists() )
+            if ( !sofile.exists() && !createSymbolicLink( sofile, new File( file.getName() ) ) )
             {
                 // ln -s lib.so.xx lib.so
                 int result =
@@ -427,6 +565,265 @@ public final class NarUtil
         return sb.toString();
     }
 
+    /**
+     * @return the SHA-1 checksum of the content of the given file, as hex string
+     */
+    public static String getChecksum( File file )
+        throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance( "SHA-1" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IOException( "SHA-1 not available: " + e.getMessage() );
+        }
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            byte[] buffer = new byte[65536];
+            int n;
+            while ( ( n = in.read( buffer ) ) > 0 )
+            {
+                digest.update( buffer, 0, n );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return toHex( digest.digest() );
+    }
+
+    static String toHex( byte[] bytes )
+    {
+        StringBuffer hex = new StringBuffer( bytes.length * 2 );
+        for ( int i = 0; i < bytes.length; i++ )
+        {
+            hex.append( Character.forDigit( ( bytes[i] >> 4 ) & 0xF, 16 ) );
+            hex.append( Character.forDigit( bytes[i] & 0xF, 16 ) );
+        }
+        return hex.toString();
+    }
+
+    /**
+     * @return true if the given file is a symbolic link, based on its canonical path.
+     */
+    public static boolean isSymbolicLink( File file )
+    {
+        try
+        {
+            File parent = file.getAbsoluteFile().getParentFile();
+            File canonical = new File( parent == null ? null : parent.getCanonicalFile(), file.getName() );
+            return !canonical.getCanonicalFile().equals( canonical.getAbsoluteFile() );
+        }
+        catch ( IOException e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the file name is a versioned shared library, such as libfoo.so.1.2, which gets a libfoo.so link.
+     */
+    public static boolean isVersionedSharedLibrary( String name )
+    {
+        return name.matches( ".*\\.so(\\.\\d+)+$" );
+    }
+
+    /**
+     * Makes a file executable for everybody, using File.setExecutable when available.
+     * 
+     * @return false if not supported by the JVM.
+     */
+    public static boolean setExecutable( File file )
+    {
+        try
+        {
+            // 1.6 only so coded using introspection
+            // file.setExecutable( true, false );
+            Method setExecutable =
+                File.class.getMethod( "setExecutable", new Class[] { boolean.class, boolean.class } );
+            return ( (Boolean) setExecutable.invoke( file, new Object[] { Boolean.TRUE, Boolean.FALSE } ) )
+                .booleanValue();
+        }
+        catch ( NoSuchMethodException e )
+        {
+            return false;
+        }
+        catch ( IllegalAccessException e )
+        {
+            return false;
+        }
+        catch ( InvocationTargetException e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Sets the permission bits of a unix mode on a file, using java.nio.file when available.
+     * 
+     * @return false if not supported by the JVM or the file system.
+     */
+    public static boolean setUnixMode( File file, int mode )
+    {
+        StringBuffer permissions = new StringBuffer( 9 );
+        String rwx = "rwx";
+        for ( int bit = 8; bit >= 0; bit-- )
+        {
+            permissions.append( ( mode & ( 1 << bit ) ) != 0 ? rwx.charAt( 2 - bit % 3 ) : '-' );
+        }
+        try
+        {
+            // 1.7 only so coded using introspection
+            // Files.setPosixFilePermissions( file.toPath(), PosixFilePermissions.fromString( permissions ) );
+            Class files = Class.forName( "java.nio.file.Files" );
+            Class path = Class.forName( "java.nio.file.Path" );
+            Class posix = Class.forName( "java.nio.file.attribute.PosixFilePermissions" );
+            Method fromString = posix.getMethod( "fromString", new Class[] { String.class } );
+            Method toPath = File.class.getMethod( "toPath", new Class[] {} );
+            Method setPermissions = files.getMethod( "setPosixFilePermissions", new Class[] { path, Set.class } );
+            Object set = fromString.invoke( null, new Object[] { permissions.toString() } );
+            setPermissions.invoke( null, new Object[] { toPath.invoke( file, new Object[] {} ), set } );
+            return true;
+        }
+        catch ( ClassNotFoundException e )
+        {
+            return false;
+        }
+        catch ( NoSuchMethodException e )
+        {
+            return false;
+        }
+        catch ( IllegalAccessException e )
+        {
+            return false;
+        }
+        catch ( InvocationTargetException e )
+        {
+            // not a posix file system
+            return false;
+        }
+    }
+
+    /**
+     * Returns the permission bits of the unix mode of a file, using java.nio.file when available.
+     * 
+     * @return the permission bits, or -1 if not supported by the JVM or the file system.
+     */
+    public static int getUnixMode( File file )
+    {
+        try
+        {
+            // 1.7 only so coded using introspection
+            // PosixFilePermissions.toString( Files.getPosixFilePermissions( file.toPath() ) );
+            Class files = Class.forName( "java.nio.file.Files" );
+            Class path = Class.forName( "java.nio.file.Path" );
+            Class posix = Class.forName( "java.nio.file.attribute.PosixFilePermissions" );
+            Object linkOptions = Array.newInstance( Class.forName( "java.nio.file.LinkOption" ), 0 );
+            Method toPath = File.class.getMethod( "toPath", new Class[] {} );
+            Method getPermissions =
+                files.getMethod( "getPosixFilePermissions", new Class[] { path, linkOptions.getClass() } );
+            Method toString = posix.getMethod( "toString", new Class[] { Set.class } );
+            Object set =
+                getPermissions.invoke( null, new Object[] { toPath.invoke( file, new Object[] {} ), linkOptions } );
+            String permissions = (String) toString.invoke( null, new Object[] { set } );
+            int mode = 0;
+            for ( int i = 0; i < permissions.length(); i++ )
+            {
+                mode = ( mode << 1 ) | ( permissions.charAt( i ) != '-' ? 1 : 0 );
+            }
+            return mode;
+        }
+        catch ( ClassNotFoundException e )
+        {
+            return -1;
+        }
+        catch ( NoSuchMethodException e )
+        {
+            return -1;
+        }
+        catch ( IllegalAccessException e )
+        {
+            return -1;
+        }
+        catch ( InvocationTargetException e )
+        {
+            // not a posix file system
+            return -1;
+        }
+    }
+
+    /**
+     * Creates a symbolic link, using java.nio.file when available.
+     * 
+     * @return false if symbolic links are not supported by the JVM or the file system.
+     */
+    public static boolean createSymbolicLink( File link, File target )
+    {
+        // 1.7 only so coded using introspection
+        // Files.createSymbolicLink( link.toPath(), target.toPath() );
+        return invokeFiles( "createSymbolicLink", link, target, true );
+    }
+
+    /**
+     * Creates a hard link, using java.nio.file when available.
+     * 
+     * @return false if hard links are not supported by the JVM or the file system.
+     */
+    public static boolean createHardLink( File link, File existing )
+    {
+        // 1.7 only so coded using introspection
+        // Files.createLink( link.toPath(), existing.toPath() );
+        return invokeFiles( "createLink", link, existing, false );
+    }
+
+    private static boolean invokeFiles( String methodName, File link, File target, boolean attributes )
+    {
+        try
+        {
+            Class files = Class.forName( "java.nio.file.Files" );
+            Class path = Class.forName( "java.nio.file.Path" );
+            Method toPath = File.class.getMethod( "toPath", new Class[] {} );
+            Object linkPath = toPath.invoke( link, new Object[] {} );
+            Object targetPath = toPath.invoke( target, new Object[] {} );
+            if ( attributes )
+            {
+                Class attribute = Class.forName( "java.nio.file.attribute.FileAttribute" );
+                Object noAttributes = Array.newInstance( attribute, 0 );
+                Method method =
+                    files.getMethod( methodName, new Class[] { path, path, noAttributes.getClass() } );
+                method.invoke( null, new Object[] { linkPath, targetPath, noAttributes } );
+            }
+            else
+            {
+                Method method = files.getMethod( methodName, new Class[] { path, path } );
+                method.invoke( null, new Object[] { linkPath, targetPath } );
+            }
+            return true;
+        }
+        catch ( ClassNotFoundException e )
+        {
+            return false;
+        }
+        catch ( NoSuchMethodException e )
+        {
+            return false;
+        }
+        catch ( IllegalAccessException e )
+        {
+            return false;
+        }
+        catch ( InvocationTargetException e )
+        {
+            // unsupported by the file system, no permission, ...
+            return false;
+        }
+    }
+
     public static final String DEFAULT_EXCLUDES =
         "**/*~,**/#*#,**/.#*,**/%*%,**/._*," + "**/CVS,**/CVS/**,**/.cvsignore," + "**/SCCS,**/SCCS/**,**/vssver.scc,"
             + "**/.svn,**/.svn/**,**/.DS_Store";
@@ -434,6 +831,17 @@ public final class NarUtil
     public static int copyDirectoryStructure( File sourceDirectory, File destinationDirectory, String includes,
                                               String excludes )
         throws IOException
+    {
+        return copyDirectoryStructure( sourceDirectory, destinationDirectory, includes, excludes, null );
+    }
+
+    /**
+     * As {@link #copyDirectoryStructure(File, File, String, String)}, also adding the copied files to the given list
+     * if not null.
+     */
+    public static int copyDirectoryStructure( File sourceDirectory, File destinationDirectory, String includes,
+                                              String excludes, List/* <File> */copiedFiles )
+        throws IOException
     {
         if ( !sourceDirectory.exists() )
         {
@@ -455,6 +863,10 @@ public final class NarUtil
                 // destination = destination.getParentFile();
                 FileUtils.copyFile( file, destination );
                 copied++;
+                if ( copiedFiles != null )
+                {
+                    copiedFiles.add( destination );
+                }
 
                 // copy executable bit
                 try
@@ -496,7 +908,7 @@ public final class NarUtil
                     throw new IOException( "Could not create destination directory '" + destination.getAbsolutePath()
                         + "'." );
                 }
-                copied += copyDirectoryStructure( file, destination, includes, excludes );
+                copied += copyDirectoryStructure( file, destination, includes, excludes, copiedFiles );
             }
             else
             {
@@ -577,6 +989,33 @@ public final class NarUtil
         return pathName + "=" + value;
     }
 
+    /**
+     * @return the executable with the given name found on the PATH, or null if not found
+     */
+    public static File findExecutable( String name )
+    {
+        String path = getEnv( "PATH", null, null );
+        if ( path == null )
+        {
+            return null;
+        }
+        String[] dirs = path.split( File.pathSeparator );
+        String[] extensions =
+            File.separatorChar == '\\' ? new String[] { ".exe", ".bat", ".cmd", "" } : new String[] { "" };
+        for ( int i = 0; i < dirs.length; i++ )
+        {
+            for ( int j = 0; j < extensions.length; j++ )
+            {
+                File file = new File( dirs[i], name + extensions[j] );
+                if ( file.isFile() )
+                {
+                    return file;
+                }
+            }
+        }
+        return null;
+    }
+
     public static int runCommand( String cmd, String[] args, File workingDirectory, String[] env, final Log log )
         throws MojoExecutionException, MojoFailureException
     {
@@ -26,6 +26,7 @@ import org.apache.maven.plugin.MojoFailureException;
  * Validates the configuration of the NAR project (aol and pom)
  * 
  * @goal nar-validate
+ * @threadSafe
  * @phase validate
  * @author Mark Donszelmann
  */
@@ -31,6 +31,7 @@ import org.apache.tools.ant.Project;
  * NarCompileMojo.
  * 
  * @goal nar-vcproj
+ * @threadSafe
  * @phase generate-sources
  * @requiresDependencyResolution compile
  * @author Darren Sargent
@@ -19,6 +19,7 @@ import org.apache.maven.surefire.shade.org.codehaus.plexus.util.FileUtils;
  * Sets up a Visual Studio 2012 solution for a module
  *
  * @goal nar-visual-studio-setup
+ * @threadSafe
  * @phase compile
  * @requiresProject
  * Use test dependency resolution as this will also include compile dependencies
@@ -0,0 +1,525 @@
+package org.apache.maven.plugin.nar;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads NAR (zip) files by parsing the central directory directly. The file is read with positional FileChannel reads
+ * rather than memory mapped, so it is not locked after {@link #close()}, which matters on Windows. Stored entries are
+ * extracted with FileChannel.transferTo, deflated entries are inflated through buffers which are pooled between
+ * readers. The CRC-32 of every entry is checked against the central directory, for stored entries on a second read of
+ * their data, which is usually still in the file system cache. Zip64 archives are not supported, {@link #open(File)}
+ * returns null for them so the caller can fall back to another reader.
+ */
+public final class NarZipReader
+{
+    public static final class Entry
+    {
+        private String name;
+
+        private int method;
+
+        private long crc;
+
+        private long compressedSize;
+
+        private long size;
+
+        private long localHeaderOffset;
+
+        private long time;
+
+        private int unixMode;
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public boolean isDirectory()
+        {
+            return name.endsWith( "/" );
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public long getTime()
+        {
+            return time;
+        }
+
+        /**
+         * @return the unix mode, including the file type bits, or 0 if the entry was not written on unix.
+         */
+        public int getUnixMode()
+        {
+            return unixMode;
+        }
+
+        public String toString()
+        {
+            return name;
+        }
+    }
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+
+    private static final int STORED = 0;
+
+    private static final int DEFLATED = 8;
+
+    private static final int HOST_UNIX = 3;
+
+    private static final int UTF8_FLAG = 0x800;
+
+    private static final String UTF8 = "UTF-8";
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final int MAX_POOLED_BUFFERS = 16;
+
+    private static final LinkedList/* <byte[]> */BUFFERS = new LinkedList();
+
+    private final File file;
+
+    private final RandomAccessFile randomAccessFile;
+
+    private final FileChannel channel;
+
+    private final List/* <Entry> */entries;
+
+    private final Inflater inflater = new Inflater( true );
+
+    private final CRC32 crc = new CRC32();
+
+    private NarZipReader( File file, RandomAccessFile randomAccessFile, List entries )
+    {
+        this.file = file;
+        this.randomAccessFile = randomAccessFile;
+        this.channel = randomAccessFile.getChannel();
+        this.entries = entries;
+    }
+
+    /**
+     * @return a reader for the given file, or null if the file is not supported (zip64).
+     */
+    public static NarZipReader open( File file )
+        throws IOException
+    {
+        return open( file, null );
+    }
+
+    /**
+     * @param encoding encoding of the entry names which are not flagged as UTF-8, null for UTF-8 as the plexus
+     *            unarchiver
+     * @return a reader for the given file, or null if the file is not supported (zip64).
+     */
+    public static NarZipReader open( File file, String encoding )
+        throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile( file, "r" );
+        try
+        {
+            List entries =
+                readCentralDirectory( file, randomAccessFile.getChannel(), encoding != null ? encoding : UTF8 );
+            if ( entries == null )
+            {
+                randomAccessFile.close();
+                return null;
+            }
+            return new NarZipReader( file, randomAccessFile, entries );
+        }
+        catch ( IOException e )
+        {
+            randomAccessFile.close();
+            throw e;
+        }
+        catch ( RuntimeException e )
+        {
+            randomAccessFile.close();
+            throw new ZipException( "Cannot read " + file + ": " + e );
+        }
+    }
+
+    private static List readCentralDirectory( File file, FileChannel channel, String encoding )
+        throws IOException
+    {
+        // end of central directory record, followed by a comment of at most 64k
+        long length = channel.size();
+        if ( length < END_OF_CENTRAL_DIRECTORY_SIZE )
+        {
+            throw new ZipException( "Not a zip file: " + file );
+        }
+        int tailLength = (int) Math.min( length, END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF );
+        ByteBuffer tail = read( file, channel, length - tailLength, tailLength );
+        int end = -1;
+        for ( int i = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i-- )
+        {
+            if ( tail.getInt( i ) == END_OF_CENTRAL_DIRECTORY )
+            {
+                end = i;
+                break;
+            }
+        }
+        if ( end < 0 )
+        {
+            throw new ZipException( "Not a zip file: " + file );
+        }
+
+        int count = tail.getShort( end + 10 ) & 0xFFFF;
+        long directorySize = tail.getInt( end + 12 ) & 0xFFFFFFFFL;
+        long offset = tail.getInt( end + 16 ) & 0xFFFFFFFFL;
+        if ( ( count == 0xFFFF ) || ( directorySize == 0xFFFFFFFFL ) || ( offset == 0xFFFFFFFFL ) )
+        {
+            // zip64
+            return null;
+        }
+        if ( offset + directorySize > length )
+        {
+            throw new ZipException( "Invalid central directory in " + file );
+        }
+        ByteBuffer directory = read( file, channel, offset, (int) directorySize );
+
+        List entries = new ArrayList( count );
+        int position = 0;
+        for ( int i = 0; i < count; i++ )
+        {
+            if ( directory.getInt( position ) != CENTRAL_DIRECTORY_HEADER )
+            {
+                throw new ZipException( "Invalid central directory in " + file );
+            }
+            Entry entry = new Entry();
+            int madeBy = directory.getShort( position + 4 ) & 0xFFFF;
+            int flags = directory.getShort( position + 8 ) & 0xFFFF;
+            entry.method = directory.getShort( position + 10 ) & 0xFFFF;
+            entry.time = dosToJavaTime( directory.getInt( position + 12 ) & 0xFFFFFFFFL );
+            entry.crc = directory.getInt( position + 16 ) & 0xFFFFFFFFL;
+            entry.compressedSize = directory.getInt( position + 20 ) & 0xFFFFFFFFL;
+            entry.size = directory.getInt( position + 24 ) & 0xFFFFFFFFL;
+            int nameLength = directory.getShort( position + 28 ) & 0xFFFF;
+            int extraLength = directory.getShort( position + 30 ) & 0xFFFF;
+            int commentLength = directory.getShort( position + 32 ) & 0xFFFF;
+            long externalAttributes = directory.getInt( position + 38 ) & 0xFFFFFFFFL;
+            entry.localHeaderOffset = directory.getInt( position + 42 ) & 0xFFFFFFFFL;
+            if ( ( entry.compressedSize == 0xFFFFFFFFL ) || ( entry.size == 0xFFFFFFFFL )
+                || ( entry.localHeaderOffset == 0xFFFFFFFFL ) )
+            {
+                return null;
+            }
+            if ( ( madeBy >> 8 ) == HOST_UNIX )
+            {
+                entry.unixMode = (int) ( externalAttributes >> 16 ) & 0xFFFF;
+            }
+            entry.name =
+                getString( directory, position + 46, nameLength, ( flags & UTF8_FLAG ) != 0 ? UTF8 : encoding );
+            entries.add( entry );
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * @return the bytes of the file at the given position, in little endian order.
+     */
+    private static ByteBuffer read( File file, FileChannel channel, long position, int length )
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( length );
+        buffer.order( ByteOrder.LITTLE_ENDIAN );
+        read( file, channel, position, buffer );
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Fills the remainder of the buffer with the bytes of the file at the given position.
+     */
+    private static void read( File file, FileChannel channel, long position, ByteBuffer buffer )
+        throws IOException
+    {
+        while ( buffer.hasRemaining() )
+        {
+            int n = channel.read( buffer, position );
+            if ( n < 0 )
+            {
+                throw new ZipException( "Unexpected end of " + file );
+            }
+            position += n;
+        }
+    }
+
+    private static String getString( ByteBuffer map, int position, int length, String encoding )
+        throws ZipException
+    {
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = map.duplicate();
+        buffer.position( position );
+        buffer.get( bytes );
+        try
+        {
+            return new String( bytes, encoding );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new ZipException( "Unsupported encoding of entry names: " + encoding );
+        }
+    }
+
+    private static long dosToJavaTime( long dosTime )
+    {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set( (int) ( ( dosTime >> 25 ) & 0x7f ) + 1980, (int) ( ( dosTime >> 21 ) & 0x0f ) - 1,
+                      (int) ( dosTime >> 16 ) & 0x1f, (int) ( dosTime >> 11 ) & 0x1f, (int) ( dosTime >> 5 ) & 0x3f,
+                      (int) ( dosTime << 1 ) & 0x3e );
+        return calendar.getTimeInMillis();
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return the entries in the order of the central directory.
+     */
+    public List/* <Entry> */getEntries()
+    {
+        return Collections.unmodifiableList( entries );
+    }
+
+    private long getDataOffset( Entry entry )
+        throws IOException
+    {
+        ByteBuffer header = read( file, channel, entry.localHeaderOffset, LOCAL_FILE_HEADER_SIZE );
+        if ( header.getInt( 0 ) != LOCAL_FILE_HEADER )
+        {
+            throw new ZipException( "Invalid local header for " + entry + " in " + file );
+        }
+        int nameLength = header.getShort( 26 ) & 0xFFFF;
+        int extraLength = header.getShort( 28 ) & 0xFFFF;
+        return entry.localHeaderOffset + LOCAL_FILE_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    /**
+     * @return the content of a small entry, such as the target of a symbolic link.
+     */
+    public byte[] read( Entry entry )
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copy( entry, null, out );
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the content of a file entry to the given file.
+     */
+    public void extract( Entry entry, File target )
+        throws IOException
+    {
+        FileOutputStream out = new FileOutputStream( target );
+        try
+        {
+            copy( entry, out.getChannel(), out );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private void copy( Entry entry, FileChannel targetChannel, OutputStream out )
+        throws IOException
+    {
+        if ( ( entry.method != STORED ) && ( entry.method != DEFLATED ) )
+        {
+            throw new ZipException( "Unsupported compression method " + entry.method + " for " + entry + " in "
+                + file );
+        }
+
+        byte[] input = acquireBuffer();
+        byte[] output = acquireBuffer();
+        try
+        {
+            long position = getDataOffset( entry );
+            long end = position + entry.compressedSize;
+            crc.reset();
+            inflater.reset();
+            long written = 0;
+            if ( ( entry.method == STORED ) && ( targetChannel != null ) )
+            {
+                while ( written < entry.compressedSize )
+                {
+                    long n = channel.transferTo( position + written, entry.compressedSize - written, targetChannel );
+                    if ( n <= 0 )
+                    {
+                        throw new ZipException( "Unexpected end of " + file );
+                    }
+                    written += n;
+                }
+                update( position, end, output, null );
+            }
+            else if ( entry.method == STORED )
+            {
+                written = update( position, end, output, out );
+            }
+            else
+            {
+                while ( !inflater.finished() )
+                {
+                    if ( inflater.needsInput() )
+                    {
+                        int n = (int) Math.min( input.length, end - position );
+                        if ( n == 0 )
+                        {
+                            // nowrap inflater may need one extra byte
+                            input[0] = 0;
+                            n = 1;
+                        }
+                        else
+                        {
+                            read( file, channel, position, ByteBuffer.wrap( input, 0, n ) );
+                            position += n;
+                        }
+                        inflater.setInput( input, 0, n );
+                    }
+                    int n = inflater.inflate( output );
+                    if ( n > 0 )
+                    {
+                        out.write( output, 0, n );
+                        crc.update( output, 0, n );
+                        written += n;
+                    }
+                    else if ( inflater.needsDictionary() || ( !inflater.needsInput() && !inflater.finished() ) )
+                    {
+                        throw new ZipException( "Invalid compressed data for " + entry + " in " + file );
+                    }
+                }
+            }
+            if ( written != entry.size )
+            {
+                throw new ZipException( "Invalid size for " + entry + " in " + file );
+            }
+            if ( crc.getValue() != entry.crc )
+            {
+                throw new ZipException( "Invalid CRC-32 for " + entry + " in " + file );
+            }
+        }
+        catch ( DataFormatException e )
+        {
+            throw new ZipException( "Invalid compressed data for " + entry + " in " + file + ": " + e.getMessage() );
+        }
+        catch ( RuntimeException e )
+        {
+            throw new ZipException( "Cannot read " + entry + " in " + file + ": " + e );
+        }
+        finally
+        {
+            releaseBuffer( input );
+            releaseBuffer( output );
+        }
+    }
+
+    /**
+     * Reads the data between the positions, updates the CRC-32 with it and writes it to the stream, if any.
+     * 
+     * @return the number of bytes read
+     */
+    private long update( long position, long end, byte[] buffer, OutputStream out )
+        throws IOException
+    {
+        long start = position;
+        while ( position < end )
+        {
+            ByteBuffer data = ByteBuffer.wrap( buffer, 0, (int) Math.min( buffer.length, end - position ) );
+            read( file, channel, position, data );
+            int n = data.position();
+            if ( out != null )
+            {
+                out.write( buffer, 0, n );
+            }
+            crc.update( buffer, 0, n );
+            position += n;
+        }
+        return position - start;
+    }
+
+    public void close()
+        throws IOException
+    {
+        inflater.end();
+        randomAccessFile.close();
+    }
+
+    private static byte[] acquireBuffer()
+    {
+        synchronized ( BUFFERS )
+        {
+            if ( !BUFFERS.isEmpty() )
+            {
+                return (byte[]) BUFFERS.removeFirst();
+            }
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    private static void releaseBuffer( byte[] buffer )
+    {
+        synchronized ( BUFFERS )
+        {
+            if ( BUFFERS.size() < MAX_POOLED_BUFFERS )
+            {
+                BUFFERS.addFirst( buffer );
+            }
+        }
+    }
+
+}
@@ -0,0 +1,515 @@
+package org.apache.maven.plugin.nar;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes NAR (zip) files from entries which were compressed beforehand, possibly on other threads, see
+ * {@link #compress(InputStream, File, long, int, File)}. Since sizes and checksums are known when an entry is added the
+ * local headers carry them directly and no data descriptors are needed. Unix modes are recorded in the central
+ * directory the same way as the plexus archiver does. Zip64 is not supported.
+ */
+public final class NarZipWriter
+{
+    /**
+     * Compressed data of one entry, held in memory or in a (temporary) file.
+     */
+    public static final class Content
+    {
+        private int method;
+
+        private long crc;
+
+        private long size;
+
+        private long compressedSize;
+
+        private byte[] data;
+
+        private File file;
+
+        private boolean temporary;
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public long getCompressedSize()
+        {
+            return compressedSize;
+        }
+
+        public boolean isStored()
+        {
+            return method == STORED;
+        }
+
+        /**
+         * Releases the data, deleting the temporary file if one was used.
+         */
+        public void dispose()
+        {
+            data = null;
+            if ( temporary && ( file != null ) )
+            {
+                file.delete();
+            }
+            file = null;
+        }
+    }
+
+    private static final class Record
+    {
+        private byte[] name;
+
+        private int flags;
+
+        private int method;
+
+        private long dosTime;
+
+        private long crc;
+
+        private long compressedSize;
+
+        private long size;
+
+        private long externalAttributes;
+
+        private long localHeaderOffset;
+    }
+
+    /**
+     * Compression level which stores entries without deflating them.
+     */
+    public static final int NO_COMPRESSION = Deflater.NO_COMPRESSION;
+
+    public static final int DEFAULT_COMPRESSION = Deflater.DEFAULT_COMPRESSION;
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+    private static final int STORED = 0;
+
+    private static final int DEFLATED = 8;
+
+    private static final int HOST_UNIX = 3;
+
+    private static final int VERSION = 20;
+
+    private static final int UTF8_FLAG = 0x800;
+
+    private static final int MSDOS_DIRECTORY_FLAG = 0x10;
+
+    private static final int DIRECTORY_FLAG = 040000;
+
+    private static final int FILE_FLAG = 0100000;
+
+    private static final long MAX_SIZE = 0xffffffffL;
+
+    private static final int MAX_ENTRIES = 0xffff;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Entries larger than this are compressed into a temporary file rather than into memory.
+     */
+    private static final long MEMORY_LIMIT = 4 * 1024 * 1024;
+
+    private final File file;
+
+    private final OutputStream out;
+
+    private final List/* <Record> */records = new ArrayList();
+
+    private long offset;
+
+    public NarZipWriter( File file )
+        throws IOException
+    {
+        this.file = file;
+        out = new BufferedOutputStream( new FileOutputStream( file ), BUFFER_SIZE );
+    }
+
+    /**
+     * Compresses one entry. May be called concurrently.
+     * 
+     * @param in contents of the entry, closed afterwards
+     * @param source file the contents were read from, or null. Stored entries refer to it rather than copying it.
+     * @param size expected size, used to decide between memory and a temporary file
+     * @param level deflate level, {@link #NO_COMPRESSION} to store the entry
+     * @param temporaryDirectory where temporary files are created
+     */
+    public static Content compress( InputStream in, File source, long size, int level, File temporaryDirectory )
+        throws IOException
+    {
+        Content content = new Content();
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        OutputStream sink = null;
+        Deflater deflater = null;
+        boolean reference = ( level == NO_COMPRESSION ) && ( source != null );
+        try
+        {
+            if ( !reference )
+            {
+                if ( size > MEMORY_LIMIT )
+                {
+                    content.file = File.createTempFile( "nar", ".zip-entry", temporaryDirectory );
+                    content.file.deleteOnExit();
+                    content.temporary = true;
+                    sink = new BufferedOutputStream( new FileOutputStream( content.file ), BUFFER_SIZE );
+                }
+                else
+                {
+                    sink = new ByteArrayOutputStream( (int) Math.max( 32, size / 2 ) );
+                }
+            }
+            if ( level != NO_COMPRESSION )
+            {
+                deflater = new Deflater( level, true );
+            }
+            byte[] output = deflater != null ? new byte[BUFFER_SIZE] : null;
+
+            int n;
+            while ( ( n = in.read( buffer ) ) >= 0 )
+            {
+                crc.update( buffer, 0, n );
+                content.size += n;
+                if ( deflater != null )
+                {
+                    deflater.setInput( buffer, 0, n );
+                    while ( !deflater.needsInput() )
+                    {
+                        content.compressedSize += drain( deflater, output, sink );
+                    }
+                }
+                else if ( sink != null )
+                {
+                    sink.write( buffer, 0, n );
+                }
+            }
+            if ( deflater != null )
+            {
+                deflater.finish();
+                while ( !deflater.finished() )
+                {
+                    content.compressedSize += drain( deflater, output, sink );
+                }
+                content.method = DEFLATED;
+            }
+            else
+            {
+                content.compressedSize = content.size;
+                content.method = STORED;
+            }
+            if ( sink != null )
+            {
+                sink.close();
+                if ( sink instanceof ByteArrayOutputStream )
+                {
+                    content.data = ( (ByteArrayOutputStream) sink ).toByteArray();
+                }
+                sink = null;
+            }
+            if ( reference )
+            {
+                content.file = source;
+            }
+            else if ( ( content.method == DEFLATED ) && ( content.compressedSize >= content.size )
+                && ( source != null ) && ( source.length() == content.size ) )
+            {
+                // incompressible, store the original instead
+                content.dispose();
+                content.file = source;
+                content.temporary = false;
+                content.method = STORED;
+                content.compressedSize = content.size;
+            }
+            content.crc = crc.getValue();
+            return content;
+        }
+        catch ( IOException e )
+        {
+            content.dispose();
+            throw e;
+        }
+        finally
+        {
+            if ( deflater != null )
+            {
+                deflater.end();
+            }
+            if ( sink != null )
+            {
+                try
+                {
+                    sink.close();
+                }
+                catch ( IOException e )
+                {
+                    // ignore, already failing
+                }
+            }
+            in.close();
+        }
+    }
+
+    private static int drain( Deflater deflater, byte[] output, OutputStream sink )
+        throws IOException
+    {
+        int n = deflater.deflate( output );
+        sink.write( output, 0, n );
+        return n;
+    }
+
+    public void addDirectory( String name, long time, int mode )
+        throws IOException
+    {
+        Record record = createRecord( name.endsWith( "/" ) ? name : name + "/", time );
+        record.method = STORED;
+        record.externalAttributes = ( (long) ( ( mode & 07777 ) | DIRECTORY_FLAG ) << 16 ) | MSDOS_DIRECTORY_FLAG;
+        writeLocalHeader( record );
+    }
+
+    /**
+     * Adds a file entry and disposes its content.
+     */
+    public void addFile( String name, long time, int mode, Content content )
+        throws IOException
+    {
+        try
+        {
+            Record record = createRecord( name, time );
+            record.method = content.method;
+            record.crc = content.crc;
+            record.size = content.size;
+            record.compressedSize = content.compressedSize;
+            record.externalAttributes = (long) ( ( mode & 07777 ) | FILE_FLAG ) << 16;
+            if ( ( record.size > MAX_SIZE ) || ( record.compressedSize > MAX_SIZE ) )
+            {
+                throw new ZipException( "NAR: " + name + " is too large for a zip without zip64 extensions" );
+            }
+            writeLocalHeader( record );
+
+            if ( content.data != null )
+            {
+                out.write( content.data );
+            }
+            else if ( content.file != null )
+            {
+                copy( content.file, content.compressedSize );
+            }
+            offset += content.compressedSize;
+        }
+        finally
+        {
+            content.dispose();
+        }
+    }
+
+    private void copy( File from, long length )
+        throws IOException
+    {
+        InputStream in = new FileInputStream( from );
+        try
+        {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = length;
+            while ( remaining > 0 )
+            {
+                int n = in.read( buffer, 0, (int) Math.min( buffer.length, remaining ) );
+                if ( n < 0 )
+                {
+                    throw new ZipException( "NAR: " + from + " changed while it was being archived" );
+                }
+                out.write( buffer, 0, n );
+                remaining -= n;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the central directory and closes the file.
+     */
+    public void close( String comment )
+        throws IOException
+    {
+        try
+        {
+            if ( records.size() > MAX_ENTRIES )
+            {
+                throw new ZipException( "NAR: " + file + " has too many entries for a zip without zip64 extensions" );
+            }
+            long start = offset;
+            for ( Iterator i = records.iterator(); i.hasNext(); )
+            {
+                writeCentralDirectoryHeader( (Record) i.next() );
+            }
+            if ( offset > MAX_SIZE )
+            {
+                throw new ZipException( "NAR: " + file + " is too large for a zip without zip64 extensions" );
+            }
+
+            byte[] commentBytes = comment != null ? comment.getBytes( "UTF-8" ) : new byte[0];
+            ByteBuffer header = allocate( 22 + commentBytes.length );
+            header.putInt( END_OF_CENTRAL_DIRECTORY );
+            header.putShort( (short) 0 );
+            header.putShort( (short) 0 );
+            header.putShort( (short) records.size() );
+            header.putShort( (short) records.size() );
+            header.putInt( (int) ( offset - start ) );
+            header.putInt( (int) start );
+            header.putShort( (short) commentBytes.length );
+            header.put( commentBytes );
+            out.write( header.array() );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Closes the file after a failure, without writing the central directory, and deletes it.
+     */
+    public void abort()
+    {
+        try
+        {
+            out.close();
+        }
+        catch ( IOException e )
+        {
+            // ignore, already failing
+        }
+        file.delete();
+    }
+
+    private Record createRecord( String name, long time )
+        throws IOException
+    {
+        Record record = new Record();
+        record.name = name.getBytes( "UTF-8" );
+        if ( record.name.length != name.length() )
+        {
+            record.flags = UTF8_FLAG;
+        }
+        record.dosTime = javaToDosTime( time );
+        record.localHeaderOffset = offset;
+        if ( offset > MAX_SIZE )
+        {
+            throw new ZipException( "NAR: " + file + " is too large for a zip without zip64 extensions" );
+        }
+        records.add( record );
+        return record;
+    }
+
+    private void writeLocalHeader( Record record )
+        throws IOException
+    {
+        ByteBuffer header = allocate( 30 + record.name.length );
+        header.putInt( LOCAL_FILE_HEADER );
+        header.putShort( (short) VERSION );
+        header.putShort( (short) record.flags );
+        header.putShort( (short) record.method );
+        header.putInt( (int) record.dosTime );
+        header.putInt( (int) record.crc );
+        header.putInt( (int) record.compressedSize );
+        header.putInt( (int) record.size );
+        header.putShort( (short) record.name.length );
+        header.putShort( (short) 0 );
+        header.put( record.name );
+        out.write( header.array() );
+        offset += header.capacity();
+    }
+
+    private void writeCentralDirectoryHeader( Record record )
+        throws IOException
+    {
+        ByteBuffer header = allocate( 46 + record.name.length );
+        header.putInt( CENTRAL_DIRECTORY_HEADER );
+        header.putShort( (short) ( ( HOST_UNIX << 8 ) | VERSION ) );
+        header.putShort( (short) VERSION );
+        header.putShort( (short) record.flags );
+        header.putShort( (short) record.method );
+        header.putInt( (int) record.dosTime );
+        header.putInt( (int) record.crc );
+        header.putInt( (int) record.compressedSize );
+        header.putInt( (int) record.size );
+        header.putShort( (short) record.name.length );
+        header.putShort( (short) 0 );
+        header.putShort( (short) 0 );
+        header.putShort( (short) 0 );
+        header.putShort( (short) 0 );
+        header.putInt( (int) record.externalAttributes );
+        header.putInt( (int) record.localHeaderOffset );
+        header.put( record.name );
+        out.write( header.array() );
+        offset += header.capacity();
+    }
+
+    private static ByteBuffer allocate( int size )
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( size );
+        buffer.order( ByteOrder.LITTLE_ENDIAN );
+        return buffer;
+    }
+
+    private static long javaToDosTime( long time )
+    {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis( time );
+        int year = calendar.get( Calendar.YEAR );
+        if ( year < 1980 )
+        {
+            // 1980-01-01 00:00
+            return ( 1 << 21 ) | ( 1 << 16 );
+        }
+        return ( ( year - 1980 ) << 25 ) | ( ( calendar.get( Calendar.MONTH ) + 1 ) << 21 )
+            | ( calendar.get( Calendar.DAY_OF_MONTH ) << 16 ) | ( calendar.get( Calendar.HOUR_OF_DAY ) << 11 )
+            | ( calendar.get( Calendar.MINUTE ) << 5 ) | ( calendar.get( Calendar.SECOND ) >> 1 );
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.maven.plugin.nar.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.nar.NarArchiver;
+import org.apache.maven.plugin.nar.NarUnArchiver;
+import org.apache.maven.plugin.nar.NarZipWriter;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Archives written with parallel deflating must be identical to sequentially written ones and readable by other zip
+ * implementations.
+ */
+public class TestNarArchiver
+    extends TestCase
+{
+    private File baseDir;
+
+    private File source;
+
+    private byte[] compressible;
+
+    private byte[] random;
+
+    protected void setUp()
+        throws Exception
+    {
+        baseDir = File.createTempFile( "nar-archiver", "" );
+        baseDir.delete();
+        baseDir.mkdirs();
+
+        source = new File( baseDir, "source" );
+        long time = System.currentTimeMillis() - 60 * 1000;
+        for ( int i = 0; i < 20; i++ )
+        {
+            write( "lib/amd64-Linux-gpp/shared/libfoo" + i + ".so", ( "library " + i ).getBytes(), time );
+        }
+        compressible = new byte[6 * 1024 * 1024];
+        for ( int i = 0; i < compressible.length; i++ )
+        {
+            compressible[i] = (byte) ( i % 251 );
+        }
+        write( "lib/amd64-Linux-gpp/static/libfoo.a", compressible, time );
+        random = new byte[5 * 1024 * 1024];
+        new Random( 42 ).nextBytes( random );
+        write( "bin/amd64-Linux-gpp/random.dat", random, time );
+        write( "include/empty.h", new byte[0], time );
+        new File( source, "include/empty" ).mkdirs();
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( baseDir );
+    }
+
+    private void write( String name, byte[] content, long time )
+        throws IOException
+    {
+        File file = new File( source, name );
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream( file );
+        try
+        {
+            out.write( content );
+        }
+        finally
+        {
+            out.close();
+        }
+        file.setLastModified( time );
+    }
+
+    private File archive( String name, int threads )
+        throws Exception
+    {
+        File nar = new File( baseDir, name );
+        NarArchiver archiver = new NarArchiver();
+        archiver.enableLogging( new ConsoleLogger( Logger.LEVEL_WARN, "archiver" ) );
+        archiver.setThreads( threads );
+        archiver.addDirectory( source, new String[] { "**" }, null );
+        archiver.setDestFile( nar );
+        archiver.createArchive();
+        return nar;
+    }
+
+    public final void testParallelMatchesSequential()
+        throws Exception
+    {
+        File sequential = archive( "sequential.nar", 1 );
+        File parallel = archive( "parallel.nar", 4 );
+        Assert.assertTrue( FileUtils.contentEquals( sequential, parallel ) );
+    }
+
+    public final void testReadableByJavaZip()
+        throws Exception
+    {
+        File nar = archive( "test.nar", 4 );
+        ZipFile zip = new ZipFile( nar );
+        try
+        {
+            Assert.assertEquals( 23, countFiles( zip ) );
+            assertEntry( zip, "lib/amd64-Linux-gpp/shared/libfoo7.so", "library 7".getBytes() );
+            assertEntry( zip, "lib/amd64-Linux-gpp/static/libfoo.a", compressible );
+            assertEntry( zip, "bin/amd64-Linux-gpp/random.dat", random );
+            assertEntry( zip, "include/empty.h", new byte[0] );
+            Assert.assertTrue( zip.getEntry( "include/empty/" ).isDirectory() );
+            Assert.assertTrue( zip.getEntry( "lib/amd64-Linux-gpp/static/libfoo.a" ).getCompressedSize()
+                < compressible.length / 10 );
+            Assert.assertEquals( ZipEntry.STORED, zip.getEntry( "bin/amd64-Linux-gpp/random.dat" ).getMethod() );
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+    public final void testReadableByNarUnArchiver()
+        throws Exception
+    {
+        File nar = archive( "test.nar", 4 );
+        File target = new File( baseDir, "target" );
+        NarUnArchiver unArchiver = new NarUnArchiver();
+        unArchiver.enableLogging( new ConsoleLogger( Logger.LEVEL_WARN, "unarchiver" ) );
+        unArchiver.setSourceFile( nar );
+        unArchiver.setDestDirectory( target );
+        unArchiver.extract();
+
+        Assert.assertTrue( FileUtils.contentEquals( new File( source, "lib/amd64-Linux-gpp/static/libfoo.a" ),
+                                                    new File( target, "lib/amd64-Linux-gpp/static/libfoo.a" ) ) );
+        Assert.assertTrue( FileUtils.contentEquals( new File( source, "bin/amd64-Linux-gpp/random.dat" ),
+                                                    new File( target, "bin/amd64-Linux-gpp/random.dat" ) ) );
+        Assert.assertTrue( new File( target, "include/empty" ).isDirectory() );
+    }
+
+    public final void testCompressionPerPattern()
+        throws Exception
+    {
+        File nar = new File( baseDir, "test.nar" );
+        NarArchiver archiver = new NarArchiver();
+        archiver.enableLogging( new ConsoleLogger( Logger.LEVEL_WARN, "archiver" ) );
+        archiver.addCompression( "static", new String[] { "**/*.a" }, NarZipWriter.NO_COMPRESSION );
+        archiver.addCompression( "shared", new String[] { "**/*.so" }, 1 );
+        archiver.addDirectory( source, new String[] { "**" }, null );
+        archiver.setDestFile( nar );
+        archiver.createArchive();
+
+        ZipFile zip = new ZipFile( nar );
+        try
+        {
+            Assert.assertEquals( ZipEntry.STORED, zip.getEntry( "lib/amd64-Linux-gpp/static/libfoo.a" ).getMethod() );
+            assertEntry( zip, "lib/amd64-Linux-gpp/static/libfoo.a", compressible );
+        }
+        finally
+        {
+            zip.close();
+        }
+
+        List statistics = archiver.getStatistics();
+        Assert.assertEquals( 3, statistics.size() );
+        NarArchiver.Statistics stored = (NarArchiver.Statistics) statistics.get( 0 );
+        Assert.assertEquals( "static", stored.getName() );
+        Assert.assertEquals( 1, stored.getEntries() );
+        Assert.assertEquals( 100, stored.getRatio() );
+        NarArchiver.Statistics shared = (NarArchiver.Statistics) statistics.get( 1 );
+        Assert.assertEquals( 20, shared.getEntries() );
+        NarArchiver.Statistics defaults = (NarArchiver.Statistics) statistics.get( 2 );
+        Assert.assertEquals( "default", defaults.getName() );
+        Assert.assertEquals( 2, defaults.getEntries() );
+    }
+
+    public final void testReproducible()
+        throws Exception
+    {
+        long time = 1500000000000L;
+        File first = new File( baseDir, "first.nar" );
+        NarArchiver archiver = new NarArchiver();
+        archiver.enableLogging( new ConsoleLogger( Logger.LEVEL_WARN, "archiver" ) );
+        archiver.setReproducible( time );
+        archiver.addDirectory( source, new String[] { "lib/**" }, null );
+        archiver.addDirectory( source, new String[] { "bin/**", "include/**" }, null );
+        archiver.setDestFile( first );
+        archiver.createArchive();
+
+        // other times and order
+        File[] files = new File( source, "lib/amd64-Linux-gpp/shared" ).listFiles();
+        for ( int i = 0; i < files.length; i++ )
+        {
+            files[i].setLastModified( System.currentTimeMillis() - i * 10000 );
+        }
+        File second = new File( baseDir, "second.nar" );
+        archiver = new NarArchiver();
+        archiver.enableLogging( new ConsoleLogger( Logger.LEVEL_WARN, "archiver" ) );
+        archiver.setReproducible( time );
+        archiver.addDirectory( source, new String[] { "include/**", "bin/**" }, null );
+        archiver.addDirectory( source, new String[] { "lib/**" }, null );
+        archiver.setDestFile( second );
+        archiver.createArchive();
+
+        Assert.assertTrue( FileUtils.contentEquals( first, second ) );
+
+        ZipFile zip = new ZipFile( first );
+        try
+        {
+            String previous = "";
+            for ( Enumeration e = zip.entries(); e.hasMoreElements(); )
+            {
+                String name = ( (ZipEntry) e.nextElement() ).getName();
+                Assert.assertTrue( name, previous.compareTo( name ) < 0 );
+                previous = name;
+            }
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+    private static int countFiles( ZipFile zip )
+    {
+        int count = 0;
+        for ( Enumeration e = zip.entries(); e.hasMoreElements(); )
+        {
+            if ( !( (ZipEntry) e.nextElement() ).isDirectory() )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void assertEntry( ZipFile zip, String name, byte[] expected )
+        throws IOException
+    {
+        InputStream in = zip.getInputStream( zip.getEntry( name ) );
+        try
+        {
+            Assert.assertTrue( name, Arrays.equals( expected, IOUtil.toByteArray( in ) ) );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
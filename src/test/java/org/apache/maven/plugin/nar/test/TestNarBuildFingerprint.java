@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.maven.plugin.nar.test;
+
+import java.io.File;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.nar.NarBuildFingerprint;
+import org.codehaus.plexus.util.FileUtils;
+
+public class TestNarBuildFingerprint
+    extends TestCase
+{
+    private File baseDir;
+
+    private File source;
+
+    private File output;
+
+    private File fingerprintFile;
+
+    protected void setUp()
+        throws Exception
+    {
+        baseDir = File.createTempFile( "nar-fingerprint", "" );
+        baseDir.delete();
+        source = new File( baseDir, "src/main/c++/a.cpp" );
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getPath(), "int a() { return 1; }" );
+        output = new File( baseDir, "target/nar/lib/liba.so" );
+        output.getParentFile().mkdirs();
+        FileUtils.fileWrite( output.getPath(), "library" );
+        fingerprintFile = new File( baseDir, "target/nar/obj/amd64-Linux-gpp.fingerprint" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( baseDir );
+    }
+
+    private NarBuildFingerprint createFingerprint( String options )
+    {
+        NarBuildFingerprint fingerprint = new NarBuildFingerprint( fingerprintFile, baseDir );
+        fingerprint.addParameter( "aol", "amd64-Linux-gpp" );
+        fingerprint.addParameter( "compiler.c++.arguments", options );
+        fingerprint.addInput( new File( baseDir, "src/main" ) );
+        fingerprint.addOutput( new File( baseDir, "target/nar/lib" ) );
+        return fingerprint;
+    }
+
+    public final void testNoPreviousBuild()
+        throws Exception
+    {
+        Assert.assertEquals( "no fingerprint of a previous build", createFingerprint( "-O2" ).check() );
+    }
+
+    public final void testUnchanged()
+        throws Exception
+    {
+        createFingerprint( "-O2" ).write();
+        Assert.assertNull( createFingerprint( "-O2" ).check() );
+    }
+
+    public final void testParameterChanged()
+        throws Exception
+    {
+        createFingerprint( "-O2" ).write();
+        Assert.assertEquals( "parameter compiler.c++.arguments changed", createFingerprint( "-O3" ).check() );
+    }
+
+    public final void testTouchedSourceIsUnchanged()
+        throws Exception
+    {
+        createFingerprint( "-O2" ).write();
+        source.setLastModified( source.lastModified() - 10000 );
+        Assert.assertNull( createFingerprint( "-O2" ).check() );
+        Assert.assertTrue( FileUtils.fileRead( fingerprintFile ).indexOf( String.valueOf( source.lastModified() ) ) > 0 );
+    }
+
+    public final void testSourceChanged()
+        throws Exception
+    {
+        createFingerprint( "-O2" ).write();
+        FileUtils.fileWrite( source.getPath(), "int a() { return 2; }" );
+        Assert.assertEquals( "src/main/c++/a.cpp changed", createFingerprint( "-O2" ).check() );
+    }
+
+    public final void testSourceAddedAndRemoved()
+        throws Exception
+    {
+        createFingerprint( "-O2" ).write();
+        File added = new File( baseDir, "src/main/c++/b.cpp" );
+        FileUtils.fileWrite( added.getPath(), "int b() { return 1; }" );
+        Assert.assertEquals( "src/main/c++/b.cpp added", createFingerprint( "-O2" ).check() );
+
+        createFingerprint( "-O2" ).write();
+        added.delete();
+        Assert.assertEquals( "src/main/c++/b.cpp removed", createFingerprint( "-O2" ).check() );
+    }
+
+    public final void testOutputRemoved()
+        throws Exception
+    {
+        createFingerprint( "-O2" ).write();
+        output.delete();
+        Assert.assertEquals( "output target/nar/lib/liba.so removed", createFingerprint( "-O2" ).check() );
+    }
+
+    public final void testRecordedOutputFiles()
+        throws Exception
+    {
+        NarBuildFingerprint fingerprint = new NarBuildFingerprint( fingerprintFile, baseDir );
+        fingerprint.addInput( new File( baseDir, "src/main" ) );
+        fingerprint.addOutput( output );
+        fingerprint.write();
+
+        // the outputs are only known once the step ran
+        fingerprint = new NarBuildFingerprint( fingerprintFile, baseDir );
+        fingerprint.addInput( new File( baseDir, "src/main" ) );
+        fingerprint.addRecordedOutputs();
+        Assert.assertNull( fingerprint.check() );
+
+        output.setLastModified( output.lastModified() - 10000 );
+        fingerprint = new NarBuildFingerprint( fingerprintFile, baseDir );
+        fingerprint.addInput( new File( baseDir, "src/main" ) );
+        fingerprint.addRecordedOutputs();
+        Assert.assertEquals( "output target/nar/lib/liba.so changed", fingerprint.check() );
+    }
+
+    public final void testHash()
+        throws Exception
+    {
+        String hash = createFingerprint( "-O2" ).getHash();
+        Assert.assertEquals( hash, createFingerprint( "-O2" ).getHash() );
+        Assert.assertFalse( hash.equals( createFingerprint( "-O3" ).getHash() ) );
+        FileUtils.fileWrite( source.getPath(), "int a() { return 2; }" );
+        Assert.assertFalse( hash.equals( createFingerprint( "-O2" ).getHash() ) );
+    }
+
+    /**
+     * Builds the same tree in two workspaces, each with its own local repository.
+     */
+    private String getWorkspaceHash( String workspace, String content )
+        throws Exception
+    {
+        File workspaceDir = new File( baseDir, workspace );
+        File projectDir = new File( workspaceDir, "project" );
+        File repository = new File( workspaceDir, ".m2/repository" );
+        File workspaceSource = new File( projectDir, "src/main/c++/a.cpp" );
+        workspaceSource.getParentFile().mkdirs();
+        FileUtils.fileWrite( workspaceSource.getPath(), content );
+        File dependency = new File( repository, "g/b/1.0/b-1.0-amd64-Linux-gpp-shared.nar" );
+        dependency.getParentFile().mkdirs();
+        FileUtils.fileWrite( dependency.getPath(), "nar" );
+
+        NarBuildFingerprint fingerprint =
+            new NarBuildFingerprint( new File( projectDir, "target/nar/obj/amd64-Linux-gpp.fingerprint" ),
+                                     projectDir );
+        fingerprint.addRoot( "localRepository", repository );
+        fingerprint.addParameter( "compiler.c++.arguments", "[-I" + new File( projectDir, "src/main/include" )
+            + ", -I" + new File( repository, "g/b/1.0/include" ) + "]" );
+        fingerprint.addInput( new File( projectDir, "src/main" ) );
+        fingerprint.addInput( dependency );
+        // touched at another time in the other workspace
+        workspaceSource.setLastModified( workspace.hashCode() * 1000L & 0xFFFFFFFFL );
+        return fingerprint.getHash();
+    }
+
+    public final void testHashIndependentOfWorkspace()
+        throws Exception
+    {
+        String hash = getWorkspaceHash( "agent1", "int a() { return 1; }" );
+        Assert.assertEquals( hash, getWorkspaceHash( "agent2", "int a() { return 1; }" ) );
+        Assert.assertFalse( hash.equals( getWorkspaceHash( "agent3", "int a() { return 3; }" ) ) );
+    }
+
+    public final void testChangedPrivateHeader()
+        throws Exception
+    {
+        // a header next to the sources, which is not a compiled source and not on an include path
+        File header = new File( baseDir, "src/main/c++/a.h" );
+        FileUtils.fileWrite( header.getPath(), "#define A 1" );
+        createFingerprint( "-O2" ).write();
+
+        FileUtils.fileWrite( header.getPath(), "#define A 2" );
+        header.setLastModified( header.lastModified() + 60000 );
+        Assert.assertNotNull( createFingerprint( "-O2" ).check() );
+    }
+}
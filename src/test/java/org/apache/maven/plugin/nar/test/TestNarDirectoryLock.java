@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.maven.plugin.nar.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.nar.NarDirectoryLock;
+import org.apache.maven.plugin.nar.NarTaskExecutor;
+import org.codehaus.plexus.util.FileUtils;
+
+public class TestNarDirectoryLock
+    extends TestCase
+{
+    private File baseDir;
+
+    private int inside;
+
+    private int maxInside;
+
+    protected void setUp()
+        throws Exception
+    {
+        baseDir = File.createTempFile( "nar-lock", "" );
+        baseDir.delete();
+        baseDir.mkdirs();
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( baseDir );
+    }
+
+    private synchronized void enter()
+    {
+        inside++;
+        maxInside = Math.max( maxInside, inside );
+    }
+
+    private synchronized void leave()
+    {
+        inside--;
+    }
+
+    private NarTaskExecutor.Task createTask( final File directory )
+    {
+        return createTask( directory, false );
+    }
+
+    private NarTaskExecutor.Task createTask( final File directory, final boolean delete )
+    {
+        return new NarTaskExecutor.Task()
+        {
+            public void execute()
+                throws MojoExecutionException
+            {
+                NarDirectoryLock lock = NarDirectoryLock.lock( directory );
+                try
+                {
+                    enter();
+                    Thread.sleep( 20 );
+                    leave();
+                }
+                catch ( InterruptedException e )
+                {
+                    throw new MojoExecutionException( "interrupted", e );
+                }
+                finally
+                {
+                    if ( delete )
+                    {
+                        lock.releaseAndDelete();
+                    }
+                    else
+                    {
+                        lock.release();
+                    }
+                }
+            }
+        };
+    }
+
+    public final void testSameDirectoryIsExclusive()
+        throws Exception
+    {
+        List tasks = new ArrayList();
+        for ( int i = 0; i < 8; i++ )
+        {
+            tasks.add( createTask( new File( baseDir, "same" ) ) );
+        }
+        new NarTaskExecutor( "test", 4 ).execute( tasks );
+        Assert.assertEquals( 1, maxInside );
+        Assert.assertTrue( new File( baseDir, "same.lock" ).exists() );
+    }
+
+    public final void testOtherDirectoriesAreConcurrent()
+        throws Exception
+    {
+        List tasks = new ArrayList();
+        for ( int i = 0; i < 8; i++ )
+        {
+            tasks.add( createTask( new File( baseDir, "dir" + i ) ) );
+        }
+        new NarTaskExecutor( "test", 4 ).execute( tasks );
+        Assert.assertTrue( "max " + maxInside, maxInside > 1 );
+    }
+
+    public final void testReleaseAndDeleteRemovesLockFile()
+        throws Exception
+    {
+        File directory = new File( baseDir, "deleted" );
+        NarDirectoryLock.lock( directory ).releaseAndDelete();
+        Assert.assertFalse( new File( baseDir, "deleted.lock" ).exists() );
+
+        List tasks = new ArrayList();
+        for ( int i = 0; i < 8; i++ )
+        {
+            tasks.add( createTask( directory, i % 2 == 0 ) );
+        }
+        new NarTaskExecutor( "test", 4 ).execute( tasks );
+        Assert.assertEquals( 1, maxInside );
+        NarDirectoryLock.tryLock( directory ).release();
+    }
+
+    public final void testFailureReleasesLock()
+        throws Exception
+    {
+        final File directory = new File( baseDir, "failing" );
+        List tasks = new ArrayList();
+        tasks.add( new NarTaskExecutor.Task()
+        {
+            public void execute()
+                throws MojoFailureException, MojoExecutionException
+            {
+                NarDirectoryLock lock = NarDirectoryLock.lock( directory );
+                try
+                {
+                    throw new MojoFailureException( "failed" );
+                }
+                finally
+                {
+                    lock.release();
+                }
+            }
+        } );
+        try
+        {
+            new NarTaskExecutor( "test", 1 ).execute( tasks );
+            Assert.fail( "failure not propagated" );
+        }
+        catch ( MojoFailureException e )
+        {
+            Assert.assertEquals( "failed", e.getMessage() );
+        }
+        NarDirectoryLock.lock( directory ).release();
+    }
+}
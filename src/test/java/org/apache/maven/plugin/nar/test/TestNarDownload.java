@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.maven.plugin.nar.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.DefaultArtifactRepository;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.plugin.nar.Linker;
+import org.apache.maven.plugin.nar.NarInfoCache;
+import org.apache.maven.plugin.nar.NarManager;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Resolves attached NARs from a file based stand-in for a remote repository, serially and in parallel.
+ */
+public class TestNarDownload
+    extends TestCase
+{
+    private static final int NARS = 8;
+
+    private File baseDir;
+
+    private File remoteDir;
+
+    private List resolved;
+
+    protected void setUp()
+        throws Exception
+    {
+        baseDir = File.createTempFile( "nar-download", "" );
+        baseDir.delete();
+        remoteDir = new File( baseDir, "remote" );
+        remoteDir.mkdirs();
+        resolved = Collections.synchronizedList( new ArrayList() );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( baseDir );
+    }
+
+    private static void writeJar( File file, String entry, String content )
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+        JarOutputStream jar = new JarOutputStream( new FileOutputStream( file ) );
+        jar.putNextEntry( new ZipEntry( entry ) );
+        jar.write( content.getBytes( "ISO-8859-1" ) );
+        jar.close();
+    }
+
+    private ArtifactRepository createRepository( File dir )
+    {
+        return new DefaultArtifactRepository( dir.getName(), dir.toURI().toString(), new DefaultRepositoryLayout() );
+    }
+
+    /**
+     * Creates a local repository holding the NAR jars and a manager for them. Attached NARs are put in the remote
+     * directory, except for the ones listed as missing.
+     */
+    private NarManager createManager( File localDir, Set missing )
+        throws Exception
+    {
+        ArtifactRepository local = createRepository( localDir );
+        ArtifactRepository remote = createRepository( remoteDir );
+
+        Set artifacts = new LinkedHashSet();
+        for ( int i = 0; i < NARS; i++ )
+        {
+            String artifactId = "nar" + i;
+            Artifact artifact =
+                new DefaultArtifact( "g", artifactId, VersionRange.createFromVersion( "1.0" ), Artifact.SCOPE_COMPILE,
+                                     "jar", null, new DefaultArtifactHandler( "jar" ) );
+            File file = new File( localDir, local.pathOf( artifact ) );
+            writeJar( file, "META-INF/nar/g/" + artifactId + "/nar.properties", "nar.noarch=g\\:" + artifactId
+                + "\\:nar\\:noarch\nnar.shared=g\\:" + artifactId + "\\:nar\\:${aol}-shared\nlibs.binding=shared\n" );
+            artifact.setFile( file );
+            artifacts.add( artifact );
+
+            String[] classifiers = { "noarch", "amd64-Linux-gpp-shared" };
+            for ( int j = 0; j < classifiers.length; j++ )
+            {
+                String name = artifactId + "-1.0-" + classifiers[j] + ".nar";
+                if ( !missing.contains( name ) )
+                {
+                    writeJar( new File( remoteDir, "g/" + artifactId + "/1.0/" + name ), "lib/" + name, name );
+                }
+            }
+        }
+
+        Model model = new Model();
+        model.setGroupId( "g" );
+        model.setArtifactId( "project" );
+        model.setVersion( "1.0" );
+        MavenProject project = new MavenProject( model );
+        project.setArtifacts( artifacts );
+
+        Linker linker = new Linker( "g++" );
+        return new NarManager( new SystemStreamLog(), local, project, "amd64", "Linux", linker,
+                               NarInfoCache.getInstance( null ) );
+    }
+
+    /**
+     * Minimal resolver which copies artifacts from the remote directory into the local repository.
+     */
+    private ArtifactResolver createResolver()
+    {
+        return (ArtifactResolver) Proxy.newProxyInstance( getClass().getClassLoader(),
+                                                          new Class[] { ArtifactResolver.class },
+                                                          new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args )
+                throws Throwable
+            {
+                if ( !method.getName().equals( "resolve" ) )
+                {
+                    throw new UnsupportedOperationException( method.getName() );
+                }
+                Artifact artifact = (Artifact) args[0];
+                ArtifactRepository local = (ArtifactRepository) args[2];
+                File source = new File( remoteDir, local.pathOf( artifact ) );
+                if ( !source.exists() )
+                {
+                    throw new ArtifactNotFoundException( "missing " + source, artifact );
+                }
+                File target = new File( local.getBasedir(), local.pathOf( artifact ) );
+                FileUtils.copyFile( source, target );
+                artifact.setFile( target );
+                resolved.add( artifact.getId() );
+                return null;
+            }
+        } );
+    }
+
+    private List download( String name, int threads, Set missing )
+        throws Exception
+    {
+        File localDir = new File( baseDir, name );
+        NarManager manager = createManager( localDir, missing );
+        manager.downloadAttachedNars( manager.getNarDependencies( "compile" ), Collections.EMPTY_LIST,
+                                      createResolver(), null, threads );
+        List files = FileUtils.getFileNames( localDir, "**/*.nar", null, false );
+        Collections.sort( files );
+        return files;
+    }
+
+    public final void testParallelMatchesSerial()
+        throws Exception
+    {
+        List serial = download( "serial", 1, Collections.EMPTY_SET );
+        Assert.assertEquals( 2 * NARS, serial.size() );
+        Assert.assertEquals( 2 * NARS, resolved.size() );
+
+        resolved.clear();
+        List parallel = download( "parallel", 4, Collections.EMPTY_SET );
+        Assert.assertEquals( serial, parallel );
+        Assert.assertEquals( 2 * NARS, resolved.size() );
+    }
+
+    public final void testFailuresAreAggregated()
+        throws Exception
+    {
+        Set missing = new LinkedHashSet();
+        missing.add( "nar1-1.0-noarch.nar" );
+        missing.add( "nar5-1.0-amd64-Linux-gpp-shared.nar" );
+        try
+        {
+            download( "failing", 4, missing );
+            Assert.fail( "missing nars not reported" );
+        }
+        catch ( MojoExecutionException e )
+        {
+            Assert.assertTrue( e.getMessage(), e.getMessage().indexOf( "2 failures" ) >= 0 );
+            Assert.assertTrue( e.getMessage(), e.getMessage().indexOf( "nar not found g:nar1:nar:noarch:1.0" ) >= 0 );
+            Assert.assertTrue( e.getMessage(),
+                               e.getMessage().indexOf( "nar not found g:nar5:nar:amd64-Linux-gpp-shared:1.0" ) >= 0 );
+        }
+        // all other nars were still resolved
+        Assert.assertEquals( 2 * NARS - 2, resolved.size() );
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.maven.plugin.nar.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Properties;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.nar.NarInfoCache;
+
+public class TestNarInfoCache
+    extends TestCase
+{
+    private File file;
+
+    protected void setUp()
+        throws Exception
+    {
+        file = File.createTempFile( "nar-info-cache", ".jar" );
+        write( "first" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        file.delete();
+    }
+
+    private void write( String content )
+        throws IOException
+    {
+        FileWriter writer = new FileWriter( file );
+        writer.write( content );
+        writer.close();
+    }
+
+    public final void testNegativeEntry()
+    {
+        NarInfoCache cache = NarInfoCache.getInstance( null );
+        String key = NarInfoCache.getKey( "g", "a", "1.0", file );
+
+        Assert.assertFalse( cache.contains( key ) );
+        cache.put( key, null );
+        Assert.assertTrue( cache.contains( key ) );
+        Assert.assertNull( cache.get( key ) );
+        Assert.assertEquals( 1, cache.getHits() );
+        Assert.assertEquals( 1, cache.getMisses() );
+    }
+
+    public final void testPositiveEntryIsCopied()
+    {
+        NarInfoCache cache = NarInfoCache.getInstance( null );
+        String key = NarInfoCache.getKey( "g", "a", "1.0", file );
+
+        Properties properties = new Properties();
+        properties.setProperty( "libs.binding", "shared" );
+        cache.put( key, properties );
+
+        Properties cached = cache.get( key );
+        Assert.assertEquals( "shared", cached.getProperty( "libs.binding" ) );
+        cached.setProperty( "libs.binding", "static" );
+        Assert.assertEquals( "shared", cache.get( key ).getProperty( "libs.binding" ) );
+    }
+
+    public final void testKeyFollowsFileIdentity()
+        throws IOException
+    {
+        String key = NarInfoCache.getKey( "g", "a", "1.0", file );
+        Assert.assertEquals( key, NarInfoCache.getKey( "g", "a", "1.0", file ) );
+        Assert.assertFalse( key.equals( NarInfoCache.getKey( "g", "b", "1.0", file ) ) );
+
+        write( "second, longer content" );
+        Assert.assertFalse( key.equals( NarInfoCache.getKey( "g", "a", "1.0", file ) ) );
+    }
+}
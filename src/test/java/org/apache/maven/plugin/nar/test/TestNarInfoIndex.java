@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.maven.plugin.nar.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.nar.NarInfoCache;
+import org.apache.maven.plugin.nar.NarInfoIndex;
+import org.codehaus.plexus.util.FileUtils;
+
+public class TestNarInfoIndex
+    extends TestCase
+{
+    private File dir;
+
+    private File nar;
+
+    private File jar;
+
+    private NarInfoIndex index;
+
+    protected void setUp()
+        throws Exception
+    {
+        dir = File.createTempFile( "nar-info-index", "" );
+        dir.delete();
+        dir.mkdirs();
+        nar = write( "lib.nar", "nar" );
+        jar = write( "lib.jar", "jar" );
+        index = new NarInfoIndex( new File( dir, ".nar/info.index" ) );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( dir );
+    }
+
+    private File write( String name, String content )
+        throws IOException
+    {
+        File file = new File( dir, name );
+        FileWriter writer = new FileWriter( file );
+        writer.write( content );
+        writer.close();
+        return file;
+    }
+
+    public final void testRoundTrip()
+        throws IOException
+    {
+        Properties properties = new Properties();
+        properties.setProperty( "libs.binding", "shared" );
+
+        Map entries = new HashMap();
+        entries.put( NarInfoCache.getKey( "g", "nar", "1.0", nar ), properties );
+        entries.put( NarInfoCache.getKey( "g", "jar", "1.0", jar ), null );
+        index.write( entries );
+
+        Map read = new NarInfoIndex( index.getFile() ).read();
+        Assert.assertEquals( 2, read.size() );
+        Assert.assertEquals( "shared",
+                             ( (Properties) read.get( NarInfoCache.getKey( "g", "nar", "1.0", nar ) ) ).getProperty( "libs.binding" ) );
+        Assert.assertTrue( read.containsKey( NarInfoCache.getKey( "g", "jar", "1.0", jar ) ) );
+        Assert.assertNull( read.get( NarInfoCache.getKey( "g", "jar", "1.0", jar ) ) );
+    }
+
+    public final void testStaleEntriesDropped()
+        throws IOException
+    {
+        Map entries = new HashMap();
+        entries.put( NarInfoCache.getKey( "g", "jar", "1.0", jar ), null );
+        index.write( entries );
+
+        jar.delete();
+        entries.clear();
+        entries.put( NarInfoCache.getKey( "g", "nar", "1.0", nar ), null );
+        index.write( entries );
+
+        Map read = index.read();
+        Assert.assertEquals( 1, read.size() );
+        Assert.assertTrue( read.containsKey( NarInfoCache.getKey( "g", "nar", "1.0", nar ) ) );
+    }
+
+    public final void testDamagedIndexIsEmpty()
+        throws IOException
+    {
+        index.getFile().getParentFile().mkdirs();
+        FileWriter writer = new FileWriter( index.getFile() );
+        writer.write( "not an index" );
+        writer.close();
+
+        Assert.assertTrue( index.read().isEmpty() );
+
+        Map entries = new HashMap();
+        entries.put( NarInfoCache.getKey( "g", "jar", "1.0", jar ), null );
+        index.write( entries );
+        Assert.assertEquals( 1, index.read().size() );
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+
+package org.apache.maven.plugin.nar.test;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.plugin.nar.NarJobServer;
+
+public class TestNarJobServer
+    extends TestCase
+{
+    private final Log log = new SystemStreamLog();
+
+    public final void testJobTakesFreeTokens()
+        throws Exception
+    {
+        NarJobServer server = NarJobServer.getInstance( null, 4, 0, log );
+        Assert.assertEquals( 4, server.getTokens() );
+
+        NarJobServer.Job first = server.acquire( 3 );
+        Assert.assertEquals( 3, first.getTokens() );
+        NarJobServer.Job second = server.acquire( 3 );
+        Assert.assertEquals( 1, second.getTokens() );
+        Assert.assertEquals( 4, server.getMaxHeld() );
+
+        first.release();
+        second.release();
+        NarJobServer.Job third = server.acquire( 10 );
+        Assert.assertEquals( 4, third.getTokens() );
+        third.release();
+    }
+
+    public final void testJobWaitsForToken()
+        throws Exception
+    {
+        final NarJobServer server = NarJobServer.getInstance( null, 1, 0, log );
+        final NarJobServer.Job job = server.acquire( 1 );
+
+        Thread releaser = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep( 200 );
+                }
+                catch ( InterruptedException e )
+                {
+                    // release early
+                }
+                job.release();
+            }
+        };
+        releaser.start();
+
+        NarJobServer.Job waiting = server.acquire( 1 );
+        Assert.assertEquals( 1, waiting.getTokens() );
+        Assert.assertTrue( server.getWaitMillis() >= 100 );
+        waiting.release();
+        releaser.join();
+    }
+
+    public final void testReleaseTwice()
+        throws Exception
+    {
+        NarJobServer server = NarJobServer.getInstance( null, 2, 0, log );
+        NarJobServer.Job job = server.acquire( 1 );
+        job.release();
+        job.release();
+        Assert.assertEquals( 2, server.acquire( 2 ).getTokens() );
+    }
+
+    public final void testMemoryLimitsTokens()
+    {
+        NarJobServer server = NarJobServer.getInstance( null, 4, Integer.MAX_VALUE, log );
+        Assert.assertTrue( server.getTokens() >= 1 );
+        Assert.assertTrue( server.getTokens() <= 4 );
+    }
+}
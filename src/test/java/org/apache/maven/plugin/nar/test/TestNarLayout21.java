@@ -20,20 +20,37 @@
 package org.apache.maven.plugin.nar.test;
 
 import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import junit.framework.Assert;
 import junit.framework.TestCase;
 
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.plugin.nar.AOL;
 import org.apache.maven.plugin.nar.AbstractNarLayout;
 import org.apache.maven.plugin.nar.Library;
+import org.apache.maven.plugin.nar.NarArchiver;
 import org.apache.maven.plugin.nar.NarConstants;
 import org.apache.maven.plugin.nar.NarFileLayout;
 import org.apache.maven.plugin.nar.NarFileLayout10;
+import org.apache.maven.plugin.nar.NarInfo;
 import org.apache.maven.plugin.nar.NarLayout;
 import org.apache.maven.plugin.nar.NarLayout21;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+import org.codehaus.plexus.archiver.manager.ArchiverManager;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
 
 /**
  * @author Mark Donszelmann (Mark.Donszelmann@gmail.com)
@@ -119,4 +136,83 @@ public class TestNarLayout21
         Assert.assertEquals( new File( baseDir, artifactId + "-" + version + "-" + aol + "-" + "executable"
             + File.separator + fileLayout.getBinDirectory( aol ) ), layout.getBinDirectory( baseDir, artifactId, version, aol ) );
     }
+
+    public final void testAttachNars()
+        throws Exception
+    {
+        File targetDir = File.createTempFile( "nar-layout", "" );
+        targetDir.delete();
+        File narDir = new File( targetDir, "nar" );
+        String[] classifiers =
+            new String[] { NarConstants.NAR_NO_ARCH, "amd64-Linux-gpp-executable", "amd64-Linux-gpp-shared",
+                "amd64-Linux-gpp-static" };
+        for ( int i = classifiers.length - 1; i >= 0; i-- )
+        {
+            File file = new File( narDir, artifactId + "-" + version + "-" + classifiers[i] + "/dir/" + i + ".txt" );
+            file.getParentFile().mkdirs();
+            FileUtils.fileWrite( file.getPath(), classifiers[i] );
+        }
+
+        Model model = new Model();
+        model.setGroupId( "groupId" );
+        model.setArtifactId( artifactId );
+        model.setVersion( version );
+        model.setBuild( new Build() );
+        model.getBuild().setDirectory( targetDir.getPath() );
+        model.getBuild().setFinalName( artifactId + "-" + version );
+        MavenProject project = new MavenProject( model );
+
+        final List attached = new ArrayList();
+        MavenProjectHelper projectHelper =
+            (MavenProjectHelper) createProxy( MavenProjectHelper.class, "attachArtifact", new InvocationHandler()
+            {
+                public Object invoke( Object proxy, Method method, Object[] args )
+                {
+                    Assert.assertTrue( ( (File) args[3] ).isFile() );
+                    attached.add( args[2] );
+                    return null;
+                }
+            } );
+        ArchiverManager archiverManager =
+            (ArchiverManager) createProxy( ArchiverManager.class, "getArchiver", new InvocationHandler()
+            {
+                public Object invoke( Object proxy, Method method, Object[] args )
+                {
+                    NarArchiver archiver = new NarArchiver();
+                    archiver.enableLogging( new ConsoleLogger( Logger.LEVEL_WARN, "archiver" ) );
+                    return archiver;
+                }
+            } );
+
+        try
+        {
+            NarInfo narInfo = new NarInfo( "groupId", artifactId, version, new SystemStreamLog() );
+            ( (AbstractNarLayout) layout ).setPackageThreads( 4 );
+            layout.attachNars( narDir, archiverManager, projectHelper, project, narInfo );
+
+            Assert.assertEquals( Arrays.asList( classifiers ), attached );
+            Assert.assertEquals( Library.STATIC, narInfo.getBinding( new AOL( "amd64-Linux-gpp" ), null ) );
+            Assert.assertEquals( Library.STATIC, narInfo.getBinding( null, null ) );
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( targetDir );
+        }
+    }
+
+    private Object createProxy( Class type, final String name, final InvocationHandler handler )
+    {
+        return Proxy.newProxyInstance( getClass().getClassLoader(), new Class[] { type }, new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args )
+                throws Throwable
+            {
+                if ( !method.getName().equals( name ) )
+                {
+                    throw new UnsupportedOperationException( method.getName() );
+                }
+                return handler.invoke( proxy, method, args );
+            }
+        } );
+    }
 }
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.maven.plugin.nar.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.DefaultArtifactRepository;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.plugin.nar.Linker;
+import org.apache.maven.plugin.nar.NarArtifact;
+import org.apache.maven.plugin.nar.NarInfoCache;
+import org.apache.maven.plugin.nar.NarManager;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+
+public class TestNarManager
+    extends TestCase
+{
+    private File repositoryDir;
+
+    private ArtifactRepository repository;
+
+    private MavenProject project;
+
+    private NarInfoCache cache;
+
+    private NarManager manager;
+
+    protected void setUp()
+        throws Exception
+    {
+        repositoryDir = File.createTempFile( "nar-manager", "" );
+        repositoryDir.delete();
+        repositoryDir.mkdirs();
+        repository =
+            new DefaultArtifactRepository( "local", repositoryDir.toURI().toString(), new DefaultRepositoryLayout() );
+
+        Model model = new Model();
+        model.setGroupId( "g" );
+        model.setArtifactId( "project" );
+        model.setVersion( "1.0" );
+        project = new MavenProject( model );
+
+        Set artifacts = new LinkedHashSet();
+        artifacts.add( createArtifact( "compile-nar", Artifact.SCOPE_COMPILE, true ) );
+        artifacts.add( createArtifact( "compile-jar", Artifact.SCOPE_COMPILE, false ) );
+        artifacts.add( createArtifact( "runtime-nar", Artifact.SCOPE_RUNTIME, true ) );
+        artifacts.add( createArtifact( "test-nar", Artifact.SCOPE_TEST, true ) );
+        project.setArtifacts( artifacts );
+
+        cache = NarInfoCache.getInstance( null );
+        Linker linker = new Linker();
+        manager =
+            new NarManager( new SystemStreamLog(), repository, project, "amd64", "Linux", linker, cache );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( repositoryDir );
+    }
+
+    private Artifact createArtifact( String artifactId, String scope, boolean nar )
+        throws IOException
+    {
+        Artifact artifact =
+            new DefaultArtifact( "g", artifactId, VersionRange.createFromVersion( "1.0" ), scope, "jar", null,
+                                 new DefaultArtifactHandler( "jar" ) );
+        File file = new File( repositoryDir, repository.pathOf( artifact ) );
+        file.getParentFile().mkdirs();
+        JarOutputStream jar = new JarOutputStream( new FileOutputStream( file ) );
+        jar.putNextEntry( new ZipEntry( "META-INF/MANIFEST.MF" ) );
+        if ( nar )
+        {
+            jar.putNextEntry( new ZipEntry( "META-INF/nar/g/" + artifactId + "/nar.properties" ) );
+            jar.write( "libs.binding=shared\n".getBytes( "ISO-8859-1" ) );
+        }
+        jar.close();
+        artifact.setFile( file );
+        return artifact;
+    }
+
+    private static String ids( List narArtifacts )
+    {
+        StringBuffer s = new StringBuffer();
+        for ( Iterator i = narArtifacts.iterator(); i.hasNext(); )
+        {
+            NarArtifact narArtifact = (NarArtifact) i.next();
+            s.append( narArtifact.getArtifactId() );
+            s.append( i.hasNext() ? "," : "" );
+        }
+        return s.toString();
+    }
+
+    public final void testDependenciesByScope()
+        throws Exception
+    {
+        Assert.assertEquals( "compile-nar", ids( manager.getNarDependencies( Artifact.SCOPE_COMPILE ) ) );
+        Assert.assertEquals( "runtime-nar", ids( manager.getNarDependencies( Artifact.SCOPE_RUNTIME ) ) );
+        Assert.assertEquals( "compile-nar,runtime-nar,test-nar", ids( manager.getNarDependencies( Artifact.SCOPE_TEST ) ) );
+        Assert.assertEquals( "", ids( manager.getNarDependencies( Artifact.SCOPE_SYSTEM ) ) );
+        Assert.assertEquals( "shared", ( (NarArtifact) manager.getNarDependencies( Artifact.SCOPE_COMPILE ).get( 0 ) )
+            .getNarInfo().getBinding( null, null ) );
+    }
+
+    public final void testRepeatedLookupsUseIndex()
+        throws Exception
+    {
+        manager.getNarDependencies( Artifact.SCOPE_TEST );
+        int misses = cache.getMisses();
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            manager.getNarDependencies( Artifact.SCOPE_TEST );
+            manager.getNarDependencies( Artifact.SCOPE_COMPILE );
+        }
+        // compile dependencies are a subset, found in the NarInfo cache
+        Assert.assertEquals( misses, cache.getMisses() );
+    }
+
+    public final void testReturnedListCanBeModified()
+        throws Exception
+    {
+        List dependencies = manager.getNarDependencies( Artifact.SCOPE_TEST );
+        dependencies.clear();
+        Assert.assertEquals( 3, manager.getNarDependencies( Artifact.SCOPE_TEST ).size() );
+    }
+
+    public final void testNewArtifactsAreIndexed()
+        throws Exception
+    {
+        Assert.assertEquals( "compile-nar", ids( manager.getNarDependencies( Artifact.SCOPE_COMPILE ) ) );
+
+        Set artifacts = new LinkedHashSet();
+        artifacts.add( createArtifact( "other-nar", Artifact.SCOPE_COMPILE, true ) );
+        project.setArtifacts( artifacts );
+        Assert.assertEquals( "other-nar", ids( manager.getNarDependencies( Artifact.SCOPE_COMPILE ) ) );
+    }
+}
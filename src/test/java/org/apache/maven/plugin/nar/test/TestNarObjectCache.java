@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.maven.plugin.nar.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.plugin.nar.NarObjectCache;
+import org.codehaus.plexus.util.FileUtils;
+
+public class TestNarObjectCache
+    extends TestCase
+{
+    private File baseDir;
+
+    private File cacheDir;
+
+    private File source;
+
+    private File object;
+
+    protected void setUp()
+        throws Exception
+    {
+        baseDir = File.createTempFile( "nar-objects", "" );
+        baseDir.delete();
+        cacheDir = new File( baseDir, "cache" );
+        source = new File( baseDir, "src/a.c" );
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getPath(), "int a() { return 1; }" );
+        object = new File( baseDir, "obj/a.o" );
+        object.getParentFile().mkdirs();
+        FileUtils.fileWrite( object.getPath(), "object" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( baseDir );
+    }
+
+    private NarObjectCache createCache( long maxSize )
+    {
+        return new NarObjectCache( cacheDir, maxSize, new SystemStreamLog() );
+    }
+
+    private static boolean isWindows()
+    {
+        return File.separatorChar == '\\';
+    }
+
+    public final void testKey()
+        throws Exception
+    {
+        if ( isWindows() )
+        {
+            return;
+        }
+        NarObjectCache cache = createCache( 1024 * 1024 );
+        List args = new ArrayList();
+        String key = cache.getKey( "cat", args, "gcc 4.8.5", source );
+        Assert.assertNotNull( key );
+        Assert.assertEquals( key, cache.getKey( "cat", args, "gcc 4.8.5", source ) );
+
+        // touching the source does not change the key
+        source.setLastModified( source.lastModified() - 10000 );
+        Assert.assertEquals( key, cache.getKey( "cat", args, "gcc 4.8.5", source ) );
+
+        Assert.assertFalse( key.equals( cache.getKey( "cat", args, "gcc 4.9.0", source ) ) );
+        Assert.assertFalse( key.equals( cache.getKey( "cat", Arrays.asList( new String[] { "-u" } ), "gcc 4.8.5",
+                                                      source ) ) );
+        FileUtils.fileWrite( source.getPath(), "int a() { return 2; }" );
+        Assert.assertFalse( key.equals( cache.getKey( "cat", args, "gcc 4.8.5", source ) ) );
+    }
+
+    /**
+     * @return the key of a preprocessed source in the given checkout, with a line marker naming the source
+     */
+    private String getKeyInCheckout( String checkout, String code )
+        throws Exception
+    {
+        File basedir = new File( baseDir, checkout );
+        File checkoutSource = new File( basedir, "src/a.c" );
+        checkoutSource.getParentFile().mkdirs();
+        FileUtils.fileWrite( checkoutSource.getPath(), "# 1 \"" + checkoutSource.getAbsolutePath() + "\"\n" + code );
+        NarObjectCache cache = createCache( 1024 * 1024 );
+        cache.addRoot( "basedir", basedir );
+        // the shell prints the source, given as $1 after the include path as $0
+        String include = "-I" + new File( basedir, "include" ).getAbsolutePath();
+        List args = Arrays.asList( new String[] { "-c", "cat \"$1\"", include } );
+        return cache.getKey( "sh", args, "gcc 4.8.5", checkoutSource );
+    }
+
+    public final void testKeyDoesNotDependOnCheckout()
+        throws Exception
+    {
+        if ( isWindows() )
+        {
+            return;
+        }
+        String key = getKeyInCheckout( "checkout1", "int a() { return 1; }" );
+        Assert.assertEquals( key, getKeyInCheckout( "checkout2", "int a() { return 1; }" ) );
+
+        // paths in the code, such as expansions of __FILE__, end up in the object
+        String file1 = "const char *f = \"" + new File( baseDir, "checkout1/src/a.c" ).getAbsolutePath() + "\";";
+        String file2 = "const char *f = \"" + new File( baseDir, "checkout2/src/a.c" ).getAbsolutePath() + "\";";
+        Assert.assertFalse( getKeyInCheckout( "checkout1", file1 ).equals( getKeyInCheckout( "checkout2", file2 ) ) );
+    }
+
+    public final void testPreprocessorFailure()
+        throws Exception
+    {
+        if ( isWindows() )
+        {
+            return;
+        }
+        Assert.assertNull( createCache( 1024 * 1024 ).getKey( "false", new ArrayList(), "gcc", source ) );
+    }
+
+    public final void testStoreAndRestore()
+        throws Exception
+    {
+        NarObjectCache cache = createCache( 1024 * 1024 );
+        String key = "0123456789abcdef0123456789abcdef01234567";
+        File restored = new File( baseDir, "restored/a.o" );
+
+        Assert.assertFalse( cache.restore( key, restored ) );
+        Assert.assertFalse( restored.exists() );
+
+        cache.store( key, object );
+        Assert.assertTrue( new File( cacheDir, "01/23456789abcdef0123456789abcdef01234567" ).isFile() );
+        Assert.assertTrue( cache.restore( key, restored ) );
+        Assert.assertEquals( "object", FileUtils.fileRead( restored ) );
+
+        Assert.assertEquals( 1, cache.getHits() );
+        Assert.assertEquals( 1, cache.getMisses() );
+        Assert.assertEquals( 1, cache.getStored() );
+        Assert.assertEquals( "1 hits, 1 misses (50% hit rate), 1 stored, 0 evicted", cache.getStatistics() );
+    }
+
+    public final void testEvictLeastRecentlyUsed()
+        throws Exception
+    {
+        // room for two objects of 6 bytes with their checksum line
+        NarObjectCache cache = createCache( 2 * ( 41 + 6 ) );
+        String[] keys = { "aa00", "bb00", "cc00" };
+        for ( int i = 0; i < keys.length; i++ )
+        {
+            cache.store( keys[i], object );
+        }
+        long now = System.currentTimeMillis();
+        new File( cacheDir, "aa/00" ).setLastModified( now - 10000 );
+        new File( cacheDir, "bb/00" ).setLastModified( now - 30000 );
+        new File( cacheDir, "cc/00" ).setLastModified( now - 20000 );
+
+        cache.evict();
+        Assert.assertTrue( new File( cacheDir, "aa/00" ).exists() );
+        Assert.assertFalse( new File( cacheDir, "bb/00" ).exists() );
+        Assert.assertTrue( new File( cacheDir, "cc/00" ).exists() );
+        Assert.assertEquals( 1, cache.getEvicted() );
+    }
+
+    public final void testSharedReadThrough()
+        throws Exception
+    {
+        File sharedDir = new File( baseDir, "shared" );
+        String key = "0123456789abcdef0123456789abcdef01234567";
+        NarObjectCache first = new NarObjectCache( new File( baseDir, "local1" ), 1024 * 1024, new SystemStreamLog() );
+        first.setSharedDirectory( sharedDir );
+        first.store( key, object );
+        Assert.assertTrue( new File( sharedDir, "01/23456789abcdef0123456789abcdef01234567" ).isFile() );
+
+        File localDir = new File( baseDir, "local2" );
+        NarObjectCache second = new NarObjectCache( localDir, 1024 * 1024, new SystemStreamLog() );
+        second.setSharedDirectory( sharedDir );
+        File restored = new File( baseDir, "restored/a.o" );
+        Assert.assertTrue( second.restore( key, restored ) );
+        Assert.assertEquals( "object", FileUtils.fileRead( restored ) );
+        Assert.assertEquals( 1, second.getSharedHits() );
+        Assert.assertTrue( new File( localDir, "01/23456789abcdef0123456789abcdef01234567" ).isFile() );
+
+        // now served from the local tier
+        Assert.assertTrue( second.restore( key, restored ) );
+        Assert.assertEquals( 2, second.getHits() );
+        Assert.assertEquals( 1, second.getSharedHits() );
+    }
+
+    public final void testCorruptEntryIsRemoved()
+        throws Exception
+    {
+        NarObjectCache cache = createCache( 1024 * 1024 );
+        String key = "0123456789abcdef0123456789abcdef01234567";
+        cache.store( key, object );
+        File entry = new File( cacheDir, "01/23456789abcdef0123456789abcdef01234567" );
+        String content = FileUtils.fileRead( entry );
+        FileUtils.fileWrite( entry.getPath(), content.substring( 0, content.length() - 1 ) + "X" );
+
+        File restored = new File( baseDir, "restored/a.o" );
+        Assert.assertFalse( cache.restore( key, restored ) );
+        Assert.assertFalse( restored.exists() );
+        Assert.assertFalse( entry.exists() );
+        Assert.assertEquals( 1, cache.getCorrupt() );
+        Assert.assertEquals( 1, cache.getMisses() );
+    }
+
+    public final void testConcurrentBuildsShareDirectory()
+        throws Exception
+    {
+        final File sharedDir = new File( baseDir, "shared" );
+        final int objects = 50;
+        final List failures = new ArrayList();
+        Thread[] builds = new Thread[2];
+        for ( int b = 0; b < builds.length; b++ )
+        {
+            final int build = b;
+            builds[b] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        NarObjectCache cache =
+                            new NarObjectCache( new File( baseDir, "local" + build ), 1024 * 1024,
+                                                new SystemStreamLog() );
+                        cache.setSharedDirectory( sharedDir );
+                        File objDir = new File( baseDir, "obj" + build );
+                        for ( int i = 0; i < objects; i++ )
+                        {
+                            String key = Integer.toHexString( 0x100 + i ) + "0000";
+                            File target = new File( objDir, i + ".o" );
+                            if ( cache.restore( key, target ) )
+                            {
+                                if ( !FileUtils.fileRead( target ).equals( "object " + i ) )
+                                {
+                                    throw new IllegalStateException( "wrong content for " + i );
+                                }
+                            }
+                            else
+                            {
+                                target.getParentFile().mkdirs();
+                                FileUtils.fileWrite( target.getPath(), "object " + i );
+                                cache.store( key, target );
+                            }
+                        }
+                        if ( cache.getCorrupt() != 0 )
+                        {
+                            throw new IllegalStateException( "corrupt entries seen" );
+                        }
+                    }
+                    catch ( Throwable t )
+                    {
+                        synchronized ( failures )
+                        {
+                            failures.add( t );
+                        }
+                    }
+                }
+            };
+        }
+        for ( int b = 0; b < builds.length; b++ )
+        {
+            builds[b].start();
+        }
+        for ( int b = 0; b < builds.length; b++ )
+        {
+            builds[b].join();
+        }
+        Assert.assertEquals( failures.toString(), 0, failures.size() );
+
+        NarObjectCache third = new NarObjectCache( new File( baseDir, "local3" ), 1024 * 1024, new SystemStreamLog() );
+        third.setSharedDirectory( sharedDir );
+        for ( int i = 0; i < objects; i++ )
+        {
+            File target = new File( baseDir, "obj3/" + i + ".o" );
+            Assert.assertTrue( third.restore( Integer.toHexString( 0x100 + i ) + "0000", target ) );
+            Assert.assertEquals( "object " + i, FileUtils.fileRead( target ) );
+        }
+    }
+
+    public final void testTrim()
+        throws Exception
+    {
+        NarObjectCache cache = createCache( 1024 * 1024 );
+        cache.store( "aa00", object );
+        cache.store( "bb00", object );
+        File temporary = new File( cacheDir, "aa/object123.tmp" );
+        FileUtils.fileWrite( temporary.getPath(), "partial" );
+        temporary.setLastModified( System.currentTimeMillis() - 48L * 60 * 60 * 1000 );
+        new File( cacheDir, "aa/00" ).setLastModified( System.currentTimeMillis() - 10000 );
+
+        Assert.assertEquals( 1, NarObjectCache.trim( cacheDir, 41 + 6, new SystemStreamLog() ) );
+        Assert.assertFalse( new File( cacheDir, "aa/00" ).exists() );
+        Assert.assertTrue( new File( cacheDir, "bb/00" ).exists() );
+        Assert.assertFalse( temporary.exists() );
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.maven.plugin.nar.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.plugin.nar.NarOutputCache;
+import org.codehaus.plexus.util.FileUtils;
+
+public class TestNarOutputCache
+    extends TestCase
+{
+    private File baseDir;
+
+    private File cacheDir;
+
+    protected void setUp()
+        throws Exception
+    {
+        baseDir = File.createTempFile( "nar-outputs", "" );
+        baseDir.delete();
+        baseDir.mkdirs();
+        cacheDir = new File( baseDir, "cache" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( baseDir );
+    }
+
+    private List createOutputs( File module, String content )
+        throws Exception
+    {
+        File lib = new File( module, "target/nar/lib/amd64-Linux-gpp/shared" );
+        lib.mkdirs();
+        FileUtils.fileWrite( new File( lib, "liba.so" ).getPath(), content );
+        File include = new File( module, "target/nar/include" );
+        include.mkdirs();
+        FileUtils.fileWrite( new File( include, "a.h" ).getPath(), "int a();" );
+
+        List outputs = new ArrayList();
+        outputs.add( lib );
+        outputs.add( include );
+        return outputs;
+    }
+
+    public final void testMissingEntryIsNotRestored()
+        throws Exception
+    {
+        NarOutputCache cache = new NarOutputCache( cacheDir, 1024 * 1024, new SystemStreamLog() );
+        Assert.assertFalse( cache.restore( "compile-1234", new File( baseDir, "module" ) ) );
+    }
+
+    public final void testOutputsAreRestoredInOtherWorkspace()
+        throws Exception
+    {
+        NarOutputCache cache = new NarOutputCache( cacheDir, 1024 * 1024, new SystemStreamLog() );
+        File module1 = new File( baseDir, "workspace1/a" );
+        cache.store( "compile-1234", module1, createOutputs( module1, "lib" ) );
+
+        File module2 = new File( baseDir, "workspace2/a" );
+        Assert.assertTrue( cache.restore( "compile-1234", module2 ) );
+        Assert.assertEquals( "lib",
+                             FileUtils.fileRead( new File( module2, "target/nar/lib/amd64-Linux-gpp/shared/liba.so" ) ) );
+        Assert.assertEquals( "int a();", FileUtils.fileRead( new File( module2, "target/nar/include/a.h" ) ) );
+    }
+
+    public final void testStoredEntryDoesNotShareFilesWithWorkspace()
+        throws Exception
+    {
+        NarOutputCache cache = new NarOutputCache( cacheDir, 1024 * 1024, new SystemStreamLog() );
+        File module1 = new File( baseDir, "workspace1/a" );
+        cache.store( "compile-1234", module1, createOutputs( module1, "lib" ) );
+
+        // a later build of the first workspace writes its library in place
+        FileUtils.fileWrite( new File( module1, "target/nar/lib/amd64-Linux-gpp/shared/liba.so" ).getPath(), "new" );
+
+        File module2 = new File( baseDir, "workspace2/a" );
+        Assert.assertTrue( cache.restore( "compile-1234", module2 ) );
+        Assert.assertEquals( "lib",
+                             FileUtils.fileRead( new File( module2, "target/nar/lib/amd64-Linux-gpp/shared/liba.so" ) ) );
+    }
+
+    public final void testRestoredOutputsDoNotShareFilesWithEntry()
+        throws Exception
+    {
+        NarOutputCache cache = new NarOutputCache( cacheDir, 1024 * 1024, new SystemStreamLog() );
+        File module1 = new File( baseDir, "workspace1/a" );
+        cache.store( "compile-1234", module1, createOutputs( module1, "lib" ) );
+
+        // the next build of the second workspace changes a public header, which is copied in place
+        File module2 = new File( baseDir, "workspace2/a" );
+        Assert.assertTrue( cache.restore( "compile-1234", module2 ) );
+        File header = new File( baseDir, "a.h" );
+        FileUtils.fileWrite( header.getPath(), "int a( int );" );
+        FileUtils.copyFile( header, new File( module2, "target/nar/include/a.h" ) );
+
+        File module3 = new File( baseDir, "workspace3/a" );
+        Assert.assertTrue( cache.restore( "compile-1234", module3 ) );
+        Assert.assertEquals( "int a();", FileUtils.fileRead( new File( module3, "target/nar/include/a.h" ) ) );
+    }
+
+    public final void testRestoreReplacesExistingOutputs()
+        throws Exception
+    {
+        NarOutputCache cache = new NarOutputCache( cacheDir, 1024 * 1024, new SystemStreamLog() );
+        File module1 = new File( baseDir, "workspace1/a" );
+        cache.store( "compile-1234", module1, createOutputs( module1, "lib" ) );
+
+        File module2 = new File( baseDir, "workspace2/a" );
+        createOutputs( module2, "stale" );
+        Assert.assertTrue( cache.restore( "compile-1234", module2 ) );
+        Assert.assertEquals( "lib",
+                             FileUtils.fileRead( new File( module2, "target/nar/lib/amd64-Linux-gpp/shared/liba.so" ) ) );
+    }
+
+    public final void testLeastRecentlyUsedIsEvicted()
+        throws Exception
+    {
+        NarOutputCache cache = new NarOutputCache( cacheDir, 30, new SystemStreamLog() );
+        File module = new File( baseDir, "workspace1/a" );
+        cache.store( "compile-1", module, createOutputs( module, "0123456789" ) );
+        cache.store( "compile-2", module, createOutputs( module, "0123456789" ) );
+
+        // the first entry was evicted to make room for the second
+        File other = new File( baseDir, "workspace2/a" );
+        Assert.assertFalse( cache.restore( "compile-1", other ) );
+        Assert.assertTrue( cache.restore( "compile-2", other ) );
+    }
+}
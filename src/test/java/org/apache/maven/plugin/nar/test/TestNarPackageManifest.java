@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.maven.plugin.nar.test;
+
+import java.io.File;
+import java.util.Properties;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.nar.NarPackageManifest;
+import org.apache.maven.plugin.nar.NarUtil;
+import org.codehaus.plexus.util.FileUtils;
+
+public class TestNarPackageManifest
+    extends TestCase
+{
+    private File baseDir;
+
+    private File inputDir;
+
+    private File narFile;
+
+    private File manifestFile;
+
+    private Properties parameters;
+
+    protected void setUp()
+        throws Exception
+    {
+        baseDir = File.createTempFile( "nar-manifest", "" );
+        baseDir.delete();
+        inputDir = new File( baseDir, "a-1.0-amd64-Linux-gpp-shared" );
+        new File( inputDir, "lib/amd64-Linux-gpp/shared" ).mkdirs();
+        FileUtils.fileWrite( new File( inputDir, "lib/amd64-Linux-gpp/shared/liba.so" ).getPath(), "library" );
+        narFile = new File( baseDir, "a-1.0-amd64-Linux-gpp-shared.nar" );
+        FileUtils.fileWrite( narFile.getPath(), "nar" );
+        manifestFile = new File( baseDir, "a-1.0-amd64-Linux-gpp-shared.nar.manifest" );
+        parameters = new Properties();
+        parameters.setProperty( "include", "*/**" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( baseDir );
+    }
+
+    private NarPackageManifest createManifest( Properties parameters )
+    {
+        return new NarPackageManifest( manifestFile, inputDir, new String[] { "*/**" }, parameters );
+    }
+
+    public final void testMissingManifestIsNotCurrent()
+        throws Exception
+    {
+        Assert.assertFalse( createManifest( parameters ).isCurrent( narFile ) );
+    }
+
+    public final void testWrittenManifestIsCurrent()
+        throws Exception
+    {
+        createManifest( parameters ).write( narFile );
+        Assert.assertTrue( createManifest( parameters ).isCurrent( narFile ) );
+    }
+
+    public final void testTouchedInputIsCurrent()
+        throws Exception
+    {
+        createManifest( parameters ).write( narFile );
+        File library = new File( inputDir, "lib/amd64-Linux-gpp/shared/liba.so" );
+        library.setLastModified( library.lastModified() + 60000 );
+        Assert.assertTrue( createManifest( parameters ).isCurrent( narFile ) );
+    }
+
+    public final void testChangedInputIsNotCurrent()
+        throws Exception
+    {
+        createManifest( parameters ).write( narFile );
+        File library = new File( inputDir, "lib/amd64-Linux-gpp/shared/liba.so" );
+        long lastModified = library.lastModified();
+        FileUtils.fileWrite( library.getPath(), "LIBRARY" );
+        library.setLastModified( lastModified + 60000 );
+        Assert.assertFalse( createManifest( parameters ).isCurrent( narFile ) );
+    }
+
+    public final void testAddedInputIsNotCurrent()
+        throws Exception
+    {
+        createManifest( parameters ).write( narFile );
+        new File( inputDir, "lib/amd64-Linux-gpp/shared/empty" ).mkdirs();
+        Assert.assertFalse( createManifest( parameters ).isCurrent( narFile ) );
+    }
+
+    public final void testChangedNarIsNotCurrent()
+        throws Exception
+    {
+        createManifest( parameters ).write( narFile );
+        FileUtils.fileWrite( narFile.getPath(), "other nar" );
+        Assert.assertFalse( createManifest( parameters ).isCurrent( narFile ) );
+    }
+
+    public final void testChangedParametersAreNotCurrent()
+        throws Exception
+    {
+        createManifest( parameters ).write( narFile );
+        Properties other = new Properties();
+        other.setProperty( "include", "*/**" );
+        other.setProperty( "compression.0", "static:[**/*.a]:0" );
+        Assert.assertFalse( createManifest( other ).isCurrent( narFile ) );
+    }
+
+    public final void testChangedModeIsNotCurrent()
+        throws Exception
+    {
+        File library = new File( inputDir, "lib/amd64-Linux-gpp/shared/liba.so" );
+        if ( !NarUtil.setUnixMode( library, 0644 ) )
+        {
+            // no unix modes on this platform
+            return;
+        }
+        createManifest( parameters ).write( narFile );
+        NarUtil.setUnixMode( library, 0755 );
+        Assert.assertFalse( createManifest( parameters ).isCurrent( narFile ) );
+    }
+
+    public final void testChangedPluginVersionIsNotCurrent()
+        throws Exception
+    {
+        parameters.setProperty( "plugin.version", "2.32" );
+        createManifest( parameters ).write( narFile );
+        Properties other = new Properties();
+        other.putAll( parameters );
+        other.setProperty( "plugin.version", "2.33" );
+        Assert.assertFalse( createManifest( other ).isCurrent( narFile ) );
+    }
+}
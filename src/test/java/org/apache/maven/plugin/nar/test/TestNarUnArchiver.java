@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.maven.plugin.nar.test;
+
+import java.io.File;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.nar.NarArchiver;
+import org.apache.maven.plugin.nar.NarUnArchiver;
+import org.apache.maven.plugin.nar.NarUtil;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Round trip of unix modes and shared library links through NarArchiver and NarUnArchiver.
+ */
+public class TestNarUnArchiver
+    extends TestCase
+{
+    private File baseDir;
+
+    protected void setUp()
+        throws Exception
+    {
+        baseDir = File.createTempFile( "nar-unarchiver", "" );
+        baseDir.delete();
+        baseDir.mkdirs();
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( baseDir );
+    }
+
+    public final void testUnixMetadataIsApplied()
+        throws Exception
+    {
+        if ( File.separatorChar != '/' )
+        {
+            // unix only
+            return;
+        }
+
+        File source = new File( baseDir, "source" );
+        File executable = new File( source, "bin/amd64-Linux-gpp/tool" );
+        executable.getParentFile().mkdirs();
+        FileUtils.fileWrite( executable.getPath(), "tool" );
+        Assert.assertTrue( NarUtil.setUnixMode( executable, 0755 ) );
+        File library = new File( source, "lib/amd64-Linux-gpp/shared/libfoo.so.1" );
+        library.getParentFile().mkdirs();
+        FileUtils.fileWrite( library.getPath(), "library" );
+        Assert.assertTrue( NarUtil.setUnixMode( library, 0644 ) );
+
+        File nar = new File( baseDir, "test.nar" );
+        NarArchiver archiver = new NarArchiver();
+        archiver.enableLogging( new ConsoleLogger( Logger.LEVEL_WARN, "archiver" ) );
+        archiver.addDirectory( source, new String[] { "**" }, null );
+        archiver.setDestFile( nar );
+        archiver.createArchive();
+
+        File target = new File( baseDir, "target" );
+        NarUnArchiver unArchiver = new NarUnArchiver();
+        unArchiver.enableLogging( new ConsoleLogger( Logger.LEVEL_WARN, "unarchiver" ) );
+        unArchiver.setSourceFile( nar );
+        unArchiver.setDestDirectory( target );
+        unArchiver.setUnixMetadata( true );
+        unArchiver.extract();
+
+        Assert.assertTrue( unArchiver.isUnixMetadataComplete() );
+        Assert.assertTrue( new File( target, "bin/amd64-Linux-gpp/tool" ).canExecute() );
+        Assert.assertFalse( new File( target, "lib/amd64-Linux-gpp/shared/libfoo.so.1" ).canExecute() );
+        File link = new File( target, "lib/amd64-Linux-gpp/shared/libfoo.so" );
+        Assert.assertTrue( NarUtil.isSymbolicLink( link ) );
+        Assert.assertEquals( "library", FileUtils.fileRead( link ) );
+    }
+}
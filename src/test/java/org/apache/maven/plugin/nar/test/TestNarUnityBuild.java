@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+
+package org.apache.maven.plugin.nar.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.nar.NarUnityBuild;
+import org.codehaus.plexus.util.FileUtils;
+
+public class TestNarUnityBuild
+    extends TestCase
+{
+    private File baseDir;
+
+    private File unityDir;
+
+    protected void setUp()
+        throws Exception
+    {
+        baseDir = File.createTempFile( "nar-unity", "" );
+        baseDir.delete();
+        baseDir.mkdirs();
+        unityDir = new File( baseDir, "obj/unity" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( baseDir );
+    }
+
+    private List createSources( String[] names )
+    {
+        List sources = new ArrayList();
+        for ( int i = 0; i < names.length; i++ )
+        {
+            sources.add( new File( baseDir, "src/main/c++/" + names[i] ) );
+        }
+        return sources;
+    }
+
+    private String read( File file )
+        throws Exception
+    {
+        return FileUtils.fileRead( file );
+    }
+
+    public final void testBatchesAreBounded()
+        throws Exception
+    {
+        NarUnityBuild build = new NarUnityBuild( unityDir, "unity", ".cpp", 2 );
+        List unity = build.createSources( createSources( new String[] { "a.cpp", "b.cpp", "c.cpp" } ) );
+
+        Assert.assertEquals( 2, unity.size() );
+        Assert.assertEquals( new File( unityDir, "unity_0.cpp" ), unity.get( 0 ) );
+        Assert.assertEquals( new File( unityDir, "unity_1.cpp" ), unity.get( 1 ) );
+        String first = read( (File) unity.get( 0 ) );
+        Assert.assertTrue( first.indexOf( "a.cpp\"" ) >= 0 );
+        Assert.assertTrue( first.indexOf( "b.cpp\"" ) >= 0 );
+        Assert.assertTrue( read( (File) unity.get( 1 ) ).indexOf( "c.cpp\"" ) >= 0 );
+    }
+
+    public final void testAddedSourceOnlyChangesOneBatch()
+        throws Exception
+    {
+        NarUnityBuild build = new NarUnityBuild( unityDir, "unity", ".cpp", 2 );
+        build.createSources( createSources( new String[] { "b.cpp", "c.cpp", "d.cpp" } ) );
+        File first = new File( unityDir, "unity_0.cpp" );
+        String content = read( first );
+        first.setLastModified( 1000000000000L );
+
+        // a sorts before all others, but must not move them to other batches
+        List unity = build.createSources( createSources( new String[] { "a.cpp", "b.cpp", "c.cpp", "d.cpp" } ) );
+
+        Assert.assertEquals( 2, unity.size() );
+        Assert.assertEquals( content, read( first ) );
+        Assert.assertEquals( 1000000000000L, first.lastModified() );
+        Assert.assertTrue( read( new File( unityDir, "unity_1.cpp" ) ).indexOf( "a.cpp\"" ) >= 0 );
+    }
+
+    public final void testRemovedSourceMakesRoomInItsBatch()
+        throws Exception
+    {
+        NarUnityBuild build = new NarUnityBuild( unityDir, "unity", ".cpp", 2 );
+        build.createSources( createSources( new String[] { "a.cpp", "b.cpp", "c.cpp" } ) );
+
+        build.createSources( createSources( new String[] { "b.cpp", "c.cpp" } ) );
+        build.createSources( createSources( new String[] { "b.cpp", "c.cpp", "d.cpp" } ) );
+
+        Assert.assertTrue( read( new File( unityDir, "unity_0.cpp" ) ).indexOf( "d.cpp\"" ) >= 0 );
+        Assert.assertTrue( read( new File( unityDir, "unity_1.cpp" ) ).indexOf( "c.cpp\"" ) >= 0 );
+    }
+
+    public final void testEmptyBatchIsRemoved()
+        throws Exception
+    {
+        NarUnityBuild build = new NarUnityBuild( unityDir, "unity", ".cpp", 2 );
+        build.createSources( createSources( new String[] { "a.cpp", "b.cpp", "c.cpp" } ) );
+        Assert.assertTrue( new File( unityDir, "unity_1.cpp" ).exists() );
+
+        List unity = build.createSources( createSources( new String[] { "a.cpp", "b.cpp" } ) );
+
+        Assert.assertEquals( 1, unity.size() );
+        Assert.assertFalse( new File( unityDir, "unity_1.cpp" ).exists() );
+    }
+}
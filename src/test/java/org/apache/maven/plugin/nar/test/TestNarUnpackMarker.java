@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.maven.plugin.nar.test;
+
+import java.io.File;
+import java.util.Properties;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.nar.NarUnpackMarker;
+import org.codehaus.plexus.util.FileUtils;
+
+public class TestNarUnpackMarker
+    extends TestCase
+{
+    private File baseDir;
+
+    private File narFile;
+
+    private File markerFile;
+
+    private Properties parameters;
+
+    protected void setUp()
+        throws Exception
+    {
+        baseDir = File.createTempFile( "nar-marker", "" );
+        baseDir.delete();
+        baseDir.mkdirs();
+        narFile = new File( baseDir, "a-1.0-noarch.nar" );
+        FileUtils.fileWrite( narFile.getPath(), "content" );
+        markerFile = new File( baseDir, "a-1.0-noarch.unpacked" );
+        parameters = new Properties();
+        parameters.setProperty( "aol", "amd64-Linux-gpp" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( baseDir );
+    }
+
+    public final void testMissingMarkerIsNotCurrent()
+        throws Exception
+    {
+        Assert.assertFalse( new NarUnpackMarker( markerFile, narFile, parameters ).isCurrent() );
+    }
+
+    public final void testWrittenMarkerIsCurrent()
+        throws Exception
+    {
+        new NarUnpackMarker( markerFile, narFile, parameters ).write();
+        Assert.assertTrue( new NarUnpackMarker( markerFile, narFile, parameters ).isCurrent() );
+    }
+
+    public final void testTouchedNarIsCurrent()
+        throws Exception
+    {
+        new NarUnpackMarker( markerFile, narFile, parameters ).write();
+        narFile.setLastModified( narFile.lastModified() + 60000 );
+        Assert.assertTrue( new NarUnpackMarker( markerFile, narFile, parameters ).isCurrent() );
+    }
+
+    public final void testChangedNarIsNotCurrent()
+        throws Exception
+    {
+        new NarUnpackMarker( markerFile, narFile, parameters ).write();
+        long lastModified = narFile.lastModified();
+        FileUtils.fileWrite( narFile.getPath(), "CONTENT" );
+        narFile.setLastModified( lastModified + 60000 );
+        Assert.assertFalse( new NarUnpackMarker( markerFile, narFile, parameters ).isCurrent() );
+    }
+
+    public final void testChangedParametersAreNotCurrent()
+        throws Exception
+    {
+        new NarUnpackMarker( markerFile, narFile, parameters ).write();
+        Properties other = new Properties();
+        other.setProperty( "aol", "x86-Linux-gpp" );
+        Assert.assertFalse( new NarUnpackMarker( markerFile, narFile, other ).isCurrent() );
+    }
+
+    public final void testDeletedMarkerIsNotCurrent()
+        throws Exception
+    {
+        NarUnpackMarker marker = new NarUnpackMarker( markerFile, narFile, parameters );
+        marker.write();
+        marker.delete();
+        Assert.assertFalse( new NarUnpackMarker( markerFile, narFile, parameters ).isCurrent() );
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.maven.plugin.nar.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Properties;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.plugin.nar.NarUnpackStore;
+import org.codehaus.plexus.util.FileUtils;
+
+public class TestNarUnpackStore
+    extends TestCase
+{
+    private File baseDir;
+
+    private File storeDir;
+
+    private Properties parameters;
+
+    private int populated;
+
+    protected void setUp()
+        throws Exception
+    {
+        baseDir = File.createTempFile( "nar-store", "" );
+        baseDir.delete();
+        baseDir.mkdirs();
+        storeDir = new File( baseDir, "store" );
+        parameters = new Properties();
+        parameters.setProperty( "aol", "amd64-Linux-gpp" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( baseDir );
+    }
+
+    private File createNar( String name, String content )
+        throws IOException
+    {
+        File nar = new File( baseDir, name + ".nar" );
+        FileUtils.fileWrite( nar.getPath(), content );
+        return nar;
+    }
+
+    private NarUnpackStore.Populator createPopulator( final String content )
+    {
+        return new NarUnpackStore.Populator()
+        {
+            public void populate( File directory )
+                throws MojoExecutionException
+            {
+                populated++;
+                try
+                {
+                    directory.mkdirs();
+                    FileUtils.fileWrite( new File( directory, "lib.a" ).getPath(), content );
+                }
+                catch ( IOException e )
+                {
+                    throw new MojoExecutionException( "cannot populate", e );
+                }
+            }
+        };
+    }
+
+    public final void testEntryIsSharedBetweenModules()
+        throws Exception
+    {
+        NarUnpackStore store = new NarUnpackStore( storeDir, 1024 * 1024, null, new SystemStreamLog() );
+        File nar = createNar( "a", "a" );
+        File module1 = new File( baseDir, "module1/target/nar/a" );
+        File module2 = new File( baseDir, "module2/target/nar/a" );
+
+        store.unpack( nar, parameters, module1, createPopulator( "a" ) );
+        store.unpack( nar, parameters, module2, createPopulator( "a" ) );
+
+        Assert.assertEquals( 1, populated );
+        Assert.assertEquals( "a", FileUtils.fileRead( new File( module1, "lib.a" ) ) );
+        Assert.assertEquals( "a", FileUtils.fileRead( new File( module2, "lib.a" ) ) );
+    }
+
+    public final void testOtherParametersUseOtherEntry()
+        throws Exception
+    {
+        NarUnpackStore store = new NarUnpackStore( storeDir, 1024 * 1024, null, new SystemStreamLog() );
+        File nar = createNar( "a", "a" );
+        store.unpack( nar, parameters, new File( baseDir, "module1/a" ), createPopulator( "a" ) );
+
+        Properties other = new Properties();
+        other.setProperty( "aol", "x86-Linux-gpp" );
+        store.unpack( nar, other, new File( baseDir, "module2/a" ), createPopulator( "a" ) );
+        Assert.assertEquals( 2, populated );
+    }
+
+    /**
+     * Makes the entries in the store look as if they were last used two days ago.
+     */
+    private void age()
+    {
+        File[] files = storeDir.listFiles();
+        for ( int i = 0; i < files.length; i++ )
+        {
+            if ( files[i].getName().endsWith( ".used" ) )
+            {
+                files[i].setLastModified( System.currentTimeMillis() - 2 * 24 * 60 * 60 * 1000L );
+            }
+        }
+    }
+
+    public final void testEntryOfEarlierBuildIsEvicted()
+        throws Exception
+    {
+        File a = createNar( "a", "a" );
+        File b = createNar( "b", "b" );
+        NarUnpackStore store = new NarUnpackStore( storeDir, 10, new Date( 1 ), new SystemStreamLog() );
+        store.unpack( a, parameters, new File( baseDir, "build1/a" ), createPopulator( "123456" ) );
+
+        // used just now, but by a build which is over
+        store = new NarUnpackStore( storeDir, 10, new Date( 2 ), new SystemStreamLog() );
+        store.unpack( b, parameters, new File( baseDir, "build2/b" ), createPopulator( "123456" ) );
+        Assert.assertEquals( 2, populated );
+
+        // a was evicted to make room for b, together with its lock files
+        String[] files = storeDir.list();
+        String key = files[0].substring( 0, files[0].indexOf( '-' ) );
+        for ( int i = 0; i < files.length; i++ )
+        {
+            Assert.assertTrue( files[i], files[i].startsWith( key ) );
+        }
+        store.unpack( a, parameters, new File( baseDir, "build2/a" ), createPopulator( "123456" ) );
+        Assert.assertEquals( 3, populated );
+    }
+
+    public final void testEntryInUseIsKept()
+        throws Exception
+    {
+        NarUnpackStore store = new NarUnpackStore( storeDir, 10, new Date( 3 ), new SystemStreamLog() );
+        File a = createNar( "a", "a" );
+        File b = createNar( "b", "b" );
+        File module1 = new File( baseDir, "module1/a" );
+        store.unpack( a, parameters, module1, createPopulator( "123456" ) );
+        // long ago, but still used by this build
+        age();
+        store.unpack( b, parameters, new File( baseDir, "module1/b" ), createPopulator( "123456" ) );
+
+        // a is still used by module1, even though the store exceeds its maximum size
+        Assert.assertEquals( "123456", FileUtils.fileRead( new File( module1, "lib.a" ) ) );
+        store.unpack( a, parameters, new File( baseDir, "module2/a" ), createPopulator( "123456" ) );
+        Assert.assertEquals( 2, populated );
+    }
+}
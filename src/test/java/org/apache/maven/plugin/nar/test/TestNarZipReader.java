@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.maven.plugin.nar.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.zip.ZipException;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.nar.NarUnArchiver;
+import org.apache.maven.plugin.nar.NarZipReader;
+import org.codehaus.plexus.archiver.ArchiverException;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+
+public class TestNarZipReader
+    extends TestCase
+{
+    private File baseDir;
+
+    private File nar;
+
+    private byte[] large;
+
+    private long time;
+
+    protected void setUp()
+        throws Exception
+    {
+        baseDir = File.createTempFile( "nar-zip", "" );
+        baseDir.delete();
+        baseDir.mkdirs();
+
+        // compressible, but larger than the inflate buffers
+        large = new byte[1024 * 1024];
+        Random random = new Random( 42 );
+        for ( int i = 0; i < large.length; i++ )
+        {
+            large[i] = (byte) ( 'a' + random.nextInt( 4 ) );
+        }
+        time = 1262304000000L; // 2010-01-01, even seconds as in zip files
+
+        nar = new File( baseDir, "test.nar" );
+        ZipOutputStream out = new ZipOutputStream( new FileOutputStream( nar ) );
+        ZipEntry dir = new ZipEntry( "include/" );
+        out.putNextEntry( dir );
+
+        ZipEntry deflated = new ZipEntry( "lib/libfoo.a" );
+        deflated.setTime( time );
+        out.putNextEntry( deflated );
+        out.write( large );
+
+        byte[] small = "#define FOO 1\n".getBytes( "ISO-8859-1" );
+        ZipEntry stored = new ZipEntry( "include/foo.h" );
+        stored.setMethod( ZipEntry.STORED );
+        stored.setSize( small.length );
+        CRC32 crc = new CRC32();
+        crc.update( small );
+        stored.setCrc( crc.getValue() );
+        out.putNextEntry( stored );
+        out.write( small );
+
+        ZipEntry empty = new ZipEntry( "lib/empty" );
+        out.putNextEntry( empty );
+        out.close();
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( baseDir );
+    }
+
+    public final void testCentralDirectory()
+        throws Exception
+    {
+        NarZipReader reader = NarZipReader.open( nar );
+        try
+        {
+            Assert.assertEquals( "[include/, lib/libfoo.a, include/foo.h, lib/empty]", reader.getEntries().toString() );
+            NarZipReader.Entry entry = (NarZipReader.Entry) reader.getEntries().get( 1 );
+            Assert.assertEquals( large.length, entry.getSize() );
+            Assert.assertEquals( time, entry.getTime() );
+            Assert.assertEquals( "#define FOO 1\n",
+                                 new String( reader.read( (NarZipReader.Entry) reader.getEntries().get( 2 ) ),
+                                             "ISO-8859-1" ) );
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    public final void testExtract()
+        throws Exception
+    {
+        File target = new File( baseDir, "target" );
+        NarUnArchiver unArchiver = new NarUnArchiver();
+        unArchiver.enableLogging( new ConsoleLogger( Logger.LEVEL_WARN, "unarchiver" ) );
+        unArchiver.setSourceFile( nar );
+        unArchiver.setDestDirectory( target );
+        unArchiver.extract();
+
+        Assert.assertTrue( new File( target, "include" ).isDirectory() );
+        Assert.assertEquals( "#define FOO 1\n", FileUtils.fileRead( new File( target, "include/foo.h" ) ) );
+        Assert.assertEquals( 0, new File( target, "lib/empty" ).length() );
+        File library = new File( target, "lib/libfoo.a" );
+        Assert.assertEquals( time, library.lastModified() );
+        Assert.assertEquals( new String( large, "ISO-8859-1" ), FileUtils.fileRead( library, "ISO-8859-1" ) );
+    }
+
+    public final void testCorruptEntry()
+        throws Exception
+    {
+        // change the content of the stored entry, its CRC-32 in the central directory no longer matches
+        byte[] content = FileUtils.fileRead( nar, "ISO-8859-1" ).getBytes( "ISO-8859-1" );
+        int offset = new String( content, "ISO-8859-1" ).indexOf( "#define FOO 1" );
+        RandomAccessFile file = new RandomAccessFile( nar, "rw" );
+        file.seek( offset + "#define FOO ".length() );
+        file.write( '2' );
+        file.close();
+
+        NarZipReader reader = NarZipReader.open( nar );
+        try
+        {
+            reader.read( (NarZipReader.Entry) reader.getEntries().get( 2 ) );
+            Assert.fail( "corrupt entry read" );
+        }
+        catch ( ZipException e )
+        {
+            Assert.assertTrue( e.getMessage(), e.getMessage().indexOf( "CRC-32" ) >= 0 );
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        NarUnArchiver unArchiver = new NarUnArchiver();
+        unArchiver.enableLogging( new ConsoleLogger( Logger.LEVEL_WARN, "unarchiver" ) );
+        unArchiver.setSourceFile( nar );
+        unArchiver.setDestDirectory( new File( baseDir, "target" ) );
+        try
+        {
+            unArchiver.extract();
+            Assert.fail( "corrupt archive extracted" );
+        }
+        catch ( ArchiverException e )
+        {
+            // expected
+        }
+    }
+
+    public final void testFileNotLockedAfterClose()
+        throws Exception
+    {
+        NarZipReader reader = NarZipReader.open( nar );
+        reader.read( (NarZipReader.Entry) reader.getEntries().get( 1 ) );
+        reader.close();
+        Assert.assertTrue( nar.delete() );
+    }
+
+    public final void testNamesWithoutUtf8Flag()
+        throws Exception
+    {
+        String name = "lib/n\u00e4me.txt";
+        File zip = new File( baseDir, "names.nar" );
+        ZipOutputStream out = new ZipOutputStream( new FileOutputStream( zip ) );
+        out.putNextEntry( new ZipEntry( name ) );
+        out.write( 'x' );
+        out.close();
+
+        // clear the UTF-8 flag, as written by tools which do not set it
+        RandomAccessFile file = new RandomAccessFile( zip, "rw" );
+        byte[] content = new byte[(int) file.length()];
+        file.readFully( content );
+        for ( int i = 0; i < content.length - 10; i++ )
+        {
+            if ( ( content[i] == 'P' ) && ( content[i + 1] == 'K' ) && ( content[i + 2] == 3 )
+                && ( content[i + 3] == 4 ) )
+            {
+                content[i + 7] &= ~0x08;
+            }
+            else if ( ( content[i] == 'P' ) && ( content[i + 1] == 'K' ) && ( content[i + 2] == 1 )
+                && ( content[i + 3] == 2 ) )
+            {
+                content[i + 9] &= ~0x08;
+            }
+        }
+        file.seek( 0 );
+        file.write( content );
+        file.close();
+
+        // UTF-8 by default, as the plexus unarchiver, whatever the platform encoding
+        NarZipReader reader = NarZipReader.open( zip );
+        Assert.assertEquals( name, reader.getEntries().get( 0 ).toString() );
+        reader.close();
+
+        reader = NarZipReader.open( zip, "ISO-8859-1" );
+        Assert.assertEquals( new String( name.getBytes( "UTF-8" ), "ISO-8859-1" ),
+                             reader.getEntries().get( 0 ).toString() );
+        reader.close();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+
+package org.apache.maven.plugin.nar.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.nar.Linker;
+import org.apache.maven.plugin.nar.NarProperties;
+import org.apache.maven.plugin.nar.NarTaskExecutor;
+import org.apache.maven.plugin.nar.NarUtil;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Resolves the AOL and aol.properties of several modules concurrently, as a parallel build does.
+ */
+public class TestParallelModules
+    extends TestCase
+{
+    private static final int MODULES = 6;
+
+    private static final int ITERATIONS = 200;
+
+    private File directory;
+
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile( "nar-parallel", "" );
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    private MavenProject createModule( int module )
+        throws IOException
+    {
+        File basedir = new File( directory, "module" + module );
+        basedir.mkdirs();
+        // the first module uses the defaults only
+        if ( module > 0 )
+        {
+            FileWriter writer = new FileWriter( new File( basedir, "aol.properties" ) );
+            writer.write( "amd64.Linux.linker=linker" + module + "\n" );
+            writer.write( "module.name=module" + module + "\n" );
+            writer.close();
+        }
+
+        Model model = new Model();
+        model.setGroupId( "g" );
+        model.setArtifactId( "module" + module );
+        model.setVersion( "1.0" );
+        MavenProject project = new MavenProject( model );
+        project.setFile( new File( basedir, "pom.xml" ) );
+        return project;
+    }
+
+    public final void testModulesSeeTheirOwnProperties()
+        throws Exception
+    {
+        List tasks = new ArrayList();
+        for ( int i = 0; i < MODULES; i++ )
+        {
+            final int module = i;
+            final MavenProject project = createModule( module );
+            tasks.add( new NarTaskExecutor.Task()
+            {
+                public void execute()
+                    throws MojoExecutionException, MojoFailureException
+                {
+                    String aol = module > 0 ? "amd64-Linux-linker" + module : "amd64-Linux-gpp";
+                    String name = module > 0 ? "module" + module : null;
+                    for ( int j = 0; j < ITERATIONS; j++ )
+                    {
+                        Assert.assertEquals( aol, NarUtil.getAOL( project, "amd64", "Linux", new Linker(), null )
+                            .toString() );
+                        NarProperties properties = NarProperties.getInstance( project );
+                        Assert.assertEquals( name, properties.getProperty( "module.name" ) );
+                        Assert.assertEquals( "g++", properties.getProperty( "amd64.Linux.gpp.cpp.compiler" ) );
+                    }
+                }
+            } );
+        }
+        new NarTaskExecutor( "parallel modules", MODULES ).execute( tasks );
+    }
+
+    public final void testChangedPropertiesAreReadAgain()
+        throws Exception
+    {
+        MavenProject project = createModule( 1 );
+        Assert.assertEquals( "module1", NarProperties.getInstance( project ).getProperty( "module.name" ) );
+
+        File file = new File( project.getBasedir(), "aol.properties" );
+        FileWriter writer = new FileWriter( file );
+        writer.write( "module.name=changed\n" );
+        writer.close();
+        file.setLastModified( file.lastModified() + 2000 );
+
+        Assert.assertEquals( "changed", NarProperties.getInstance( project ).getProperty( "module.name" ) );
+    }
+}
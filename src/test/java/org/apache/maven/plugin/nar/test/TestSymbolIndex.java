@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.maven.plugin.nar.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.nar.NarUtil;
+
+public class TestSymbolIndex
+    extends TestCase
+{
+    private File file;
+
+    protected void setUp()
+        throws Exception
+    {
+        file = File.createTempFile( "libtest", ".a" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        file.delete();
+    }
+
+    private static String pad( String s, int length )
+    {
+        StringBuffer sb = new StringBuffer( s );
+        while ( sb.length() < length )
+        {
+            sb.append( ' ' );
+        }
+        return sb.toString();
+    }
+
+    private void writeArchive( String name, long date, String data )
+        throws IOException
+    {
+        String header =
+            pad( name, 16 ) + pad( String.valueOf( date ), 12 ) + pad( "0", 6 ) + pad( "0", 6 ) + pad( "644", 8 )
+                + pad( String.valueOf( data.length() ), 10 ) + "`\n";
+        FileOutputStream out = new FileOutputStream( file );
+        out.write( ( "!<arch>\n" + header + data ).getBytes( "ISO-8859-1" ) );
+        out.close();
+    }
+
+    public final void testGnuIndex()
+        throws Exception
+    {
+        writeArchive( "/", 0, "0000" );
+        Assert.assertTrue( NarUtil.hasSymbolIndex( file ) );
+    }
+
+    public final void testNoIndex()
+        throws Exception
+    {
+        writeArchive( "foo.o/", 0, "0000" );
+        Assert.assertFalse( NarUtil.hasSymbolIndex( file ) );
+    }
+
+    public final void testBsdIndex()
+        throws Exception
+    {
+        writeArchive( "__.SYMDEF", System.currentTimeMillis() / 1000 + 10, "0000" );
+        Assert.assertTrue( NarUtil.hasSymbolIndex( file ) );
+
+        writeArchive( "#1/20", System.currentTimeMillis() / 1000 + 10, "__.SYMDEF SORTED\0\0\0\0" );
+        Assert.assertTrue( NarUtil.hasSymbolIndex( file ) );
+    }
+
+    public final void testOutdatedBsdIndex()
+        throws Exception
+    {
+        writeArchive( "__.SYMDEF", 1000, "0000" );
+        Assert.assertFalse( NarUtil.hasSymbolIndex( file ) );
+    }
+
+    public final void testNotAnArchive()
+        throws Exception
+    {
+        FileOutputStream out = new FileOutputStream( file );
+        out.write( "not an archive".getBytes( "ISO-8859-1" ) );
+        out.close();
+        Assert.assertFalse( NarUtil.hasSymbolIndex( file ) );
+    }
+}